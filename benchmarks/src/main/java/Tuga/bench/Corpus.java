@@ -0,0 +1,92 @@
+package Tuga.bench;
+
+/**
+ * Gerador de programas Tuga sinteticos para os benchmarks.
+ * Cada programa contem size copias de uma funcao de um dado tipo, e a funcao
+ * principal chama todas as copias, de modo que tanto o tamanho do codigo fonte
+ * como o tempo de execucao crescem com size.
+ */
+public final class Corpus {
+    /** Fibonacci recursivo: muitas chamadas e retornos */
+    public static final String FIB = "fib";
+    /** Ciclos enquanto encadeados com aritmetica inteira e se-senao */
+    public static final String LOOPS = "loops";
+    /** Concatenacao de strings com conversoes de inteiros */
+    public static final String STRINGS = "strings";
+
+    private Corpus(){
+    }
+
+    /**
+     * Gera um programa sintetico.
+     *
+     * @param kind O tipo de programa (FIB, LOOPS ou STRINGS)
+     * @param size O numero de funcoes geradas
+     * @return O codigo fonte do programa
+     */
+    public static String program(String kind, int size){
+        StringBuilder source = new StringBuilder();
+        for (int k = 0; k < size; k++){
+            switch (kind){
+                case FIB -> fib(source, k);
+                case LOOPS -> loops(source, k);
+                case STRINGS -> strings(source, k);
+                default -> throw new IllegalArgumentException("Tipo de programa desconhecido: " + kind);
+            }
+        }
+
+        source.append("funcao principal()\n");
+        source.append("inicio\n");
+        for (int k = 0; k < size; k++){
+            switch (kind){
+                case FIB -> source.append("  escreve fib").append(k).append("(15);\n");
+                case LOOPS -> source.append("  escreve ciclos").append(k).append("(30);\n");
+                default -> source.append("  escreve texto").append(k).append("(50);\n");
+            }
+        }
+        source.append("fim\n");
+        return source.toString();
+    }
+
+    private static void fib(StringBuilder source, int k){
+        source.append("funcao fib").append(k).append("(n: inteiro): inteiro\n");
+        source.append("inicio\n");
+        source.append("  se (n < 2) retorna n;\n");
+        source.append("  senao retorna fib").append(k).append("(n - 1) + fib").append(k).append("(n - 2);\n");
+        source.append("fim\n");
+    }
+
+    private static void loops(StringBuilder source, int k){
+        source.append("funcao ciclos").append(k).append("(n: inteiro): inteiro\n");
+        source.append("inicio\n");
+        source.append("  i, j, soma: inteiro;\n");
+        source.append("  soma <- ").append(k).append(";\n");
+        source.append("  i <- 0;\n");
+        source.append("  enquanto (i < n) inicio\n");
+        source.append("    j <- 0;\n");
+        source.append("    enquanto (j < n) inicio\n");
+        source.append("      se (j % 2 igual 0) soma <- soma + i * j;\n");
+        source.append("      senao soma <- soma - (i + 2 * j) / 3;\n");
+        source.append("      j <- j + 1;\n");
+        source.append("    fim\n");
+        source.append("    i <- i + 1;\n");
+        source.append("  fim\n");
+        source.append("  retorna soma;\n");
+        source.append("fim\n");
+    }
+
+    private static void strings(StringBuilder source, int k){
+        source.append("funcao texto").append(k).append("(n: inteiro): string\n");
+        source.append("inicio\n");
+        source.append("  s: string;\n");
+        source.append("  i: inteiro;\n");
+        source.append("  s <- \"").append(k).append(":\";\n");
+        source.append("  i <- 0;\n");
+        source.append("  enquanto (i < n) inicio\n");
+        source.append("    s <- s + \"x\" + i + \";\";\n");
+        source.append("    i <- i + 1;\n");
+        source.append("  fim\n");
+        source.append("  retorna s;\n");
+        source.append("fim\n");
+    }
+}
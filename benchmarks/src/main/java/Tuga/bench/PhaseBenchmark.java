@@ -0,0 +1,174 @@
+package Tuga.bench;
+
+import Tuga.codegen.BytecodeGenerator;
+import Tuga.codegen.opt.DeadCodeEliminator;
+import Tuga.codegen.opt.Inliner;
+import Tuga.codegen.opt.PeepholeOptimizer;
+import Tuga.codegen.opt.SuperinstructionRules;
+import Tuga.parser.TugaLexer;
+import Tuga.parser.TugaParser;
+import Tuga.semantic.TypeChecker;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.PVirtualMachine;
+import Tuga.vm.SVirtualMachine;
+import Tuga.vm.instruction.Instruction;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks de cada fase orquestrada pelo TugaCompileAndRun: analise lexica,
+ * analise sintatica, verificacao de tipos, geracao de codigo e execucao na maquina virtual.
+ * Cada fase e medida isoladamente, a partir do resultado das fases anteriores
+ * preparado no setup, sobre os programas sinteticos de Corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark {
+    @Param({Corpus.FIB, Corpus.LOOPS, Corpus.STRINGS})
+    public String kind;
+
+    @Param({"1", "10", "100"})
+    public int size;
+
+    private String source;
+    private List<Token> tokens;
+    private ParseTree tree;
+    private TypeChecker typeChecker;
+    private ConstantPool constantPool;
+    private Instruction[] code;
+    private Path bytecodeFile;
+    private PrintStream savedOut;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException{
+        source = Corpus.program(kind, size);
+        tokens = lex(source).getTokens();
+        tree = parse(new CommonTokenStream(new ListTokenSource(tokens)));
+        typeChecker = typeCheck(tree);
+        if (typeChecker.hasErrors()){
+            throw new IllegalStateException("Programa sintetico invalido: " + typeChecker.getErrors());
+        }
+
+        BytecodeGenerator generator = generate(typeChecker, tree);
+        constantPool = generator.getConstantPool();
+        code = generator.getCode();
+
+        bytecodeFile = Files.createTempFile("tuga-bench", ".bc");
+        generator.saveBytecodes(bytecodeFile.toString());
+
+        // O output dos programas nao interessa para as medicoes
+        savedOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException{
+        System.setOut(savedOut);
+        Files.deleteIfExists(bytecodeFile);
+    }
+
+    @Benchmark
+    public CommonTokenStream lexer(){
+        return lex(source);
+    }
+
+    @Benchmark
+    public ParseTree parser(){
+        // Os tokens ja foram produzidos no setup; so a analise sintatica e medida
+        return parse(new CommonTokenStream(new ListTokenSource(tokens)));
+    }
+
+    @Benchmark
+    public TypeChecker typeChecker(){
+        return typeCheck(tree);
+    }
+
+    /**
+     * Arvore e TypeChecker novos para cada invocacao do benchmark codegen,
+     * porque a geracao de codigo altera o escopo atual da tabela de simbolos.
+     */
+    @State(Scope.Thread)
+    public static class CodegenInput {
+        private ParseTree tree;
+        private TypeChecker typeChecker;
+
+        @Setup(Level.Invocation)
+        public void setup(PhaseBenchmark benchmark){
+            tree = parse(new CommonTokenStream(new ListTokenSource(benchmark.tokens)));
+            typeChecker = typeCheck(tree);
+        }
+    }
+
+    @Benchmark
+    public Instruction[] codegen(CodegenInput input){
+        return generate(input.typeChecker, input.tree).getCode();
+    }
+
+    @Benchmark
+    public void vmChecked(){
+        SVirtualMachine vm = new SVirtualMachine();
+        vm.load(constantPool, code);
+        vm.run();
+    }
+
+    @Benchmark
+    public void vmVerified(){
+        PVirtualMachine vm = new PVirtualMachine();
+        vm.load(constantPool, code);
+        vm.run();
+    }
+
+    @Benchmark
+    public void vmExecuteFile(){
+        new SVirtualMachine().execute(bytecodeFile.toString());
+    }
+
+    private static CommonTokenStream lex(String source){
+        TugaLexer lexer = new TugaLexer(CharStreams.fromString(source));
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        tokens.fill();
+        return tokens;
+    }
+
+    private static ParseTree parse(CommonTokenStream tokens){
+        return new TugaParser(tokens).program();
+    }
+
+    private static TypeChecker typeCheck(ParseTree tree){
+        TypeChecker typeChecker = new TypeChecker();
+        typeChecker.visit(tree);
+        return typeChecker;
+    }
+
+    /**
+     * Gera os bytecodes de um programa ja verificado, com as otimizacoes ligadas por
+     * omissao no TugaCompileAndRun. Usado tambem pelo VmBenchmark.
+     */
+    static BytecodeGenerator generate(TypeChecker typeChecker, ParseTree tree){
+        BytecodeGenerator generator = new BytecodeGenerator(typeChecker, typeChecker.getSymbolTable(), true, true, true);
+        generator.visit(tree);
+        // Mesma ordem das otimizacoes ligadas por omissao no TugaCompileAndRun
+        generator.eliminateDeadCode(new DeadCodeEliminator(true));
+        generator.inline(new Inliner(20));
+        generator.eliminateDeadCode(new DeadCodeEliminator(false));
+        generator.optimize(PeepholeOptimizer.withDefaultRules());
+        generator.optimize(new PeepholeOptimizer(SuperinstructionRules.defaults()));
+        return generator;
+    }
+}
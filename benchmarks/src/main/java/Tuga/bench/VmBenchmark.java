@@ -0,0 +1,139 @@
+package Tuga.bench;
+
+import Tuga.codegen.BytecodeGenerator;
+import Tuga.codegen.RegisterCodeGenerator;
+import Tuga.ir.IrBuilder;
+import Tuga.parser.TugaLexer;
+import Tuga.parser.TugaParser;
+import Tuga.semantic.TypeChecker;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.PVirtualMachine;
+import Tuga.vm.RVirtualMachine;
+import Tuga.vm.RegisterProgram;
+import Tuga.vm.instruction.Instruction;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparacao entre a maquina virtual de pilha (PVirtualMachine) e a maquina virtual de
+ * registos (RVirtualMachine) sobre os mesmos programas de Corpus. Cada maquina recebe o
+ * codigo com todas as otimizacoes do seu gerador, preparado no setup. A maquina de pilha
+ * e medida tambem com o JIT ligado, incluindo o tempo de compilacao das funcoes quentes.
+ * O main mostra ainda o numero de instrucoes despachadas por cada maquina.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VmBenchmark {
+    /** Limite de chamadas e saltos para tras usado no benchmark com JIT */
+    private static final int JIT_THRESHOLD = 100;
+
+    @Param({Corpus.FIB, Corpus.LOOPS, Corpus.STRINGS})
+    public String kind;
+
+    @Param({"1", "10"})
+    public int size;
+
+    private ConstantPool constantPool;
+    private Instruction[] code;
+    private RegisterProgram registerProgram;
+    private PrintStream savedOut;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        compile(Corpus.program(kind, size));
+
+        // O output dos programas nao interessa para as medicoes
+        savedOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        System.setOut(savedOut);
+    }
+
+    @Benchmark
+    public void stackVm(){
+        PVirtualMachine vm = new PVirtualMachine();
+        vm.load(constantPool, code);
+        vm.run();
+    }
+
+    @Benchmark
+    public void stackVmJit(){
+        PVirtualMachine vm = new PVirtualMachine(false, JIT_THRESHOLD);
+        vm.load(constantPool, code);
+        vm.run();
+    }
+
+    @Benchmark
+    public void registerVm(){
+        RVirtualMachine vm = new RVirtualMachine();
+        vm.load(registerProgram);
+        vm.run();
+    }
+
+    /**
+     * Mostra, para cada programa de Corpus, o numero de instrucoes geradas e despachadas
+     * por cada maquina virtual.
+     *
+     * @param args Tamanhos dos programas (por omissao, 1 e 10)
+     */
+    public static void main(String[] args){
+        String[] sizes = args.length > 0 ? args : new String[]{"1", "10"};
+        PrintStream out = System.out;
+        out.printf("%-8s %5s %12s %14s %12s %14s%n", "kind", "size", "stack code", "stack dispatch", "reg code", "reg dispatch");
+
+        for (String kind : new String[]{Corpus.FIB, Corpus.LOOPS, Corpus.STRINGS}){
+            for (String size : sizes){
+                VmBenchmark benchmark = new VmBenchmark();
+                benchmark.compile(Corpus.program(kind, Integer.parseInt(size)));
+
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                PVirtualMachine stackVm = new PVirtualMachine();
+                RVirtualMachine registerVm = new RVirtualMachine();
+                try {
+                    stackVm.load(benchmark.constantPool, benchmark.code);
+                    stackVm.run();
+                    registerVm.load(benchmark.registerProgram);
+                    registerVm.run();
+                }finally {
+                    System.setOut(out);
+                }
+
+                out.printf("%-8s %5s %12d %14d %12d %14d%n", kind, size,
+                        benchmark.code.length, stackVm.getDispatchCount(),
+                        benchmark.registerProgram.getInstructionCount(), registerVm.getDispatchCount());
+            }
+        }
+    }
+
+    /**
+     * Gera o codigo das duas maquinas virtuais a partir do mesmo programa.
+     */
+    private void compile(String source){
+        CommonTokenStream tokens = new CommonTokenStream(new TugaLexer(CharStreams.fromString(source)));
+        ParseTree tree = new TugaParser(tokens).program();
+        TypeChecker typeChecker = new TypeChecker();
+        typeChecker.visit(tree);
+        if (typeChecker.hasErrors()){
+            throw new IllegalStateException("Programa sintetico invalido: " + typeChecker.getErrors());
+        }
+
+        BytecodeGenerator generator = PhaseBenchmark.generate(typeChecker, tree);
+        constantPool = generator.getConstantPool();
+        code = generator.getCode();
+
+        registerProgram = new RegisterCodeGenerator().generate(new IrBuilder(typeChecker, true, true).build(tree));
+    }
+}
@@ -0,0 +1,340 @@
+package Tuga.ast;
+
+import Tuga.ir.instruction.BinaryOp;
+import Tuga.parser.TugaBaseVisitor;
+import Tuga.parser.TugaParser;
+import Tuga.semantic.Type;
+import Tuga.vm.VmOutput;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.*;
+
+import static Tuga.ast.BinaryNodes.*;
+import static Tuga.ast.UnaryNodes.*;
+import static Tuga.ast.VariableNodes.*;
+
+/**
+ * Construtor da arvore executada pelo AstInterpreter a partir da arvore sintatica.
+ * Deve ser aplicado a um programa sem erros, depois do TypeChecker.
+ *
+ * As operacoes, leituras de variaveis, chamadas e escreve sao criadas nao inicializadas:
+ * os tipos dos operandos sao descobertos na primeira execucao de cada no. Os unicos
+ * tipos usados aqui sao os declarados (variaveis, parametros e retornos), que decidem
+ * a posicao de cada variavel e as conversoes nas atribuicoes, argumentos e retornos.
+ * Tal como na representacao intermedia, cada variavel declarada num bloco tem uma
+ * posicao propria no frame durante toda a funcao.
+ */
+class AstBuilder extends TugaBaseVisitor<Node> {
+    /** Variavel local: posicao no frame, tipo declarado e se e um parametro (sempre com valor) */
+    private record Variable(int slot, Type type, boolean parameter){
+    }
+
+    /** Se os operadores 'e' e 'ou' so avaliam o operando direito quando necessario */
+    private final boolean shortCircuit;
+    /** Output do escreve */
+    private final VmOutput output;
+
+    /** Funcoes do programa, pelo nome */
+    private final Map<String, FunctionNode> functions = new HashMap<>();
+    /** Posicao e tipo de cada variavel global */
+    private final Map<String, Variable> globals = new HashMap<>();
+    /** Variaveis locais, do ambito mais interior para o mais exterior */
+    private final Deque<Map<String, Variable>> scopes = new ArrayDeque<>();
+
+    /** Frame das variaveis globais, partilhado por todas as funcoes */
+    private Frame globalFrame;
+    /** Funcao em construcao */
+    private FunctionNode function;
+    /** Numero de posicoes ja usadas no frame da funcao em construcao */
+    private int frameSize;
+
+    /**
+     * Cria o construtor da arvore.
+     *
+     * @param shortCircuit se 'e' e 'ou' devem ser avaliados em curto-circuito
+     * @param output o output do escreve
+     */
+    AstBuilder(boolean shortCircuit, VmOutput output){
+        this.shortCircuit = shortCircuit;
+        this.output = output;
+    }
+
+    /**
+     * Constroi as funcoes de um programa.
+     *
+     * @param tree A arvore sintatica do programa
+     * @return As funcoes, pelo nome
+     */
+    Map<String, FunctionNode> build(ParseTree tree){
+        visit(tree);
+        return functions;
+    }
+
+    @Override
+    public Node visitProgram(TugaParser.ProgramContext ctx){
+        int size = 0;
+        for (TugaParser.DeclarationContext decl : ctx.globals().declaration()){
+            Type type = typeOf(decl.type());
+            for (TerminalNode id : decl.variableList().IDENTIFIER()){
+                globals.put(id.getText(), new Variable(size++, type, false));
+            }
+        }
+        globalFrame = new Frame(size);
+
+        // Todas as funcoes sao registadas antes, para as chamadas as poderem encontrar
+        for (TugaParser.FunctionDeclContext func : ctx.functionDecl()){
+            List<TugaParser.ParamContext> params = func.paramList() != null ? func.paramList().param() : List.of();
+            Type[] parameterTypes = new Type[params.size()];
+            for (int i = 0; i < parameterTypes.length; i++){
+                parameterTypes[i] = typeOf(params.get(i).type());
+            }
+            Type returnType = func.type() != null ? typeOf(func.type()) : Type.VOID;
+            functions.put(func.IDENTIFIER().getText(), new FunctionNode(func.IDENTIFIER().getText(), returnType, parameterTypes));
+        }
+        for (TugaParser.FunctionDeclContext func : ctx.functionDecl()){
+            visit(func);
+        }
+        return null;
+    }
+
+    @Override
+    public Node visitFunctionDecl(TugaParser.FunctionDeclContext ctx){
+        function = functions.get(ctx.IDENTIFIER().getText());
+        frameSize = 0;
+
+        Map<String, Variable> parameters = new HashMap<>();
+        if (ctx.paramList() != null){
+            for (TugaParser.ParamContext param : ctx.paramList().param()){
+                parameters.put(param.IDENTIFIER().getText(), new Variable(frameSize++, typeOf(param.type()), true));
+            }
+        }
+        scopes.push(parameters);
+        StatementNode body = (StatementNode) visit(ctx.block());
+        scopes.pop();
+
+        function.setBody(body, frameSize);
+        return null;
+    }
+
+    @Override
+    public Node visitBlock(TugaParser.BlockContext ctx){
+        Map<String, Variable> locals = new HashMap<>();
+        scopes.push(locals);
+
+        if (ctx.declarations() != null){
+            for (TugaParser.DeclarationContext decl : ctx.declarations().declaration()){
+                Type type = typeOf(decl.type());
+                for (TerminalNode id : decl.variableList().IDENTIFIER()){
+                    locals.put(id.getText(), new Variable(frameSize++, type, false));
+                }
+            }
+        }
+
+        List<StatementNode> statements = new ArrayList<>();
+        for (TugaParser.InstructionContext instr : ctx.instruction()){
+            StatementNode statement = (StatementNode) visit(instr);
+            if (statement != null){
+                statements.add(statement);
+            }
+        }
+
+        scopes.pop();
+        return new StatementNodes.Block(statements.toArray(new StatementNode[0]));
+    }
+
+    @Override
+    public Node visitBlockInstr(TugaParser.BlockInstrContext ctx){
+        return visit(ctx.block());
+    }
+
+    @Override
+    public Node visitEmptyInstr(TugaParser.EmptyInstrContext ctx){
+        return null;
+    }
+
+    @Override
+    public Node visitWriteInstr(TugaParser.WriteInstrContext ctx){
+        return new StatementNodes.UninitializedPrint(expression(ctx.expression()), output);
+    }
+
+    @Override
+    public Node visitAssignInstr(TugaParser.AssignInstrContext ctx){
+        String name = ctx.IDENTIFIER().getText();
+        ExpressionNode value = expression(ctx.expression());
+
+        Variable local = lookupLocal(name);
+        if (local != null){
+            return write(local.type(), local.slot(), null, new Coerce(local.type(), value));
+        }
+        Variable global = global(name);
+        return write(global.type(), global.slot(), globalFrame, new Coerce(global.type(), value));
+    }
+
+    @Override
+    public Node visitWhileInstr(TugaParser.WhileInstrContext ctx){
+        return new StatementNodes.While(expression(ctx.expression()), statement(ctx.instruction()));
+    }
+
+    @Override
+    public Node visitIfElseInstr(TugaParser.IfElseInstrContext ctx){
+        StatementNode elsePart = ctx.instruction().size() > 1 ? statement(ctx.instruction(1)) : null;
+        return new StatementNodes.If(expression(ctx.expression()), statement(ctx.instruction(0)), elsePart);
+    }
+
+    @Override
+    public Node visitFunctionCallInstr(TugaParser.FunctionCallInstrContext ctx){
+        return new StatementNodes.Call((CallNodes.CallNode) visit(ctx.functionCall()));
+    }
+
+    @Override
+    public Node visitReturnInstr(TugaParser.ReturnInstrContext ctx){
+        if (ctx.expression() == null){
+            return new StatementNodes.VoidReturn();
+        }
+        Type type = function.getReturnType();
+        return StatementNodes.valueReturn(type, new Coerce(type, expression(ctx.expression())));
+    }
+
+    @Override
+    public Node visitFunctionCall(TugaParser.FunctionCallContext ctx){
+        String name = ctx.IDENTIFIER().getText();
+        FunctionNode target = functions.get(name);
+        if (target == null){
+            throw new RuntimeException("Function not declared: " + name);
+        }
+
+        List<TugaParser.ExpressionContext> arguments = ctx.exprList() != null ? ctx.exprList().expression() : List.of();
+        ExpressionNode[] values = new ExpressionNode[arguments.size()];
+        for (int i = 0; i < values.length; i++){
+            values[i] = new Coerce(target.getParameterTypes()[i], expression(arguments.get(i)));
+        }
+        return new CallNodes.Uninitialized(name, functions, values);
+    }
+
+    @Override
+    public Node visitLiteralExpr(TugaParser.LiteralExprContext ctx){
+        TugaParser.LiteralContext literal = ctx.literal();
+        if (literal instanceof TugaParser.IntLiteralContext i){
+            return new IntConstant(Integer.parseInt(i.INTEGER().getText()));
+        }
+        if (literal instanceof TugaParser.RealLiteralContext r){
+            return new RealConstant(Double.parseDouble(r.REAL().getText()));
+        }
+        if (literal instanceof TugaParser.StringLiteralContext s){
+            String text = s.STRING().getText();
+            return new StringConstant(text.substring(1, text.length() - 1));
+        }
+        return new BoolConstant(((TugaParser.BoolLiteralContext) literal).VERDADEIRO() != null);
+    }
+
+    @Override
+    public Node visitVarExpr(TugaParser.VarExprContext ctx){
+        String name = ctx.IDENTIFIER().getText();
+        Variable local = lookupLocal(name);
+        if (local != null){
+            return new UninitializedRead(local.type(), local.slot(), null, !local.parameter());
+        }
+        Variable global = global(name);
+        return new UninitializedRead(global.type(), global.slot(), globalFrame, true);
+    }
+
+    @Override
+    public Node visitFunctionalCallExpr(TugaParser.FunctionalCallExprContext ctx){
+        return visit(ctx.functionCall());
+    }
+
+    @Override
+    public Node visitParenExpr(TugaParser.ParenExprContext ctx){
+        return visit(ctx.expression());
+    }
+
+    @Override
+    public Node visitUnaryExpr(TugaParser.UnaryExprContext ctx){
+        ExpressionNode operand = expression(ctx.expression());
+        return "-".equals(ctx.op.getText()) ? new UninitializedNeg(operand) : new Not(operand);
+    }
+
+    @Override
+    public Node visitBinaryExpr(TugaParser.BinaryExprContext ctx){
+        BinaryOp op = switch (ctx.op.getText()){
+            case "+" -> BinaryOp.ADD;
+            case "-" -> BinaryOp.SUB;
+            case "*" -> BinaryOp.MUL;
+            case "/" -> BinaryOp.DIV;
+            default -> BinaryOp.MOD;
+        };
+        return new Uninitialized(op, expression(ctx.expression(0)), expression(ctx.expression(1)));
+    }
+
+    @Override
+    public Node visitComparisonExpr(TugaParser.ComparisonExprContext ctx){
+        String op = ctx.op.getText();
+        BinaryOp binaryOp = "<".equals(op) || ">".equals(op) ? BinaryOp.LT : BinaryOp.LEQ;
+
+        // a > b e b < a, com b avaliado primeiro
+        if (">".equals(op) || ">=".equals(op)){
+            return new Uninitialized(binaryOp, expression(ctx.expression(1)), expression(ctx.expression(0)));
+        }
+        return new Uninitialized(binaryOp, expression(ctx.expression(0)), expression(ctx.expression(1)));
+    }
+
+    @Override
+    public Node visitEqualityExpr(TugaParser.EqualityExprContext ctx){
+        BinaryOp op = "igual".equals(ctx.op.getText()) ? BinaryOp.EQ : BinaryOp.NEQ;
+        return new Uninitialized(op, expression(ctx.expression(0)), expression(ctx.expression(1)));
+    }
+
+    @Override
+    public Node visitAndExpr(TugaParser.AndExprContext ctx){
+        return new And(expression(ctx.expression(0)), expression(ctx.expression(1)), shortCircuit);
+    }
+
+    @Override
+    public Node visitOrExpr(TugaParser.OrExprContext ctx){
+        return new Or(expression(ctx.expression(0)), expression(ctx.expression(1)), shortCircuit);
+    }
+
+    private ExpressionNode expression(TugaParser.ExpressionContext ctx){
+        return (ExpressionNode) visit(ctx);
+    }
+
+    /**
+     * Constroi uma instrucao; a instrucao vazia passa a um bloco sem instrucoes.
+     */
+    private StatementNode statement(TugaParser.InstructionContext ctx){
+        StatementNode statement = (StatementNode) visit(ctx);
+        return statement != null ? statement : new StatementNodes.Block(new StatementNode[0]);
+    }
+
+    private Variable lookupLocal(String name){
+        for (Map<String, Variable> scope : scopes){
+            Variable variable = scope.get(name);
+            if (variable != null){
+                return variable;
+            }
+        }
+        return null;
+    }
+
+    private Variable global(String name){
+        Variable variable = globals.get(name);
+        if (variable == null){
+            throw new RuntimeException("Variavel nao encontrada: " + name);
+        }
+        return variable;
+    }
+
+    private static Type typeOf(TugaParser.TypeContext ctx){
+        if (ctx.INTEIRO_KW() != null){
+            return Type.INTEGER;
+        }
+        if (ctx.REAL_KW() != null){
+            return Type.REAL;
+        }
+        if (ctx.BOOLEANO_KW() != null){
+            return Type.BOOLEAN;
+        }
+        return Type.STRING;
+    }
+}
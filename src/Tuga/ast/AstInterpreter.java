@@ -0,0 +1,94 @@
+package Tuga.ast;
+
+import Tuga.vm.VmOutput;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.Map;
+
+/**
+ * Interpretador de programas Tuga sobre a arvore do programa, sem bytecodes.
+ * A arvore sintatica e convertida numa arvore de nos executaveis que se especializam
+ * a si proprios: cada operacao, leitura de variavel, conversao, escreve e chamada
+ * comeca generica e, na primeira execucao, troca-se por um no que so trata os tipos
+ * observados (por exemplo, soma de inteiros, leitura de uma variavel inteira ou
+ * chamada direta de uma funcao ja encontrada). As execucoes seguintes ja nao testam
+ * tipos nem encapsulam valores.
+ *
+ * Cada chamada Tuga usa varios frames da JVM, pelo que o programa e executado numa
+ * thread com uma pilha grande. Essa pilha e percorrida pelo garbage collector em cada
+ * recolha, pelo que a recursao nao terminal muito profunda e bastante mais lenta do que
+ * nas maquinas virtuais: com 10 milhoes de chamadas aninhadas demora minutos, contra
+ * segundos na PVirtualMachine. Para programas com recursao dessa profundidade deve ser
+ * usada uma das maquinas virtuais.
+ */
+public final class AstInterpreter {
+    /** Tamanho da pilha da thread que executa o programa */
+    private static final long STACK_SIZE = 1L << 30;
+
+    /** Funcoes do programa, pelo nome */
+    private final Map<String, FunctionNode> functions;
+    /** Output do escreve e das mensagens de erro de execucao */
+    private final VmOutput output;
+
+    /**
+     * Constroi a arvore executavel de um programa sem erros de tipos, que escreve no System.out.
+     *
+     * @param tree A arvore sintatica do programa
+     * @param shortCircuit se 'e' e 'ou' devem ser avaliados em curto-circuito
+     */
+    public AstInterpreter(ParseTree tree, boolean shortCircuit){
+        this(tree, shortCircuit, VmOutput.standard());
+    }
+
+    /**
+     * Constroi a arvore executavel de um programa sem erros de tipos.
+     *
+     * @param tree A arvore sintatica do programa
+     * @param shortCircuit se 'e' e 'ou' devem ser avaliados em curto-circuito
+     * @param output O output do escreve, esvaziado no fim da execucao
+     */
+    public AstInterpreter(ParseTree tree, boolean shortCircuit, VmOutput output){
+        this.output = output;
+        this.functions = new AstBuilder(shortCircuit, output).build(tree);
+    }
+
+    /**
+     * Executa o programa, a partir da funcao principal.
+     *
+     * @throws RuntimeException Em caso de erro de execucao (mensagem "__VM_ERROR__", ja mostrado)
+     */
+    public void run(){
+        FunctionNode main = functions.get("principal");
+        if (main == null){
+            throw new RuntimeException("Function not declared: principal");
+        }
+
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                main.call(main.newFrame());
+            }catch (Node.ExecutionError e){
+                output.println(e.getMessage());
+                failure[0] = new RuntimeException("__VM_ERROR__");
+            }catch (RuntimeException | Error e){
+                failure[0] = e;
+            }finally {
+                output.flush();
+            }
+        }, "programa", STACK_SIZE);
+        thread.start();
+        try {
+            thread.join();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Execucao interrompida", e);
+        }
+
+        if (failure[0] instanceof RuntimeException e){
+            throw e;
+        }
+        if (failure[0] instanceof Error e){
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package Tuga.ast;
+
+import Tuga.ir.instruction.BinaryOp;
+
+import static Tuga.ast.UnaryNodes.IntToReal;
+import static Tuga.ast.UnaryNodes.toStringNode;
+import static Tuga.ast.UnaryNodes.toText;
+
+/**
+ * Nos das operacoes binarias.
+ * Cada operacao comeca por ser um Uninitialized, que na primeira execucao avalia os
+ * operandos, ve os seus tipos e se troca pela operacao concreta: entre inteiros, entre
+ * reais (com o operando inteiro convertido), concatenacao (com o operando que nao e
+ * string convertido) ou comparacao de booleanos ou strings. Tal como na representacao
+ * intermedia, a > b chega aqui como b &lt; a, com os operandos ja trocados.
+ * Os operadores 'e' e 'ou' so tem booleanos e sao criados logo concretos.
+ */
+final class BinaryNodes {
+
+    private BinaryNodes(){
+    }
+
+    /**
+     * Operacao com dois operandos, avaliados da esquerda para a direita.
+     */
+    abstract static class BinaryNode extends ExpressionNode {
+        ExpressionNode left;
+        ExpressionNode right;
+
+        BinaryNode(ExpressionNode left, ExpressionNode right){
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        protected void replaceChild(Node child, Node replacement){
+            if (child == left){
+                left = (ExpressionNode) replacement;
+            }else {
+                right = (ExpressionNode) replacement;
+            }
+        }
+    }
+
+    /**
+     * Operacao concreta, que tambem sabe calcular o resultado a partir dos valores ja
+     * obtidos pelo Uninitialized (para os operandos nao serem avaliados duas vezes).
+     */
+    abstract static class Specialized extends BinaryNode {
+        Specialized(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        abstract Object evaluate(Object a, Object b);
+    }
+
+    /**
+     * Operacao binaria ainda nao executada.
+     */
+    static final class Uninitialized extends BinaryNode {
+        private final BinaryOp op;
+
+        Uninitialized(BinaryOp op, ExpressionNode left, ExpressionNode right){
+            super(left, right);
+            this.op = op;
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            Object a = left.executeGeneric(frame);
+            Object b = right.executeGeneric(frame);
+            return replace(specialize(a, b)).evaluate(a, b);
+        }
+
+        private Specialized specialize(Object a, Object b){
+            if (op == BinaryOp.ADD && (a instanceof String || b instanceof String)){
+                return new Concat(toStringNode(a, left), toStringNode(b, right));
+            }
+            if (a instanceof String){
+                return op == BinaryOp.EQ ? new StringEq(left, right) : new StringNeq(left, right);
+            }
+            if (a instanceof Boolean){
+                return op == BinaryOp.EQ ? new BoolEq(left, right) : new BoolNeq(left, right);
+            }
+            if (a instanceof Integer && b instanceof Integer){
+                return switch (op){
+                    case ADD -> new IntAdd(left, right);
+                    case SUB -> new IntSub(left, right);
+                    case MUL -> new IntMul(left, right);
+                    case DIV -> new IntDiv(left, right);
+                    case MOD -> new IntMod(left, right);
+                    case LT -> new IntLt(left, right);
+                    case LEQ -> new IntLeq(left, right);
+                    case EQ -> new IntEq(left, right);
+                    case NEQ -> new IntNeq(left, right);
+                    default -> throw new IllegalStateException("operacao invalida entre inteiros: " + op);
+                };
+            }
+
+            // Pelo menos um real: o operando inteiro e convertido
+            ExpressionNode x = a instanceof Integer ? new IntToReal(left) : left;
+            ExpressionNode y = b instanceof Integer ? new IntToReal(right) : right;
+            return switch (op){
+                case ADD -> new RealAdd(x, y);
+                case SUB -> new RealSub(x, y);
+                case MUL -> new RealMul(x, y);
+                case DIV -> new RealDiv(x, y);
+                case LT -> new RealLt(x, y);
+                case LEQ -> new RealLeq(x, y);
+                case EQ -> new RealEq(x, y);
+                case NEQ -> new RealNeq(x, y);
+                default -> throw new IllegalStateException("operacao invalida entre reais: " + op);
+            };
+        }
+    }
+
+    /*
+     * Inteiros
+     */
+
+    abstract static class IntArithmetic extends Specialized {
+        IntArithmetic(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        abstract int apply(int a, int b);
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeInt(frame);
+        }
+
+        @Override
+        public int executeInt(Frame frame){
+            int a = left.executeInt(frame);
+            return apply(a, right.executeInt(frame));
+        }
+
+        @Override
+        Object evaluate(Object a, Object b){
+            return apply((Integer) a, (Integer) b);
+        }
+    }
+
+    static final class IntAdd extends IntArithmetic {
+        IntAdd(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        int apply(int a, int b){
+            return a + b;
+        }
+    }
+
+    static final class IntSub extends IntArithmetic {
+        IntSub(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        int apply(int a, int b){
+            return a - b;
+        }
+    }
+
+    static final class IntMul extends IntArithmetic {
+        IntMul(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        int apply(int a, int b){
+            return a * b;
+        }
+    }
+
+    static final class IntDiv extends IntArithmetic {
+        IntDiv(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        int apply(int a, int b){
+            if (b == 0){
+                throw runtimeError("Divisao por zero");
+            }
+            return a / b;
+        }
+    }
+
+    static final class IntMod extends IntArithmetic {
+        IntMod(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        int apply(int a, int b){
+            if (b == 0){
+                throw runtimeError("Modulo por zero");
+            }
+            return a % b;
+        }
+    }
+
+    abstract static class IntComparison extends Specialized {
+        IntComparison(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        abstract boolean test(int a, int b);
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            int a = left.executeInt(frame);
+            return test(a, right.executeInt(frame));
+        }
+
+        @Override
+        Object evaluate(Object a, Object b){
+            return test((Integer) a, (Integer) b);
+        }
+    }
+
+    static final class IntLt extends IntComparison {
+        IntLt(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int a, int b){
+            return a < b;
+        }
+    }
+
+    static final class IntLeq extends IntComparison {
+        IntLeq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int a, int b){
+            return a <= b;
+        }
+    }
+
+    static final class IntEq extends IntComparison {
+        IntEq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int a, int b){
+            return a == b;
+        }
+    }
+
+    static final class IntNeq extends IntComparison {
+        IntNeq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int a, int b){
+            return a != b;
+        }
+    }
+
+    /*
+     * Reais
+     */
+
+    abstract static class RealArithmetic extends Specialized {
+        RealArithmetic(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        abstract double apply(double a, double b);
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeReal(frame);
+        }
+
+        @Override
+        public double executeReal(Frame frame){
+            double a = left.executeReal(frame);
+            return apply(a, right.executeReal(frame));
+        }
+
+        @Override
+        Object evaluate(Object a, Object b){
+            return apply(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+    }
+
+    static final class RealAdd extends RealArithmetic {
+        RealAdd(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        double apply(double a, double b){
+            return a + b;
+        }
+    }
+
+    static final class RealSub extends RealArithmetic {
+        RealSub(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        double apply(double a, double b){
+            return a - b;
+        }
+    }
+
+    static final class RealMul extends RealArithmetic {
+        RealMul(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        double apply(double a, double b){
+            return a * b;
+        }
+    }
+
+    static final class RealDiv extends RealArithmetic {
+        RealDiv(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        double apply(double a, double b){
+            if (b == 0.0){
+                throw runtimeError("Divisao por zero");
+            }
+            return a / b;
+        }
+    }
+
+    abstract static class RealComparison extends Specialized {
+        RealComparison(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        abstract boolean test(double a, double b);
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            double a = left.executeReal(frame);
+            return test(a, right.executeReal(frame));
+        }
+
+        @Override
+        Object evaluate(Object a, Object b){
+            return test(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+    }
+
+    static final class RealLt extends RealComparison {
+        RealLt(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        boolean test(double a, double b){
+            return a < b;
+        }
+    }
+
+    static final class RealLeq extends RealComparison {
+        RealLeq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        boolean test(double a, double b){
+            return a <= b;
+        }
+    }
+
+    static final class RealEq extends RealComparison {
+        RealEq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        boolean test(double a, double b){
+            return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+        }
+    }
+
+    static final class RealNeq extends RealComparison {
+        RealNeq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        boolean test(double a, double b){
+            return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+        }
+    }
+
+    /*
+     * Booleanos e strings
+     */
+
+    static final class BoolEq extends Specialized {
+        BoolEq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            boolean a = left.executeBool(frame);
+            return a == right.executeBool(frame);
+        }
+
+        @Override
+        Object evaluate(Object a, Object b){
+            return a.equals(b);
+        }
+    }
+
+    static final class BoolNeq extends Specialized {
+        BoolNeq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            boolean a = left.executeBool(frame);
+            return a != right.executeBool(frame);
+        }
+
+        @Override
+        Object evaluate(Object a, Object b){
+            return !a.equals(b);
+        }
+    }
+
+    static final class StringEq extends Specialized {
+        StringEq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            String a = left.executeString(frame);
+            return a.equals(right.executeString(frame));
+        }
+
+        @Override
+        Object evaluate(Object a, Object b){
+            return a.equals(b);
+        }
+    }
+
+    static final class StringNeq extends Specialized {
+        StringNeq(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            String a = left.executeString(frame);
+            return !a.equals(right.executeString(frame));
+        }
+
+        @Override
+        Object evaluate(Object a, Object b){
+            return !a.equals(b);
+        }
+    }
+
+    static final class Concat extends Specialized {
+        Concat(ExpressionNode left, ExpressionNode right){
+            super(left, right);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeString(frame);
+        }
+
+        @Override
+        public String executeString(Frame frame){
+            String a = left.executeString(frame);
+            return a.concat(right.executeString(frame));
+        }
+
+        @Override
+        Object evaluate(Object a, Object b){
+            return toText(a).concat(toText(b));
+        }
+    }
+
+    /*
+     * Operadores logicos
+     */
+
+    static final class And extends BinaryNode {
+        /** Se o operando direito so e avaliado quando o esquerdo e verdadeiro */
+        private final boolean shortCircuit;
+
+        And(ExpressionNode left, ExpressionNode right, boolean shortCircuit){
+            super(left, right);
+            this.shortCircuit = shortCircuit;
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            if (shortCircuit){
+                return left.executeBool(frame) && right.executeBool(frame);
+            }
+            return left.executeBool(frame) & right.executeBool(frame);
+        }
+    }
+
+    static final class Or extends BinaryNode {
+        /** Se o operando direito so e avaliado quando o esquerdo e falso */
+        private final boolean shortCircuit;
+
+        Or(ExpressionNode left, ExpressionNode right, boolean shortCircuit){
+            super(left, right);
+            this.shortCircuit = shortCircuit;
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            if (shortCircuit){
+                return left.executeBool(frame) || right.executeBool(frame);
+            }
+            return left.executeBool(frame) | right.executeBool(frame);
+        }
+    }
+}
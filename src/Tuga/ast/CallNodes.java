@@ -0,0 +1,141 @@
+package Tuga.ast;
+
+import Tuga.semantic.Type;
+
+import java.util.Map;
+
+/**
+ * Nos das chamadas de funcao.
+ * A chamada comeca por ser um Uninitialized, que so conhece o nome da funcao; na
+ * primeira execucao procura a funcao e troca-se por um DirectCall, que guarda a
+ * funcao destino e passa a chama-la diretamente. Os argumentos ja vem convertidos para
+ * os tipos dos parametros e sao copiados sem encapsulamento para o frame da funcao.
+ */
+final class CallNodes {
+
+    private CallNodes(){
+    }
+
+    /**
+     * Chamada de funcao, usada como expressao ou como instrucao.
+     */
+    abstract static class CallNode extends ExpressionNode {
+        ExpressionNode[] arguments;
+
+        CallNode(ExpressionNode[] arguments){
+            this.arguments = arguments;
+            for (ExpressionNode argument : arguments){
+                adopt(argument);
+            }
+        }
+
+        /**
+         * Executa a chamada.
+         *
+         * @param frame O frame de quem chama
+         * @return O frame da funcao chamada, com o valor devolvido
+         */
+        abstract Frame call(Frame frame);
+
+        @Override
+        protected void replaceChild(Node child, Node replacement){
+            for (int i = 0; i < arguments.length; i++){
+                if (arguments[i] == child){
+                    arguments[i] = (ExpressionNode) replacement;
+                }
+            }
+        }
+    }
+
+    /**
+     * Chamada ainda nao executada, com a funcao so conhecida pelo nome.
+     */
+    static final class Uninitialized extends CallNode {
+        private final String name;
+        private final Map<String, FunctionNode> functions;
+
+        Uninitialized(String name, Map<String, FunctionNode> functions, ExpressionNode[] arguments){
+            super(arguments);
+            this.name = name;
+            this.functions = functions;
+        }
+
+        @Override
+        Frame call(Frame frame){
+            return specialize().call(frame);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return specialize().executeGeneric(frame);
+        }
+
+        private DirectCall specialize(){
+            FunctionNode target = functions.get(name);
+            if (target == null){
+                throw new RuntimeException("Function not declared: " + name);
+            }
+            return replace(new DirectCall(target, arguments));
+        }
+    }
+
+    /**
+     * Chamada de uma funcao ja conhecida.
+     */
+    static final class DirectCall extends CallNode {
+        private final FunctionNode target;
+        private final Type[] parameterTypes;
+
+        DirectCall(FunctionNode target, ExpressionNode[] arguments){
+            super(arguments);
+            this.target = target;
+            this.parameterTypes = target.getParameterTypes();
+        }
+
+        @Override
+        Frame call(Frame frame){
+            Frame callee = target.newFrame();
+            for (int i = 0; i < arguments.length; i++){
+                switch (parameterTypes[i]){
+                    case INTEGER -> callee.setInt(i, arguments[i].executeInt(frame));
+                    case REAL -> callee.setReal(i, arguments[i].executeReal(frame));
+                    case BOOLEAN -> callee.setBool(i, arguments[i].executeBool(frame));
+                    default -> callee.setString(i, arguments[i].executeString(frame));
+                }
+            }
+            return target.call(callee);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            Frame callee = call(frame);
+            return switch (target.getReturnType()){
+                case INTEGER -> (int) callee.result;
+                case REAL -> Double.longBitsToDouble(callee.result);
+                case BOOLEAN -> callee.result != 0;
+                case STRING -> callee.resultString;
+                default -> null;
+            };
+        }
+
+        @Override
+        public int executeInt(Frame frame){
+            return (int) call(frame).result;
+        }
+
+        @Override
+        public double executeReal(Frame frame){
+            return Double.longBitsToDouble(call(frame).result);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            return call(frame).result != 0;
+        }
+
+        @Override
+        public String executeString(Frame frame){
+            return call(frame).resultString;
+        }
+    }
+}
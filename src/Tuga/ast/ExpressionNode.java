@@ -0,0 +1,28 @@
+package Tuga.ast;
+
+/**
+ * No de uma expressao.
+ * executeGeneric devolve o valor dentro de um objeto (Integer, Double, Boolean ou String).
+ * Os metodos tipados obtem o valor sem o encapsular: os nos especializados redefinem
+ * o metodo do seu tipo, e os restantes usam executeGeneric.
+ */
+public abstract class ExpressionNode extends Node {
+
+    public abstract Object executeGeneric(Frame frame);
+
+    public int executeInt(Frame frame){
+        return (Integer) executeGeneric(frame);
+    }
+
+    public double executeReal(Frame frame){
+        return (Double) executeGeneric(frame);
+    }
+
+    public boolean executeBool(Frame frame){
+        return (Boolean) executeGeneric(frame);
+    }
+
+    public String executeString(Frame frame){
+        return (String) executeGeneric(frame);
+    }
+}
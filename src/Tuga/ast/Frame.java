@@ -0,0 +1,63 @@
+package Tuga.ast;
+
+/**
+ * Variaveis de uma chamada de funcao (ou as variaveis globais do programa).
+ * Os inteiros, reais (em bits) e booleanos ficam em primitives e as strings em strings,
+ * sem encapsulamento. assigned indica as variaveis que ja tem valor: as restantes
+ * sao NULO. O valor devolvido por 'retorna' fica em result ou resultString.
+ */
+public final class Frame {
+    final long[] primitives;
+    final String[] strings;
+    final boolean[] assigned;
+
+    long result;
+    String resultString;
+
+    /**
+     * Cria um frame com todas as variaveis a NULO.
+     *
+     * @param size O numero de variaveis
+     */
+    Frame(int size){
+        this.primitives = new long[size];
+        this.strings = new String[size];
+        this.assigned = new boolean[size];
+    }
+
+    void setInt(int slot, int value){
+        primitives[slot] = value;
+        assigned[slot] = true;
+    }
+
+    void setReal(int slot, double value){
+        primitives[slot] = Double.doubleToRawLongBits(value);
+        assigned[slot] = true;
+    }
+
+    void setBool(int slot, boolean value){
+        primitives[slot] = value ? 1 : 0;
+        assigned[slot] = true;
+    }
+
+    void setString(int slot, String value){
+        strings[slot] = value;
+        assigned[slot] = true;
+    }
+
+    int getInt(int slot){
+        return (int) primitives[slot];
+    }
+
+    double getReal(int slot){
+        return Double.longBitsToDouble(primitives[slot]);
+    }
+
+    boolean getBool(int slot){
+        return primitives[slot] != 0;
+    }
+
+    String getString(int slot){
+        return strings[slot];
+    }
+}
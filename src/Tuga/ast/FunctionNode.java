@@ -0,0 +1,60 @@
+package Tuga.ast;
+
+import Tuga.semantic.Type;
+
+/**
+ * Funcao do programa, destino das chamadas.
+ * Os parametros ocupam as primeiras posicoes do frame, seguidos das variaveis
+ * locais de todos os blocos da funcao.
+ */
+public final class FunctionNode {
+    private final String name;
+    private final Type returnType;
+    private final Type[] parameterTypes;
+    private int frameSize;
+    private StatementNode body;
+
+    FunctionNode(String name, Type returnType, Type[] parameterTypes){
+        this.name = name;
+        this.returnType = returnType;
+        this.parameterTypes = parameterTypes;
+    }
+
+    /**
+     * Define o corpo da funcao, depois de construido.
+     *
+     * @param body O bloco da funcao
+     * @param frameSize O numero de posicoes do frame (parametros e variaveis locais)
+     */
+    void setBody(StatementNode body, int frameSize){
+        this.body = body;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Executa a funcao num frame novo.
+     *
+     * @param frame O frame com os argumentos, criado por newFrame
+     * @return O mesmo frame, com o valor devolvido
+     */
+    Frame call(Frame frame){
+        body.execute(frame);
+        return frame;
+    }
+
+    Frame newFrame(){
+        return new Frame(frameSize);
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    public Type getReturnType(){
+        return returnType;
+    }
+
+    Type[] getParameterTypes(){
+        return parameterTypes;
+    }
+}
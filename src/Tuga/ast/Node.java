@@ -0,0 +1,67 @@
+package Tuga.ast;
+
+/**
+ * No da arvore executada pelo AstInterpreter.
+ * Cada no conhece o seu pai, para se poder substituir a si proprio por uma versao
+ * especializada: os nos nao inicializados observam os valores da primeira execucao
+ * e trocam-se por nos que so tratam esses tipos, sem testes nem conversoes genericas
+ * nas execucoes seguintes.
+ */
+public abstract class Node {
+    /** No que contem este no, ou null na raiz de uma funcao */
+    Node parent;
+
+    /**
+     * Indica que este no passa a ser filho de outro.
+     *
+     * @param child O no filho
+     * @return O proprio filho
+     */
+    protected final <T extends Node> T adopt(T child){
+        child.parent = this;
+        return child;
+    }
+
+    /**
+     * Substitui este no, no seu pai, por outro no.
+     *
+     * @param replacement O no que passa a ocupar o lugar deste
+     * @return O novo no
+     */
+    protected final <T extends Node> T replace(T replacement){
+        parent.replaceChild(this, replacement);
+        replacement.parent = parent;
+        return replacement;
+    }
+
+    /**
+     * Troca um filho deste no por outro. So os nos com filhos que se podem
+     * especializar redefinem este metodo.
+     *
+     * @param child O filho atual
+     * @param replacement O novo filho
+     */
+    protected void replaceChild(Node child, Node replacement){
+        throw new IllegalStateException("no sem filhos substituiveis: " + getClass().getSimpleName());
+    }
+
+    /**
+     * Cria o erro de execucao que termina o programa. A mensagem e mostrada pelo
+     * AstInterpreter, no output do programa.
+     *
+     * @param message A mensagem do erro
+     * @return A excecao a lancar
+     */
+    protected static RuntimeException runtimeError(String message){
+        return new ExecutionError(message);
+    }
+
+    /**
+     * Erro de execucao do programa Tuga.
+     */
+    static final class ExecutionError extends RuntimeException {
+        ExecutionError(String message){
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package Tuga.ast;
+
+/**
+ * No de uma instrucao.
+ */
+public abstract class StatementNode extends Node {
+
+    /**
+     * Executa a instrucao.
+     *
+     * @param frame O frame da funcao atual
+     * @return true se a instrucao executou um 'retorna' (o valor fica no frame)
+     */
+    public abstract boolean execute(Frame frame);
+}
@@ -0,0 +1,298 @@
+package Tuga.ast;
+
+import Tuga.semantic.Type;
+import Tuga.vm.VmOutput;
+
+import static Tuga.ast.CallNodes.CallNode;
+
+/**
+ * Nos das instrucoes: blocos, escreve, se, enquanto, retorna e chamadas sem valor.
+ * O escreve comeca nao inicializado e especializa-se no tipo do primeiro valor escrito.
+ */
+final class StatementNodes {
+
+    private StatementNodes(){
+    }
+
+    static final class Block extends StatementNode {
+        private final StatementNode[] statements;
+
+        Block(StatementNode[] statements){
+            this.statements = statements;
+            for (StatementNode statement : statements){
+                adopt(statement);
+            }
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            for (StatementNode statement : statements){
+                if (statement.execute(frame)){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected void replaceChild(Node child, Node replacement){
+            for (int i = 0; i < statements.length; i++){
+                if (statements[i] == child){
+                    statements[i] = (StatementNode) replacement;
+                }
+            }
+        }
+    }
+
+    /**
+     * Instrucao com uma expressao.
+     */
+    abstract static class ExpressionStatement extends StatementNode {
+        ExpressionNode value;
+
+        ExpressionStatement(ExpressionNode value){
+            this.value = adopt(value);
+        }
+
+        @Override
+        protected void replaceChild(Node child, Node replacement){
+            value = (ExpressionNode) replacement;
+        }
+    }
+
+    /**
+     * Escreve, no output do programa.
+     */
+    abstract static class Print extends ExpressionStatement {
+        final VmOutput output;
+
+        Print(ExpressionNode value, VmOutput output){
+            super(value);
+            this.output = output;
+        }
+    }
+
+    /**
+     * Escreve ainda nao executado.
+     */
+    static final class UninitializedPrint extends Print {
+        UninitializedPrint(ExpressionNode value, VmOutput output){
+            super(value, output);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            Object result = value.executeGeneric(frame);
+            if (result instanceof Integer i){
+                replace(new IntPrint(value, output));
+                output.println(i);
+            } else if (result instanceof Double d) {
+                replace(new RealPrint(value, output));
+                output.println(d);
+            } else if (result instanceof Boolean b) {
+                replace(new BoolPrint(value, output));
+                output.println(b ? "verdadeiro" : "falso");
+            } else {
+                replace(new StringPrint(value, output));
+                output.println((String) result);
+            }
+            return false;
+        }
+    }
+
+    static final class IntPrint extends Print {
+        IntPrint(ExpressionNode value, VmOutput output){
+            super(value, output);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            output.println(value.executeInt(frame));
+            return false;
+        }
+    }
+
+    static final class RealPrint extends Print {
+        RealPrint(ExpressionNode value, VmOutput output){
+            super(value, output);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            output.println(value.executeReal(frame));
+            return false;
+        }
+    }
+
+    static final class BoolPrint extends Print {
+        BoolPrint(ExpressionNode value, VmOutput output){
+            super(value, output);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            output.println(value.executeBool(frame) ? "verdadeiro" : "falso");
+            return false;
+        }
+    }
+
+    static final class StringPrint extends Print {
+        StringPrint(ExpressionNode value, VmOutput output){
+            super(value, output);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            output.println(value.executeString(frame));
+            return false;
+        }
+    }
+
+    static final class If extends ExpressionStatement {
+        private StatementNode thenPart;
+        private StatementNode elsePart;
+
+        If(ExpressionNode condition, StatementNode thenPart, StatementNode elsePart){
+            super(condition);
+            this.thenPart = adopt(thenPart);
+            this.elsePart = elsePart != null ? adopt(elsePart) : null;
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            if (value.executeBool(frame)){
+                return thenPart.execute(frame);
+            }
+            return elsePart != null && elsePart.execute(frame);
+        }
+
+        @Override
+        protected void replaceChild(Node child, Node replacement){
+            if (child == thenPart){
+                thenPart = (StatementNode) replacement;
+            } else if (child == elsePart) {
+                elsePart = (StatementNode) replacement;
+            } else {
+                super.replaceChild(child, replacement);
+            }
+        }
+    }
+
+    static final class While extends ExpressionStatement {
+        private StatementNode body;
+
+        While(ExpressionNode condition, StatementNode body){
+            super(condition);
+            this.body = adopt(body);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            while (value.executeBool(frame)){
+                if (body.execute(frame)){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected void replaceChild(Node child, Node replacement){
+            if (child == body){
+                body = (StatementNode) replacement;
+            }else {
+                super.replaceChild(child, replacement);
+            }
+        }
+    }
+
+    /**
+     * Chamada de funcao cujo valor, se existir, e descartado.
+     */
+    static final class Call extends StatementNode {
+        private CallNode call;
+
+        Call(CallNode call){
+            this.call = adopt(call);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            call.call(frame);
+            return false;
+        }
+
+        @Override
+        protected void replaceChild(Node child, Node replacement){
+            call = (CallNode) replacement;
+        }
+    }
+
+    static final class VoidReturn extends StatementNode {
+        @Override
+        public boolean execute(Frame frame){
+            return true;
+        }
+    }
+
+    /**
+     * Cria o retorna de um valor, ja convertido para o tipo de retorno da funcao.
+     */
+    static StatementNode valueReturn(Type type, ExpressionNode value){
+        return switch (type){
+            case INTEGER -> new IntReturn(value);
+            case REAL -> new RealReturn(value);
+            case BOOLEAN -> new BoolReturn(value);
+            case STRING -> new StringReturn(value);
+            default -> throw new IllegalStateException("retorno de valor numa funcao sem tipo: " + type);
+        };
+    }
+
+    static final class IntReturn extends ExpressionStatement {
+        IntReturn(ExpressionNode value){
+            super(value);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            frame.result = value.executeInt(frame);
+            return true;
+        }
+    }
+
+    static final class RealReturn extends ExpressionStatement {
+        RealReturn(ExpressionNode value){
+            super(value);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            frame.result = Double.doubleToRawLongBits(value.executeReal(frame));
+            return true;
+        }
+    }
+
+    static final class BoolReturn extends ExpressionStatement {
+        BoolReturn(ExpressionNode value){
+            super(value);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            frame.result = value.executeBool(frame) ? 1 : 0;
+            return true;
+        }
+    }
+
+    static final class StringReturn extends ExpressionStatement {
+        StringReturn(ExpressionNode value){
+            super(value);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            frame.resultString = value.executeString(frame);
+            return true;
+        }
+    }
+}
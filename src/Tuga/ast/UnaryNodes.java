@@ -0,0 +1,217 @@
+package Tuga.ast;
+
+import Tuga.semantic.Type;
+
+/**
+ * Nos das operacoes unarias e das conversoes de tipo.
+ * As conversoes de atribuicoes, argumentos e retornos comecam por ser um Coerce, que
+ * na primeira execucao ve o tipo do valor e se troca pelo proprio valor (quando ja
+ * tem o tipo de destino) ou pela conversao concreta.
+ */
+final class UnaryNodes {
+
+    private UnaryNodes(){
+    }
+
+    /**
+     * Operacao com um operando.
+     */
+    abstract static class UnaryNode extends ExpressionNode {
+        ExpressionNode operand;
+
+        UnaryNode(ExpressionNode operand){
+            this.operand = adopt(operand);
+        }
+
+        @Override
+        protected void replaceChild(Node child, Node replacement){
+            operand = (ExpressionNode) replacement;
+        }
+    }
+
+    /**
+     * Converte um valor para o texto de itos, dtos ou btos.
+     */
+    static String toText(Object value){
+        if (value instanceof Boolean b){
+            return b ? "true" : "falso";
+        }
+        return value.toString();
+    }
+
+    /**
+     * Conversao para o tipo de uma variavel, parametro ou retorno (inteiro para real,
+     * ou qualquer valor para string), ainda nao executada.
+     */
+    static final class Coerce extends UnaryNode {
+        private final Type target;
+
+        Coerce(Type target, ExpressionNode operand){
+            super(operand);
+            this.target = target;
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            Object value = operand.executeGeneric(frame);
+            if (target == Type.REAL && value instanceof Integer i){
+                replace(new IntToReal(operand));
+                return i.doubleValue();
+            }
+            if (target == Type.STRING && !(value instanceof String)){
+                replace(toStringNode(value, operand));
+                return toText(value);
+            }
+            replace(operand);
+            return value;
+        }
+    }
+
+    /**
+     * Cria a conversao para string de um operando cujo valor e value.
+     */
+    static ExpressionNode toStringNode(Object value, ExpressionNode operand){
+        if (value instanceof Integer){
+            return new IntToString(operand);
+        }
+        if (value instanceof Double){
+            return new RealToString(operand);
+        }
+        if (value instanceof Boolean){
+            return new BoolToString(operand);
+        }
+        return operand;
+    }
+
+    static final class IntToReal extends UnaryNode {
+        IntToReal(ExpressionNode operand){
+            super(operand);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeReal(frame);
+        }
+
+        @Override
+        public double executeReal(Frame frame){
+            return operand.executeInt(frame);
+        }
+    }
+
+    static final class IntToString extends UnaryNode {
+        IntToString(ExpressionNode operand){
+            super(operand);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeString(frame);
+        }
+
+        @Override
+        public String executeString(Frame frame){
+            return Integer.toString(operand.executeInt(frame));
+        }
+    }
+
+    static final class RealToString extends UnaryNode {
+        RealToString(ExpressionNode operand){
+            super(operand);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeString(frame);
+        }
+
+        @Override
+        public String executeString(Frame frame){
+            return Double.toString(operand.executeReal(frame));
+        }
+    }
+
+    static final class BoolToString extends UnaryNode {
+        BoolToString(ExpressionNode operand){
+            super(operand);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeString(frame);
+        }
+
+        @Override
+        public String executeString(Frame frame){
+            return operand.executeBool(frame) ? "true" : "falso";
+        }
+    }
+
+    /**
+     * Simetrico ainda nao executado: especializa-se em inteiro ou real.
+     */
+    static final class UninitializedNeg extends UnaryNode {
+        UninitializedNeg(ExpressionNode operand){
+            super(operand);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            Object value = operand.executeGeneric(frame);
+            if (value instanceof Integer i){
+                replace(new IntNeg(operand));
+                return -i;
+            }
+            replace(new RealNeg(operand));
+            return -(Double) value;
+        }
+    }
+
+    static final class IntNeg extends UnaryNode {
+        IntNeg(ExpressionNode operand){
+            super(operand);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeInt(frame);
+        }
+
+        @Override
+        public int executeInt(Frame frame){
+            return -operand.executeInt(frame);
+        }
+    }
+
+    static final class RealNeg extends UnaryNode {
+        RealNeg(ExpressionNode operand){
+            super(operand);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeReal(frame);
+        }
+
+        @Override
+        public double executeReal(Frame frame){
+            return -operand.executeReal(frame);
+        }
+    }
+
+    static final class Not extends UnaryNode {
+        Not(ExpressionNode operand){
+            super(operand);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            return !operand.executeBool(frame);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package Tuga.ast;
+
+import Tuga.semantic.Type;
+
+/**
+ * Nos das constantes e do acesso as variaveis.
+ * Uma variavel e uma posicao do frame da funcao ou, para as globais, do frame global
+ * do programa. A leitura comeca nao inicializada e especializa-se no tipo da variavel;
+ * a verificacao de NULO so e omitida para os parametros, que tem sempre valor.
+ */
+final class VariableNodes {
+
+    private VariableNodes(){
+    }
+
+    static final class IntConstant extends ExpressionNode {
+        private final int value;
+
+        IntConstant(int value){
+            this.value = value;
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return value;
+        }
+
+        @Override
+        public int executeInt(Frame frame){
+            return value;
+        }
+    }
+
+    static final class RealConstant extends ExpressionNode {
+        private final double value;
+
+        RealConstant(double value){
+            this.value = value;
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return value;
+        }
+
+        @Override
+        public double executeReal(Frame frame){
+            return value;
+        }
+    }
+
+    static final class BoolConstant extends ExpressionNode {
+        private final boolean value;
+
+        BoolConstant(boolean value){
+            this.value = value;
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return value;
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            return value;
+        }
+    }
+
+    static final class StringConstant extends ExpressionNode {
+        private final String value;
+
+        StringConstant(String value){
+            this.value = value;
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return value;
+        }
+
+        @Override
+        public String executeString(Frame frame){
+            return value;
+        }
+    }
+
+    /**
+     * Posicao de uma variavel: no frame atual ou, se global nao for null, no frame global.
+     */
+    abstract static class Read extends ExpressionNode {
+        final int slot;
+        final Frame global;
+        final boolean checked;
+
+        Read(int slot, Frame global, boolean checked){
+            this.slot = slot;
+            this.global = global;
+            this.checked = checked;
+        }
+
+        /**
+         * Obtem o frame da variavel, com erro se ela ainda for NULO.
+         */
+        final Frame frameOf(Frame frame){
+            Frame source = global != null ? global : frame;
+            if (checked && !source.assigned[slot]){
+                throw runtimeError("erro de runtime: tentativa de acesso a valor NULO");
+            }
+            return source;
+        }
+    }
+
+    /**
+     * Leitura ainda nao executada: na primeira execucao troca-se pela leitura do tipo da variavel.
+     */
+    static final class UninitializedRead extends Read {
+        private final Type type;
+
+        UninitializedRead(Type type, int slot, Frame global, boolean checked){
+            super(slot, global, checked);
+            this.type = type;
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            Read specialized = switch (type){
+                case INTEGER -> new IntRead(slot, global, checked);
+                case REAL -> new RealRead(slot, global, checked);
+                case BOOLEAN -> new BoolRead(slot, global, checked);
+                case STRING -> new StringRead(slot, global, checked);
+                default -> throw new IllegalStateException("variavel sem tipo: " + type);
+            };
+            return replace(specialized).executeGeneric(frame);
+        }
+    }
+
+    static final class IntRead extends Read {
+        IntRead(int slot, Frame global, boolean checked){
+            super(slot, global, checked);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeInt(frame);
+        }
+
+        @Override
+        public int executeInt(Frame frame){
+            return frameOf(frame).getInt(slot);
+        }
+    }
+
+    static final class RealRead extends Read {
+        RealRead(int slot, Frame global, boolean checked){
+            super(slot, global, checked);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeReal(frame);
+        }
+
+        @Override
+        public double executeReal(Frame frame){
+            return frameOf(frame).getReal(slot);
+        }
+    }
+
+    static final class BoolRead extends Read {
+        BoolRead(int slot, Frame global, boolean checked){
+            super(slot, global, checked);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeBool(frame);
+        }
+
+        @Override
+        public boolean executeBool(Frame frame){
+            return frameOf(frame).getBool(slot);
+        }
+    }
+
+    static final class StringRead extends Read {
+        StringRead(int slot, Frame global, boolean checked){
+            super(slot, global, checked);
+        }
+
+        @Override
+        public Object executeGeneric(Frame frame){
+            return executeString(frame);
+        }
+
+        @Override
+        public String executeString(Frame frame){
+            return frameOf(frame).getString(slot);
+        }
+    }
+
+    /**
+     * Atribuicao a uma variavel. O valor ja vem convertido para o tipo da variavel.
+     */
+    abstract static class Write extends StatementNode {
+        final int slot;
+        final Frame global;
+        ExpressionNode value;
+
+        Write(int slot, Frame global, ExpressionNode value){
+            this.slot = slot;
+            this.global = global;
+            this.value = adopt(value);
+        }
+
+        final Frame frameOf(Frame frame){
+            return global != null ? global : frame;
+        }
+
+        @Override
+        protected void replaceChild(Node child, Node replacement){
+            value = (ExpressionNode) replacement;
+        }
+    }
+
+    /**
+     * Cria a atribuicao do tipo da variavel.
+     */
+    static Write write(Type type, int slot, Frame global, ExpressionNode value){
+        return switch (type){
+            case INTEGER -> new IntWrite(slot, global, value);
+            case REAL -> new RealWrite(slot, global, value);
+            case BOOLEAN -> new BoolWrite(slot, global, value);
+            case STRING -> new StringWrite(slot, global, value);
+            default -> throw new IllegalStateException("variavel sem tipo: " + type);
+        };
+    }
+
+    static final class IntWrite extends Write {
+        IntWrite(int slot, Frame global, ExpressionNode value){
+            super(slot, global, value);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            int result = value.executeInt(frame);
+            frameOf(frame).setInt(slot, result);
+            return false;
+        }
+    }
+
+    static final class RealWrite extends Write {
+        RealWrite(int slot, Frame global, ExpressionNode value){
+            super(slot, global, value);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            double result = value.executeReal(frame);
+            frameOf(frame).setReal(slot, result);
+            return false;
+        }
+    }
+
+    static final class BoolWrite extends Write {
+        BoolWrite(int slot, Frame global, ExpressionNode value){
+            super(slot, global, value);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            boolean result = value.executeBool(frame);
+            frameOf(frame).setBool(slot, result);
+            return false;
+        }
+    }
+
+    static final class StringWrite extends Write {
+        StringWrite(int slot, Frame global, ExpressionNode value){
+            super(slot, global, value);
+        }
+
+        @Override
+        public boolean execute(Frame frame){
+            String result = value.executeString(frame);
+            frameOf(frame).setString(slot, result);
+            return false;
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package Tuga.codegen;
 
+import Tuga.codegen.opt.ConstantFolder;
+import Tuga.codegen.opt.DeadCodeEliminator;
+import Tuga.codegen.opt.Inliner;
+import Tuga.codegen.opt.LoopInvariants;
+import Tuga.codegen.opt.PeepholeOptimizer;
 import Tuga.semantic.SymbolTable;
 import Tuga.semantic.Type;
 import Tuga.semantic.TypeChecker;
 import Tuga.semantic.symbols.FunctionSymbol;
 import Tuga.semantic.symbols.Scope;
 import Tuga.semantic.symbols.Symbol;
+import Tuga.vm.BytecodeWriter;
 import Tuga.vm.ConstantPool;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
 import Tuga.parser.TugaBaseVisitor;
 import Tuga.parser.TugaParser;
 import Tuga.vm.OpCode;
@@ -31,7 +38,7 @@ import java.util.*;
  * e mantem informacoes sobre variaveis locais e globais para geracao adequada de
  * instrucoes de acesso a memoria.
  */
-public class BytecodeGenerator extends TugaBaseVisitor<Void> {
+public class BytecodeGenerator extends TugaBaseVisitor<Void> implements GeneratedCode {
     // ---- Geracao de Codigo ----
     /** As instrucoes de bytecode geradas */
     private final ArrayList<Instruction> code = new ArrayList<>();
@@ -43,8 +50,12 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
     private final TypeChecker typeChecker;
     /** Tabela de simbolos para consultas de variaveis e funcoes */
     private final SymbolTable symbolTable;
-    /** Cache para os tipos de expressoes */
-    private final Map<ParseTree, Type> expressionTypes = new HashMap<>();
+    /** Valores das expressoes constantes, ou null se a avaliacao em tempo de compilacao estiver desligada */
+    private final ConstantFolder constantFolder;
+    /** Se os operadores 'e' e 'ou' so avaliam o operando direito quando necessario */
+    private final boolean shortCircuit;
+    /** Se as expressoes invariantes dos ciclos enquanto sao calculadas uma unica vez antes do ciclo */
+    private final boolean hoistLoopInvariants;
 
     // ---- Gestao de Memoria ----
     /** Mapeia nomes de variaveis globais para os seus enderecos */
@@ -55,10 +66,16 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
     private Map<String, Integer> currentLocalVars = new HashMap<>();
     /** Proximo endereco disponivel para variaveis locais */
     private int nextLocalAdrress = 2; // Comeca em 2 apos o ponteiro de frame e endereco de retorno
+    /** Enderecos das variaveis locais que tem sempre um valor no ponto atual do codigo */
+    private Set<Integer> assignedLocals = new HashSet<>();
+    /** Endereco local onde foi guardado o valor de cada expressao invariante calculada antes do seu ciclo */
+    private final ParseTreeProperty<Integer> hoistedSlots = new ParseTreeProperty<>();
 
     // ---- Gestao de Funcoes ----
     /** Mapeia nomes de funcoes para os seus enderecos iniciais no bytecode */
     private final Map<String, Integer> functionAddresses = new HashMap<>();
+    /** Mapeia nomes de funcoes para o seu numero de argumentos */
+    private final Map<String, Integer> functionArgCounts = new HashMap<>();
     /** Armazena chamadas de funcao que necessitam de backpatching */
     private Map<String, List<Integer>> callsToBackatch = new HashMap<>();
 
@@ -80,9 +97,84 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
      * @param symbolTable tabela de simbolos com todas as declaracoes
      */
     public BytecodeGenerator(TypeChecker typeChecker, SymbolTable symbolTable){
+        this(typeChecker, symbolTable, false);
+    }
+
+    /**
+     * Construtor da classe BytecodeGenerator com avaliacao opcional de expressoes constantes.
+     * Com foldConstants, as expressoes cujo valor e conhecido em tempo de compilacao
+     * sao substituidas por uma unica constante, e os ramos de se/enquanto com condicao
+     * constante que nunca podem ser executados nao geram codigo.
+     *
+     * @param typeChecker verificador de tipos que ja processou o programa
+     * @param symbolTable tabela de simbolos com todas as declaracoes
+     * @param foldConstants se as expressoes constantes devem ser avaliadas em tempo de compilacao
+     */
+    public BytecodeGenerator(TypeChecker typeChecker, SymbolTable symbolTable, boolean foldConstants){
+        this(typeChecker, symbolTable, foldConstants, false);
+    }
+
+    /**
+     * Construtor da classe BytecodeGenerator com avaliacao opcional de expressoes constantes
+     * e de operadores logicos em curto-circuito.
+     * Com shortCircuit, 'a e b' nao avalia b quando a e falso e 'a ou b' nao avalia b
+     * quando a e verdadeiro, pelo que as chamadas de funcao (e os seus efeitos, incluindo
+     * erros de execucao) no operando direito podem nao acontecer. Sem shortCircuit, ambos
+     * os operandos sao sempre avaliados, como nas versoes anteriores do compilador.
+     *
+     * @param typeChecker verificador de tipos que ja processou o programa
+     * @param symbolTable tabela de simbolos com todas as declaracoes
+     * @param foldConstants se as expressoes constantes devem ser avaliadas em tempo de compilacao
+     * @param shortCircuit se 'e' e 'ou' devem ser avaliados em curto-circuito
+     */
+    public BytecodeGenerator(TypeChecker typeChecker, SymbolTable symbolTable, boolean foldConstants, boolean shortCircuit){
+        this(typeChecker, symbolTable, foldConstants, shortCircuit, false);
+    }
+
+    /**
+     * Construtor da classe BytecodeGenerator com avaliacao opcional de expressoes constantes,
+     * de operadores logicos em curto-circuito e de remocao de expressoes invariantes dos ciclos.
+     * Com hoistLoopInvariants, as expressoes de um ciclo enquanto que dao sempre o mesmo valor
+     * (ver LoopInvariants) sao calculadas antes do ciclo e guardadas em novas posicoes locais,
+     * que o ciclo le em vez de voltar a calcular a expressao em cada iteracao.
+     *
+     * @param typeChecker verificador de tipos que ja processou o programa
+     * @param symbolTable tabela de simbolos com todas as declaracoes
+     * @param foldConstants se as expressoes constantes devem ser avaliadas em tempo de compilacao
+     * @param shortCircuit se 'e' e 'ou' devem ser avaliados em curto-circuito
+     * @param hoistLoopInvariants se as expressoes invariantes dos ciclos devem ser calculadas antes do ciclo
+     */
+    public BytecodeGenerator(TypeChecker typeChecker, SymbolTable symbolTable, boolean foldConstants, boolean shortCircuit, boolean hoistLoopInvariants){
         this.typeChecker = typeChecker;
         this.constantPool = new ConstantPool();
         this.symbolTable = symbolTable;
+        this.constantFolder = foldConstants ? new ConstantFolder() : null;
+        this.shortCircuit = shortCircuit;
+        this.hoistLoopInvariants = hoistLoopInvariants;
+    }
+
+    /**
+     * Visita um no da arvore sintatica.
+     * Se o no for uma expressao constante, emite diretamente o seu valor
+     * em vez do codigo que o calcularia. Se for uma expressao invariante ja
+     * calculada antes do ciclo, emite a leitura da posicao onde foi guardada.
+     *
+     * @param tree O no a visitar
+     * @return null (o metodo retorna Void)
+     */
+    @Override
+    public Void visit(ParseTree tree){
+        Object value = constantValue(tree);
+        if (value != null){
+            emitConstant(value);
+            return null;
+        }
+        Integer slot = hoistedSlots.get(tree);
+        if (slot != null){
+            emit(OpCode.lload, slot);
+            return null;
+        }
+        return super.visit(tree);
     }
 
 
@@ -99,6 +191,11 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
      */
     @Override
     public Void visitProgram(TugaParser.ProgramContext ctx) {
+        // Calcula os valores das expressoes constantes de todo o programa
+        if (constantFolder != null){
+            constantFolder.visit(ctx);
+        }
+
         // Processa declaracoes de variaveis globais
         if (ctx.globals() != null){
             visit(ctx.globals());
@@ -199,6 +296,7 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
 
                 for (TerminalNode id : decl.variableList().IDENTIFIER()){
                     String varName = id.getText();
+                    assignedLocals.remove(nextLocalAdrress); // O endereco pode ter sido usado por um bloco anterior
                     currentLocalVars.put(varName, nextLocalAdrress++);
                 }
 
@@ -218,8 +316,9 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
      * Gera codigo bytecode para instrucoes de atribuicao (varname <- expression).
      * O metodo segue os seguintes passos:
      * 1. Processa a expressao do lado direito, deixando o seu valor no topo da pilha
-     * 2. Localiza o endereco da variavel de destino na memoria
-     * 3. Emite a instrucao de armazenamento apropriada (lstore ou gstore)
+     * 2. Converte o valor para real (itod) se a variavel for real e a expressao inteira
+     * 3. Localiza o endereco da variavel de destino na memoria
+     * 4. Emite a instrucao de armazenamento apropriada (lstore ou gstore)
      * Se a variavel nao foi encontrada nos mapas de endereco atuais, tenta
      * localiza-la na tabela de simbolos. Se encontrada, aloca um novo endereco
      * para ela no escopo apropriado.
@@ -235,6 +334,12 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
 
         String varName = ctx.IDENTIFIER().getText();
 
+        // Promocao de inteiro para real, como nos argumentos e no retorno
+        Symbol varSymbol = symbolTable.lookupSymbol(varName);
+        if (varSymbol != null && varSymbol.type == Type.REAL && getExpressionType(ctx.expression()) == Type.INTEGER){
+            emit(OpCode.itod);
+        }
+
         Integer varAddress = lookupVariable(varName);
 
         if (varAddress == null) {
@@ -253,6 +358,7 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
 
         if (varAddress < 0 || (!inGlobalScope && currentLocalVars.containsKey(varName))) {
             emit(OpCode.lstore, varAddress);
+            assignedLocals.add(varAddress);
         } else {
             emit(OpCode.gstore, varAddress);
         }
@@ -322,18 +428,18 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
 
         int blockVarCount = nextLocalAdrress - savedNextLocalAddr;
 
-        boolean hasReturn = false;
+        boolean alwaysReturns = false;
 
         for (TugaParser.InstructionContext instr : ctx.instruction()){
             visit(instr);
 
-            if (containsReturn(instr)){
-                hasReturn = true;
+            if (alwaysReturns(instr)){
+                alwaysReturns = true;
                 break;
             }
         }
 
-        if (!isFunctionBlock && blockVarCount > 0 && !hasReturn){
+        if (!isFunctionBlock && blockVarCount > 0 && !alwaysReturns){
             emit(OpCode.pop, blockVarCount);
         }
 
@@ -347,20 +453,20 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
     }
 
     /**
-     * Analisa recursivamente se uma instrucao, ou qualquer das suas instrucoes internas,
-     * contem um comando 'retorna' explicitamente declarado.
-     * Este metodo permite determinar se um bloco de codigo possui uma instrucao de retorno,
-     * realizando uma analise recursiva da estrutura sintatica. Verifica:
+     * Analisa recursivamente se uma instrucao termina com um 'retorna' em todos os caminhos.
+     * Verifica:
      * 1. Se a instrucao e diretamente um comando de retorno
-     * 2. Se a instrucao e um bloco que contem um comando de retorno
-     * 3. Se a instrucao e uma estrutura condicional (se-senao) com retorno em algum ramo
-     * Esta funcionalidade e utilizada para determinar se e necessario emitir codigo
-     * para libertar espaco de variaveis locais apos blocos de codigo.
+     * 2. Se a instrucao e um bloco com uma instrucao que retorna sempre
+     * 3. Se a instrucao e uma estrutura se-senao em que ambos os ramos retornam sempre
+     * So neste caso as instrucoes seguintes do bloco sao inalcancaveis e o bloco nao
+     * liberta as suas variaveis locais: com um 'retorna' condicional (um se sem senao,
+     * ou dentro de um enquanto), a execucao pode continuar depois da instrucao, e a
+     * pilha tem de ter a mesma profundidade em ambos os caminhos.
      *
      * @param ctx O contexto da instrucao a ser analisada
-     * @return verdadeiro se a instrucao contiver um comando de retorno, falso caso contrario
+     * @return verdadeiro se todos os caminhos da instrucao terminarem num retorno, falso caso contrario
      */
-    private boolean containsReturn(TugaParser.InstructionContext ctx){
+    private boolean alwaysReturns(TugaParser.InstructionContext ctx){
         if (ctx instanceof TugaParser.ReturnInstrContext){
             return true;
         }
@@ -368,7 +474,7 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
         if (ctx instanceof TugaParser.BlockInstrContext){
             TugaParser.BlockContext blockCtx = ((TugaParser.BlockInstrContext)ctx).block();
             for (TugaParser.InstructionContext instr : blockCtx.instruction()){
-                if (containsReturn(instr)){
+                if (alwaysReturns(instr)){
                     return true;
                 }
             }
@@ -376,7 +482,7 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
 
         if (ctx instanceof TugaParser.IfElseInstrContext){
             TugaParser.IfElseInstrContext ifCtx = (TugaParser.IfElseInstrContext) ctx;
-            return containsReturn(ifCtx.instruction(0)) || (ifCtx.instruction().size() > 1 && containsReturn(ifCtx.instruction(1)));
+            return ifCtx.instruction().size() > 1 && alwaysReturns(ifCtx.instruction(0)) && alwaysReturns(ifCtx.instruction(1));
         }
 
         return false;
@@ -384,36 +490,89 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
 
     @Override
     public Void visitWhileInstr(TugaParser.WhileInstrContext ctx){
-        int startLabel = code.size();
+        // Condicao constante: o corpo nunca e executado, ou o teste e desnecessario
+        Object condition = constantValue(ctx.expression());
+        if (Boolean.FALSE.equals(condition)){
+            return null;
+        }
+        if (Boolean.TRUE.equals(condition)){
+            int startLabel = code.size();
+            visitConditional(ctx.instruction());
+            emit(OpCode.jump, startLabel);
+            return null;
+        }
 
-        // Gera codigo para a condicao
-        visit(ctx.expression());
+        // Expressoes invariantes: calculadas aqui e guardadas em novas posicoes locais
+        int savedNextLocalAddr = nextLocalAdrress;
+        List<TugaParser.ExpressionContext> invariants = hoistLoopInvariants ? findLoopInvariants(ctx) : List.of();
+        for (TugaParser.ExpressionContext expr : invariants){
+            visit(expr); // O valor fica no topo da pilha, logo acima das variaveis locais
+            hoistedSlots.put(expr, nextLocalAdrress++);
+        }
+
+        int startLabel = code.size();
 
-        // Posicao onde ficara o jumpf
-        int jumpfPos = code.size();
-        emit(OpCode.jumpf, 0); // Placeholder, sera ajustado depois
+        // Gera codigo para a condicao e os saltos para o fim do ciclo quando e falsa
+        List<Integer> exitJumps = emitConditionalJumps(ctx.expression(), false); // Destinos serao ajustados depois
 
         // Gera o codigo para o corpo do loop
-        visit(ctx.instruction());
+        visitConditional(ctx.instruction());
 
         // Salto incondicional de volta ao inicio
         emit(OpCode.jump, startLabel);
 
-        // Atualiza o jumpf para saltar para aqui (final loop)
-        int endPos = code.size();
-        ((Instruction1Arg)code.get(jumpfPos)).setArg(endPos);
+        // Atualiza os saltos para saltarem para aqui (final loop)
+        patchJumps(exitJumps, code.size());
+
+        if (!invariants.isEmpty()){
+            emit(OpCode.pop, invariants.size());
+            for (TugaParser.ExpressionContext expr : invariants){
+                hoistedSlots.removeFrom(expr);
+            }
+            nextLocalAdrress = savedNextLocalAddr;
+        }
 
         return null;
     }
 
+    /**
+     * Procura as expressoes invariantes de um ciclo que podem ser calculadas antes dele.
+     * So as variaveis locais (ou parametros) que tem sempre um valor neste ponto podem ser lidas,
+     * para que calcular a expressao antes do ciclo nao provoque um acesso a um valor NULO.
+     *
+     * @param ctx O contexto do ciclo
+     * @return As expressoes invariantes
+     */
+    private List<TugaParser.ExpressionContext> findLoopInvariants(TugaParser.WhileInstrContext ctx){
+        LoopInvariants analysis = new LoopInvariants(constantFolder,
+                name -> {
+                    Integer address = inGlobalScope ? null : currentLocalVars.get(name);
+                    return address != null && (address < 0 || assignedLocals.contains(address));
+                },
+                expr -> hoistedSlots.get(expr) != null);
+        return analysis.find(ctx);
+    }
+
+    /**
+     * Gera o codigo de uma instrucao que pode nao ser executada (ramo de um se ou corpo de um ciclo).
+     * As variaveis locais atribuidas nela nao tem necessariamente um valor depois dela.
+     *
+     * @param ctx A instrucao
+     */
+    private void visitConditional(TugaParser.InstructionContext ctx){
+        Set<Integer> savedAssignedLocals = new HashSet<>(assignedLocals);
+        visit(ctx);
+        assignedLocals = savedAssignedLocals;
+    }
+
 
 
     /**
      * Gera codigo bytecode para instrucoes condicionais (se-senao).
      * Este metodo implementa a logica de controlo de fluxo para instrucoes
      * condicionais, seguindo os seguintes passos:
-     * 1. Avalia a expressao condicional, colocando o resultado na pilha
-     * 2. Emite um salto condicional (jumpf) para o caso da condicao ser falsa
+     * 1. Avalia a expressao condicional
+     * 2. Emite um salto condicional (jumpf, ou if_xx para comparacoes) para o caso da condicao ser falsa
      * 3. Gera o codigo para o bloco "se" (primeira instrucao)
      * 4. Trata o bloco "senao" caso exista:
      *    - Emite um salto incondicional para evitar a execucao do bloco "senao"
@@ -428,31 +587,35 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
      */
     @Override
     public Void visitIfElseInstr(TugaParser.IfElseInstrContext ctx){
-        visit(ctx.expression());
+        // Condicao constante: apenas o ramo que pode ser executado gera codigo
+        Object condition = constantValue(ctx.expression());
+        if (Boolean.TRUE.equals(condition)){
+            return visit(ctx.instruction(0));
+        }
+        if (Boolean.FALSE.equals(condition)){
+            return ctx.instruction().size() > 1 ? visit(ctx.instruction(1)) : null;
+        }
 
-        int jumpfPos = code.size();
-        emit(OpCode.jumpf, 0);
+        List<Integer> elseJumps = emitConditionalJumps(ctx.expression(), false);
 
         // Gera codigo para o bloco if
-        visit(ctx.instruction(0));
+        visitConditional(ctx.instruction(0));
 
         // Se tiver else
         if (ctx.instruction().size() > 1){
             int jumpPos = code.size();
             emit(OpCode.jump, 0);
 
-            // Atualiza o jumpf para saltar para o inicio do else
-            int elsePos = code.size();
-            ((Instruction1Arg)code.get(jumpfPos)).setArg(elsePos);
+            // Atualiza os saltos condicionais para saltarem para o inicio do else
+            patchJumps(elseJumps, code.size());
 
-            visit(ctx.instruction(1));
+            visitConditional(ctx.instruction(1));
 
             int endPos = code.size();
             ((Instruction1Arg)code.get(jumpPos)).setArg(endPos);
         }else {
-            // Se nao tive else, atualiza o jumpf para saltar para aqui
-            int endPos = code.size();
-            ((Instruction1Arg)code.get(jumpfPos)).setArg(endPos);
+            // Se nao tive else, atualiza os saltos condicionais para saltarem para aqui
+            patchJumps(elseJumps, code.size());
         }
 
         return null;
@@ -688,46 +851,9 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
         Type leftType = getExpressionType(ctx.expression(0));
         Type rightType = getExpressionType(ctx.expression(1));
 
-        if ((leftType == Type.INTEGER || leftType == Type.REAL) && (rightType == Type.INTEGER || rightType == Type.REAL)){
-            // Para ">" e ">=", invertemos a logica para usar "<" e "<="
-            boolean invertOperands = op.equals(">") || op.equals(">=");
-
-            // Determinar se e necessario converter para real
-            boolean needRealComparison = leftType == Type.REAL || rightType == Type.REAL;
-
-            if (invertOperands){
-                // Para ">" e ">=", geramos primeiro o lado DIREITO
-                visit(ctx.expression(1));
-
-                // Converter imediatamente se necessario
-                if (needRealComparison && rightType == Type.INTEGER){
-                    emit(OpCode.itod);
-                }
-
-                // Depois geramos o lado ESQUERDO
-                visit(ctx.expression(0));
-
-                // Converter imediatamente se necessario
-                if (needRealComparison && leftType == Type.INTEGER){
-                    emit(OpCode.itod);
-                }
-            }else {
-                // Para "<" e "<=", mantemos a ordem normal
-                visit(ctx.expression(0));
-
-                // Converter imediatamente se necessario
-                if (needRealComparison && leftType == Type.INTEGER){
-                    emit(OpCode.itod);
-                }
-
-                visit(ctx.expression(1));
-
-                // Converter imediatamente se necessario
-                if (needRealComparison && rightType == Type.INTEGER){
-                    emit(OpCode.itod);
-                }
-
-            }
+        if (isNumeric(leftType) && isNumeric(rightType)){
+            // Para ">" e ">=", invertemos a ordem dos operandos para usar "<" e "<="
+            boolean needRealComparison = emitComparisonOperands(ctx);
 
             // Operador de comparacao
             if (needRealComparison){
@@ -736,7 +862,6 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
                     case "<=", ">=" -> emit(OpCode.dleq);
                 }
             }else {
-                // Pelo menos um e real
                 switch (op){
                     case "<", ">" -> emit(OpCode.ilt);
                     case "<=", ">=" -> emit(OpCode.ileq);
@@ -765,22 +890,9 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
         Type rightType = getExpressionType(ctx.expression(1));
 
         // Operador de igualdade numericas
-        if ((leftType == Type.INTEGER || leftType == Type.REAL) && (rightType == Type.INTEGER || rightType == Type.REAL)){
+        if (isNumeric(leftType) && isNumeric(rightType)){
 
-            // Determinar se precisamos de comparacao de reais
-            boolean needRealComparison = leftType == Type.REAL || rightType == Type.REAL;
-
-            visit(ctx.expression(0));
-
-            if (needRealComparison && leftType == Type.INTEGER){
-                emit(OpCode.itod);
-            }
-
-            visit(ctx.expression(1));
-
-            if (needRealComparison && rightType == Type.INTEGER){
-                emit(OpCode.itod);
-            }
+            boolean needRealComparison = emitNumericOperands(ctx.expression(0), ctx.expression(1));
 
             // Emitir a operacao de igualdade adequada
             if (needRealComparison){
@@ -811,7 +923,8 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
 
     /**
      * Gera codigo bytecode para expressoes logicas 'e' (AND).
-     * Avalia ambos os operandos e aplica o operador logico 'e'.
+     * Em curto-circuito, salta sobre o operando direito quando o esquerdo e falso.
+     * Caso contrario, avalia ambos os operandos e aplica o operador logico 'e'.
      *
      * @param ctx O contexto da expressao AND
      * @return null (o metodo retorna Void)
@@ -819,24 +932,28 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
      */
     @Override
     public Void visitAndExpr(TugaParser.AndExprContext ctx) {
-        visit(ctx.expression(0));
-        visit(ctx.expression(1));
-
         Type leftType = getExpressionType(ctx.expression(0));
         Type rightType = getExpressionType(ctx.expression(1));
 
-        if (leftType == Type.BOOLEAN && rightType == Type.BOOLEAN) {
-            emit(OpCode.and);
-        } else {
+        if (leftType != Type.BOOLEAN || rightType != Type.BOOLEAN) {
             throw new RuntimeException("Operador 'e' so pode ser aplicado entre valores booleanos");
         }
 
+        if (shortCircuit){
+            emitShortCircuit(ctx.expression(0), ctx.expression(1), false);
+        }else {
+            visit(ctx.expression(0));
+            visit(ctx.expression(1));
+            emit(OpCode.and);
+        }
+
         return null;
     }
 
     /**
      * Gera codigo bytecode para expressoes logicas 'ou' (OR).
-     * Avalia ambos os operandos e aplica o operador logico 'ou'.
+     * Em curto-circuito, salta sobre o operando direito quando o esquerdo e verdadeiro.
+     * Caso contrario, avalia ambos os operandos e aplica o operador logico 'ou'.
      *
      * @param ctx O contexto da expressao OR
      * @return null (o metodo retorna Void)
@@ -844,18 +961,21 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
      */
     @Override
     public Void visitOrExpr(TugaParser.OrExprContext ctx) {
-        visit(ctx.expression(0));
-        visit(ctx.expression(1));
-
         Type leftType = getExpressionType(ctx.expression(0));
         Type rightType = getExpressionType(ctx.expression(1));
 
-        if (leftType == Type.BOOLEAN && rightType == Type.BOOLEAN) {
-            emit(OpCode.or);
-        } else {
+        if (leftType != Type.BOOLEAN || rightType != Type.BOOLEAN) {
             throw new RuntimeException("Operador 'ou' so pode ser aplicado entre valores booleanos");
         }
 
+        if (shortCircuit){
+            emitShortCircuit(ctx.expression(0), ctx.expression(1), true);
+        }else {
+            visit(ctx.expression(0));
+            visit(ctx.expression(1));
+            emit(OpCode.or);
+        }
+
         return null;
     }
 
@@ -880,12 +1000,14 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
         // Salvar o estado atual
         Map<String, Integer> savedLocalVars = currentLocalVars;
         int savedNextLocalAddress = nextLocalAdrress;
+        Set<Integer> savedAssignedLocals = assignedLocals;
         boolean savedInGlobalScope = inGlobalScope;
         String savedCurrentFunction = currentFunction;
 
         // Configurar o novo estado
         currentLocalVars = new HashMap<>();
         nextLocalAdrress = 2;
+        assignedLocals = new HashSet<>();
         inGlobalScope = false;
         currentFunction = funcName;
 
@@ -898,6 +1020,7 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
 
         if (ctx.paramList() != null){
             paramCount = ctx.paramList().param().size();
+            functionArgCounts.put(funcName, paramCount);
             for (TugaParser.ParamContext param : ctx.paramList().param()){
                 String paramName = param.IDENTIFIER().getText();
 
@@ -940,6 +1063,7 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
         // Restaurar o estado anterior
         currentLocalVars = savedLocalVars;
         nextLocalAdrress = savedNextLocalAddress;
+        assignedLocals = savedAssignedLocals;
         inGlobalScope = savedInGlobalScope;
         currentFunction = savedCurrentFunction;
         symbolTable.setCurrentScope(oldScope);
@@ -950,7 +1074,9 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
     /**
      * Gera codigo bytecode para instrucoes de retorno.
      * Processa a expressao de retorno (se existir) e emite a instrucao
-     * de retorno apropriada (retval ou ret).
+     * de retorno apropriada (retval ou ret). Se o valor de retorno for uma
+     * chamada de funcao sem conversao, emite um tailcall, que reutiliza o
+     * frame atual em vez de criar um novo.
      *
      * @param ctx O contexto da instrucao de retorno
      * @return null (o metodo retorna Void)
@@ -969,6 +1095,15 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
             }
         }
 
+        // Chamada em posicao de cauda: o frame atual e reutilizado pela funcao chamada
+        TugaParser.FunctionCallContext tailCall = ctx.expression() != null ? tailCall(ctx.expression()) : null;
+        if (tailCall != null){
+            String funcName = tailCall.IDENTIFIER().getText();
+            emitArguments(tailCall, (FunctionSymbol) symbolTable.lookupSymbol(funcName));
+            emitCall(new Instruction2Arg(OpCode.tailcall, 0, paramCount), funcName);
+            return null;
+        }
+
         // Processar a expressao de retorno se houver
         if (ctx.expression() != null){
             visit(ctx.expression());
@@ -1043,42 +1178,102 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
             throw new RuntimeException("Function not declared: " + funcName);
         }
 
-        List<? extends Symbol> parameters = functionSymbol.getParameters();
+        emitArguments(ctx, functionSymbol);
 
-        if (ctx.exprList() != null){
-            List<TugaParser.ExpressionContext> arguments = ctx.exprList().expression();
+        symbolTable.setCurrentScope(functionSymbol.scope);
 
-            for (int i = 0; i < arguments.size(); i++){
-                TugaParser.ExpressionContext expr = arguments.get(i);
+        emitCall(new Instruction1Arg(OpCode.call, 0), funcName);
 
-                visit(expr);
+        // Para chamadas de funcao usadas como instrucoes, descarta o valor de retorno se existir
+        if (ctx.parent instanceof TugaParser.FunctionCallInstrContext) {
+            if (functionSymbol.type != Type.VOID) {
+                emit(OpCode.pop, 1); // Descarta o valor de rotorno
+            }
+        }
 
-                Type paramType = parameters.get(i).type;
-                Type argType = getExpressionType(expr);
+        // Restora o escopo original
+        symbolTable.setCurrentScope(oldScope);
 
-                if (paramType != argType){
-                    if (paramType == Type.REAL && argType == Type.INTEGER){
-                        emit(OpCode.itod);
-                    }else if (paramType == Type.STRING && argType != null){
-                        convertToString(argType);
-                    }else {
-                        throw new RuntimeException("Nao e possivel converter " + argType + " para " +
-                                paramType + " no argumento " + (i+1) + " da funcao " + funcName
-                        );
-                    }
+        return null;
+    }
+
+    /**
+     * Obtem a chamada de funcao que e o valor de um 'retorna', se puder ser feita
+     * em posicao de cauda: o seu valor e devolvido sem conversoes pela funcao atual.
+     *
+     * @param expr A expressao de retorno
+     * @return A chamada de funcao, ou null se a expressao nao for uma chamada em posicao de cauda
+     */
+    private TugaParser.FunctionCallContext tailCall(TugaParser.ExpressionContext expr){
+        while (expr instanceof TugaParser.ParenExprContext paren){
+            expr = paren.expression();
+        }
+        if (!(expr instanceof TugaParser.FunctionalCallExprContext callExpr)){
+            return null;
+        }
+
+        Symbol funcSymbol = symbolTable.lookupSymbol(currentFunction);
+        Symbol calleeSymbol = symbolTable.lookupSymbol(callExpr.functionCall().IDENTIFIER().getText());
+        if (!(funcSymbol instanceof FunctionSymbol) || !(calleeSymbol instanceof FunctionSymbol)
+                || funcSymbol.type == null || funcSymbol.type == Type.VOID || funcSymbol.type != calleeSymbol.type){
+            return null;
+        }
+        return callExpr.functionCall();
+    }
+
+    /**
+     * Empilha os argumentos de uma chamada de funcao, com as conversoes
+     * necessarias para os tipos dos parametros.
+     *
+     * @param ctx O contexto da chamada de funcao
+     * @param functionSymbol O simbolo da funcao chamada
+     * @throws RuntimeException se um argumento nao puder ser convertido para o tipo do parametro
+     */
+    private void emitArguments(TugaParser.FunctionCallContext ctx, FunctionSymbol functionSymbol){
+        if (ctx.exprList() == null){
+            return;
+        }
+
+        String funcName = ctx.IDENTIFIER().getText();
+        List<? extends Symbol> parameters = functionSymbol.getParameters();
+        List<TugaParser.ExpressionContext> arguments = ctx.exprList().expression();
+
+        for (int i = 0; i < arguments.size(); i++){
+            TugaParser.ExpressionContext expr = arguments.get(i);
+
+            visit(expr);
+
+            Type paramType = parameters.get(i).type;
+            Type argType = getExpressionType(expr);
+
+            if (paramType != argType){
+                if (paramType == Type.REAL && argType == Type.INTEGER){
+                    emit(OpCode.itod);
+                }else if (paramType == Type.STRING && argType != null){
+                    convertToString(argType);
+                }else {
+                    throw new RuntimeException("Nao e possivel converter " + argType + " para " +
+                            paramType + " no argumento " + (i+1) + " da funcao " + funcName
+                    );
                 }
             }
         }
+    }
 
-        symbolTable.setCurrentScope(functionSymbol.scope);
-
+    /**
+     * Emite uma instrucao de chamada (call ou tailcall) de uma funcao. Se o endereco
+     * da funcao ainda nao for conhecido, a instrucao fica registada para backpatching.
+     *
+     * @param inst A instrucao de chamada, cujo primeiro argumento e o endereco da funcao
+     * @param funcName O nome da funcao chamada
+     */
+    private void emitCall(Instruction1Arg inst, String funcName){
         int callPos = code.size();
+        code.add(inst);
 
         if (functionAddresses.containsKey(funcName) && functionAddresses.get(funcName) >= 0){
-            emit(OpCode.call, functionAddresses.get(funcName));
+            inst.setArg(functionAddresses.get(funcName));
         }else {
-            emit(OpCode.call, 0);
-
             if (callsToBackatch == null) {
                 callsToBackatch = new HashMap<>();
             }
@@ -1089,19 +1284,6 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
 
             callsToBackatch.get(funcName).add(callPos);
         }
-
-        // Para chamadas de funcao usadas como instrucoes, descarta o valor de retorno se existir
-        if (ctx.parent instanceof TugaParser.FunctionCallInstrContext) {
-            Type returnType = typeChecker.visit(ctx);
-            if (returnType != null && returnType != Type.VOID) {
-                emit(OpCode.pop, 1); // Descarta o valor de rotorno
-            }
-        }
-
-        // Restora o escopo original
-        symbolTable.setCurrentScope(oldScope);
-
-        return null;
     }
 
     /**
@@ -1167,44 +1349,211 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
     }
 
     /**
-     * Obtem o tipo de uma expressao.
-     * Primeiro tenta obter o tipo a partir do contexto da expressao,
-     * depois tenta inferir a partir da estrutura sintatica e, como ultimo
-     * recurso, consulta o TypeChecker.
+     * Gera o teste da condicao de um se ou enquanto seguido dos saltos condicionais.
+     * Quando a condicao e uma comparacao ou igualdade entre numeros, emite um unico
+     * salto com comparacao (if_ilt, if_ige, ...) em vez da comparacao seguida de jumpf,
+     * evitando empilhar e desempilhar o valor logico. Os parenteses e o operador nao
+     * sao tratados diretamente, trocando a condicao do salto. Em curto-circuito, 'e' e
+     * 'ou' sao traduzidos em saltos para os destinos finais, sem calcular o valor logico.
      *
-     * @param ctx O contexto da expressao
-     * @return O tipo da expressao, ou null se nao for possivel determinar
+     * @param ctx A expressao da condicao
+     * @param jumpIfTrue Se o salto e feito quando a condicao e verdadeira (senao, quando e falsa)
+     * @return As posicoes das instrucoes de salto, cujo destino tem de ser ajustado depois
      */
-    private Type getExpressionType(ParseTree ctx) {
-        if (ctx instanceof TugaParser.VarExprContext){
-            String varName = ctx.getText();
-            Symbol symbol = symbolTable.lookupSymbol(varName);
+    private List<Integer> emitConditionalJumps(TugaParser.ExpressionContext ctx, boolean jumpIfTrue){
+        if (hoistedSlots.get(ctx) != null){
+            // Valor logico ja calculado antes do ciclo
+            visit(ctx);
+            if (jumpIfTrue){
+                emit(OpCode.not);
+            }
+            int jumpPos = code.size();
+            emit(OpCode.jumpf, 0);
+            return List.of(jumpPos);
+        }
+        if (ctx instanceof TugaParser.ParenExprContext paren){
+            return emitConditionalJumps(paren.expression(), jumpIfTrue);
+        }
+        if (ctx instanceof TugaParser.UnaryExprContext unary && "nao".equals(unary.op.getText())){
+            return emitConditionalJumps(unary.expression(), !jumpIfTrue);
+        }
+        if (shortCircuit && constantValue(ctx) == null
+                && (ctx instanceof TugaParser.AndExprContext || ctx instanceof TugaParser.OrExprContext)){
+            // 'a e b' salta quando a e falso e 'a ou b' salta quando a e verdadeiro,
+            // sem avaliar b; se isso coincide com jumpIfTrue, esses saltos vao para o destino final
+            boolean isOr = ctx instanceof TugaParser.OrExprContext;
+            TugaParser.ExpressionContext left = isOr ? ((TugaParser.OrExprContext) ctx).expression(0) : ((TugaParser.AndExprContext) ctx).expression(0);
+            TugaParser.ExpressionContext right = isOr ? ((TugaParser.OrExprContext) ctx).expression(1) : ((TugaParser.AndExprContext) ctx).expression(1);
+
+            List<Integer> leftJumps = emitConditionalJumps(left, isOr);
+            if (isOr == jumpIfTrue){
+                List<Integer> jumps = new ArrayList<>(leftJumps);
+                jumps.addAll(emitConditionalJumps(right, jumpIfTrue));
+                return jumps;
+            }
+            // Caso contrario, o resultado ja e conhecido e a execucao continua depois do teste
+            List<Integer> rightJumps = emitConditionalJumps(right, jumpIfTrue);
+            patchJumps(leftJumps, code.size());
+            return rightJumps;
+        }
 
-            if (symbol != null){
-                return symbol.type;
+        OpCode branch = null;
+        if (ctx instanceof TugaParser.ComparisonExprContext cmp
+                && isNumeric(getExpressionType(cmp.expression(0))) && isNumeric(getExpressionType(cmp.expression(1)))){
+            boolean real = emitComparisonOperands(cmp);
+            boolean strict = "<".equals(cmp.op.getText()) || ">".equals(cmp.op.getText());
+            if (real){
+                branch = strict ? (jumpIfTrue ? OpCode.if_dlt : OpCode.if_dge) : (jumpIfTrue ? OpCode.if_dleq : OpCode.if_dgt);
+            }else {
+                branch = strict ? (jumpIfTrue ? OpCode.if_ilt : OpCode.if_ige) : (jumpIfTrue ? OpCode.if_ileq : OpCode.if_igt);
             }
+        } else if (ctx instanceof TugaParser.EqualityExprContext eq
+                && isNumeric(getExpressionType(eq.expression(0))) && isNumeric(getExpressionType(eq.expression(1)))) {
+            boolean real = emitNumericOperands(eq.expression(0), eq.expression(1));
+            boolean equal = "igual".equals(eq.op.getText()) == jumpIfTrue;
+            if (real){
+                branch = equal ? OpCode.if_deq : OpCode.if_dneq;
+            }else {
+                branch = equal ? OpCode.if_ieq : OpCode.if_ineq;
+            }
+        }
 
-        } else if (ctx instanceof TugaParser.LiteralExprContext) {
-            TugaParser.LiteralContext literalContext = ((TugaParser.LiteralExprContext) ctx).literal();
-
-            if (literalContext instanceof TugaParser.IntLiteralContext){
-                return Type.INTEGER;
-            } else if (literalContext instanceof TugaParser.RealLiteralContext) {
-                return Type.REAL;
-            } else if (literalContext instanceof TugaParser.StringLiteralContext) {
-                return Type.STRING;
-            } else if (literalContext instanceof TugaParser.BoolLiteralContext) {
-                return Type.BOOLEAN;
+        if (branch == null){
+            // Condicao generica: valor logico seguido de jumpf
+            visit(ctx);
+            if (jumpIfTrue){
+                emit(OpCode.not);
             }
+            branch = OpCode.jumpf;
+        }
+
+        int jumpPos = code.size();
+        emit(branch, 0);
+        return List.of(jumpPos);
+    }
+
+    /**
+     * Gera o valor logico de 'a e b' ou 'a ou b' em curto-circuito:
+     * o operando direito so e avaliado se o esquerdo nao determinar o resultado.
+     *
+     * @param left O operando esquerdo
+     * @param right O operando direito
+     * @param isOr true para 'ou', false para 'e'
+     */
+    private void emitShortCircuit(TugaParser.ExpressionContext left, TugaParser.ExpressionContext right, boolean isOr){
+        // Salta para o resultado conhecido (falso para 'e', verdadeiro para 'ou')
+        List<Integer> knownJumps = emitConditionalJumps(left, isOr);
+        visit(right);
+
+        int jumpPos = code.size();
+        emit(OpCode.jump, 0);
+
+        patchJumps(knownJumps, code.size());
+        emit(isOr ? OpCode.tconst : OpCode.fconst);
+
+        ((Instruction1Arg)code.get(jumpPos)).setArg(code.size());
+    }
+
+    /**
+     * Ajusta o destino de um conjunto de saltos.
+     *
+     * @param jumps As posicoes das instrucoes de salto
+     * @param target O endereco de destino
+     */
+    private void patchJumps(List<Integer> jumps, int target){
+        for (int jumpPos : jumps){
+            ((Instruction1Arg)code.get(jumpPos)).setArg(target);
         }
+    }
 
-        try {
-            return typeChecker.visit(ctx);
-        }catch (Exception e){
-            System.out.println("ERRO: Falha ao determinar tipo via TypeChecker: " + e.getMessage());
+    /**
+     * Gera os operandos de uma comparacao (<, <=, >, >=) entre numeros.
+     * Para ">" e ">=", o lado direito e gerado primeiro, para que a comparacao
+     * possa ser feita com as instrucoes de "<" e "<=".
+     *
+     * @param ctx O contexto da expressao de comparacao
+     * @return true se a comparacao e entre reais
+     */
+    private boolean emitComparisonOperands(TugaParser.ComparisonExprContext ctx){
+        String op = ctx.op.getText();
+        if (op.equals(">") || op.equals(">=")){
+            return emitNumericOperands(ctx.expression(1), ctx.expression(0));
         }
+        return emitNumericOperands(ctx.expression(0), ctx.expression(1));
+    }
 
-        return null;
+    /**
+     * Gera dois operandos numericos, pela ordem dada. Se algum deles for real,
+     * o outro e convertido para real logo a seguir a ser gerado.
+     *
+     * @param first O operando gerado primeiro
+     * @param second O operando gerado em segundo lugar
+     * @return true se os operandos ficam como reais
+     */
+    private boolean emitNumericOperands(TugaParser.ExpressionContext first, TugaParser.ExpressionContext second){
+        Type firstType = getExpressionType(first);
+        Type secondType = getExpressionType(second);
+        boolean needRealComparison = firstType == Type.REAL || secondType == Type.REAL;
+
+        visit(first);
+        if (needRealComparison && firstType == Type.INTEGER){
+            emit(OpCode.itod);
+        }
+
+        visit(second);
+        if (needRealComparison && secondType == Type.INTEGER){
+            emit(OpCode.itod);
+        }
+        return needRealComparison;
+    }
+
+    private static boolean isNumeric(Type type){
+        return type == Type.INTEGER || type == Type.REAL;
+    }
+
+    /**
+     * Obtem o valor de uma expressao calculado em tempo de compilacao.
+     *
+     * @param ctx O no da arvore sintatica
+     * @return O valor, ou null se o no nao for uma expressao constante
+     */
+    private Object constantValue(ParseTree ctx){
+        if (constantFolder == null || !(ctx instanceof TugaParser.ExpressionContext)){
+            return null;
+        }
+        return constantFolder.getValue(ctx);
+    }
+
+    /**
+     * Emite a instrucao que empilha um valor constante.
+     *
+     * @param value O valor (Integer, Double, String ou Boolean)
+     */
+    private void emitConstant(Object value){
+        if (value instanceof Integer i){
+            emit(OpCode.iconst, i);
+        } else if (value instanceof Double d) {
+            emit(OpCode.dconst, addRealConstant(d));
+        } else if (value instanceof String str) {
+            emit(OpCode.sconst, addStringConstant(str));
+        } else if (value instanceof Boolean b) {
+            emit(b ? OpCode.tconst : OpCode.fconst);
+        }
+    }
+
+    /**
+     * Obtem o tipo de uma expressao, registado pelo TypeChecker durante a verificacao.
+     *
+     * @param ctx O contexto da expressao
+     * @return O tipo da expressao
+     * @throws IllegalStateException se o TypeChecker nao tiver registado o tipo da expressao
+     */
+    private Type getExpressionType(ParseTree ctx) {
+        Type recorded = typeChecker.getExpressionType(ctx);
+        if (recorded == null){
+            throw new IllegalStateException("Tipo da expressao '" + ctx.getText() + "' nao foi registado pelo TypeChecker");
+        }
+        return recorded;
     }
 
     /**
@@ -1278,41 +1627,76 @@ public class BytecodeGenerator extends TugaBaseVisitor<Void> {
         }
     }
 
+    /**
+     * Aplica um otimizador peephole as instrucoes geradas.
+     * Os enderecos das funcoes sao atualizados para o codigo otimizado.
+     *
+     * @param optimizer O otimizador a aplicar
+     */
+    public void optimize(PeepholeOptimizer optimizer){
+        int[] remap = optimizer.optimize(code, constantPool, functionAddresses.values());
+        functionAddresses.replaceAll((name, address) -> remap[address]);
+    }
+
+    /**
+     * Expande no local da chamada as funcoes folha pequenas (ver Inliner).
+     * Os enderecos das funcoes sao atualizados para o codigo resultante.
+     *
+     * @param inliner O inliner a aplicar
+     */
+    public void inline(Inliner inliner){
+        int[] remap = inliner.inline(code, constantPool, functionAddresses.values());
+        functionAddresses.replaceAll((name, address) -> remap[address]);
+    }
+
+    /**
+     * Remove as instrucoes inalcancaveis, as funcoes que nunca sao chamadas e as
+     * atribuicoes a variaveis que nunca sao lidas (ver DeadCodeEliminator).
+     *
+     * @param eliminator O eliminador a aplicar
+     */
+    public void eliminateDeadCode(DeadCodeEliminator eliminator){
+        int[] remap = eliminator.eliminate(code, constantPool, functionAddresses.values());
+        functionAddresses.values().removeIf(address -> remap[address] < 0);
+        functionAddresses.replaceAll((name, address) -> remap[address]);
+    }
+
+    /**
+     * Obtem a pool de constantes gerada.
+     *
+     * @return A pool de constantes
+     */
+    public ConstantPool getConstantPool(){
+        return constantPool;
+    }
+
+    /**
+     * Obtem as instrucoes geradas, prontas para serem carregadas na maquina virtual
+     * sem passar por um ficheiro de bytecodes.
+     *
+     * @return O array de instrucoes
+     */
+    public Instruction[] getCode(){
+        return code.toArray(new Instruction[0]);
+    }
+
     /**
      * Salva os bytecodes gerados em um arquivo binario.
      * Este arquivo pode ser carregado e executado pela maquina virtual Tuga.
+     * O ficheiro segue o formato descrito em BytecodeFormat.
      *
      * @param filename O nome do arquivo para salvar os bytecodes
      * @throws IOException Se ocorrer um erro de E/S ao escrever o arquivo
      */
     public void saveBytecodes(String filename) throws IOException {
-        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(filename))) {
-            List<Object> allConstants = constantPool.getAllConstants();
-
-            // Escreve o numero de entradas na constant pool
-            out.writeInt(allConstants.size());
-
-           for (Object constant: allConstants){
-               if (constant instanceof Double){
-                   out.writeByte(1); //Tipo Double
-                   out.writeDouble((Double) constant);
-               } else if (constant instanceof String) {
-                   out.writeByte(2); //Tipo String
-                   String str = (String) constant;
-                   char[] chars = str.toCharArray();
-                   out.writeInt(chars.length * 2); //Tamano em bytes (2 bytes por caractere)
-                   for (char c : chars){
-                       out.writeChar(c);
-                   }
-               }
-           }
-
-            // Escreve as instrucoes
-            for (Instruction inst : code) {
-                inst.writeTo(out);
-            }
+        BytecodeWriter writer = new BytecodeWriter(constantPool, code);
 
-        }
+        // Tabela de funcoes, por ordem de endereco
+        functionAddresses.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(e -> writer.addFunction(e.getKey(), e.getValue(), functionArgCounts.getOrDefault(e.getKey(), 0)));
+
+        writer.write(filename);
     }
 
     /**
@@ -0,0 +1,69 @@
+package Tuga.codegen;
+
+import Tuga.codegen.opt.DeadCodeEliminator;
+import Tuga.codegen.opt.Inliner;
+import Tuga.codegen.opt.PeepholeOptimizer;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.instruction.Instruction;
+
+import java.io.IOException;
+
+/**
+ * Codigo produzido por um gerador de bytecode (BytecodeGenerator ou IrBytecodeGenerator),
+ * pronto a ser otimizado, listado, guardado num ficheiro ou carregado na maquina virtual.
+ */
+public interface GeneratedCode {
+    /**
+     * Expande no local da chamada as funcoes folha pequenas (ver Inliner).
+     *
+     * @param inliner O inliner a aplicar
+     */
+    void inline(Inliner inliner);
+
+    /**
+     * Remove as instrucoes inalcancaveis, as funcoes que nunca sao chamadas e as
+     * atribuicoes a variaveis que nunca sao lidas (ver DeadCodeEliminator).
+     *
+     * @param eliminator O eliminador a aplicar
+     */
+    void eliminateDeadCode(DeadCodeEliminator eliminator);
+
+    /**
+     * Aplica um otimizador peephole as instrucoes geradas.
+     *
+     * @param optimizer O otimizador a aplicar
+     */
+    void optimize(PeepholeOptimizer optimizer);
+
+    /**
+     * Obtem a pool de constantes gerada.
+     *
+     * @return A pool de constantes
+     */
+    ConstantPool getConstantPool();
+
+    /**
+     * Obtem as instrucoes geradas.
+     *
+     * @return O array de instrucoes
+     */
+    Instruction[] getCode();
+
+    /**
+     * Guarda os bytecodes num ficheiro binario, no formato descrito em BytecodeFormat.
+     *
+     * @param filename O nome do ficheiro
+     * @throws IOException Se ocorrer um erro de E/S ao escrever o ficheiro
+     */
+    void saveBytecodes(String filename) throws IOException;
+
+    /**
+     * Mostra as instrucoes geradas, uma por linha, com o seu endereco.
+     */
+    void dumpCode();
+
+    /**
+     * Mostra o conteudo da pool de constantes.
+     */
+    void dumpConstantPool();
+}
@@ -0,0 +1,447 @@
+package Tuga.codegen;
+
+import Tuga.codegen.opt.DeadCodeEliminator;
+import Tuga.codegen.opt.Inliner;
+import Tuga.codegen.opt.PeepholeOptimizer;
+import Tuga.ir.*;
+import Tuga.ir.instruction.*;
+import Tuga.semantic.Type;
+import Tuga.vm.BytecodeWriter;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.OpCode;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import Tuga.vm.instruction.Instruction2Arg;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Gerador de bytecode a partir da representacao intermedia (IrProgram).
+ * Produz o mesmo formato de codigo que o BytecodeGenerator, pelo que o resultado pode
+ * passar pelo Inliner, pelo otimizador peephole e pelas superinstrucoes da mesma forma.
+ *
+ * Os parametros ficam nos enderecos negativos habituais e os restantes registos numa
+ * posicao local do frame, reservada com um unico lalloc na entrada da funcao.
+ * Um temporario definido e lido uma unica vez no mesmo bloco, logo antes da instrucao
+ * que o le (depois dos outros operandos dessa instrucao), nao ocupa nenhuma posicao:
+ * o seu valor fica na pilha de operandos, o que reconstroi as arvores de expressoes sem
+ * mudar a ordem das instrucoes. Uma comparacao cujo resultado so e usado por um salto
+ * condicional gera um if_xx, e o retorno do resultado de uma chamada gera um tailcall.
+ */
+public class IrBytecodeGenerator implements GeneratedCode {
+    /** As instrucoes de bytecode geradas */
+    private final ArrayList<Instruction> code = new ArrayList<>();
+    /** Pool de constantes para valores reais e strings */
+    private final ConstantPool constantPool = new ConstantPool();
+    /** Mapeia nomes de funcoes para os seus enderecos iniciais no bytecode */
+    private final Map<String, Integer> functionAddresses = new HashMap<>();
+    /** Mapeia nomes de funcoes para o seu numero de argumentos */
+    private final Map<String, Integer> functionArgCounts = new HashMap<>();
+    /** Posicoes das chamadas a cada funcao, cujo destino e preenchido no fim */
+    private final Map<String, List<Integer>> callsToBackpatch = new HashMap<>();
+
+    // ---- Estado da funcao a ser gerada ----
+    /** Endereco local de cada registo, pelo numero do registo */
+    private int[] slots;
+    /** Instrucao que define cada temporario cujo valor fica na pilha */
+    private Map<Register, IrInstruction> stackValues;
+    /** Numero de parametros da funcao */
+    private int paramCount;
+
+    /**
+     * Gera o bytecode de um programa.
+     * A estrutura e a mesma do BytecodeGenerator: alocacao das variaveis globais,
+     * chamada da funcao principal, halt e o codigo de cada funcao.
+     *
+     * @param program O programa na representacao intermedia
+     * @throws RuntimeException se a funcao principal nao existir
+     */
+    public void generate(IrProgram program){
+        if (!program.getGlobals().isEmpty()){
+            emit(OpCode.galloc, program.getGlobals().size());
+        }
+
+        int callToMainPos = code.size();
+        emit(OpCode.call, 0);
+        emit(OpCode.halt);
+
+        for (IrFunction function : program.getFunctions()){
+            functionAddresses.put(function.getName(), code.size());
+            functionArgCounts.put(function.getName(), function.getParameters().size());
+            generateFunction(function);
+        }
+
+        if (!functionAddresses.containsKey("principal")){
+            throw new RuntimeException("Funcao 'principal' nao encontrada");
+        }
+        ((Instruction1Arg) code.get(callToMainPos)).setArg(functionAddresses.get("principal"));
+
+        for (Map.Entry<String, List<Integer>> entry : callsToBackpatch.entrySet()){
+            Integer address = functionAddresses.get(entry.getKey());
+            if (address == null){
+                throw new RuntimeException("Function referenced but not declared: " + entry.getKey());
+            }
+            for (int callPos : entry.getValue()){
+                ((Instruction1Arg) code.get(callPos)).setArg(address);
+            }
+        }
+    }
+
+    private void generateFunction(IrFunction function){
+        int[] uses = function.countUses();
+        int[] defs = function.countDefinitions();
+
+        // Temporarios que ficam na pilha de operandos
+        stackValues = new HashMap<>();
+        for (BasicBlock block : function.getBlocks()){
+            List<IrInstruction> instructions = new ArrayList<>(block.getInstructions());
+            instructions.add(block.getTerminator());
+            for (int u = instructions.size() - 1; u >= 0; u--){
+                if (!stackValues.containsValue(instructions.get(u))){
+                    collectStackValues(instructions, u, uses, defs);
+                }
+            }
+        }
+
+        // Enderecos dos registos: parametros em -n..-1, os outros a partir de 2
+        paramCount = function.getParameters().size();
+        slots = new int[function.getRegisters().size()];
+        for (int i = 0; i < paramCount; i++){
+            slots[function.getParameters().get(i).getIndex()] = i - paramCount;
+        }
+        int nextSlot = 2;
+        for (Register reg : function.getRegisters()){
+            int index = reg.getIndex();
+            if (index >= paramCount && !stackValues.containsKey(reg) && uses[index] + defs[index] > 0){
+                slots[index] = nextSlot++;
+            }
+        }
+        if (nextSlot > 2){
+            emit(OpCode.lalloc, nextSlot - 2);
+        }
+
+        // Blocos pela ordem da funcao; os saltos para o bloco seguinte sao omitidos
+        Map<BasicBlock, Integer> blockAddresses = new HashMap<>();
+        Map<Integer, BasicBlock> jumps = new HashMap<>();
+        List<BasicBlock> blocks = function.getBlocks();
+        for (int i = 0; i < blocks.size(); i++){
+            BasicBlock block = blocks.get(i);
+            BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            blockAddresses.put(block, code.size());
+
+            for (IrInstruction inst : block.getInstructions()){
+                if (!stackValues.containsValue(inst)){
+                    generateInstruction(inst);
+                }
+            }
+            generateTerminator(block.getTerminator(), next, function, jumps);
+        }
+
+        for (Map.Entry<Integer, BasicBlock> jump : jumps.entrySet()){
+            ((Instruction1Arg) code.get(jump.getKey())).setArg(blockAddresses.get(jump.getValue()));
+        }
+    }
+
+    /**
+     * Procura os operandos da instrucao na posicao u que podem ficar na pilha: temporarios
+     * lidos so por ela e definidos imediatamente antes dos operandos que se lhes seguem.
+     *
+     * @return A posicao da primeira instrucao cujo valor fica na pilha para esta instrucao (ou u)
+     */
+    private int collectStackValues(List<IrInstruction> instructions, int u, int[] uses, int[] defs){
+        int p = u - 1;
+        List<Operand> operands = instructions.get(u).getOperands();
+        for (int j = operands.size() - 1; j >= 0 && p >= 0; j--){
+            IrInstruction def = instructions.get(p);
+            if (operands.get(j) instanceof Register reg && def.getDest() == reg && reg.isTemporary()
+                    && uses[reg.getIndex()] == 1 && defs[reg.getIndex()] == 1){
+                stackValues.put(reg, def);
+                p = collectStackValues(instructions, p, uses, defs) - 1;
+            }
+        }
+        return p + 1;
+    }
+
+    /**
+     * Gera uma instrucao que nao termina o bloco, guardando o resultado no registo de destino.
+     */
+    private void generateInstruction(IrInstruction inst){
+        if (inst instanceof PrintInstruction print){
+            pushValue(print.getValue());
+            switch (print.getValue().getType()){
+                case INTEGER -> emit(OpCode.iprint);
+                case REAL -> emit(OpCode.dprint);
+                case BOOLEAN -> emit(OpCode.bprint);
+                case STRING -> emit(OpCode.sprint);
+                default -> throw new RuntimeException("Nao e possivel imprimir valor do tipo: " + print.getValue().getType());
+            }
+        } else if (inst instanceof StoreGlobalInstruction store) {
+            pushValue(store.getValue());
+            emit(OpCode.gstore, store.getAddress());
+        } else if (inst instanceof CallInstruction call && call.getDest() == null) {
+            pushResult(call);
+            if (call.getReturnType() != Type.VOID){
+                emit(OpCode.pop, 1); // Descarta o valor de retorno
+            }
+        } else {
+            pushResult(inst);
+            emit(OpCode.lstore, slots[inst.getDest().getIndex()]);
+        }
+    }
+
+    /**
+     * Gera a instrucao que termina um bloco.
+     *
+     * @param next O bloco gerado a seguir, ou null
+     * @param jumps Posicoes dos saltos gerados e os respetivos blocos de destino
+     */
+    private void generateTerminator(IrInstruction inst, BasicBlock next, IrFunction function, Map<Integer, BasicBlock> jumps){
+        if (inst instanceof JumpInstruction jump){
+            if (jump.getTarget() != next){
+                emitJump(OpCode.jump, jump.getTarget(), jumps);
+            }
+        } else if (inst instanceof BranchInstruction branch) {
+            generateBranch(branch, next, jumps);
+        } else {
+            Operand value = ((ReturnInstruction) inst).getValue();
+            if (value == null){
+                emit(OpCode.ret, paramCount);
+            } else if (value instanceof Register reg && stackValues.get(reg) instanceof CallInstruction call
+                    && call.getReturnType() == function.getReturnType()) {
+                // Chamada em posicao de cauda: o frame atual e reutilizado pela funcao chamada
+                for (Operand arg : call.getOperands()){
+                    pushValue(arg);
+                }
+                emitCall(new Instruction2Arg(OpCode.tailcall, 0, paramCount), call.getFunction());
+            } else {
+                pushValue(value);
+                emit(OpCode.retval, paramCount);
+            }
+        }
+    }
+
+    private void generateBranch(BranchInstruction branch, BasicBlock next, Map<Integer, BasicBlock> jumps){
+        BasicBlock ifTrue = branch.getIfTrue();
+        BasicBlock ifFalse = branch.getIfFalse();
+
+        IrInstruction def = branch.getCondition() instanceof Register reg ? stackValues.get(reg) : null;
+        if (def instanceof BinaryInstruction cmp && cmp.getOp().isComparison()
+                && (cmp.getLeft().getType() == Type.INTEGER || cmp.getLeft().getType() == Type.REAL)){
+            // Comparacao entre numeros: salto com comparacao, sem calcular o valor logico
+            pushValue(cmp.getLeft());
+            pushValue(cmp.getRight());
+            boolean real = cmp.getLeft().getType() == Type.REAL;
+            if (ifFalse == next){
+                emitJump(compareBranch(cmp.getOp(), real, true), ifTrue, jumps);
+                return;
+            }
+            emitJump(compareBranch(cmp.getOp(), real, false), ifFalse, jumps);
+        } else {
+            pushValue(branch.getCondition());
+            if (ifFalse == next){
+                emit(OpCode.not);
+                emitJump(OpCode.jumpf, ifTrue, jumps);
+                return;
+            }
+            emitJump(OpCode.jumpf, ifFalse, jumps);
+        }
+
+        if (ifTrue != next){
+            emitJump(OpCode.jump, ifTrue, jumps);
+        }
+    }
+
+    /**
+     * Obtem o salto com comparacao que salta quando a comparacao tem o valor jumpIf.
+     */
+    private static OpCode compareBranch(BinaryOp op, boolean real, boolean jumpIf){
+        if (real){
+            return switch (op){
+                case LT -> jumpIf ? OpCode.if_dlt : OpCode.if_dge;
+                case LEQ -> jumpIf ? OpCode.if_dleq : OpCode.if_dgt;
+                case EQ -> jumpIf ? OpCode.if_deq : OpCode.if_dneq;
+                default -> jumpIf ? OpCode.if_dneq : OpCode.if_deq;
+            };
+        }
+        return switch (op){
+            case LT -> jumpIf ? OpCode.if_ilt : OpCode.if_ige;
+            case LEQ -> jumpIf ? OpCode.if_ileq : OpCode.if_igt;
+            case EQ -> jumpIf ? OpCode.if_ieq : OpCode.if_ineq;
+            default -> jumpIf ? OpCode.if_ineq : OpCode.if_ieq;
+        };
+    }
+
+    /**
+     * Empilha o valor de um operando: uma constante, o valor de um temporario que
+     * fica na pilha (gerando a instrucao que o define) ou o conteudo de um registo.
+     */
+    private void pushValue(Operand operand){
+        if (operand instanceof Constant constant){
+            pushConstant(constant.getValue());
+            return;
+        }
+
+        Register reg = (Register) operand;
+        IrInstruction def = stackValues.get(reg);
+        if (def != null){
+            pushResult(def);
+        }else {
+            emit(OpCode.lload, slots[reg.getIndex()]);
+        }
+    }
+
+    /**
+     * Gera uma instrucao de forma a deixar o seu resultado no topo da pilha.
+     */
+    private void pushResult(IrInstruction inst){
+        if (inst instanceof BinaryInstruction binary){
+            pushValue(binary.getLeft());
+            pushValue(binary.getRight());
+            emit(binaryOpCode(binary.getOp(), binary.getLeft().getType()));
+        } else if (inst instanceof UnaryInstruction unary) {
+            pushValue(unary.getValue());
+            emit(unaryOpCode(unary.getOp(), unary.getValue().getType()));
+        } else if (inst instanceof CopyInstruction copy) {
+            pushValue(copy.getValue());
+        } else if (inst instanceof LoadGlobalInstruction load) {
+            emit(OpCode.gload, load.getAddress());
+        } else if (inst instanceof CallInstruction call) {
+            for (Operand arg : call.getOperands()){
+                pushValue(arg);
+            }
+            emitCall(new Instruction1Arg(OpCode.call, 0), call.getFunction());
+        } else {
+            throw new IllegalStateException("Instrucao sem valor: " + inst);
+        }
+    }
+
+    private static OpCode binaryOpCode(BinaryOp op, Type type){
+        boolean real = type == Type.REAL;
+        return switch (op){
+            case ADD -> real ? OpCode.dadd : OpCode.iadd;
+            case SUB -> real ? OpCode.dsub : OpCode.isub;
+            case MUL -> real ? OpCode.dmult : OpCode.imult;
+            case DIV -> real ? OpCode.ddiv : OpCode.idiv;
+            case MOD -> OpCode.imod;
+            case LT -> real ? OpCode.dlt : OpCode.ilt;
+            case LEQ -> real ? OpCode.dleq : OpCode.ileq;
+            case EQ -> switch (type){
+                case REAL -> OpCode.deq;
+                case STRING -> OpCode.seq;
+                case BOOLEAN -> OpCode.beq;
+                default -> OpCode.ieq;
+            };
+            case NEQ -> switch (type){
+                case REAL -> OpCode.dneq;
+                case STRING -> OpCode.sneq;
+                case BOOLEAN -> OpCode.bneq;
+                default -> OpCode.ineq;
+            };
+            case AND -> OpCode.and;
+            case OR -> OpCode.or;
+            case CONCAT -> OpCode.sconcat;
+        };
+    }
+
+    private static OpCode unaryOpCode(UnaryOp op, Type type){
+        return switch (op){
+            case NEG -> type == Type.REAL ? OpCode.duminus : OpCode.iuminus;
+            case NOT -> OpCode.not;
+            case TO_REAL -> OpCode.itod;
+            case TO_STRING -> switch (type){
+                case REAL -> OpCode.dtos;
+                case BOOLEAN -> OpCode.btos;
+                default -> OpCode.itos;
+            };
+        };
+    }
+
+    private void pushConstant(Object value){
+        if (value instanceof Integer i){
+            emit(OpCode.iconst, i);
+        } else if (value instanceof Double d) {
+            emit(OpCode.dconst, constantPool.addReal(d));
+        } else if (value instanceof String str) {
+            emit(OpCode.sconst, constantPool.addString(str));
+        } else {
+            emit((Boolean) value ? OpCode.tconst : OpCode.fconst);
+        }
+    }
+
+    private void emitJump(OpCode opCode, BasicBlock target, Map<Integer, BasicBlock> jumps){
+        jumps.put(code.size(), target);
+        emit(opCode, 0);
+    }
+
+    private void emitCall(Instruction1Arg inst, String funcName){
+        callsToBackpatch.computeIfAbsent(funcName, name -> new ArrayList<>()).add(code.size());
+        code.add(inst);
+    }
+
+    private void emit(OpCode opcode){
+        code.add(new Instruction(opcode));
+    }
+
+    private void emit(OpCode opcode, int arg){
+        code.add(new Instruction1Arg(opcode, arg));
+    }
+
+    @Override
+    public void inline(Inliner inliner){
+        int[] remap = inliner.inline(code, constantPool, functionAddresses.values());
+        functionAddresses.replaceAll((name, address) -> remap[address]);
+    }
+
+    @Override
+    public void eliminateDeadCode(DeadCodeEliminator eliminator){
+        int[] remap = eliminator.eliminate(code, constantPool, functionAddresses.values());
+        functionAddresses.values().removeIf(address -> remap[address] < 0);
+        functionAddresses.replaceAll((name, address) -> remap[address]);
+    }
+
+    @Override
+    public void optimize(PeepholeOptimizer optimizer){
+        int[] remap = optimizer.optimize(code, constantPool, functionAddresses.values());
+        functionAddresses.replaceAll((name, address) -> remap[address]);
+    }
+
+    @Override
+    public ConstantPool getConstantPool(){
+        return constantPool;
+    }
+
+    @Override
+    public Instruction[] getCode(){
+        return code.toArray(new Instruction[0]);
+    }
+
+    @Override
+    public void saveBytecodes(String filename) throws IOException {
+        BytecodeWriter writer = new BytecodeWriter(constantPool, code);
+        functionAddresses.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(e -> writer.addFunction(e.getKey(), e.getValue(), functionArgCounts.getOrDefault(e.getKey(), 0)));
+        writer.write(filename);
+    }
+
+    @Override
+    public void dumpCode(){
+        for (int i = 0; i < code.size(); i++){
+            System.out.println(i + ": " + code.get(i).toString().toLowerCase());
+        }
+    }
+
+    @Override
+    public void dumpConstantPool(){
+        List<Object> constants = constantPool.getAllConstants();
+        for (int i = 0; i < constants.size(); i++){
+            Object value = constants.get(i);
+            if (value instanceof String){
+                System.out.println(i + ": \"" + value + "\"");
+            }else {
+                System.out.println(i + ": " + value);
+            }
+        }
+    }
+}
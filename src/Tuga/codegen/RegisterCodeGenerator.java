@@ -0,0 +1,559 @@
+package Tuga.codegen;
+
+import Tuga.ir.*;
+import Tuga.ir.instruction.*;
+import Tuga.semantic.Type;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.RegisterOpCode;
+import Tuga.vm.RegisterProgram;
+
+import java.util.*;
+
+/**
+ * Gerador de codigo para a maquina virtual de registos (RVirtualMachine) a partir da
+ * representacao intermedia (IrProgram).
+ * Cada registo da representacao intermedia usado pela funcao passa a ser um registo do frame:
+ * os parametros ocupam os primeiros, pela ordem da declaracao. Depois destes ficam os registos
+ * de rascunho onde sao carregadas as constantes usadas como operandos, exceto quando existe
+ * uma instrucao com um inteiro imediato (iaddk, if_xxk).
+ *
+ * Uma comparacao cujo resultado so e usado pelo salto condicional que termina o bloco gera um
+ * if_xx, e o retorno do resultado de uma chamada gera um tailcall, como no IrBytecodeGenerator.
+ * As variaveis locais que podem ser lidas antes de serem atribuidas (analise de atribuicao
+ * definitiva sobre o grafo de blocos) sao marcadas com nil na entrada da funcao, com def depois
+ * de cada atribuicao e verificadas com chknil antes dessas leituras.
+ */
+public class RegisterCodeGenerator {
+    /** As instrucoes geradas */
+    private final List<Integer> code = new ArrayList<>();
+    /** Pool de constantes para valores reais e strings */
+    private final ConstantPool constantPool = new ConstantPool();
+    /** Mapeia nomes de funcoes para os seus enderecos iniciais */
+    private final Map<String, Integer> functionAddresses = new HashMap<>();
+    /** Numero de registos de que cada funcao precisa (incluindo os argumentos de tailcalls) */
+    private final Map<String, Integer> frameSizes = new HashMap<>();
+    /** Posicoes dos enderecos das funcoes chamadas, preenchidos no fim */
+    private final Map<Integer, String> callTargets = new HashMap<>();
+    /** Posicoes dos tamanhos de frame das funcoes chamadas, preenchidos no fim */
+    private final Map<Integer, String> callSizes = new HashMap<>();
+
+    // ---- Estado da funcao a ser gerada ----
+    /** Registo do frame de cada registo da representacao intermedia */
+    private int[] slots;
+    /** Numero de registos do frame usados pelos registos da representacao intermedia */
+    private int registerCount;
+    /** Numero de registos de rascunho usados pela instrucao atual */
+    private int scratchUsed;
+    /** Numero maximo de registos de rascunho usados por uma instrucao da funcao */
+    private int maxScratch;
+    /** Numero maximo de argumentos de um tailcall da funcao */
+    private int maxTailcallArgs;
+    /** Posicoes dos registos base dos call e tailcall da funcao, preenchidos no fim da funcao */
+    private List<Integer> frameBases;
+    /** Variaveis que podem ser lidas antes de serem atribuidas */
+    private Set<Register> checked;
+    /** Variaveis a verificar antes de cada instrucao */
+    private Map<IrInstruction, List<Register>> checks;
+
+    /**
+     * Gera o codigo de um programa: a chamada da funcao principal, halt e o codigo de cada funcao.
+     *
+     * @param program O programa na representacao intermedia
+     * @return O programa para a maquina virtual de registos
+     * @throws RuntimeException se a funcao principal nao existir
+     */
+    public RegisterProgram generate(IrProgram program){
+        emitCall(-1, "principal", 0, List.of());
+        emit(RegisterOpCode.halt);
+
+        for (IrFunction function : program.getFunctions()){
+            functionAddresses.put(function.getName(), code.size());
+            generateFunction(function);
+        }
+
+        if (!functionAddresses.containsKey("principal")){
+            throw new RuntimeException("Funcao 'principal' nao encontrada");
+        }
+        callTargets.forEach((pos, name) -> code.set(pos, functionAddresses.get(name)));
+        callSizes.forEach((pos, name) -> code.set(pos, frameSizes.get(name)));
+
+        int[] result = code.stream().mapToInt(Integer::intValue).toArray();
+        return new RegisterProgram(result, constantPool, program.getGlobals().size(), functionAddresses);
+    }
+
+    private void generateFunction(IrFunction function){
+        int[] uses = function.countUses();
+        int[] defs = function.countDefinitions();
+
+        // Registos do frame: primeiro os parametros, depois os restantes registos usados
+        List<Register> parameters = function.getParameters();
+        slots = new int[function.getRegisters().size()];
+        registerCount = parameters.size();
+        for (int i = 0; i < parameters.size(); i++){
+            slots[parameters.get(i).getIndex()] = i;
+        }
+        for (Register reg : function.getRegisters()){
+            int index = reg.getIndex();
+            if (!parameters.contains(reg) && uses[index] + defs[index] > 0){
+                slots[index] = registerCount++;
+            }
+        }
+        maxScratch = 0;
+        maxTailcallArgs = 0;
+        frameBases = new ArrayList<>();
+
+        findUnassignedReads(function);
+        for (Register reg : checked){
+            emit(RegisterOpCode.nil, slots[reg.getIndex()]);
+        }
+
+        Map<BasicBlock, Integer> blockAddresses = new HashMap<>();
+        Map<Integer, BasicBlock> jumps = new HashMap<>();
+        List<BasicBlock> blocks = function.getBlocks();
+        for (int i = 0; i < blocks.size(); i++){
+            BasicBlock block = blocks.get(i);
+            BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            blockAddresses.put(block, code.size());
+
+            // A ultima instrucao pode ser gerada em conjunto com o salto ou o retorno
+            List<IrInstruction> instructions = block.getInstructions();
+            IrInstruction fused = fusedWithTerminator(function, block, uses);
+            for (IrInstruction inst : instructions){
+                emitChecks(inst);
+                if (inst != fused){
+                    generateInstruction(inst);
+                    if (inst.getDest() != null && checked.contains(inst.getDest())){
+                        emit(RegisterOpCode.def, slots[inst.getDest().getIndex()]);
+                    }
+                }
+            }
+            emitChecks(block.getTerminator());
+            generateTerminator(block.getTerminator(), fused, next, jumps);
+        }
+
+        for (Map.Entry<Integer, BasicBlock> jump : jumps.entrySet()){
+            code.set(jump.getKey(), blockAddresses.get(jump.getValue()));
+        }
+
+        // Os frames das funcoes chamadas comecam depois dos registos e dos registos de rascunho
+        int frameSize = registerCount + maxScratch;
+        for (int pos : frameBases){
+            code.set(pos, frameSize);
+        }
+        frameSizes.put(function.getName(), frameSize + maxTailcallArgs);
+    }
+
+    /**
+     * Obtem a instrucao que e gerada em conjunto com o terminador do bloco: a comparacao
+     * usada apenas pelo salto condicional, ou a chamada cujo resultado e retornado.
+     *
+     * @return A instrucao, ou null
+     */
+    private IrInstruction fusedWithTerminator(IrFunction function, BasicBlock block, int[] uses){
+        List<IrInstruction> instructions = block.getInstructions();
+        if (instructions.isEmpty()){
+            return null;
+        }
+        IrInstruction last = instructions.get(instructions.size() - 1);
+        IrInstruction terminator = block.getTerminator();
+        if (last.getDest() == null || !last.getDest().isTemporary() || uses[last.getDest().getIndex()] != 1){
+            return null;
+        }
+
+        if (terminator instanceof BranchInstruction branch && branch.getCondition() == last.getDest()
+                && last instanceof BinaryInstruction cmp && cmp.getOp().isComparison()
+                && (cmp.getLeft().getType() == Type.INTEGER || cmp.getLeft().getType() == Type.REAL)){
+            return last;
+        }
+        if (terminator instanceof ReturnInstruction ret && ret.getValue() == last.getDest()
+                && last instanceof CallInstruction call && call.getReturnType() == function.getReturnType()){
+            return last;
+        }
+        return null;
+    }
+
+    /**
+     * Analise de atribuicao definitiva: encontra as leituras de variaveis locais que podem
+     * acontecer antes de qualquer atribuicao, guardando-as em checks, e as variaveis
+     * correspondentes em checked.
+     */
+    private void findUnassignedReads(IrFunction function){
+        checked = new LinkedHashSet<>();
+        checks = new HashMap<>();
+
+        List<Register> variables = new ArrayList<>();
+        for (Register reg : function.getRegisters()){
+            if (!reg.isTemporary() && !function.getParameters().contains(reg)){
+                variables.add(reg);
+            }
+        }
+        if (variables.isEmpty()){
+            return;
+        }
+
+        // Variaveis atribuidas a saida de cada bloco, em todos os caminhos (ponto fixo a partir de "todas")
+        List<BasicBlock> blocks = function.getBlocks();
+        Map<BasicBlock, List<BasicBlock>> predecessors = function.getPredecessors();
+        Map<BasicBlock, BitSet> assignedOut = new HashMap<>();
+        BitSet all = new BitSet();
+        all.set(0, function.getRegisters().size());
+        for (BasicBlock block : blocks){
+            assignedOut.put(block, (BitSet) all.clone());
+        }
+
+        boolean changed = true;
+        while (changed){
+            changed = false;
+            for (BasicBlock block : blocks){
+                BitSet assigned = assignedIn(block, function, predecessors, assignedOut, all);
+                for (IrInstruction inst : block.getInstructions()){
+                    if (inst.getDest() != null){
+                        assigned.set(inst.getDest().getIndex());
+                    }
+                }
+                if (!assigned.equals(assignedOut.get(block))){
+                    assignedOut.put(block, assigned);
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock block : blocks){
+            BitSet assigned = assignedIn(block, function, predecessors, assignedOut, all);
+            List<IrInstruction> instructions = new ArrayList<>(block.getInstructions());
+            instructions.add(block.getTerminator());
+            for (IrInstruction inst : instructions){
+                for (Operand operand : inst.getOperands()){
+                    if (operand instanceof Register reg && variables.contains(reg) && !assigned.get(reg.getIndex())){
+                        checks.computeIfAbsent(inst, i -> new ArrayList<>()).add(reg);
+                        checked.add(reg);
+                        // Depois da verificacao, a variavel tem um valor
+                        assigned.set(reg.getIndex());
+                    }
+                }
+                if (inst.getDest() != null){
+                    assigned.set(inst.getDest().getIndex());
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtem as variaveis atribuidas a entrada de um bloco: as atribuidas a saida de todos os
+     * seus predecessores. Na entrada da funcao, apenas os parametros e os temporarios.
+     */
+    private static BitSet assignedIn(BasicBlock block, IrFunction function, Map<BasicBlock, List<BasicBlock>> predecessors,
+                                     Map<BasicBlock, BitSet> assignedOut, BitSet all){
+        BitSet assigned = (BitSet) all.clone();
+        if (block == function.getEntry()){
+            for (Register reg : function.getRegisters()){
+                if (!reg.isTemporary() && !function.getParameters().contains(reg)){
+                    assigned.clear(reg.getIndex());
+                }
+            }
+        }
+        for (BasicBlock pred : predecessors.get(block)){
+            assigned.and(assignedOut.get(pred));
+        }
+        return assigned;
+    }
+
+    private void emitChecks(IrInstruction inst){
+        for (Register reg : checks.getOrDefault(inst, List.of())){
+            emit(RegisterOpCode.chknil, slots[reg.getIndex()]);
+        }
+    }
+
+    /**
+     * Gera uma instrucao que nao termina o bloco.
+     */
+    private void generateInstruction(IrInstruction inst){
+        scratchUsed = 0;
+
+        if (inst instanceof CopyInstruction copy){
+            if (copy.getValue() instanceof Constant constant){
+                loadConstant(slots[copy.getDest().getIndex()], constant.getValue());
+            }else {
+                emit(RegisterOpCode.move, dest(copy), operand(copy.getValue()));
+            }
+        } else if (inst instanceof BinaryInstruction binary) {
+            generateBinary(binary);
+        } else if (inst instanceof UnaryInstruction unary) {
+            emit(unaryOpCode(unary.getOp(), unary.getValue().getType()), dest(unary), operand(unary.getValue()));
+        } else if (inst instanceof LoadGlobalInstruction load) {
+            emit(RegisterOpCode.gload, dest(load), load.getAddress());
+        } else if (inst instanceof StoreGlobalInstruction store) {
+            emit(RegisterOpCode.gstore, store.getAddress(), operand(store.getValue()));
+        } else if (inst instanceof PrintInstruction print) {
+            emit(printOpCode(print.getValue().getType()), operand(print.getValue()));
+        } else if (inst instanceof CallInstruction call) {
+            List<Integer> args = new ArrayList<>();
+            for (Operand arg : call.getOperands()){
+                args.add(operand(arg));
+            }
+            emitCall(call.getDest() != null ? dest(call) : -1, call.getFunction(), -1, args);
+        } else {
+            throw new IllegalStateException("Instrucao nao suportada: " + inst);
+        }
+    }
+
+    private void generateBinary(BinaryInstruction binary){
+        Operand left = binary.getLeft();
+        Operand right = binary.getRight();
+        BinaryOp op = binary.getOp();
+
+        // Somar ou subtrair uma constante inteira usa o valor imediato
+        if (left.getType() == Type.INTEGER && (op == BinaryOp.ADD || op == BinaryOp.SUB)){
+            if (right instanceof Constant constant && constant.getValue() instanceof Integer k){
+                emit(RegisterOpCode.iaddk, dest(binary), operand(left), op == BinaryOp.ADD ? k : -k);
+                return;
+            }
+            if (op == BinaryOp.ADD && left instanceof Constant constant && constant.getValue() instanceof Integer k){
+                emit(RegisterOpCode.iaddk, dest(binary), operand(right), k);
+                return;
+            }
+        }
+
+        int a = operand(left);
+        int b = operand(right);
+        emit(binaryOpCode(op, left.getType()), dest(binary), a, b);
+    }
+
+    /**
+     * Gera a instrucao que termina um bloco.
+     *
+     * @param fused A ultima instrucao do bloco, se for gerada em conjunto com o terminador
+     * @param next O bloco gerado a seguir, ou null
+     * @param jumps Posicoes dos enderecos de salto e os respetivos blocos de destino
+     */
+    private void generateTerminator(IrInstruction inst, IrInstruction fused, BasicBlock next, Map<Integer, BasicBlock> jumps){
+        scratchUsed = 0;
+
+        if (inst instanceof JumpInstruction jump){
+            if (jump.getTarget() != next){
+                emitJump(jump.getTarget(), jumps, RegisterOpCode.jump);
+            }
+        } else if (inst instanceof BranchInstruction branch) {
+            generateBranch(branch, (BinaryInstruction) fused, next, jumps);
+        } else {
+            Operand value = ((ReturnInstruction) inst).getValue();
+            if (value == null){
+                emit(RegisterOpCode.ret);
+            } else if (fused instanceof CallInstruction call) {
+                // Chamada em posicao de cauda: o frame atual passa a ser o da funcao chamada
+                List<Integer> args = new ArrayList<>();
+                for (Operand arg : call.getOperands()){
+                    args.add(operand(arg));
+                }
+                maxTailcallArgs = Math.max(maxTailcallArgs, args.size());
+                emit(RegisterOpCode.tailcall);
+                callTargets.put(code.size(), call.getFunction());
+                code.add(0);
+                callSizes.put(code.size(), call.getFunction());
+                code.add(0);
+                frameBases.add(code.size());
+                code.add(0);
+                code.add(args.size());
+                code.addAll(args);
+            } else {
+                emit(RegisterOpCode.retval, operand(value));
+            }
+        }
+    }
+
+    private void generateBranch(BranchInstruction branch, BinaryInstruction cmp, BasicBlock next, Map<Integer, BasicBlock> jumps){
+        BasicBlock ifTrue = branch.getIfTrue();
+        BasicBlock ifFalse = branch.getIfFalse();
+        // Se o bloco falso for o seguinte, salta-se para o verdadeiro quando a condicao e verdadeira
+        boolean jumpOnFalse = ifFalse != next;
+        BasicBlock target = jumpOnFalse ? ifFalse : ifTrue;
+
+        if (cmp != null){
+            Operand left = cmp.getLeft();
+            Operand right = cmp.getRight();
+            boolean real = left.getType() == Type.REAL;
+            if (!real && right instanceof Constant k){
+                emit(compareConstBranch(cmp.getOp(), false, !jumpOnFalse), operand(left), (Integer) k.getValue());
+            } else if (!real && left instanceof Constant k) {
+                emit(compareConstBranch(cmp.getOp(), true, !jumpOnFalse), operand(right), (Integer) k.getValue());
+            } else {
+                int a = operand(left);
+                int b = operand(right);
+                emit(compareBranch(cmp.getOp(), real, !jumpOnFalse), a, b);
+            }
+            jumps.put(code.size(), target);
+            code.add(0);
+        } else if (branch.getCondition() instanceof Constant constant) {
+            // Condicao constante (sem avaliacao de constantes em tempo de compilacao)
+            target = (Boolean) constant.getValue() ? ifTrue : ifFalse;
+            if (target != next){
+                emitJump(target, jumps, RegisterOpCode.jump);
+            }
+            return;
+        } else {
+            emit(jumpOnFalse ? RegisterOpCode.jumpf : RegisterOpCode.jumpt, operand(branch.getCondition()));
+            jumps.put(code.size(), target);
+            code.add(0);
+        }
+
+        if (jumpOnFalse && ifTrue != next){
+            emitJump(ifTrue, jumps, RegisterOpCode.jump);
+        }
+    }
+
+    /**
+     * Obtem o salto com comparacao entre registos que salta quando a comparacao tem o valor jumpIf.
+     */
+    private static RegisterOpCode compareBranch(BinaryOp op, boolean real, boolean jumpIf){
+        if (real){
+            return switch (op){
+                case LT -> jumpIf ? RegisterOpCode.if_dlt : RegisterOpCode.if_dge;
+                case LEQ -> jumpIf ? RegisterOpCode.if_dleq : RegisterOpCode.if_dgt;
+                case EQ -> jumpIf ? RegisterOpCode.if_deq : RegisterOpCode.if_dneq;
+                default -> jumpIf ? RegisterOpCode.if_dneq : RegisterOpCode.if_deq;
+            };
+        }
+        return switch (op){
+            case LT -> jumpIf ? RegisterOpCode.if_ilt : RegisterOpCode.if_ige;
+            case LEQ -> jumpIf ? RegisterOpCode.if_ileq : RegisterOpCode.if_igt;
+            case EQ -> jumpIf ? RegisterOpCode.if_ieq : RegisterOpCode.if_ineq;
+            default -> jumpIf ? RegisterOpCode.if_ineq : RegisterOpCode.if_ieq;
+        };
+    }
+
+    /**
+     * Obtem o salto com comparacao entre um registo e um inteiro imediato que salta quando a
+     * comparacao tem o valor jumpIf.
+     *
+     * @param constantLeft Se a constante e o operando esquerdo da comparacao (k < a passa a a > k)
+     */
+    private static RegisterOpCode compareConstBranch(BinaryOp op, boolean constantLeft, boolean jumpIf){
+        return switch (op){
+            case LT -> constantLeft
+                    ? (jumpIf ? RegisterOpCode.if_igtk : RegisterOpCode.if_ileqk)
+                    : (jumpIf ? RegisterOpCode.if_iltk : RegisterOpCode.if_igek);
+            case LEQ -> constantLeft
+                    ? (jumpIf ? RegisterOpCode.if_igek : RegisterOpCode.if_iltk)
+                    : (jumpIf ? RegisterOpCode.if_ileqk : RegisterOpCode.if_igtk);
+            case EQ -> jumpIf ? RegisterOpCode.if_ieqk : RegisterOpCode.if_ineqk;
+            default -> jumpIf ? RegisterOpCode.if_ineqk : RegisterOpCode.if_ieqk;
+        };
+    }
+
+    private static RegisterOpCode binaryOpCode(BinaryOp op, Type type){
+        boolean real = type == Type.REAL;
+        return switch (op){
+            case ADD -> real ? RegisterOpCode.dadd : RegisterOpCode.iadd;
+            case SUB -> real ? RegisterOpCode.dsub : RegisterOpCode.isub;
+            case MUL -> real ? RegisterOpCode.dmult : RegisterOpCode.imult;
+            case DIV -> real ? RegisterOpCode.ddiv : RegisterOpCode.idiv;
+            case MOD -> RegisterOpCode.imod;
+            case LT -> real ? RegisterOpCode.dlt : RegisterOpCode.ilt;
+            case LEQ -> real ? RegisterOpCode.dleq : RegisterOpCode.ileq;
+            case EQ -> switch (type){
+                case REAL -> RegisterOpCode.deq;
+                case STRING -> RegisterOpCode.seq;
+                case BOOLEAN -> RegisterOpCode.beq;
+                default -> RegisterOpCode.ieq;
+            };
+            case NEQ -> switch (type){
+                case REAL -> RegisterOpCode.dneq;
+                case STRING -> RegisterOpCode.sneq;
+                case BOOLEAN -> RegisterOpCode.bneq;
+                default -> RegisterOpCode.ineq;
+            };
+            case AND -> RegisterOpCode.and;
+            case OR -> RegisterOpCode.or;
+            case CONCAT -> RegisterOpCode.sconcat;
+        };
+    }
+
+    private static RegisterOpCode unaryOpCode(UnaryOp op, Type type){
+        return switch (op){
+            case NEG -> type == Type.REAL ? RegisterOpCode.duminus : RegisterOpCode.iuminus;
+            case NOT -> RegisterOpCode.not;
+            case TO_REAL -> RegisterOpCode.itod;
+            case TO_STRING -> switch (type){
+                case REAL -> RegisterOpCode.dtos;
+                case BOOLEAN -> RegisterOpCode.btos;
+                case STRING -> RegisterOpCode.move;
+                default -> RegisterOpCode.itos;
+            };
+        };
+    }
+
+    private static RegisterOpCode printOpCode(Type type){
+        return switch (type){
+            case INTEGER -> RegisterOpCode.iprint;
+            case REAL -> RegisterOpCode.dprint;
+            case BOOLEAN -> RegisterOpCode.bprint;
+            case STRING -> RegisterOpCode.sprint;
+            default -> throw new RuntimeException("Nao e possivel imprimir valor do tipo: " + type);
+        };
+    }
+
+    /**
+     * Obtem o registo do frame com o valor de um operando. As constantes sao carregadas num
+     * registo de rascunho, diferente para cada operando da mesma instrucao.
+     */
+    private int operand(Operand operand){
+        if (operand instanceof Register reg){
+            return slots[reg.getIndex()];
+        }
+
+        int scratch = registerCount + scratchUsed++;
+        maxScratch = Math.max(maxScratch, scratchUsed);
+        loadConstant(scratch, ((Constant) operand).getValue());
+        return scratch;
+    }
+
+    private int dest(IrInstruction inst){
+        return slots[inst.getDest().getIndex()];
+    }
+
+    private void loadConstant(int reg, Object value){
+        if (value instanceof Integer i){
+            emit(RegisterOpCode.iconst, reg, i);
+        } else if (value instanceof Double d) {
+            emit(RegisterOpCode.dconst, reg, constantPool.addReal(d));
+        } else if (value instanceof String str) {
+            emit(RegisterOpCode.sconst, reg, constantPool.addString(str));
+        } else {
+            emit((Boolean) value ? RegisterOpCode.tconst : RegisterOpCode.fconst, reg);
+        }
+    }
+
+    /**
+     * Gera um call. O endereco e o tamanho do frame da funcao chamada sao preenchidos no fim,
+     * e o registo onde o novo frame comeca no fim da funcao atual.
+     *
+     * @param dest O registo de destino do valor de retorno, ou -1
+     * @param base O registo base, ou -1 para o preencher no fim da funcao
+     */
+    private void emitCall(int dest, String funcName, int base, List<Integer> args){
+        emit(RegisterOpCode.call, dest);
+        callTargets.put(code.size(), funcName);
+        code.add(0);
+        callSizes.put(code.size(), funcName);
+        code.add(0);
+        if (base < 0){
+            frameBases.add(code.size());
+        }
+        code.add(Math.max(base, 0));
+        code.add(args.size());
+        code.addAll(args);
+    }
+
+    private void emitJump(BasicBlock target, Map<Integer, BasicBlock> jumps, RegisterOpCode opCode){
+        emit(opCode);
+        jumps.put(code.size(), target);
+        code.add(0);
+    }
+
+    private void emit(RegisterOpCode opCode, int... args){
+        code.add(opCode.ordinal());
+        for (int arg : args){
+            code.add(arg);
+        }
+    }
+}
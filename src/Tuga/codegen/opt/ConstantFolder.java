@@ -0,0 +1,227 @@
+package Tuga.codegen.opt;
+
+import Tuga.parser.TugaBaseVisitor;
+import Tuga.parser.TugaParser;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+/**
+ * Avaliacao de expressoes constantes em tempo de compilacao.
+ * Percorre a arvore sintatica e anota cada expressao cujo valor pode ser calculado
+ * sem executar o programa (literais e operacoes sobre constantes) com o seu valor:
+ * Integer, Double, String ou Boolean, conforme o tipo da expressao.
+ *
+ * Os resultados seguem exatamente a semantica da maquina virtual: aritmetica inteira
+ * de 32 bits, igualdade de reais com Double.equals, e conversao de booleanos para
+ * string com btos. Divisoes e modulos por zero nao sao avaliados, para que o erro
+ * continue a ser reportado em tempo de execucao.
+ */
+public class ConstantFolder extends TugaBaseVisitor<Object> {
+    /** Valor de cada expressao constante */
+    private final ParseTreeProperty<Object> values = new ParseTreeProperty<>();
+
+    /**
+     * Obtem o valor de uma expressao constante.
+     *
+     * @param ctx O contexto da expressao
+     * @return O valor (Integer, Double, String ou Boolean), ou null se a expressao nao e constante
+     */
+    public Object getValue(ParseTree ctx){
+        return values.get(ctx);
+    }
+
+    @Override
+    public Object visitLiteralExpr(TugaParser.LiteralExprContext ctx){
+        return record(ctx, visit(ctx.literal()));
+    }
+
+    @Override
+    public Object visitIntLiteral(TugaParser.IntLiteralContext ctx){
+        return Integer.parseInt(ctx.INTEGER().getText());
+    }
+
+    @Override
+    public Object visitRealLiteral(TugaParser.RealLiteralContext ctx){
+        return Double.parseDouble(ctx.REAL().getText());
+    }
+
+    @Override
+    public Object visitStringLiteral(TugaParser.StringLiteralContext ctx){
+        String text = ctx.STRING().getText();
+        return text.substring(1, text.length() - 1);
+    }
+
+    @Override
+    public Object visitBoolLiteral(TugaParser.BoolLiteralContext ctx){
+        return ctx.VERDADEIRO() != null;
+    }
+
+    @Override
+    public Object visitParenExpr(TugaParser.ParenExprContext ctx){
+        return record(ctx, visit(ctx.expression()));
+    }
+
+    @Override
+    public Object visitUnaryExpr(TugaParser.UnaryExprContext ctx){
+        Object value = visit(ctx.expression());
+
+        Object result = null;
+        if ("-".equals(ctx.op.getText())){
+            if (value instanceof Integer i){
+                result = -i;
+            } else if (value instanceof Double d) {
+                result = -d;
+            }
+        } else if (value instanceof Boolean b) {
+            result = !b;
+        }
+        return record(ctx, result);
+    }
+
+    @Override
+    public Object visitBinaryExpr(TugaParser.BinaryExprContext ctx){
+        Object left = visit(ctx.expression(0));
+        Object right = visit(ctx.expression(1));
+        if (left == null || right == null){
+            return null;
+        }
+
+        String op = ctx.op.getText();
+        Object result = null;
+
+        if ("+".equals(op) && (left instanceof String || right instanceof String)){
+            // Concatenacao, com as mesmas conversoes que itos, dtos e btos
+            result = asString(left) + asString(right);
+        } else if (left instanceof Integer a && right instanceof Integer b) {
+            switch (op){
+                case "+" -> result = a + b;
+                case "-" -> result = a - b;
+                case "*" -> result = a * b;
+                case "/" -> result = b == 0 ? null : a / b;
+                case "%" -> result = b == 0 ? null : a % b;
+            }
+        } else if (isNumber(left) && isNumber(right) && !"%".equals(op)) {
+            double a = ((Number) left).doubleValue();
+            double b = ((Number) right).doubleValue();
+            switch (op){
+                case "+" -> result = a + b;
+                case "-" -> result = a - b;
+                case "*" -> result = a * b;
+                case "/" -> result = b == 0.0 ? null : a / b;
+            }
+        }
+        return record(ctx, result);
+    }
+
+    @Override
+    public Object visitComparisonExpr(TugaParser.ComparisonExprContext ctx){
+        Object left = visit(ctx.expression(0));
+        Object right = visit(ctx.expression(1));
+        if (!isNumber(left) || !isNumber(right)){
+            return null;
+        }
+
+        String op = ctx.op.getText();
+        Object result;
+        if (left instanceof Integer a && right instanceof Integer b){
+            result = switch (op){
+                case "<" -> a < b;
+                case "<=" -> a <= b;
+                case ">" -> a > b;
+                default -> a >= b;
+            };
+        }else {
+            double a = ((Number) left).doubleValue();
+            double b = ((Number) right).doubleValue();
+            result = switch (op){
+                case "<" -> a < b;
+                case "<=" -> a <= b;
+                case ">" -> b < a;
+                default -> b <= a;
+            };
+        }
+        return record(ctx, result);
+    }
+
+    @Override
+    public Object visitEqualityExpr(TugaParser.EqualityExprContext ctx){
+        Object left = visit(ctx.expression(0));
+        Object right = visit(ctx.expression(1));
+        if (left == null || right == null){
+            return null;
+        }
+
+        Boolean equal = null;
+        if (left instanceof Integer a && right instanceof Integer b){
+            equal = a.intValue() == b.intValue();
+        } else if (isNumber(left) && isNumber(right)) {
+            // deq e dneq comparam com Double.equals
+            equal = Double.valueOf(((Number) left).doubleValue()).equals(((Number) right).doubleValue());
+        } else if (left instanceof String && right instanceof String) {
+            equal = left.equals(right);
+        } else if (left instanceof Boolean && right instanceof Boolean) {
+            equal = left.equals(right);
+        }
+
+        if (equal == null){
+            return null;
+        }
+        return record(ctx, "igual".equals(ctx.op.getText()) == equal);
+    }
+
+    @Override
+    public Object visitAndExpr(TugaParser.AndExprContext ctx){
+        Object left = visit(ctx.expression(0));
+        Object right = visit(ctx.expression(1));
+        if (left instanceof Boolean a && right instanceof Boolean b){
+            return record(ctx, a && b);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitOrExpr(TugaParser.OrExprContext ctx){
+        Object left = visit(ctx.expression(0));
+        Object right = visit(ctx.expression(1));
+        if (left instanceof Boolean a && right instanceof Boolean b){
+            return record(ctx, a || b);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitVarExpr(TugaParser.VarExprContext ctx){
+        return null;
+    }
+
+    @Override
+    public Object visitFunctionalCallExpr(TugaParser.FunctionalCallExprContext ctx){
+        // Os argumentos podem conter expressoes constantes
+        visit(ctx.functionCall());
+        return null;
+    }
+
+    @Override
+    protected Object aggregateResult(Object aggregate, Object nextResult){
+        // Nas instrucoes, o resultado das expressoes filhas nao e propagado
+        return null;
+    }
+
+    private Object record(ParseTree ctx, Object value){
+        if (value != null){
+            values.put(ctx, value);
+        }
+        return value;
+    }
+
+    private static boolean isNumber(Object value){
+        return value instanceof Integer || value instanceof Double;
+    }
+
+    private static String asString(Object value){
+        if (value instanceof Boolean b){
+            return b ? "true" : "falso"; // Mesmo resultado que btos
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,311 @@
+package Tuga.codegen.opt;
+
+import Tuga.vm.ConstantPool;
+import Tuga.vm.OpCode;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+
+import java.util.*;
+
+/**
+ * Eliminacao de codigo morto sobre as instrucoes geradas.
+ * - Alcancabilidade: a partir da instrucao 0 seguem-se os saltos, as chamadas e a passagem
+ *   para a instrucao seguinte. As instrucoes nunca alcancadas (codigo depois de um retorna,
+ *   ramos de um se com condicao constante, funcoes que nunca sao chamadas a partir de
+ *   principal) sao removidas. Um jumpf precedido de tconst ou fconst so segue o ramo tomado.
+ * - Vivacidade: em cada funcao, um lstore para uma variavel que nao e lida em nenhum caminho
+ *   antes de voltar a ser atribuida e substituido por pop 1 (ou removido com a constante que
+ *   o precede), ja que o valor guardado nunca e usado.
+ *
+ * A analise de vivacidade assume que lload e lstore so acedem a argumentos e variaveis locais,
+ * como no codigo produzido pelos geradores. Depois do Inliner deixa de ser assim (as copias
+ * usam posicoes da pilha de operandos como variaveis locais), pelo que nesse caso deve ser
+ * criado um eliminador sem remocao de atribuicoes.
+ */
+public class DeadCodeEliminator {
+    /** Se as atribuicoes a variaveis que nunca sao lidas devem ser removidas */
+    private final boolean removeDeadStores;
+    /** Numero de instrucoes inalcancaveis removidas na ultima execucao */
+    private int unreachableCount = 0;
+    /** Numero de atribuicoes removidas na ultima execucao */
+    private int deadStoreCount = 0;
+
+    /**
+     * Cria um eliminador de codigo morto.
+     *
+     * @param removeDeadStores Se as atribuicoes a variaveis que nunca sao lidas devem ser removidas
+     */
+    public DeadCodeEliminator(boolean removeDeadStores){
+        this.removeDeadStores = removeDeadStores;
+    }
+
+    /**
+     * Obtem o numero de instrucoes inalcancaveis removidas na ultima execucao.
+     *
+     * @return O numero de instrucoes
+     */
+    public int getUnreachableCount(){
+        return unreachableCount;
+    }
+
+    /**
+     * Obtem o numero de atribuicoes a variaveis que nunca sao lidas removidas na ultima execucao.
+     *
+     * @return O numero de atribuicoes
+     */
+    public int getDeadStoreCount(){
+        return deadStoreCount;
+    }
+
+    /**
+     * Elimina o codigo morto no proprio array de instrucoes.
+     *
+     * @param code As instrucoes do programa
+     * @param constantPool A pool de constantes do programa
+     * @param entries Os enderecos de entrada das funcoes
+     * @return Mapa de cada endereco antigo (0 a code.size(), inclusive) para o novo endereco,
+     *         ou -1 para as instrucoes removidas que nao tem nenhum equivalente (as funcoes
+     *         que nunca sao chamadas ficam com -1)
+     */
+    public int[] eliminate(ArrayList<Instruction> code, ConstantPool constantPool, Collection<Integer> entries){
+        unreachableCount = 0;
+        deadStoreCount = 0;
+
+        boolean[] labels = labels(code);
+        boolean[] reachable = reachable(code, labels);
+
+        // Atribuicoes mortas, analisadas funcao a funcao (cada uma vai ate a entrada seguinte)
+        boolean[] deadStores = new boolean[code.size()];
+        if (removeDeadStores){
+            TreeSet<Integer> starts = new TreeSet<>(entries);
+            starts.add(0);
+            for (int start : starts){
+                Integer next = starts.higher(start);
+                markDeadStores(code, reachable, start, next == null ? code.size() : next, deadStores);
+            }
+        }
+
+        ArrayList<Instruction> result = new ArrayList<>(code.size());
+        int[] remap = new int[code.size() + 1];
+        for (int pc = 0; pc < code.size(); pc++){
+            if (!reachable[pc]){
+                remap[pc] = -1;
+                unreachableCount++;
+                continue;
+            }
+            remap[pc] = result.size();
+            Instruction inst = code.get(pc);
+
+            if (isConstantJumpf(code, labels, pc)){
+                // O ramo nao tomado ja foi removido: tconst; jumpf L desaparece e fconst; jumpf L passa a jump L
+                result.remove(result.size() - 1);
+                remap[pc] = result.size();
+                if (!constantCondition(code.get(pc - 1))){
+                    result.add(new Instruction1Arg(OpCode.jump, ((Instruction1Arg) inst).getArg()));
+                }
+            } else if (!deadStores[pc]){
+                result.add(inst);
+            } else if (pc > 0 && reachable[pc - 1] && !labels[pc] && isConstant(code.get(pc - 1))) {
+                // A constante guardada deixa de ser necessaria
+                result.remove(result.size() - 1);
+                remap[pc] = result.size();
+                deadStoreCount++;
+            } else {
+                result.add(new Instruction1Arg(OpCode.pop, 1));
+                deadStoreCount++;
+            }
+        }
+        remap[code.size()] = result.size();
+
+        // Corrigir os enderecos de saltos e chamadas (todos os destinos sao alcancaveis)
+        for (Instruction inst : result){
+            int targetArg = inst.getOpCode().targetArg();
+            if (targetArg >= 0){
+                Instruction1Arg jump = (Instruction1Arg) inst;
+                int target = jump.getArg(targetArg);
+                if (target >= 0 && target < remap.length){
+                    jump.setArg(targetArg, remap[target]);
+                }
+            }
+        }
+
+        code.clear();
+        code.addAll(result);
+        return remap;
+    }
+
+    /**
+     * Marca as instrucoes alcancaveis a partir da instrucao 0.
+     */
+    private static boolean[] reachable(List<Instruction> code, boolean[] labels){
+        boolean[] reachable = new boolean[code.size()];
+        Deque<Integer> worklist = new ArrayDeque<>();
+        worklist.push(0);
+
+        while (!worklist.isEmpty()){
+            int pc = worklist.pop();
+            if (pc < 0 || pc >= code.size() || reachable[pc]){
+                continue;
+            }
+            reachable[pc] = true;
+
+            Instruction inst = code.get(pc);
+            int targetArg = inst.getOpCode().targetArg();
+            if (isConstantJumpf(code, labels, pc)){
+                // tconst; jumpf L nunca salta, fconst; jumpf L salta sempre
+                worklist.push(constantCondition(code.get(pc - 1)) ? pc + 1 : ((Instruction1Arg) inst).getArg());
+                continue;
+            }
+            if (targetArg >= 0){
+                worklist.push(((Instruction1Arg) inst).getArg(targetArg));
+            }
+            if (fallsThrough(inst.getOpCode())){
+                worklist.push(pc + 1);
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Marca as atribuicoes mortas da funcao entre start e end, atraves de uma analise de
+     * vivacidade das variaveis (argumentos e variaveis locais) sobre as instrucoes alcancaveis.
+     */
+    private static void markDeadStores(List<Instruction> code, boolean[] reachable, int start, int end, boolean[] deadStores){
+        // Os enderecos dos argumentos sao negativos; offset desloca-os para indices validos
+        int offset = 0;
+        for (int pc = start; pc < end; pc++){
+            for (int slot : reads(code.get(pc))){
+                offset = Math.max(offset, -slot);
+            }
+            for (int slot : writes(code.get(pc))){
+                offset = Math.max(offset, -slot);
+            }
+        }
+
+        // Variaveis vivas a entrada de cada instrucao, ate atingir um ponto fixo
+        BitSet[] liveIn = new BitSet[end - start];
+        for (int i = 0; i < liveIn.length; i++){
+            liveIn[i] = new BitSet();
+        }
+        boolean changed = true;
+        while (changed){
+            changed = false;
+            for (int pc = end - 1; pc >= start; pc--){
+                if (!reachable[pc]){
+                    continue;
+                }
+                BitSet live = liveOut(code, start, end, pc, liveIn);
+                for (int slot : writes(code.get(pc))){
+                    live.clear(slot + offset);
+                }
+                for (int slot : reads(code.get(pc))){
+                    live.set(slot + offset);
+                }
+                if (!live.equals(liveIn[pc - start])){
+                    liveIn[pc - start] = live;
+                    changed = true;
+                }
+            }
+        }
+
+        for (int pc = start; pc < end; pc++){
+            Instruction inst = code.get(pc);
+            if (reachable[pc] && inst.getOpCode() == OpCode.lstore
+                    && !liveOut(code, start, end, pc, liveIn).get(((Instruction1Arg) inst).getArg() + offset)){
+                deadStores[pc] = true;
+            }
+        }
+    }
+
+    /**
+     * Obtem as variaveis vivas a saida de uma instrucao: as vivas a entrada das suas sucessoras
+     * dentro da funcao. Os retornos e as chamadas em posicao de cauda descartam o frame.
+     */
+    private static BitSet liveOut(List<Instruction> code, int start, int end, int pc, BitSet[] liveIn){
+        BitSet live = new BitSet();
+        Instruction inst = code.get(pc);
+        OpCode op = inst.getOpCode();
+
+        if (fallsThrough(op) && pc + 1 < end){
+            live.or(liveIn[pc + 1 - start]);
+        }
+        if (op != OpCode.call && op != OpCode.tailcall && op.targetArg() >= 0){
+            int target = ((Instruction1Arg) inst).getArg(op.targetArg());
+            if (target >= start && target < end){
+                live.or(liveIn[target - start]);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Obtem os enderecos das variaveis lidas por uma instrucao.
+     */
+    private static int[] reads(Instruction inst){
+        return switch (inst.getOpCode()){
+            case lload, lload_iconst_if_ige, iinc -> new int[]{((Instruction1Arg) inst).getArg()};
+            case lload_lload_iadd -> new int[]{((Instruction1Arg) inst).getArg(0), ((Instruction1Arg) inst).getArg(1)};
+            default -> new int[0];
+        };
+    }
+
+    /**
+     * Obtem os enderecos das variaveis escritas por uma instrucao, sem ler o valor anterior.
+     */
+    private static int[] writes(Instruction inst){
+        return switch (inst.getOpCode()){
+            case lstore -> new int[]{((Instruction1Arg) inst).getArg()};
+            case iconst_iadd_lstore -> new int[]{((Instruction1Arg) inst).getArg(1)};
+            default -> new int[0];
+        };
+    }
+
+    /**
+     * Indica se a execucao pode continuar na instrucao seguinte.
+     */
+    private static boolean fallsThrough(OpCode op){
+        return op != OpCode.jump && op != OpCode.ret && op != OpCode.retval && op != OpCode.tailcall && op != OpCode.halt;
+    }
+
+    /**
+     * Obtem o valor de uma instrucao tconst ou fconst, ou null para as restantes.
+     */
+    private static Boolean constantCondition(Instruction inst){
+        return switch (inst.getOpCode()){
+            case tconst -> true;
+            case fconst -> false;
+            default -> null;
+        };
+    }
+
+    /**
+     * Indica se a instrucao e um jumpf que so pode ser alcancado a partir de um tconst ou fconst.
+     */
+    private static boolean isConstantJumpf(List<Instruction> code, boolean[] labels, int pc){
+        return code.get(pc).getOpCode() == OpCode.jumpf && pc > 0 && !labels[pc] && constantCondition(code.get(pc - 1)) != null;
+    }
+
+    private static boolean isConstant(Instruction inst){
+        return switch (inst.getOpCode()){
+            case iconst, dconst, sconst, tconst, fconst -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Marca as instrucoes que sao destino de saltos ou chamadas.
+     */
+    private static boolean[] labels(List<Instruction> code){
+        boolean[] labels = new boolean[code.size() + 1];
+        for (Instruction inst : code){
+            int targetArg = inst.getOpCode().targetArg();
+            if (targetArg >= 0){
+                int target = ((Instruction1Arg) inst).getArg(targetArg);
+                if (target >= 0 && target <= code.size()){
+                    labels[target] = true;
+                }
+            }
+        }
+        return labels;
+    }
+}
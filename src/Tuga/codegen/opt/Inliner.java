@@ -0,0 +1,270 @@
+package Tuga.codegen.opt;
+
+import Tuga.vm.BytecodeVerifier;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.OpCode;
+import Tuga.vm.VerificationException;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import Tuga.vm.instruction.Instruction2Arg;
+import Tuga.vm.instruction.Instruction3Arg;
+
+import java.util.*;
+
+/**
+ * Expansao de funcoes folha pequenas no local da chamada.
+ * Uma funcao e expandida se nao fizer chamadas (e portanto nao for recursiva), se
+ * todos os seus saltos ficarem dentro dela e se tiver no maximo threshold instrucoes.
+ * Cada call para essa funcao, dentro de outra funcao, e substituido por uma copia do
+ * seu corpo em que:
+ * - os argumentos, ja empilhados pelo chamador, passam a ser variaveis locais do
+ *   chamador, nas posicoes da pilha que ocupam no momento da chamada;
+ * - as variaveis locais da funcao passam a ser as posicoes seguintes;
+ * - cada retval guarda o valor na posicao do primeiro argumento e descarta o resto,
+ *   e cada ret descarta os argumentos e variaveis locais, saltando depois para o fim da copia.
+ *
+ * As posicoes sao calculadas a partir da profundidade da pilha em cada instrucao, obtida
+ * com o BytecodeVerifier. Se o programa nao for aceite pelo verificador, nada e expandido.
+ */
+public class Inliner {
+    /** Numero de posicoes do frame usadas pelo FP e IP guardados (os enderecos locais comecam aqui) */
+    private static final int FRAME_HEADER = 2;
+
+    /** Numero maximo de instrucoes de uma funcao expandida */
+    private final int threshold;
+    /** Numero de chamadas expandidas na ultima execucao */
+    private int inlinedCount = 0;
+
+    /**
+     * Cria um inliner.
+     *
+     * @param threshold O numero maximo de instrucoes de uma funcao expandida
+     */
+    public Inliner(int threshold){
+        this.threshold = threshold;
+    }
+
+    /**
+     * Obtem o numero de chamadas expandidas na ultima execucao.
+     *
+     * @return O numero de chamadas expandidas
+     */
+    public int getInlinedCount(){
+        return inlinedCount;
+    }
+
+    /**
+     * Expande as chamadas no proprio array de instrucoes.
+     *
+     * @param code As instrucoes do programa
+     * @param constantPool A pool de constantes do programa
+     * @param entries Os enderecos de entrada das funcoes
+     * @return Mapa de cada endereco antigo (0 a code.size(), inclusive) para o novo endereco
+     */
+    public int[] inline(ArrayList<Instruction> code, ConstantPool constantPool, Collection<Integer> entries){
+        inlinedCount = 0;
+        int[] remap = new int[code.size() + 1];
+        for (int i = 0; i < remap.length; i++){
+            remap[i] = i;
+        }
+        if (threshold <= 0 || entries.isEmpty()){
+            return remap;
+        }
+
+        BytecodeVerifier verifier = new BytecodeVerifier(constantPool, code.toArray(new Instruction[0]));
+        try {
+            verifier.verify();
+        }catch (VerificationException e){
+            return remap;
+        }
+
+        // Cada funcao ocupa o codigo desde a sua entrada ate a entrada seguinte
+        TreeSet<Integer> starts = new TreeSet<>(entries);
+        int topLevelEnd = starts.first();
+        Map<Integer, Callee> callees = new HashMap<>();
+        for (int entry : starts){
+            Integer next = starts.higher(entry);
+            Callee callee = candidate(code, verifier, entry, next == null ? code.size() : next);
+            if (callee != null){
+                callees.put(entry, callee);
+            }
+        }
+        if (callees.isEmpty()){
+            return remap;
+        }
+
+        ArrayList<Instruction> result = new ArrayList<>(code.size());
+        // Instrucoes das copias, cujos destinos de salto ja estao no codigo novo
+        Set<Instruction> copies = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (int pc = 0; pc < code.size(); pc++){
+            remap[pc] = result.size();
+            Instruction inst = code.get(pc);
+
+            Callee callee = inst.getOpCode() == OpCode.call ? callees.get(((Instruction1Arg) inst).getArg()) : null;
+            int depth = verifier.getStackDepth(pc);
+            if (callee == null || pc < topLevelEnd || (pc >= callee.entry && pc < callee.end) || depth < callee.nArgs){
+                result.add(inst);
+                continue;
+            }
+
+            List<Instruction> copy = expand(code, verifier, callee, depth - callee.nArgs, result.size());
+            result.addAll(copy);
+            copies.addAll(copy);
+            inlinedCount++;
+        }
+        remap[code.size()] = result.size();
+
+        // Corrigir os enderecos de saltos e chamadas das instrucoes originais
+        for (Instruction inst : result){
+            int targetArg = inst.getOpCode().targetArg();
+            if (targetArg >= 0 && !copies.contains(inst)){
+                Instruction1Arg jump = (Instruction1Arg) inst;
+                int target = jump.getArg(targetArg);
+                if (target >= 0 && target < remap.length){
+                    jump.setArg(targetArg, remap[target]);
+                }
+            }
+        }
+
+        code.clear();
+        code.addAll(result);
+        return remap;
+    }
+
+    /**
+     * Funcao que pode ser expandida no local da chamada.
+     */
+    private record Callee(int entry, int end, int nArgs) {
+    }
+
+    /**
+     * Verifica se a funcao entre entry e end pode ser expandida.
+     *
+     * @return A funcao, ou null se nao puder ser expandida
+     */
+    private Callee candidate(List<Instruction> code, BytecodeVerifier verifier, int entry, int end){
+        if (end - entry > threshold || verifier.getStackDepth(entry) < 0){
+            return null;
+        }
+
+        for (int pc = entry; pc < end; pc++){
+            Instruction inst = code.get(pc);
+            switch (inst.getOpCode()){
+                case call, tailcall, halt, galloc -> {
+                    return null;
+                }
+                default -> {
+                    int targetArg = inst.getOpCode().targetArg();
+                    if (targetArg >= 0){
+                        int target = ((Instruction1Arg) inst).getArg(targetArg);
+                        if (target < entry || target >= end){
+                            return null;
+                        }
+                    }
+                }
+            }
+        }
+
+        // A ultima instrucao nao pode continuar para a funcao seguinte
+        OpCode last = code.get(end - 1).getOpCode();
+        if (last != OpCode.ret && last != OpCode.retval && last != OpCode.jump){
+            return null;
+        }
+        return new Callee(entry, end, verifier.getArgCount(entry));
+    }
+
+    /**
+     * Gera a copia do corpo de uma funcao para uma chamada.
+     *
+     * @param base A posicao (a partir do FP do chamador) do primeiro argumento
+     * @param start O endereco onde a copia vai ficar no codigo novo
+     */
+    private List<Instruction> expand(List<Instruction> code, BytecodeVerifier verifier, Callee callee, int base, int start){
+        // Traduzir cada instrucao, guardando os saltos internos com os enderecos antigos
+        List<List<Instruction>> translated = new ArrayList<>();
+        List<Instruction> jumpsToEnd = new ArrayList<>();
+        for (int pc = callee.entry; pc < callee.end; pc++){
+            List<Instruction> out = new ArrayList<>();
+            Instruction inst = code.get(pc);
+            OpCode op = inst.getOpCode();
+            int depth = verifier.getStackDepth(pc);
+
+            switch (op){
+                case lload, lstore -> out.add(new Instruction1Arg(op, localAddress(((Instruction1Arg) inst).getArg(), callee, base)));
+                case retval -> {
+                    // Deixar apenas o valor de retorno, na posicao do primeiro argumento
+                    int slots = callee.nArgs + Math.max(depth, 1);
+                    if (slots > 1){
+                        out.add(new Instruction1Arg(OpCode.lstore, base + FRAME_HEADER));
+                    }
+                    if (slots > 2){
+                        out.add(new Instruction1Arg(OpCode.pop, slots - 2));
+                    }
+                }
+                case ret -> {
+                    int slots = callee.nArgs + Math.max(depth, 0);
+                    if (slots > 0){
+                        out.add(new Instruction1Arg(OpCode.pop, slots));
+                    }
+                }
+                default -> out.add(copy(inst));
+            }
+
+            if ((op == OpCode.ret || op == OpCode.retval) && pc < callee.end - 1){
+                Instruction jump = new Instruction1Arg(OpCode.jump, 0);
+                jumpsToEnd.add(jump);
+                out.add(jump);
+            }
+            translated.add(out);
+        }
+
+        // Endereco novo de cada instrucao da funcao
+        int[] offsets = new int[translated.size()];
+        int size = 0;
+        for (int i = 0; i < translated.size(); i++){
+            offsets[i] = start + size;
+            size += translated.get(i).size();
+        }
+        int end = start + size;
+
+        List<Instruction> result = new ArrayList<>(size);
+        for (List<Instruction> out : translated){
+            for (Instruction inst : out){
+                int targetArg = inst.getOpCode().targetArg();
+                if (jumpsToEnd.contains(inst)){
+                    ((Instruction1Arg) inst).setArg(end);
+                } else if (targetArg >= 0) {
+                    Instruction1Arg jump = (Instruction1Arg) inst;
+                    jump.setArg(targetArg, offsets[jump.getArg(targetArg) - callee.entry]);
+                }
+                result.add(inst);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converte o endereco de um argumento ou variavel local da funcao expandida
+     * no endereco da mesma posicao no frame do chamador.
+     */
+    private static int localAddress(int addr, Callee callee, int base){
+        // O FP da funcao chamada seria a posicao base + nArgs do frame do chamador
+        int slot = addr < 0 ? base + callee.nArgs + addr : base + callee.nArgs + addr - FRAME_HEADER;
+        return slot + FRAME_HEADER;
+    }
+
+    /**
+     * Cria uma copia de uma instrucao, para que as copias da mesma funcao sejam independentes.
+     */
+    private static Instruction copy(Instruction inst){
+        OpCode op = inst.getOpCode();
+        return switch (op.nArgs()){
+            case 0 -> new Instruction(op);
+            case 1 -> new Instruction1Arg(op, ((Instruction1Arg) inst).getArg());
+            case 2 -> new Instruction2Arg(op, ((Instruction2Arg) inst).getArg(), ((Instruction2Arg) inst).getArg2());
+            default -> new Instruction3Arg(op, ((Instruction3Arg) inst).getArg(), ((Instruction3Arg) inst).getArg2(),
+                    ((Instruction3Arg) inst).getArg3());
+        };
+    }
+}
@@ -0,0 +1,164 @@
+package Tuga.codegen.opt;
+
+import Tuga.parser.TugaParser;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Analise das expressoes invariantes de um ciclo enquanto.
+ * Uma expressao e invariante se o seu valor e o mesmo em todas as iteracoes: so le
+ * variaveis que nao sao atribuidas nem declaradas no ciclo, nao chama funcoes e nao
+ * pode provocar erros de execucao. Estas expressoes podem ser calculadas uma unica vez
+ * antes do ciclo, mesmo que o ciclo nunca execute o corpo ou que a expressao esteja num
+ * ramo que nao e executado.
+ *
+ * Por isso so sao aceites divisoes e modulos por uma constante diferente de zero, e cada
+ * variavel lida tem de ter um valor (nao ser NULO) a entrada do ciclo, o que e decidido
+ * pelo gerador atraves do predicado readable. As variaveis globais nunca sao aceites,
+ * porque qualquer chamada de funcao no ciclo as pode alterar.
+ */
+public class LoopInvariants {
+    /** Valores das expressoes constantes, ou null se a avaliacao em tempo de compilacao estiver desligada */
+    private final ConstantFolder constantFolder;
+    /** Se uma variavel local tem sempre um valor a entrada do ciclo */
+    private final Predicate<String> readable;
+    /** Se uma expressao ja foi calculada antes de um ciclo exterior */
+    private final Predicate<ParseTree> hoisted;
+    /** Variaveis atribuidas ou declaradas no ciclo a analisar */
+    private final Set<String> variant = new HashSet<>();
+
+    /**
+     * Cria a analise para um ciclo.
+     *
+     * @param constantFolder Os valores das expressoes constantes, ou null
+     * @param readable Indica se uma variavel e local e tem sempre um valor a entrada do ciclo
+     * @param hoisted Indica se uma expressao ja e lida de uma posicao calculada antes de um ciclo exterior
+     */
+    public LoopInvariants(ConstantFolder constantFolder, Predicate<String> readable, Predicate<ParseTree> hoisted){
+        this.constantFolder = constantFolder;
+        this.readable = readable;
+        this.hoisted = hoisted;
+    }
+
+    /**
+     * Procura as expressoes invariantes de um ciclo, na condicao e no corpo (incluindo ciclos interiores).
+     * So sao devolvidas as expressoes maximas, e apenas as que tem pelo menos uma operacao:
+     * literais, variaveis e constantes nao ganham nada em ser calculados antes do ciclo.
+     *
+     * @param loop O ciclo
+     * @return As expressoes, pela ordem em que aparecem no codigo fonte
+     */
+    public List<TugaParser.ExpressionContext> find(TugaParser.WhileInstrContext loop){
+        variant.clear();
+        collectVariant(loop);
+
+        List<TugaParser.ExpressionContext> result = new ArrayList<>();
+        collectInvariant(loop.expression(), result);
+        collectInvariant(loop.instruction(), result);
+        return result;
+    }
+
+    private void collectVariant(ParseTree node){
+        if (node instanceof TugaParser.AssignInstrContext assign){
+            variant.add(assign.IDENTIFIER().getText());
+        } else if (node instanceof TugaParser.DeclarationContext decl) {
+            for (TerminalNode id : decl.variableList().IDENTIFIER()){
+                variant.add(id.getText());
+            }
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++){
+            collectVariant(node.getChild(i));
+        }
+    }
+
+    private void collectInvariant(ParseTree node, List<TugaParser.ExpressionContext> result){
+        if (node instanceof TugaParser.ExpressionContext expr && isInvariant(expr)){
+            if (hasOperation(expr)){
+                result.add(expr);
+            }
+            return;
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++){
+            collectInvariant(node.getChild(i), result);
+        }
+    }
+
+    /**
+     * Indica se o valor de uma expressao e o mesmo em todas as iteracoes e se pode ser
+     * calculado antes do ciclo sem provocar erros de execucao.
+     */
+    private boolean isInvariant(TugaParser.ExpressionContext ctx){
+        if (isConstant(ctx) || hoisted.test(ctx)){
+            return true;
+        }
+
+        if (ctx instanceof TugaParser.LiteralExprContext){
+            return true;
+        }
+        if (ctx instanceof TugaParser.VarExprContext var){
+            String name = var.IDENTIFIER().getText();
+            return !variant.contains(name) && readable.test(name);
+        }
+        if (ctx instanceof TugaParser.ParenExprContext paren){
+            return isInvariant(paren.expression());
+        }
+        if (ctx instanceof TugaParser.UnaryExprContext unary){
+            return isInvariant(unary.expression());
+        }
+        if (ctx instanceof TugaParser.BinaryExprContext binary){
+            String op = binary.op.getText();
+            if (("/".equals(op) || "%".equals(op)) && !isNonZeroConstant(binary.expression(1))){
+                return false;
+            }
+            return isInvariant(binary.expression(0)) && isInvariant(binary.expression(1));
+        }
+        if (ctx instanceof TugaParser.ComparisonExprContext
+                || ctx instanceof TugaParser.EqualityExprContext
+                || ctx instanceof TugaParser.AndExprContext
+                || ctx instanceof TugaParser.OrExprContext){
+            return isInvariant((TugaParser.ExpressionContext) ctx.getChild(0))
+                    && isInvariant((TugaParser.ExpressionContext) ctx.getChild(2));
+        }
+
+        // Chamadas de funcao
+        return false;
+    }
+
+    /**
+     * Indica se calcular a expressao antes do ciclo poupa alguma operacao em cada iteracao.
+     */
+    private boolean hasOperation(TugaParser.ExpressionContext ctx){
+        if (isConstant(ctx) || hoisted.test(ctx)){
+            return false;
+        }
+        if (ctx instanceof TugaParser.ParenExprContext paren){
+            return hasOperation(paren.expression());
+        }
+        return !(ctx instanceof TugaParser.LiteralExprContext) && !(ctx instanceof TugaParser.VarExprContext);
+    }
+
+    private boolean isConstant(TugaParser.ExpressionContext ctx){
+        return constantFolder != null && constantFolder.getValue(ctx) != null;
+    }
+
+    private boolean isNonZeroConstant(TugaParser.ExpressionContext ctx){
+        Object value = constantFolder != null ? constantFolder.getValue(ctx) : null;
+        if (value == null && ctx instanceof TugaParser.LiteralExprContext literal){
+            // Sem avaliacao de constantes, so os literais sao reconhecidos
+            if (literal.literal() instanceof TugaParser.IntLiteralContext i){
+                value = Integer.parseInt(i.INTEGER().getText());
+            } else if (literal.literal() instanceof TugaParser.RealLiteralContext r) {
+                value = Double.parseDouble(r.REAL().getText());
+            }
+        }
+        return value instanceof Number number && number.doubleValue() != 0.0;
+    }
+}
@@ -0,0 +1,211 @@
+package Tuga.codegen.opt;
+
+import Tuga.vm.ConstantPool;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+
+import java.util.*;
+
+/**
+ * Otimizador peephole sobre as instrucoes geradas pelo BytecodeGenerator.
+ * Aplica um conjunto configuravel de regras (PeepholeRule) a janelas de instrucoes
+ * consecutivas, repetindo ate nenhuma regra se aplicar. Depois de cada passagem,
+ * os enderecos de todos os saltos e chamadas sao corrigidos para o codigo reduzido.
+ * Regista quantas instrucoes cada regra removeu.
+ */
+public class PeepholeOptimizer {
+    /** Numero maximo de passagens sobre o codigo */
+    private static final int MAX_PASSES = 16;
+
+    /** Regras aplicadas, pela ordem em que sao experimentadas */
+    private final List<PeepholeRule> rules = new ArrayList<>();
+    /** Numero de instrucoes removidas por cada regra */
+    private final Map<String, Integer> removedCounts = new LinkedHashMap<>();
+
+    /**
+     * Cria um otimizador sem regras.
+     */
+    public PeepholeOptimizer(){
+    }
+
+    /**
+     * Cria um otimizador com as regras fornecidas.
+     *
+     * @param rules As regras a aplicar
+     */
+    public PeepholeOptimizer(List<PeepholeRule> rules){
+        rules.forEach(this::addRule);
+    }
+
+    /**
+     * Cria um otimizador com as regras predefinidas (ver PeepholeRules).
+     *
+     * @return O otimizador
+     */
+    public static PeepholeOptimizer withDefaultRules(){
+        return new PeepholeOptimizer(PeepholeRules.defaults());
+    }
+
+    /**
+     * Acrescenta uma regra ao otimizador.
+     *
+     * @param rule A regra a acrescentar
+     */
+    public void addRule(PeepholeRule rule){
+        rules.add(rule);
+        removedCounts.putIfAbsent(rule.getName(), 0);
+    }
+
+    /**
+     * Obtem o numero de instrucoes removidas por cada regra.
+     *
+     * @return Mapa do nome da regra para o numero de instrucoes removidas
+     */
+    public Map<String, Integer> getRemovedCounts(){
+        return Collections.unmodifiableMap(removedCounts);
+    }
+
+    /**
+     * Otimiza as instrucoes no proprio array.
+     *
+     * @param code As instrucoes a otimizar
+     * @param constantPool A pool de constantes do programa
+     * @param entries Enderecos que tem de ser preservados, alem dos destinos de saltos e chamadas
+     *                (por exemplo, as entradas das funcoes)
+     * @return Mapa de cada endereco antigo (0 a code.size(), inclusive) para o novo endereco
+     */
+    public int[] optimize(ArrayList<Instruction> code, ConstantPool constantPool, Collection<Integer> entries){
+        int[] remap = identity(code.size() + 1);
+        Set<Integer> preserved = new HashSet<>(entries);
+
+        for (int pass = 0; pass < MAX_PASSES; pass++){
+            int[] passRemap = runPass(code, constantPool, preserved);
+            if (passRemap == null){
+                break;
+            }
+
+            // Compor o mapa desta passagem com os anteriores
+            for (int i = 0; i < remap.length; i++){
+                remap[i] = passRemap[remap[i]];
+            }
+            Set<Integer> remapped = new HashSet<>();
+            for (int entry : preserved){
+                remapped.add(passRemap[entry]);
+            }
+            preserved = remapped;
+        }
+        return remap;
+    }
+
+    /**
+     * Aplica as regras uma vez a todo o codigo.
+     *
+     * @return O mapa de enderecos desta passagem, ou null se nada mudou
+     */
+    private int[] runPass(ArrayList<Instruction> code, ConstantPool constantPool, Set<Integer> preserved){
+        boolean[] labels = labels(code, preserved);
+
+        ArrayList<Instruction> result = new ArrayList<>(code.size());
+        int[] remap = new int[code.size() + 1];
+        boolean changed = false;
+
+        int pc = 0;
+        while (pc < code.size()){
+            List<Instruction> replacement = null;
+            int windowSize = 1;
+
+            for (PeepholeRule rule : rules){
+                windowSize = rule.getWindowSize();
+                if (!windowFits(labels, pc, windowSize, code.size())){
+                    continue;
+                }
+                replacement = rule.rewrite(code, pc, constantPool);
+                if (replacement != null){
+                    removedCounts.merge(rule.getName(), windowSize - replacement.size(), Integer::sum);
+                    break;
+                }
+            }
+
+            if (replacement == null){
+                remap[pc] = result.size();
+                result.add(code.get(pc));
+                pc++;
+                continue;
+            }
+
+            // Todas as instrucoes da janela passam a corresponder ao inicio da substituicao
+            changed = true;
+            for (int i = 0; i < windowSize; i++){
+                remap[pc + i] = result.size();
+            }
+            result.addAll(replacement);
+            pc += windowSize;
+        }
+        remap[code.size()] = result.size();
+
+        if (!changed){
+            return null;
+        }
+
+        // Corrigir os enderecos de saltos e chamadas
+        for (Instruction inst : result){
+            int targetArg = inst.getOpCode().targetArg();
+            if (targetArg >= 0){
+                Instruction1Arg jump = (Instruction1Arg) inst;
+                int target = jump.getArg(targetArg);
+                if (target >= 0 && target < remap.length){
+                    jump.setArg(targetArg, remap[target]);
+                }
+            }
+        }
+
+        code.clear();
+        code.addAll(result);
+        return remap;
+    }
+
+    /**
+     * Marca as instrucoes que sao destino de saltos ou chamadas, ou que tem de ser preservadas.
+     */
+    private static boolean[] labels(List<Instruction> code, Set<Integer> preserved){
+        boolean[] labels = new boolean[code.size() + 1];
+        for (int entry : preserved){
+            if (entry >= 0 && entry <= code.size()){
+                labels[entry] = true;
+            }
+        }
+        for (Instruction inst : code){
+            int targetArg = inst.getOpCode().targetArg();
+            if (targetArg >= 0){
+                int target = ((Instruction1Arg) inst).getArg(targetArg);
+                if (target >= 0 && target <= code.size()){
+                    labels[target] = true;
+                }
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Verifica que a janela cabe no codigo e que nenhuma instrucao, exceto a primeira, e um destino.
+     */
+    private static boolean windowFits(boolean[] labels, int pc, int windowSize, int codeSize){
+        if (pc + windowSize > codeSize){
+            return false;
+        }
+        for (int i = pc + 1; i < pc + windowSize; i++){
+            if (labels[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] identity(int size){
+        int[] map = new int[size];
+        for (int i = 0; i < size; i++){
+            map[i] = i;
+        }
+        return map;
+    }
+}
@@ -0,0 +1,41 @@
+package Tuga.codegen.opt;
+
+import Tuga.vm.ConstantPool;
+import Tuga.vm.instruction.Instruction;
+
+import java.util.List;
+
+/**
+ * Regra de otimizacao peephole.
+ * Cada regra observa uma janela de instrucoes consecutivas e, se reconhecer o padrao,
+ * devolve a sequencia que a substitui. O otimizador so oferece janelas em que nenhuma
+ * instrucao, exceto a primeira, e destino de um salto ou chamada, e corrige todos os
+ * enderecos depois de aplicar as regras.
+ */
+public interface PeepholeRule {
+    /**
+     * Obtem o nome da regra, usado nas estatisticas do otimizador.
+     *
+     * @return O nome da regra
+     */
+    String getName();
+
+    /**
+     * Obtem o numero de instrucoes da janela observada pela regra.
+     *
+     * @return O tamanho da janela
+     */
+    int getWindowSize();
+
+    /**
+     * Tenta reescrever a janela que comeca em pc.
+     * Os enderecos de salto nas instrucoes devolvidas referem-se ao codigo
+     * antes da otimizacao, tal como os do resto do programa.
+     *
+     * @param code Todas as instrucoes do programa
+     * @param pc A posicao da primeira instrucao da janela
+     * @param constantPool A pool de constantes, onde a regra pode acrescentar constantes
+     * @return As instrucoes que substituem a janela, ou null se a regra nao se aplica
+     */
+    List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool);
+}
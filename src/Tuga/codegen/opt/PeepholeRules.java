@@ -0,0 +1,260 @@
+package Tuga.codegen.opt;
+
+import Tuga.vm.ConstantPool;
+import Tuga.vm.OpCode;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+
+import java.util.List;
+
+/**
+ * Regras peephole predefinidas para as sequencias geradas pelo BytecodeGenerator.
+ */
+public final class PeepholeRules {
+    private PeepholeRules(){
+    }
+
+    /**
+     * Obtem as regras predefinidas, pela ordem em que devem ser experimentadas.
+     *
+     * @return A lista de regras
+     */
+    public static List<PeepholeRule> defaults(){
+        return List.of(
+                new IntToRealConstant(),
+                new StoreLoad(),
+                new ConstantJumpf(),
+                new PopBeforeRet(),
+                new UnreachableAfterJump(),
+                new JumpToNext(),
+                new JumpThreading()
+        );
+    }
+
+    /**
+     * iconst k; itod  =>  dconst (k como real)
+     */
+    public static class IntToRealConstant implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "iconst-itod";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 2;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            if (is(code.get(pc), OpCode.iconst) && is(code.get(pc + 1), OpCode.itod)){
+                int index = constantPool.addReal(arg(code.get(pc)));
+                return List.of(new Instruction1Arg(OpCode.dconst, index));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * gstore x; gload x  =>  dup; gstore x
+     * O valor acabado de guardar e reutilizado em vez de ser lido de novo.
+     * Nao se aplica a lstore/lload: com o dup, um lstore para a posicao logo acima
+     * dos operandos (invalido no codigo original) passaria a ser aceite.
+     */
+    public static class StoreLoad implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "store-load";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 2;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            Instruction store = code.get(pc);
+            Instruction load = code.get(pc + 1);
+            if (is(store, OpCode.gstore) && is(load, OpCode.gload) && arg(store) == arg(load)){
+                return List.of(new Instruction(OpCode.dup), store);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * tconst; jumpf L  =>  (nada)
+     * fconst; jumpf L  =>  jump L
+     */
+    public static class ConstantJumpf implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "const-jumpf";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 2;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            if (!is(code.get(pc + 1), OpCode.jumpf)){
+                return null;
+            }
+            if (is(code.get(pc), OpCode.tconst)){
+                return List.of();
+            }
+            if (is(code.get(pc), OpCode.fconst)){
+                return List.of(new Instruction1Arg(OpCode.jump, arg(code.get(pc + 1))));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * pop n; ret m  =>  ret m  (o ret ja descarta o frame inteiro)
+     * pop 0  =>  (nada)
+     */
+    public static class PopBeforeRet implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "pop-ret";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 2;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            if (!is(code.get(pc), OpCode.pop)){
+                return null;
+            }
+            if (arg(code.get(pc)) == 0){
+                return List.of(code.get(pc + 1));
+            }
+            if (is(code.get(pc + 1), OpCode.ret)){
+                return List.of(code.get(pc + 1));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Remove uma instrucao que segue um jump, ret, retval, tailcall ou halt e que nao e destino
+     * de nenhum salto, ja que nunca pode ser executada.
+     */
+    public static class UnreachableAfterJump implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "unreachable";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 2;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            OpCode op = code.get(pc).getOpCode();
+            if (op == OpCode.jump || op == OpCode.ret || op == OpCode.retval || op == OpCode.tailcall || op == OpCode.halt){
+                return List.of(code.get(pc));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * jump pc+1  =>  (nada)
+     * jumpf pc+1  =>  pop 1
+     * if_xx pc+1  =>  pop 2
+     */
+    public static class JumpToNext implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "jump-next";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 1;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            Instruction inst = code.get(pc);
+            if (is(inst, OpCode.jump) && arg(inst) == pc + 1){
+                return List.of();
+            }
+            if (is(inst, OpCode.jumpf) && arg(inst) == pc + 1){
+                return List.of(new Instruction1Arg(OpCode.pop, 1));
+            }
+            if (isCompareBranch(inst) && arg(inst) == pc + 1){
+                return List.of(new Instruction1Arg(OpCode.pop, 2));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * jump L / jumpf L / if_xx L, em que L e um jump M  =>  jump M / jumpf M / if_xx M
+     * Cobre o caso de um salto condicional para o jump de fim de um ciclo ou de um se-senao.
+     */
+    public static class JumpThreading implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "jump-threading";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 1;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            Instruction inst = code.get(pc);
+            if (!is(inst, OpCode.jump) && !is(inst, OpCode.jumpf) && !isCompareBranch(inst)){
+                return null;
+            }
+
+            // Seguir a cadeia de jumps, parando se houver um ciclo
+            int target = arg(inst);
+            for (int steps = 0; steps < code.size() && target < code.size() && is(code.get(target), OpCode.jump); steps++){
+                int next = arg(code.get(target));
+                if (next == target){
+                    break;
+                }
+                target = next;
+            }
+
+            if (target == arg(inst)){
+                return null;
+            }
+            return List.of(new Instruction1Arg(inst.getOpCode(), target));
+        }
+    }
+
+    private static boolean is(Instruction inst, OpCode opCode){
+        return inst.getOpCode() == opCode;
+    }
+
+    /**
+     * Indica se a instrucao e um salto condicional com comparacao (if_ilt, if_ige, ...).
+     */
+    private static boolean isCompareBranch(Instruction inst){
+        return switch (inst.getOpCode()){
+            case if_ilt, if_ige, if_ileq, if_igt, if_ieq, if_ineq,
+                 if_dlt, if_dge, if_dleq, if_dgt, if_deq, if_dneq -> true;
+            default -> false;
+        };
+    }
+
+    private static int arg(Instruction inst){
+        return ((Instruction1Arg) inst).getArg();
+    }
+}
@@ -0,0 +1,166 @@
+package Tuga.codegen.opt;
+
+import Tuga.vm.ConstantPool;
+import Tuga.vm.OpCode;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import Tuga.vm.instruction.Instruction2Arg;
+import Tuga.vm.instruction.Instruction3Arg;
+
+import java.util.List;
+
+/**
+ * Regras que substituem sequencias frequentes de instrucoes por superinstrucoes.
+ * Sao aplicadas pelo PeepholeOptimizer depois das regras de PeepholeRules, para que
+ * cada ciclo do interpretador faca o trabalho de varias instrucoes originais.
+ * Como o otimizador so oferece janelas sem destinos de saltos no meio, nenhuma
+ * instrucao fundida pode ser alvo de um salto.
+ */
+public final class SuperinstructionRules {
+    private SuperinstructionRules(){
+    }
+
+    /**
+     * Obtem as regras de superinstrucoes, pela ordem em que devem ser experimentadas
+     * (as janelas maiores primeiro).
+     *
+     * @return A lista de regras
+     */
+    public static List<PeepholeRule> defaults(){
+        return List.of(
+                new Increment(),
+                new LocalConstantIfIge(),
+                new AddConstantStore(),
+                new AddLocals(),
+                new PrintGlobal()
+        );
+    }
+
+    /**
+     * lload x; iconst k; iadd; lstore x  =>  iinc x k
+     */
+    public static class Increment implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "iinc";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 4;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            Instruction load = code.get(pc);
+            Instruction store = code.get(pc + 3);
+            if (is(load, OpCode.lload) && is(code.get(pc + 1), OpCode.iconst) && is(code.get(pc + 2), OpCode.iadd)
+                    && is(store, OpCode.lstore) && arg(load) == arg(store)){
+                return List.of(new Instruction2Arg(OpCode.iinc, arg(load), arg(code.get(pc + 1))));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * lload x; iconst k; if_ige L  =>  lload_iconst_if_ige x k L
+     * A condicao mais comum de um ciclo enquanto sobre um contador.
+     */
+    public static class LocalConstantIfIge implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "lload-iconst-if-ige";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 3;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            if (is(code.get(pc), OpCode.lload) && is(code.get(pc + 1), OpCode.iconst) && is(code.get(pc + 2), OpCode.if_ige)){
+                return List.of(new Instruction3Arg(OpCode.lload_iconst_if_ige,
+                        arg(code.get(pc)), arg(code.get(pc + 1)), arg(code.get(pc + 2))));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * iconst k; iadd; lstore x  =>  iconst_iadd_lstore k x
+     */
+    public static class AddConstantStore implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "iconst-iadd-lstore";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 3;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            if (is(code.get(pc), OpCode.iconst) && is(code.get(pc + 1), OpCode.iadd) && is(code.get(pc + 2), OpCode.lstore)){
+                return List.of(new Instruction2Arg(OpCode.iconst_iadd_lstore, arg(code.get(pc)), arg(code.get(pc + 2))));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * lload a; lload b; iadd  =>  lload_lload_iadd a b
+     */
+    public static class AddLocals implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "lload-lload-iadd";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 3;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            if (is(code.get(pc), OpCode.lload) && is(code.get(pc + 1), OpCode.lload) && is(code.get(pc + 2), OpCode.iadd)){
+                return List.of(new Instruction2Arg(OpCode.lload_lload_iadd, arg(code.get(pc)), arg(code.get(pc + 1))));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * gload x; iprint  =>  gload_iprint x
+     */
+    public static class PrintGlobal implements PeepholeRule {
+        @Override
+        public String getName(){
+            return "gload-iprint";
+        }
+
+        @Override
+        public int getWindowSize(){
+            return 2;
+        }
+
+        @Override
+        public List<Instruction> rewrite(List<Instruction> code, int pc, ConstantPool constantPool){
+            if (is(code.get(pc), OpCode.gload) && is(code.get(pc + 1), OpCode.iprint)){
+                return List.of(new Instruction1Arg(OpCode.gload_iprint, arg(code.get(pc))));
+            }
+            return null;
+        }
+    }
+
+    private static boolean is(Instruction inst, OpCode opCode){
+        return inst.getOpCode() == opCode;
+    }
+
+    private static int arg(Instruction inst){
+        return ((Instruction1Arg) inst).getArg();
+    }
+}
@@ -0,0 +1,122 @@
+package Tuga.ir;
+
+import Tuga.ir.instruction.IrInstruction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bloco basico: sequencia de instrucoes executadas sempre do inicio ao fim,
+ * terminada por um salto, salto condicional ou retorno.
+ */
+public class BasicBlock {
+    /** Numero do bloco dentro da funcao */
+    private final int id;
+    /** Instrucoes do bloco, sem a instrucao final */
+    private final List<IrInstruction> instructions = new ArrayList<>();
+    /** Instrucao que termina o bloco, ou null enquanto o bloco esta a ser construido */
+    private IrInstruction terminator;
+
+    /**
+     * Cria um bloco vazio. Os blocos sao criados pela funcao a que pertencem (IrFunction).
+     *
+     * @param id O numero do bloco
+     */
+    BasicBlock(int id){
+        this.id = id;
+    }
+
+    /**
+     * Obtem o numero do bloco.
+     *
+     * @return O numero do bloco dentro da funcao
+     */
+    public int getId(){
+        return id;
+    }
+
+    /**
+     * Obtem o nome do bloco usado nas listagens.
+     *
+     * @return O nome do bloco (B seguido do numero)
+     */
+    public String getLabel(){
+        return "B" + id;
+    }
+
+    /**
+     * Obtem as instrucoes do bloco, sem a instrucao final.
+     * A lista pode ser alterada pelas otimizacoes.
+     *
+     * @return A lista de instrucoes
+     */
+    public List<IrInstruction> getInstructions(){
+        return instructions;
+    }
+
+    /**
+     * Acrescenta uma instrucao ao bloco.
+     * Se for um salto ou retorno, passa a ser a instrucao final do bloco.
+     *
+     * @param inst A instrucao
+     * @throws IllegalStateException se o bloco ja estiver terminado
+     */
+    public void add(IrInstruction inst){
+        if (terminator != null){
+            throw new IllegalStateException("O bloco " + getLabel() + " ja terminou");
+        }
+        if (inst.isTerminator()){
+            terminator = inst;
+        }else {
+            instructions.add(inst);
+        }
+    }
+
+    /**
+     * Obtem a instrucao que termina o bloco.
+     *
+     * @return O salto ou retorno final, ou null se o bloco ainda nao terminou
+     */
+    public IrInstruction getTerminator(){
+        return terminator;
+    }
+
+    /**
+     * Substitui a instrucao que termina o bloco.
+     *
+     * @param terminator O novo salto ou retorno
+     */
+    public void setTerminator(IrInstruction terminator){
+        this.terminator = terminator;
+    }
+
+    /**
+     * Indica se o bloco ja tem a instrucao final.
+     *
+     * @return true se o bloco terminou
+     */
+    public boolean isTerminated(){
+        return terminator != null;
+    }
+
+    /**
+     * Obtem os blocos para onde a execucao pode seguir no fim deste bloco.
+     *
+     * @return Os blocos sucessores
+     */
+    public List<BasicBlock> getSuccessors(){
+        return terminator == null ? List.of() : terminator.getSuccessors();
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder(getLabel()).append(":\n");
+        for (IrInstruction inst : instructions){
+            sb.append("    ").append(inst).append('\n');
+        }
+        if (terminator != null){
+            sb.append("    ").append(terminator).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package Tuga.ir;
+
+import Tuga.semantic.Type;
+
+/**
+ * Valor constante usado como operando.
+ * O valor e um Integer, Double, String ou Boolean, conforme o tipo.
+ */
+public final class Constant implements Operand {
+    /** Tipo da constante */
+    private final Type type;
+    /** Valor da constante */
+    private final Object value;
+
+    /**
+     * Cria uma constante a partir de um valor.
+     *
+     * @param value O valor (Integer, Double, String ou Boolean)
+     * @throws IllegalArgumentException se o valor nao for de nenhum tipo da linguagem
+     */
+    public Constant(Object value){
+        if (value instanceof Integer){
+            type = Type.INTEGER;
+        } else if (value instanceof Double) {
+            type = Type.REAL;
+        } else if (value instanceof String) {
+            type = Type.STRING;
+        } else if (value instanceof Boolean) {
+            type = Type.BOOLEAN;
+        } else {
+            throw new IllegalArgumentException("Valor constante invalido: " + value);
+        }
+        this.value = value;
+    }
+
+    @Override
+    public Type getType(){
+        return type;
+    }
+
+    /**
+     * Obtem o valor da constante.
+     *
+     * @return O valor (Integer, Double, String ou Boolean)
+     */
+    public Object getValue(){
+        return value;
+    }
+
+    @Override
+    public String toString(){
+        if (value instanceof String str){
+            return "\"" + str + "\"";
+        }
+        if (value instanceof Boolean b){
+            return b ? "verdadeiro" : "falso";
+        }
+        return String.valueOf(value);
+    }
+}
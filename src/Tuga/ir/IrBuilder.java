@@ -0,0 +1,567 @@
+package Tuga.ir;
+
+import Tuga.codegen.opt.ConstantFolder;
+import Tuga.ir.instruction.*;
+import Tuga.parser.TugaBaseVisitor;
+import Tuga.parser.TugaParser;
+import Tuga.semantic.Type;
+import Tuga.semantic.TypeChecker;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.*;
+
+/**
+ * Construtor da representacao intermedia a partir da arvore sintatica.
+ * Deve ser aplicado a um programa sem erros, depois do TypeChecker, de quem usa
+ * o tipo de cada expressao.
+ *
+ * Cada expressao e visitada em pos-ordem e o seu resultado fica num registo temporario
+ * novo (ou e diretamente uma constante ou o registo de uma variavel local), pelo que as
+ * instrucoes de cada expressao aparecem pela mesma ordem que no codigo de pilha.
+ * As conversoes (inteiro para real, valores para string) sao explicitas e feitas logo a
+ * seguir a cada operando. Os ciclos, condicionais e operadores 'e'/'ou' em curto-circuito
+ * sao traduzidos em blocos basicos e saltos.
+ *
+ * Ao contrario do gerador de bytecode direto, cada variavel declarada num bloco tem um
+ * registo proprio durante toda a funcao, e a atribuicao de um inteiro a uma variavel real
+ * converte o valor.
+ */
+public class IrBuilder extends TugaBaseVisitor<Operand> {
+    /** TypeChecker que ja analisou o programa */
+    private final TypeChecker typeChecker;
+    /** Valores das expressoes constantes, ou null se a avaliacao em tempo de compilacao estiver desligada */
+    private final ConstantFolder constantFolder;
+    /** Se os operadores 'e' e 'ou' so avaliam o operando direito quando necessario */
+    private final boolean shortCircuit;
+
+    /** O programa construido */
+    private final IrProgram program = new IrProgram();
+    /** Endereco de cada variavel global */
+    private final Map<String, Integer> globalAddresses = new HashMap<>();
+    /** Declaracao de cada funcao, para obter os tipos dos parametros e de retorno */
+    private final Map<String, TugaParser.FunctionDeclContext> functionDecls = new HashMap<>();
+    /** Registos das variaveis locais, do ambito mais interior para o mais exterior */
+    private final Deque<Map<String, Register>> scopes = new ArrayDeque<>();
+
+    /** Funcao em construcao */
+    private IrFunction function;
+    /** Bloco onde sao acrescentadas as instrucoes */
+    private BasicBlock current;
+
+    /**
+     * Cria o construtor da representacao intermedia.
+     *
+     * @param typeChecker verificador de tipos que ja processou o programa
+     * @param foldConstants se as expressoes constantes devem ser avaliadas em tempo de compilacao
+     * @param shortCircuit se 'e' e 'ou' devem ser avaliados em curto-circuito
+     */
+    public IrBuilder(TypeChecker typeChecker, boolean foldConstants, boolean shortCircuit){
+        this.typeChecker = typeChecker;
+        this.constantFolder = foldConstants ? new ConstantFolder() : null;
+        this.shortCircuit = shortCircuit;
+    }
+
+    /**
+     * Constroi a representacao intermedia de um programa.
+     *
+     * @param tree A arvore sintatica do programa
+     * @return O programa na representacao intermedia
+     */
+    public IrProgram build(ParseTree tree){
+        visit(tree);
+        return program;
+    }
+
+    /**
+     * Visita um no da arvore sintatica.
+     * Se o no for uma expressao constante, devolve diretamente o seu valor.
+     *
+     * @param tree O no a visitar
+     * @return O operando com o valor da expressao, ou null para instrucoes
+     */
+    @Override
+    public Operand visit(ParseTree tree){
+        if (constantFolder != null && tree instanceof TugaParser.ExpressionContext){
+            Object value = constantFolder.getValue(tree);
+            if (value != null){
+                return new Constant(value);
+            }
+        }
+        return super.visit(tree);
+    }
+
+    @Override
+    public Operand visitProgram(TugaParser.ProgramContext ctx){
+        if (constantFolder != null){
+            constantFolder.visit(ctx);
+        }
+
+        for (TugaParser.DeclarationContext decl : ctx.globals().declaration()){
+            Type type = typeOf(decl.type());
+            for (TerminalNode id : decl.variableList().IDENTIFIER()){
+                globalAddresses.put(id.getText(), program.addGlobal(type));
+            }
+        }
+
+        for (TugaParser.FunctionDeclContext func : ctx.functionDecl()){
+            functionDecls.put(func.IDENTIFIER().getText(), func);
+        }
+        for (TugaParser.FunctionDeclContext func : ctx.functionDecl()){
+            visit(func);
+        }
+        return null;
+    }
+
+    @Override
+    public Operand visitFunctionDecl(TugaParser.FunctionDeclContext ctx){
+        function = new IrFunction(ctx.IDENTIFIER().getText(), ctx.type() != null ? typeOf(ctx.type()) : Type.VOID);
+        current = function.newBlock();
+
+        Map<String, Register> parameters = new HashMap<>();
+        if (ctx.paramList() != null){
+            for (TugaParser.ParamContext param : ctx.paramList().param()){
+                String name = param.IDENTIFIER().getText();
+                parameters.put(name, function.addParameter(name, typeOf(param.type())));
+            }
+        }
+        scopes.push(parameters);
+        visit(ctx.block());
+        scopes.pop();
+
+        // Retorno implicito no fim da funcao
+        if (!current.isTerminated()){
+            current.add(new ReturnInstruction());
+        }
+
+        function.orderBlocks();
+        program.addFunction(function);
+        return null;
+    }
+
+    @Override
+    public Operand visitBlock(TugaParser.BlockContext ctx){
+        Map<String, Register> locals = new HashMap<>();
+        scopes.push(locals);
+
+        if (ctx.declarations() != null){
+            for (TugaParser.DeclarationContext decl : ctx.declarations().declaration()){
+                Type type = typeOf(decl.type());
+                for (TerminalNode id : decl.variableList().IDENTIFIER()){
+                    locals.put(id.getText(), function.newRegister(type, id.getText()));
+                }
+            }
+        }
+
+        for (TugaParser.InstructionContext instr : ctx.instruction()){
+            visit(instr);
+        }
+
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Operand visitBlockInstr(TugaParser.BlockInstrContext ctx){
+        return visit(ctx.block());
+    }
+
+    @Override
+    public Operand visitEmptyInstr(TugaParser.EmptyInstrContext ctx){
+        return null;
+    }
+
+    @Override
+    public Operand visitWriteInstr(TugaParser.WriteInstrContext ctx){
+        emit(new PrintInstruction(visit(ctx.expression())));
+        return null;
+    }
+
+    @Override
+    public Operand visitAssignInstr(TugaParser.AssignInstrContext ctx){
+        String name = ctx.IDENTIFIER().getText();
+        Operand value = visit(ctx.expression());
+
+        Register local = lookupLocal(name);
+        if (local != null){
+            assign(local, convert(value, local.getType()));
+        }else {
+            int address = globalAddress(name);
+            emit(new StoreGlobalInstruction(address, convert(value, program.getGlobals().get(address))));
+        }
+        return null;
+    }
+
+    @Override
+    public Operand visitWhileInstr(TugaParser.WhileInstrContext ctx){
+        BasicBlock header = function.newBlock();
+        BasicBlock body = function.newBlock();
+        BasicBlock exit = function.newBlock();
+
+        jumpTo(header);
+        current = header;
+        emitCondition(ctx.expression(), body, exit);
+
+        current = body;
+        visit(ctx.instruction());
+        jumpTo(header);
+
+        current = exit;
+        return null;
+    }
+
+    @Override
+    public Operand visitIfElseInstr(TugaParser.IfElseInstrContext ctx){
+        boolean hasElse = ctx.instruction().size() > 1;
+        BasicBlock thenBlock = function.newBlock();
+        BasicBlock elseBlock = hasElse ? function.newBlock() : null;
+        BasicBlock join = function.newBlock();
+
+        emitCondition(ctx.expression(), thenBlock, hasElse ? elseBlock : join);
+
+        current = thenBlock;
+        visit(ctx.instruction(0));
+        jumpTo(join);
+
+        if (hasElse){
+            current = elseBlock;
+            visit(ctx.instruction(1));
+            jumpTo(join);
+        }
+
+        current = join;
+        return null;
+    }
+
+    @Override
+    public Operand visitFunctionCallInstr(TugaParser.FunctionCallInstrContext ctx){
+        emitCall(ctx.functionCall(), false);
+        return null;
+    }
+
+    @Override
+    public Operand visitReturnInstr(TugaParser.ReturnInstrContext ctx){
+        if (ctx.expression() != null){
+            emit(new ReturnInstruction(convert(visit(ctx.expression()), function.getReturnType())));
+        }else {
+            emit(new ReturnInstruction());
+        }
+        return null;
+    }
+
+    @Override
+    public Operand visitLiteralExpr(TugaParser.LiteralExprContext ctx){
+        TugaParser.LiteralContext literal = ctx.literal();
+        if (literal instanceof TugaParser.IntLiteralContext i){
+            return new Constant(Integer.parseInt(i.INTEGER().getText()));
+        }
+        if (literal instanceof TugaParser.RealLiteralContext r){
+            return new Constant(Double.parseDouble(r.REAL().getText()));
+        }
+        if (literal instanceof TugaParser.StringLiteralContext s){
+            String text = s.STRING().getText();
+            return new Constant(text.substring(1, text.length() - 1));
+        }
+        return new Constant(((TugaParser.BoolLiteralContext) literal).VERDADEIRO() != null);
+    }
+
+    @Override
+    public Operand visitVarExpr(TugaParser.VarExprContext ctx){
+        String name = ctx.IDENTIFIER().getText();
+        Register local = lookupLocal(name);
+        if (local != null){
+            return local;
+        }
+
+        int address = globalAddress(name);
+        Register temp = function.newTemporary(program.getGlobals().get(address));
+        emit(new LoadGlobalInstruction(temp, address));
+        return temp;
+    }
+
+    @Override
+    public Operand visitFunctionalCallExpr(TugaParser.FunctionalCallExprContext ctx){
+        return emitCall(ctx.functionCall(), true);
+    }
+
+    @Override
+    public Operand visitParenExpr(TugaParser.ParenExprContext ctx){
+        return visit(ctx.expression());
+    }
+
+    @Override
+    public Operand visitUnaryExpr(TugaParser.UnaryExprContext ctx){
+        Operand value = visit(ctx.expression());
+        UnaryOp op = "-".equals(ctx.op.getText()) ? UnaryOp.NEG : UnaryOp.NOT;
+        Register temp = function.newTemporary(value.getType());
+        emit(new UnaryInstruction(op, temp, value));
+        return temp;
+    }
+
+    @Override
+    public Operand visitBinaryExpr(TugaParser.BinaryExprContext ctx){
+        Type resultType = typeOf(ctx);
+        BinaryOp op = switch (ctx.op.getText()){
+            case "+" -> resultType == Type.STRING ? BinaryOp.CONCAT : BinaryOp.ADD;
+            case "-" -> BinaryOp.SUB;
+            case "*" -> BinaryOp.MUL;
+            case "/" -> BinaryOp.DIV;
+            default -> BinaryOp.MOD;
+        };
+        return emitBinary(op, resultType, resultType, ctx.expression(0), ctx.expression(1));
+    }
+
+    @Override
+    public Operand visitComparisonExpr(TugaParser.ComparisonExprContext ctx){
+        String op = ctx.op.getText();
+        Type operandType = numericType(ctx.expression(0), ctx.expression(1));
+        BinaryOp binaryOp = "<".equals(op) || ">".equals(op) ? BinaryOp.LT : BinaryOp.LEQ;
+
+        // a > b e b < a, com b avaliado primeiro
+        if (">".equals(op) || ">=".equals(op)){
+            return emitBinary(binaryOp, operandType, Type.BOOLEAN, ctx.expression(1), ctx.expression(0));
+        }
+        return emitBinary(binaryOp, operandType, Type.BOOLEAN, ctx.expression(0), ctx.expression(1));
+    }
+
+    @Override
+    public Operand visitEqualityExpr(TugaParser.EqualityExprContext ctx){
+        Type leftType = typeOf(ctx.expression(0));
+        Type operandType = leftType == Type.INTEGER || leftType == Type.REAL
+                ? numericType(ctx.expression(0), ctx.expression(1))
+                : leftType;
+        BinaryOp op = "igual".equals(ctx.op.getText()) ? BinaryOp.EQ : BinaryOp.NEQ;
+        return emitBinary(op, operandType, Type.BOOLEAN, ctx.expression(0), ctx.expression(1));
+    }
+
+    @Override
+    public Operand visitAndExpr(TugaParser.AndExprContext ctx){
+        if (shortCircuit){
+            return emitShortCircuit(ctx.expression(0), ctx.expression(1), false);
+        }
+        return emitBinary(BinaryOp.AND, Type.BOOLEAN, Type.BOOLEAN, ctx.expression(0), ctx.expression(1));
+    }
+
+    @Override
+    public Operand visitOrExpr(TugaParser.OrExprContext ctx){
+        if (shortCircuit){
+            return emitShortCircuit(ctx.expression(0), ctx.expression(1), true);
+        }
+        return emitBinary(BinaryOp.OR, Type.BOOLEAN, Type.BOOLEAN, ctx.expression(0), ctx.expression(1));
+    }
+
+    /**
+     * Gera uma operacao binaria. Cada operando e convertido para operandType logo
+     * depois de ser calculado.
+     *
+     * @param op A operacao
+     * @param operandType O tipo comum dos operandos
+     * @param resultType O tipo do resultado
+     * @param first O operando avaliado primeiro
+     * @param second O operando avaliado em segundo lugar
+     * @return O registo com o resultado
+     */
+    private Register emitBinary(BinaryOp op, Type operandType, Type resultType,
+                                TugaParser.ExpressionContext first, TugaParser.ExpressionContext second){
+        Operand a = convert(visit(first), operandType);
+        Operand b = convert(visit(second), operandType);
+        Register temp = function.newTemporary(resultType);
+        emit(new BinaryInstruction(op, temp, a, b));
+        return temp;
+    }
+
+    /**
+     * Gera o valor logico de 'a e b' ou 'a ou b' em curto-circuito, num registo
+     * escrito nos dois caminhos possiveis.
+     */
+    private Register emitShortCircuit(TugaParser.ExpressionContext left, TugaParser.ExpressionContext right, boolean isOr){
+        Register result = function.newTemporary(Type.BOOLEAN);
+        BasicBlock evalRight = function.newBlock();
+        BasicBlock known = function.newBlock();
+        BasicBlock join = function.newBlock();
+
+        // Salta para o resultado conhecido (falso para 'e', verdadeiro para 'ou')
+        if (isOr){
+            emitCondition(left, known, evalRight);
+        }else {
+            emitCondition(left, evalRight, known);
+        }
+
+        current = evalRight;
+        assign(result, visit(right));
+        jumpTo(join);
+
+        current = known;
+        emit(new CopyInstruction(result, new Constant(isOr)));
+        jumpTo(join);
+
+        current = join;
+        return result;
+    }
+
+    /**
+     * Gera os saltos de uma condicao de se/enquanto para os blocos seguintes.
+     * As condicoes constantes, os parenteses, o operador nao e, em curto-circuito,
+     * os operadores 'e' e 'ou' sao traduzidos diretamente em saltos, sem calcular
+     * o valor logico.
+     *
+     * @param ctx A expressao da condicao
+     * @param ifTrue O bloco seguinte quando a condicao e verdadeira
+     * @param ifFalse O bloco seguinte quando a condicao e falsa
+     */
+    private void emitCondition(TugaParser.ExpressionContext ctx, BasicBlock ifTrue, BasicBlock ifFalse){
+        Object value = constantFolder != null ? constantFolder.getValue(ctx) : null;
+        if (value instanceof Boolean b){
+            jumpTo(b ? ifTrue : ifFalse);
+            return;
+        }
+
+        if (ctx instanceof TugaParser.ParenExprContext paren){
+            emitCondition(paren.expression(), ifTrue, ifFalse);
+        } else if (ctx instanceof TugaParser.UnaryExprContext unary && "nao".equals(unary.op.getText())) {
+            emitCondition(unary.expression(), ifFalse, ifTrue);
+        } else if (shortCircuit && ctx instanceof TugaParser.AndExprContext and) {
+            BasicBlock evalRight = function.newBlock();
+            emitCondition(and.expression(0), evalRight, ifFalse);
+            current = evalRight;
+            emitCondition(and.expression(1), ifTrue, ifFalse);
+        } else if (shortCircuit && ctx instanceof TugaParser.OrExprContext or) {
+            BasicBlock evalRight = function.newBlock();
+            emitCondition(or.expression(0), ifTrue, evalRight);
+            current = evalRight;
+            emitCondition(or.expression(1), ifTrue, ifFalse);
+        } else {
+            emit(new BranchInstruction(visit(ctx), ifTrue, ifFalse));
+        }
+    }
+
+    /**
+     * Gera uma chamada de funcao, com os argumentos convertidos para os tipos dos parametros.
+     *
+     * @param ctx A chamada
+     * @param useValue Se o valor devolvido e usado
+     * @return O registo com o valor devolvido, ou null se useValue for falso
+     */
+    private Register emitCall(TugaParser.FunctionCallContext ctx, boolean useValue){
+        String name = ctx.IDENTIFIER().getText();
+        TugaParser.FunctionDeclContext decl = functionDecls.get(name);
+        if (decl == null){
+            throw new RuntimeException("Function not declared: " + name);
+        }
+        Type returnType = decl.type() != null ? typeOf(decl.type()) : Type.VOID;
+
+        List<TugaParser.ExpressionContext> arguments = ctx.exprList() != null ? ctx.exprList().expression() : List.of();
+        Operand[] values = new Operand[arguments.size()];
+        for (int i = 0; i < values.length; i++){
+            values[i] = convert(visit(arguments.get(i)), typeOf(decl.paramList().param(i).type()));
+        }
+
+        Register dest = useValue ? function.newTemporary(returnType) : null;
+        emit(new CallInstruction(dest, name, returnType, values));
+        return dest;
+    }
+
+    /**
+     * Converte um valor para o tipo de destino de uma atribuicao, argumento ou retorno:
+     * inteiro para real, ou qualquer valor para string.
+     *
+     * @param value O valor
+     * @param type O tipo de destino
+     * @return O valor convertido
+     */
+    private Operand convert(Operand value, Type type){
+        if (value.getType() == type){
+            return value;
+        }
+        if (type == Type.REAL && value instanceof Constant c && c.getValue() instanceof Integer i){
+            return new Constant(i.doubleValue());
+        }
+        if (type != Type.REAL && type != Type.STRING){
+            throw new RuntimeException("Nao e possivel converter " + value.getType() + " para " + type);
+        }
+
+        Register temp = function.newTemporary(type);
+        emit(new UnaryInstruction(type == Type.REAL ? UnaryOp.TO_REAL : UnaryOp.TO_STRING, temp, value));
+        return temp;
+    }
+
+    /**
+     * Atribui um valor a um registo. Se o valor acabou de ser calculado num temporario
+     * pela ultima instrucao do bloco, essa instrucao passa a escrever diretamente no registo.
+     */
+    private void assign(Register reg, Operand value){
+        List<IrInstruction> instructions = current.getInstructions();
+        if (value instanceof Register temp && temp.isTemporary() && !current.isTerminated() && !instructions.isEmpty()
+                && instructions.get(instructions.size() - 1).getDest() == temp){
+            instructions.get(instructions.size() - 1).setDest(reg);
+            return;
+        }
+        emit(new CopyInstruction(reg, value));
+    }
+
+    /**
+     * Acrescenta uma instrucao ao bloco atual. Se o bloco ja terminou (por exemplo,
+     * depois de um 'retorna'), a instrucao vai para um novo bloco, que nunca e alcancado.
+     */
+    private void emit(IrInstruction inst){
+        if (current.isTerminated()){
+            current = function.newBlock();
+        }
+        current.add(inst);
+    }
+
+    /**
+     * Termina o bloco atual com um salto, se ainda nao terminou.
+     */
+    private void jumpTo(BasicBlock target){
+        if (!current.isTerminated()){
+            current.add(new JumpInstruction(target));
+        }
+    }
+
+    private Register lookupLocal(String name){
+        for (Map<String, Register> scope : scopes){
+            Register reg = scope.get(name);
+            if (reg != null){
+                return reg;
+            }
+        }
+        return null;
+    }
+
+    private int globalAddress(String name){
+        Integer address = globalAddresses.get(name);
+        if (address == null){
+            throw new RuntimeException("Variavel nao encontrada: " + name);
+        }
+        return address;
+    }
+
+    /**
+     * Obtem o tipo comum de dois operandos numericos: real se algum deles for real.
+     */
+    private Type numericType(TugaParser.ExpressionContext left, TugaParser.ExpressionContext right){
+        return typeOf(left) == Type.REAL || typeOf(right) == Type.REAL ? Type.REAL : Type.INTEGER;
+    }
+
+    private Type typeOf(TugaParser.ExpressionContext ctx){
+        Type type = typeChecker.getExpressionType(ctx);
+        if (type == null){
+            throw new RuntimeException("Tipo desconhecido para a expressao: " + ctx.getText());
+        }
+        return type;
+    }
+
+    private static Type typeOf(TugaParser.TypeContext ctx){
+        if (ctx.INTEIRO_KW() != null){
+            return Type.INTEGER;
+        }
+        if (ctx.REAL_KW() != null){
+            return Type.REAL;
+        }
+        if (ctx.BOOLEANO_KW() != null){
+            return Type.BOOLEAN;
+        }
+        return Type.STRING;
+    }
+}
@@ -0,0 +1,248 @@
+package Tuga.ir;
+
+import Tuga.ir.instruction.IrInstruction;
+import Tuga.semantic.Type;
+
+import java.util.*;
+
+/**
+ * Funcao da representacao intermedia: um grafo de fluxo de controlo de blocos basicos,
+ * com os registos virtuais usados pelas suas instrucoes.
+ * O primeiro bloco e a entrada da funcao, e os primeiros registos sao os parametros,
+ * pela ordem da declaracao.
+ */
+public class IrFunction {
+    /** Nome da funcao */
+    private final String name;
+    /** Tipo de retorno (VOID se a funcao nao devolve valor) */
+    private final Type returnType;
+    /** Registos dos parametros */
+    private final List<Register> parameters = new ArrayList<>();
+    /** Todos os registos da funcao, pelo seu numero */
+    private final List<Register> registers = new ArrayList<>();
+    /** Blocos basicos, comecando pelo bloco de entrada */
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    /** Numero do proximo bloco criado */
+    private int nextBlockId = 0;
+
+    /**
+     * Cria uma funcao sem blocos.
+     *
+     * @param name O nome da funcao
+     * @param returnType O tipo de retorno
+     */
+    public IrFunction(String name, Type returnType){
+        this.name = name;
+        this.returnType = returnType;
+    }
+
+    /**
+     * Obtem o nome da funcao.
+     *
+     * @return O nome
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * Obtem o tipo de retorno da funcao.
+     *
+     * @return O tipo de retorno (VOID se a funcao nao devolve valor)
+     */
+    public Type getReturnType(){
+        return returnType;
+    }
+
+    /**
+     * Acrescenta um parametro a funcao.
+     *
+     * @param name O nome do parametro
+     * @param type O tipo do parametro
+     * @return O registo do parametro
+     */
+    public Register addParameter(String name, Type type){
+        Register reg = newRegister(type, name);
+        parameters.add(reg);
+        return reg;
+    }
+
+    /**
+     * Obtem os registos dos parametros, pela ordem da declaracao.
+     *
+     * @return A lista de parametros
+     */
+    public List<Register> getParameters(){
+        return parameters;
+    }
+
+    /**
+     * Cria um novo registo.
+     *
+     * @param type O tipo dos valores do registo
+     * @param name O nome da variavel, ou null para um temporario
+     * @return O registo
+     */
+    public Register newRegister(Type type, String name){
+        Register reg = new Register(registers.size(), type, name);
+        registers.add(reg);
+        return reg;
+    }
+
+    /**
+     * Cria um novo registo temporario.
+     *
+     * @param type O tipo dos valores do registo
+     * @return O registo
+     */
+    public Register newTemporary(Type type){
+        return newRegister(type, null);
+    }
+
+    /**
+     * Obtem todos os registos da funcao, pelo seu numero.
+     *
+     * @return A lista de registos
+     */
+    public List<Register> getRegisters(){
+        return registers;
+    }
+
+    /**
+     * Cria um novo bloco basico no fim da lista de blocos.
+     *
+     * @return O bloco
+     */
+    public BasicBlock newBlock(){
+        BasicBlock block = new BasicBlock(nextBlockId++);
+        blocks.add(block);
+        return block;
+    }
+
+    /**
+     * Obtem os blocos basicos da funcao. A ordem da lista e a ordem em que o codigo e gerado.
+     *
+     * @return A lista de blocos, comecando pelo bloco de entrada
+     */
+    public List<BasicBlock> getBlocks(){
+        return blocks;
+    }
+
+    /**
+     * Obtem o bloco de entrada da funcao.
+     *
+     * @return O primeiro bloco
+     */
+    public BasicBlock getEntry(){
+        return blocks.get(0);
+    }
+
+    /**
+     * Calcula os predecessores de cada bloco.
+     *
+     * @return Para cada bloco, os blocos que podem seguir para ele
+     */
+    public Map<BasicBlock, List<BasicBlock>> getPredecessors(){
+        Map<BasicBlock, List<BasicBlock>> predecessors = new HashMap<>();
+        for (BasicBlock block : blocks){
+            predecessors.putIfAbsent(block, new ArrayList<>());
+            for (BasicBlock succ : block.getSuccessors()){
+                predecessors.computeIfAbsent(succ, b -> new ArrayList<>()).add(block);
+            }
+        }
+        return predecessors;
+    }
+
+    /**
+     * Ordena os blocos em pos-ordem inversa a partir do bloco de entrada, descartando os
+     * blocos que nunca sao alcancados. Nos saltos condicionais, o bloco seguido quando a
+     * condicao e verdadeira fica, sempre que possivel, logo a seguir, pelo que o corpo de
+     * um ciclo ou o ramo de um se aparece a seguir ao teste.
+     *
+     * @return O numero de blocos descartados
+     */
+    public int orderBlocks(){
+        List<BasicBlock> postorder = new ArrayList<>();
+        visitBlocks(getEntry(), new HashSet<>(), postorder);
+        Collections.reverse(postorder);
+
+        int removed = blocks.size() - postorder.size();
+        blocks.clear();
+        blocks.addAll(postorder);
+        return removed;
+    }
+
+    private static void visitBlocks(BasicBlock block, Set<BasicBlock> visited, List<BasicBlock> postorder){
+        if (!visited.add(block)){
+            return;
+        }
+        List<BasicBlock> successors = block.getSuccessors();
+        for (int i = successors.size() - 1; i >= 0; i--){
+            visitBlocks(successors.get(i), visited, postorder);
+        }
+        postorder.add(block);
+    }
+
+    /**
+     * Conta quantas vezes cada registo e lido pelas instrucoes da funcao.
+     *
+     * @return O numero de leituras, indexado pelo numero do registo
+     */
+    public int[] countUses(){
+        int[] uses = new int[registers.size()];
+        for (BasicBlock block : blocks){
+            for (IrInstruction inst : block.getInstructions()){
+                countUses(inst, uses);
+            }
+            if (block.getTerminator() != null){
+                countUses(block.getTerminator(), uses);
+            }
+        }
+        return uses;
+    }
+
+    /**
+     * Conta quantas instrucoes escrevem cada registo.
+     *
+     * @return O numero de escritas, indexado pelo numero do registo
+     */
+    public int[] countDefinitions(){
+        int[] defs = new int[registers.size()];
+        for (BasicBlock block : blocks){
+            for (IrInstruction inst : block.getInstructions()){
+                if (inst.getDest() != null){
+                    defs[inst.getDest().getIndex()]++;
+                }
+            }
+        }
+        return defs;
+    }
+
+    private static void countUses(IrInstruction inst, int[] uses){
+        for (Operand operand : inst.getOperands()){
+            if (operand instanceof Register reg){
+                uses[reg.getIndex()]++;
+            }
+        }
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder("funcao ").append(name).append('(');
+        for (int i = 0; i < parameters.size(); i++){
+            if (i > 0){
+                sb.append(", ");
+            }
+            sb.append(parameters.get(i)).append(": ").append(parameters.get(i).getType());
+        }
+        sb.append(')');
+        if (returnType != Type.VOID){
+            sb.append(": ").append(returnType);
+        }
+        sb.append('\n');
+        for (BasicBlock block : blocks){
+            sb.append(block);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package Tuga.ir;
+
+import Tuga.semantic.Type;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Programa na representacao intermedia: as variaveis globais e as funcoes,
+ * pela ordem em que foram declaradas.
+ */
+public class IrProgram {
+    /** Tipos das variaveis globais, pelo seu endereco */
+    private final List<Type> globals = new ArrayList<>();
+    /** Funcoes do programa, pela ordem da declaracao */
+    private final Map<String, IrFunction> functions = new LinkedHashMap<>();
+
+    /**
+     * Acrescenta uma variavel global.
+     *
+     * @param type O tipo da variavel
+     * @return O endereco da variavel
+     */
+    public int addGlobal(Type type){
+        globals.add(type);
+        return globals.size() - 1;
+    }
+
+    /**
+     * Obtem os tipos das variaveis globais.
+     *
+     * @return Os tipos, pelo endereco de cada variavel
+     */
+    public List<Type> getGlobals(){
+        return globals;
+    }
+
+    /**
+     * Acrescenta uma funcao ao programa.
+     *
+     * @param function A funcao
+     */
+    public void addFunction(IrFunction function){
+        functions.put(function.getName(), function);
+    }
+
+    /**
+     * Obtem uma funcao pelo nome.
+     *
+     * @param name O nome da funcao
+     * @return A funcao, ou null se nao existir
+     */
+    public IrFunction getFunction(String name){
+        return functions.get(name);
+    }
+
+    /**
+     * Obtem as funcoes do programa, pela ordem da declaracao.
+     *
+     * @return A lista de funcoes
+     */
+    public List<IrFunction> getFunctions(){
+        return new ArrayList<>(functions.values());
+    }
+
+    /**
+     * Remove uma funcao do programa.
+     *
+     * @param name O nome da funcao
+     */
+    public void removeFunction(String name){
+        functions.remove(name);
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < globals.size(); i++){
+            sb.append("global ").append(i).append(": ").append(globals.get(i)).append('\n');
+        }
+        for (IrFunction function : functions.values()){
+            sb.append(function);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package Tuga.ir;
+
+import Tuga.semantic.Type;
+
+/**
+ * Operando de uma instrucao da representacao intermedia: um registo (Register)
+ * ou uma constante (Constant). Todos os operandos tem um tipo da linguagem.
+ */
+public interface Operand {
+    /**
+     * Obtem o tipo do valor do operando.
+     *
+     * @return O tipo
+     */
+    Type getType();
+}
@@ -0,0 +1,68 @@
+package Tuga.ir;
+
+import Tuga.semantic.Type;
+
+/**
+ * Registo virtual de uma funcao da representacao intermedia.
+ * Cada parametro e cada variavel local declarada tem o seu registo, que pode ser
+ * atribuido varias vezes. Os registos temporarios (sem nome) guardam resultados
+ * intermedios das expressoes e, em geral, sao definidos uma unica vez.
+ */
+public final class Register implements Operand {
+    /** Numero do registo dentro da funcao */
+    private final int index;
+    /** Tipo dos valores guardados no registo */
+    private final Type type;
+    /** Nome da variavel ou parametro, ou null se for um temporario */
+    private final String name;
+
+    /**
+     * Cria um registo. Os registos sao criados pela funcao a que pertencem (IrFunction).
+     *
+     * @param index O numero do registo
+     * @param type O tipo dos valores
+     * @param name O nome da variavel, ou null para um temporario
+     */
+    Register(int index, Type type, String name){
+        this.index = index;
+        this.type = type;
+        this.name = name;
+    }
+
+    /**
+     * Obtem o numero do registo dentro da funcao.
+     *
+     * @return O numero do registo
+     */
+    public int getIndex(){
+        return index;
+    }
+
+    @Override
+    public Type getType(){
+        return type;
+    }
+
+    /**
+     * Obtem o nome da variavel associada ao registo.
+     *
+     * @return O nome, ou null se for um temporario
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * Indica se o registo e um temporario criado para uma expressao.
+     *
+     * @return true se o registo nao corresponde a uma variavel do programa
+     */
+    public boolean isTemporary(){
+        return name == null;
+    }
+
+    @Override
+    public String toString(){
+        return name == null ? "%t" + index : "%" + name + "." + index;
+    }
+}
@@ -0,0 +1,65 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.Operand;
+import Tuga.ir.Register;
+
+/**
+ * dest = a op b
+ */
+public class BinaryInstruction extends IrInstruction {
+    /** A operacao */
+    private final BinaryOp op;
+
+    /**
+     * Cria uma operacao binaria.
+     *
+     * @param op A operacao
+     * @param dest O registo onde fica o resultado
+     * @param left O operando esquerdo (avaliado primeiro)
+     * @param right O operando direito, do mesmo tipo que o esquerdo
+     */
+    public BinaryInstruction(BinaryOp op, Register dest, Operand left, Operand right){
+        super(dest, left, right);
+        this.op = op;
+    }
+
+    /**
+     * Obtem a operacao.
+     *
+     * @return A operacao
+     */
+    public BinaryOp getOp(){
+        return op;
+    }
+
+    /**
+     * Obtem o operando esquerdo.
+     *
+     * @return O operando esquerdo
+     */
+    public Operand getLeft(){
+        return operands[0];
+    }
+
+    /**
+     * Obtem o operando direito.
+     *
+     * @return O operando direito
+     */
+    public Operand getRight(){
+        return operands[1];
+    }
+
+    /**
+     * A divisao e o modulo podem terminar o programa com um erro de divisao por zero.
+     */
+    @Override
+    public boolean hasSideEffects(){
+        return op == BinaryOp.DIV || op == BinaryOp.MOD;
+    }
+
+    @Override
+    public String toString(){
+        return dest + " = " + op + " " + operands[0] + ", " + operands[1];
+    }
+}
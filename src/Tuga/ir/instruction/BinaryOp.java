@@ -0,0 +1,29 @@
+package Tuga.ir.instruction;
+
+/**
+ * Operacoes binarias da representacao intermedia.
+ * Os dois operandos tem sempre o mesmo tipo, que decide a operacao concreta
+ * (por exemplo, ADD entre inteiros ou entre reais). Nao ha maior e maior ou igual:
+ * a > b e representado como b &lt; a, com os operandos avaliados por essa ordem,
+ * tal como no codigo gerado diretamente a partir da arvore sintatica.
+ */
+public enum BinaryOp {
+    ADD, SUB, MUL, DIV, MOD,
+    LT, LEQ, EQ, NEQ,
+    AND, OR,
+    CONCAT;
+
+    /**
+     * Indica se a operacao e uma comparacao, cujo resultado e um booleano.
+     *
+     * @return true para LT, LEQ, EQ e NEQ
+     */
+    public boolean isComparison(){
+        return this == LT || this == LEQ || this == EQ || this == NEQ;
+    }
+
+    @Override
+    public String toString(){
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,90 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.BasicBlock;
+import Tuga.ir.Operand;
+
+import java.util.List;
+
+/**
+ * branch a, B1, B2
+ * Segue para B1 se o valor logico a for verdadeiro e para B2 caso contrario.
+ */
+public class BranchInstruction extends IrInstruction {
+    /** Bloco seguinte quando a condicao e verdadeira */
+    private BasicBlock ifTrue;
+    /** Bloco seguinte quando a condicao e falsa */
+    private BasicBlock ifFalse;
+
+    /**
+     * Cria um salto condicional.
+     *
+     * @param condition O valor logico testado
+     * @param ifTrue O bloco seguinte quando a condicao e verdadeira
+     * @param ifFalse O bloco seguinte quando a condicao e falsa
+     */
+    public BranchInstruction(Operand condition, BasicBlock ifTrue, BasicBlock ifFalse){
+        super(null, condition);
+        this.ifTrue = ifTrue;
+        this.ifFalse = ifFalse;
+    }
+
+    /**
+     * Obtem o valor logico testado.
+     *
+     * @return O valor logico testado
+     */
+    public Operand getCondition(){
+        return operands[0];
+    }
+
+    /**
+     * Obtem o bloco seguinte quando a condicao e verdadeira.
+     *
+     * @return O bloco seguinte quando a condicao e verdadeira
+     */
+    public BasicBlock getIfTrue(){
+        return ifTrue;
+    }
+
+    /**
+     * Obtem o bloco seguinte quando a condicao e falsa.
+     *
+     * @return O bloco seguinte quando a condicao e falsa
+     */
+    public BasicBlock getIfFalse(){
+        return ifFalse;
+    }
+
+    /**
+     * Muda o bloco seguinte quando a condicao e verdadeira.
+     *
+     * @param ifTrue O novo bloco
+     */
+    public void setIfTrue(BasicBlock ifTrue){
+        this.ifTrue = ifTrue;
+    }
+
+    /**
+     * Muda o bloco seguinte quando a condicao e falsa.
+     *
+     * @param ifFalse O novo bloco
+     */
+    public void setIfFalse(BasicBlock ifFalse){
+        this.ifFalse = ifFalse;
+    }
+
+    @Override
+    public boolean isTerminator(){
+        return true;
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors(){
+        return ifTrue == ifFalse ? List.of(ifTrue) : List.of(ifTrue, ifFalse);
+    }
+
+    @Override
+    public String toString(){
+        return "branch " + operands[0] + ", " + ifTrue.getLabel() + ", " + ifFalse.getLabel();
+    }
+}
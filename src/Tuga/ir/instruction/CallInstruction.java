@@ -0,0 +1,59 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.Operand;
+import Tuga.ir.Register;
+import Tuga.semantic.Type;
+
+/**
+ * dest = call f(a, b, ...)
+ * O destino e null quando a funcao nao devolve valor ou o valor e descartado.
+ */
+public class CallInstruction extends IrInstruction {
+    /** Nome da funcao chamada */
+    private final String function;
+    /** Tipo de retorno da funcao chamada (VOID se nao devolve valor) */
+    private final Type returnType;
+
+    /**
+     * Cria uma chamada de funcao.
+     *
+     * @param dest O registo onde fica o valor devolvido, ou null
+     * @param function O nome da funcao
+     * @param returnType O tipo de retorno da funcao
+     * @param arguments Os argumentos, ja convertidos para os tipos dos parametros
+     */
+    public CallInstruction(Register dest, String function, Type returnType, Operand... arguments){
+        super(dest, arguments);
+        this.function = function;
+        this.returnType = returnType;
+    }
+
+    /**
+     * Obtem o nome da funcao chamada.
+     *
+     * @return O nome da funcao chamada
+     */
+    public String getFunction(){
+        return function;
+    }
+
+    /**
+     * Obtem o tipo de retorno da funcao chamada.
+     *
+     * @return O tipo de retorno da funcao chamada
+     */
+    public Type getReturnType(){
+        return returnType;
+    }
+
+    @Override
+    public boolean hasSideEffects(){
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        String call = "call " + function + "(" + join(getOperands()) + ")";
+        return dest == null ? call : dest + " = " + call;
+    }
+}
@@ -0,0 +1,33 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.Operand;
+import Tuga.ir.Register;
+
+/**
+ * dest = a
+ */
+public class CopyInstruction extends IrInstruction {
+    /**
+     * Cria uma copia de um valor para um registo.
+     *
+     * @param dest O registo de destino
+     * @param value O valor copiado
+     */
+    public CopyInstruction(Register dest, Operand value){
+        super(dest, value);
+    }
+
+    /**
+     * Obtem o valor.
+     *
+     * @return O valor
+     */
+    public Operand getValue(){
+        return operands[0];
+    }
+
+    @Override
+    public String toString(){
+        return dest + " = " + operands[0];
+    }
+}
@@ -0,0 +1,113 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.BasicBlock;
+import Tuga.ir.Operand;
+import Tuga.ir.Register;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Instrucao de tres enderecos da representacao intermedia.
+ * Cada instrucao le ate dois operandos (ou os argumentos de uma chamada) e escreve,
+ * no maximo, um registo de destino. As instrucoes que terminam um bloco basico
+ * (saltos e retornos) indicam os blocos seguintes.
+ */
+public abstract class IrInstruction {
+    /** Registo escrito pela instrucao, ou null */
+    protected Register dest;
+    /** Operandos lidos pela instrucao, pela ordem em que sao avaliados */
+    protected final Operand[] operands;
+
+    /**
+     * Cria uma instrucao.
+     *
+     * @param dest O registo de destino, ou null
+     * @param operands Os operandos
+     */
+    protected IrInstruction(Register dest, Operand... operands){
+        this.dest = dest;
+        this.operands = operands;
+    }
+
+    /**
+     * Obtem o registo escrito pela instrucao.
+     *
+     * @return O registo de destino, ou null se a instrucao nao escreve nenhum registo
+     */
+    public Register getDest(){
+        return dest;
+    }
+
+    /**
+     * Muda o registo escrito pela instrucao.
+     *
+     * @param dest O novo registo de destino
+     */
+    public void setDest(Register dest){
+        this.dest = dest;
+    }
+
+    /**
+     * Obtem os operandos lidos pela instrucao, pela ordem em que sao avaliados.
+     *
+     * @return A lista de operandos (de tamanho fixo)
+     */
+    public List<Operand> getOperands(){
+        return Arrays.asList(operands);
+    }
+
+    /**
+     * Substitui um operando.
+     *
+     * @param index A posicao do operando
+     * @param operand O novo operando
+     */
+    public void setOperand(int index, Operand operand){
+        operands[index] = operand;
+    }
+
+    /**
+     * Indica se a instrucao tem efeitos alem de escrever o registo de destino
+     * (escrita, chamadas, variaveis globais ou erros de execucao), pelo que nao pode
+     * ser removida mesmo que o resultado nunca seja usado.
+     *
+     * @return true se a instrucao tem efeitos
+     */
+    public boolean hasSideEffects(){
+        return false;
+    }
+
+    /**
+     * Indica se a instrucao termina um bloco basico.
+     *
+     * @return true para saltos e retornos
+     */
+    public boolean isTerminator(){
+        return false;
+    }
+
+    /**
+     * Obtem os blocos para onde a execucao pode seguir depois desta instrucao,
+     * se ela terminar um bloco.
+     *
+     * @return Os blocos seguintes (vazio para retornos e instrucoes normais)
+     */
+    public List<BasicBlock> getSuccessors(){
+        return List.of();
+    }
+
+    /**
+     * Junta os operandos numa string separada por virgulas.
+     */
+    protected static String join(List<? extends Operand> values){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.size(); i++){
+            if (i > 0){
+                sb.append(", ");
+            }
+            sb.append(values.get(i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.BasicBlock;
+
+import java.util.List;
+
+/**
+ * jump B
+ */
+public class JumpInstruction extends IrInstruction {
+    /** Bloco de destino */
+    private BasicBlock target;
+
+    /**
+     * Cria um salto incondicional.
+     *
+     * @param target O bloco de destino
+     */
+    public JumpInstruction(BasicBlock target){
+        super(null);
+        this.target = target;
+    }
+
+    /**
+     * Obtem o bloco de destino.
+     *
+     * @return O bloco de destino
+     */
+    public BasicBlock getTarget(){
+        return target;
+    }
+
+    /**
+     * Muda o bloco de destino.
+     *
+     * @param target O novo bloco
+     */
+    public void setTarget(BasicBlock target){
+        this.target = target;
+    }
+
+    @Override
+    public boolean isTerminator(){
+        return true;
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors(){
+        return List.of(target);
+    }
+
+    @Override
+    public String toString(){
+        return "jump " + target.getLabel();
+    }
+}
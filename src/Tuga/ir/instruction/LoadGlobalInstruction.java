@@ -0,0 +1,45 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.Register;
+
+/**
+ * dest = global[n]
+ * As variaveis globais nao sao registos, porque podem ser alteradas por qualquer funcao chamada.
+ */
+public class LoadGlobalInstruction extends IrInstruction {
+    /** Endereco da variavel global */
+    private final int address;
+
+    /**
+     * Cria a leitura de uma variavel global.
+     *
+     * @param dest O registo de destino
+     * @param address O endereco da variavel global
+     */
+    public LoadGlobalInstruction(Register dest, int address){
+        super(dest);
+        this.address = address;
+    }
+
+    /**
+     * Obtem o endereco da variavel global.
+     *
+     * @return O endereco da variavel global
+     */
+    public int getAddress(){
+        return address;
+    }
+
+    /**
+     * A leitura depende das escritas e chamadas anteriores, pelo que nao pode mudar de lugar.
+     */
+    @Override
+    public boolean hasSideEffects(){
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        return dest + " = global " + address;
+    }
+}
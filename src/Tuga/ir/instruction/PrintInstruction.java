@@ -0,0 +1,36 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.Operand;
+
+/**
+ * escreve a
+ */
+public class PrintInstruction extends IrInstruction {
+    /**
+     * Cria uma instrucao de escrita.
+     *
+     * @param value O valor escrito
+     */
+    public PrintInstruction(Operand value){
+        super(null, value);
+    }
+
+    /**
+     * Obtem o valor.
+     *
+     * @return O valor
+     */
+    public Operand getValue(){
+        return operands[0];
+    }
+
+    @Override
+    public boolean hasSideEffects(){
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        return "escreve " + operands[0];
+    }
+}
@@ -0,0 +1,43 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.Operand;
+
+/**
+ * ret / ret a
+ */
+public class ReturnInstruction extends IrInstruction {
+    /**
+     * Cria um retorno sem valor.
+     */
+    public ReturnInstruction(){
+        super(null);
+    }
+
+    /**
+     * Cria um retorno com valor.
+     *
+     * @param value O valor devolvido, ja convertido para o tipo de retorno da funcao
+     */
+    public ReturnInstruction(Operand value){
+        super(null, value);
+    }
+
+    /**
+     * Obtem o valor devolvido.
+     *
+     * @return O valor, ou null se a funcao nao devolve valor
+     */
+    public Operand getValue(){
+        return operands.length > 0 ? operands[0] : null;
+    }
+
+    @Override
+    public boolean isTerminator(){
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        return operands.length > 0 ? "ret " + operands[0] : "ret";
+    }
+}
@@ -0,0 +1,50 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.Operand;
+
+/**
+ * global[n] = a
+ */
+public class StoreGlobalInstruction extends IrInstruction {
+    /** Endereco da variavel global */
+    private final int address;
+
+    /**
+     * Cria a escrita de uma variavel global.
+     *
+     * @param address O endereco da variavel global
+     * @param value O valor escrito
+     */
+    public StoreGlobalInstruction(int address, Operand value){
+        super(null, value);
+        this.address = address;
+    }
+
+    /**
+     * Obtem o endereco da variavel global.
+     *
+     * @return O endereco da variavel global
+     */
+    public int getAddress(){
+        return address;
+    }
+
+    /**
+     * Obtem o valor.
+     *
+     * @return O valor
+     */
+    public Operand getValue(){
+        return operands[0];
+    }
+
+    @Override
+    public boolean hasSideEffects(){
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        return "global " + address + " = " + operands[0];
+    }
+}
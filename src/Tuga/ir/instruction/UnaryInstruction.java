@@ -0,0 +1,47 @@
+package Tuga.ir.instruction;
+
+import Tuga.ir.Operand;
+import Tuga.ir.Register;
+
+/**
+ * dest = op a
+ */
+public class UnaryInstruction extends IrInstruction {
+    /** A operacao */
+    private final UnaryOp op;
+
+    /**
+     * Cria uma operacao unaria.
+     *
+     * @param op A operacao
+     * @param dest O registo onde fica o resultado
+     * @param value O operando
+     */
+    public UnaryInstruction(UnaryOp op, Register dest, Operand value){
+        super(dest, value);
+        this.op = op;
+    }
+
+    /**
+     * Obtem a operacao.
+     *
+     * @return A operacao
+     */
+    public UnaryOp getOp(){
+        return op;
+    }
+
+    /**
+     * Obtem o valor.
+     *
+     * @return O valor
+     */
+    public Operand getValue(){
+        return operands[0];
+    }
+
+    @Override
+    public String toString(){
+        return dest + " = " + op + " " + operands[0];
+    }
+}
@@ -0,0 +1,14 @@
+package Tuga.ir.instruction;
+
+/**
+ * Operacoes unarias da representacao intermedia.
+ * TO_STRING converte inteiros, reais e booleanos com as mesmas regras que itos, dtos e btos.
+ */
+public enum UnaryOp {
+    NEG, NOT, TO_REAL, TO_STRING;
+
+    @Override
+    public String toString(){
+        return name().toLowerCase();
+    }
+}
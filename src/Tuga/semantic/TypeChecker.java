@@ -6,6 +6,8 @@ import Tuga.semantic.symbols.VarSymbol;
 import org.antlr.v4.runtime.Token;
 import Tuga.parser.TugaBaseVisitor;
 import Tuga.parser.TugaParser;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
 import java.util.ArrayList;
@@ -30,6 +32,25 @@ public class TypeChecker extends TugaBaseVisitor<Type> {
     private List<String> errors = new ArrayList<>();
     /** Conjunto para evitar reportar o mesmo erro multiplas vezes */
     private Set<String> reportedErrors = new HashSet<>();
+    /** Tipo de cada expressao analisada, consultado depois pelo gerador de codigo */
+    private final ParseTreeProperty<Type> expressionTypes = new ParseTreeProperty<>();
+
+    /**
+     * Visita um no da arvore sintatica.
+     * Se o no for uma expressao, regista o tipo calculado para que nao seja
+     * necessario analisar a mesma subarvore novamente.
+     *
+     * @param tree O no a visitar
+     * @return O tipo do no
+     */
+    @Override
+    public Type visit(ParseTree tree){
+        Type type = super.visit(tree);
+        if (type != null && tree instanceof TugaParser.ExpressionContext){
+            expressionTypes.put(tree, type);
+        }
+        return type;
+    }
 
     /**
      * Processa o programa completo, analisando declaracoes globais e funcoes.
@@ -920,6 +941,16 @@ public class TypeChecker extends TugaBaseVisitor<Type> {
         return errors;
     }
 
+    /**
+     * Obtem o tipo registado para uma expressao durante a analise.
+     *
+     * @param ctx O contexto da expressao
+     * @return O tipo da expressao, ou null se a expressao nao foi analisada
+     */
+    public Type getExpressionType(ParseTree ctx){
+        return expressionTypes.get(ctx);
+    }
+
     /**
      * Obtem a tabela de simbolos usada durante a analise.
      *
@@ -0,0 +1,123 @@
+package Tuga.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Definicao do formato dos ficheiros de bytecodes da maquina virtual Tuga.
+ *
+ * Um ficheiro comeca com um cabecalho:
+ * - numero magico (4 bytes, "TUGA") e versao do formato (2 bytes);
+ * - numero de seccoes (1 byte), seguido de uma tabela com o identificador,
+ *   a posicao e o tamanho em bytes de cada seccao (1 + 4 + 4 bytes).
+ *
+ * Seccoes:
+ * - CONSTANTS: numero de constantes, seguido de cada constante com o seu tipo
+ *   (1=double, 8 bytes; 2=string, tamanho em bytes seguido dos bytes em UTF-8);
+ * - CODE: numero de instrucoes, seguido de cada instrucao (opcode num byte e
+ *   argumento, se existir, com tamanho variavel);
+ * - FUNCTIONS: numero de funcoes, seguido do endereco e numero de argumentos de cada uma;
+ * - DEBUG: numero de entradas, seguido do endereco e nome de cada funcao.
+ *
+ * Os contadores, tamanhos e argumentos sao escritos com tamanho variavel (7 bits por
+ * byte), pelo que valores pequenos ocupam um unico byte. Os argumentos das instrucoes
+ * usam codificacao zigzag, para que enderecos negativos pequenos tambem ocupem um byte.
+ */
+final class BytecodeFormat {
+    /** Numero magico no inicio de cada ficheiro ("TUGA") */
+    static final int MAGIC = 0x54554741;
+    /**
+     * Versao atual do formato. Os opcodes sao guardados pelo seu ordinal em OpCode,
+     * pelo que a versao muda sempre que opcodes sao acrescentados ou o numero de
+     * argumentos de um opcode muda.
+     */
+    static final short VERSION = 6;
+
+    //  Identificadores das seccoes
+    static final byte CONSTANTS = 1;
+    static final byte CODE = 2;
+    static final byte FUNCTIONS = 3;
+    static final byte DEBUG = 4;
+
+    //  Tipos das constantes
+    static final byte REAL_CONSTANT = 1;
+    static final byte STRING_CONSTANT = 2;
+
+    /** Tamanho de uma entrada da tabela de seccoes */
+    static final int SECTION_ENTRY_SIZE = 9;
+
+    private BytecodeFormat(){
+    }
+
+    /**
+     * Escreve um inteiro sem sinal com tamanho variavel.
+     *
+     * @param out O destino
+     * @param value O valor, tratado como inteiro sem sinal
+     */
+    static void writeVarint(ByteArrayOutputStream out, int value){
+        while ((value & ~0x7F) != 0){
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Escreve um inteiro com sinal com tamanho variavel, em codificacao zigzag.
+     *
+     * @param out O destino
+     * @param value O valor
+     */
+    static void writeSignedVarint(ByteArrayOutputStream out, int value){
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Le um inteiro sem sinal com tamanho variavel.
+     *
+     * @param buffer A origem
+     * @return O valor lido
+     * @throws IOException Se o valor tiver mais de 5 bytes
+     */
+    static int readVarint(ByteBuffer buffer) throws IOException{
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7){
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("Inteiro de tamanho variavel invalido");
+    }
+
+    /**
+     * Le um inteiro com sinal com tamanho variavel, em codificacao zigzag.
+     *
+     * @param buffer A origem
+     * @return O valor lido
+     * @throws IOException Se o valor tiver mais de 5 bytes
+     */
+    static int readSignedVarint(ByteBuffer buffer) throws IOException{
+        int value = readVarint(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Le um contador ou tamanho, garantindo que nao excede os bytes disponiveis.
+     *
+     * @param buffer A origem
+     * @param what O nome do valor, usado na mensagem de erro
+     * @return O valor lido
+     * @throws IOException Se o valor for invalido
+     */
+    static int readCount(ByteBuffer buffer, String what) throws IOException{
+        int value = readVarint(buffer);
+        if (value < 0 || value > buffer.remaining()){
+            throw new IOException(what + " invalido: " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,244 @@
+package Tuga.vm;
+
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import Tuga.vm.instruction.Instruction2Arg;
+import Tuga.vm.instruction.Instruction3Arg;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Carregador de ficheiros de bytecodes da maquina virtual Tuga.
+ * Mapeia o ficheiro em memoria, valida o cabecalho e decodifica as seccoes
+ * (ver BytecodeFormat) diretamente do buffer mapeado, deixando a constant pool
+ * e as instrucoes prontas para serem executadas por qualquer uma das maquinas virtuais.
+ */
+public class BytecodeLoader {
+    /** Flag para ativar modo de depuracao com saida detalhada */
+    private final boolean trace;
+    /** Pool de constantes lida do ficheiro */
+    private final ConstantPool constantPool = new ConstantPool();
+    /** Instrucoes decodificadas */
+    private Instruction[] code = new Instruction[0];
+    /** Numero de argumentos de cada funcao, indexado pelo endereco de entrada */
+    private final Map<Integer, Integer> functionArgCounts = new LinkedHashMap<>();
+    /** Nome de cada funcao, indexado pelo endereco de entrada */
+    private final Map<Integer, String> functionNames = new LinkedHashMap<>();
+
+    /**
+     * Cria um novo carregador de bytecodes.
+     *
+     * @param trace Se true, imprime informacoes detalhadas durante a leitura
+     */
+    public BytecodeLoader(boolean trace){
+        this.trace = trace;
+    }
+
+    /**
+     * Le a constant pool, as instrucoes e a tabela de funcoes do ficheiro de bytecodes.
+     *
+     * @param bytecodeFile Caminho para o ficheiro de bytecode
+     * @throws IOException Em caso de erro de leitura, formato desconhecido ou ficheiro truncado
+     */
+    public void load(String bytecodeFile) throws IOException{
+        try (FileChannel channel = FileChannel.open(Path.of(bytecodeFile), StandardOpenOption.READ)){
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != BytecodeFormat.MAGIC){
+                throw new IOException("Formato de bytecodes desconhecido: " + bytecodeFile);
+            }
+            short version = buffer.getShort();
+            if (version != BytecodeFormat.VERSION){
+                throw new IOException("Versao de bytecodes nao suportada: " + version);
+            }
+
+            // Tabela de seccoes
+            int sectionCount = buffer.get() & 0xFF;
+            Map<Byte, ByteBuffer> sections = new HashMap<>();
+            for (int i = 0; i < sectionCount; i++){
+                byte id = buffer.get();
+                int offset = buffer.getInt();
+                int length = buffer.getInt();
+                if (offset < 0 || length < 0 || offset > buffer.limit() - length){
+                    throw new IOException("Seccao fora do ficheiro: " + id);
+                }
+                sections.put(id, buffer.slice(offset, length));
+            }
+
+            if (!sections.containsKey(BytecodeFormat.CONSTANTS) || !sections.containsKey(BytecodeFormat.CODE)){
+                throw new IOException("Ficheiro de bytecodes sem constantes ou codigo: " + bytecodeFile);
+            }
+            readConstantPool(sections.get(BytecodeFormat.CONSTANTS));
+            readInstructions(sections.get(BytecodeFormat.CODE));
+
+            if (sections.containsKey(BytecodeFormat.FUNCTIONS)){
+                readFunctions(sections.get(BytecodeFormat.FUNCTIONS));
+            }
+            if (sections.containsKey(BytecodeFormat.DEBUG)){
+                readDebugInfo(sections.get(BytecodeFormat.DEBUG));
+            }
+        }catch (BufferUnderflowException e){
+            throw new IOException("Ficheiro de bytecodes truncado: " + bytecodeFile);
+        }
+    }
+
+    /**
+     * Obtem a pool de constantes lida do ficheiro.
+     *
+     * @return A pool de constantes
+     */
+    public ConstantPool getConstantPool(){
+        return constantPool;
+    }
+
+    /**
+     * Obtem as instrucoes decodificadas.
+     *
+     * @return O array de instrucoes
+     */
+    public Instruction[] getCode(){
+        return code;
+    }
+
+    /**
+     * Obtem o numero de argumentos de cada funcao da tabela de funcoes.
+     *
+     * @return Mapa do endereco de entrada para o numero de argumentos
+     */
+    public Map<Integer, Integer> getFunctionArgCounts(){
+        return functionArgCounts;
+    }
+
+    /**
+     * Obtem o nome de cada funcao, a partir da seccao de depuracao.
+     *
+     * @return Mapa do endereco de entrada para o nome da funcao
+     */
+    public Map<Integer, String> getFunctionNames(){
+        return functionNames;
+    }
+
+    /**
+     * Le a constant pool do arquivo de bytecodes.
+     * Cada constante tem um tipo (1=double, 2=string) seguido do valor.
+     *
+     * @param buffer Buffer com a seccao de constantes
+     * @throws IOException Em caso de constante de tipo desconhecido
+     */
+    private void readConstantPool(ByteBuffer buffer) throws IOException{
+        int poolSize = BytecodeFormat.readCount(buffer, "Numero de constantes");
+
+        if (trace){
+            System.out.println("Lendo constant pool com " + poolSize + " entradas");
+        }
+
+        //  Para cada entrada na constant pool
+        for (int i = 0; i < poolSize; i++){
+            //Le o byte de tipo
+            byte type = buffer.get();
+
+            if (type == BytecodeFormat.REAL_CONSTANT){
+                double value = buffer.getDouble();
+                constantPool.addReal(value);
+                if (trace){
+                    System.out.println("    Entrada " + i + ": double " + value);
+                }
+            } else if (type == BytecodeFormat.STRING_CONSTANT) {
+                String value = readString(buffer);
+                constantPool.addString(value);
+                if (trace){
+                    System.out.println("Entrada "+ i + ": string \"" + value + "\"");
+                }
+            }else {
+                throw new IOException("Tipo de constante desconhecido: "+ type);
+            }
+        }
+    }
+
+    /**
+     * Le e decodifica as instrucoes do arquivo de bytecodes.
+     * O numero de instrucoes vem no inicio da seccao, pelo que o array
+     * de instrucoes e alocado de uma so vez.
+     *
+     * @param buffer Buffer com a seccao de codigo
+     * @throws IOException Em caso de numero de instrucoes ou opcode invalido
+     */
+    private void readInstructions(ByteBuffer buffer) throws IOException{
+        int count = BytecodeFormat.readCount(buffer, "Numero de instrucoes");
+
+        //Decodifica os bytecodes em instrucoes
+        OpCode[] opCodes = OpCode.values();
+        this.code = new Instruction[count];
+        for (int i = 0; i < count; i++){
+            int opCode = buffer.get();
+            if (opCode < 0 || opCode >= opCodes.length){
+                throw new IOException("Opcode desconhecido: " + opCode);
+            }
+            OpCode op = opCodes[opCode];
+
+            code[i] = switch (op.nArgs()){
+                case 0 -> new Instruction(op);
+                case 1 -> new Instruction1Arg(op, BytecodeFormat.readSignedVarint(buffer));
+                case 2 -> new Instruction2Arg(op, BytecodeFormat.readSignedVarint(buffer), BytecodeFormat.readSignedVarint(buffer));
+                default -> new Instruction3Arg(op, BytecodeFormat.readSignedVarint(buffer),
+                        BytecodeFormat.readSignedVarint(buffer), BytecodeFormat.readSignedVarint(buffer));
+            };
+        }
+    }
+
+    /**
+     * Le a tabela de funcoes: endereco de entrada e numero de argumentos.
+     *
+     * @param buffer Buffer com a seccao de funcoes
+     * @throws IOException Em caso de tabela invalida
+     */
+    private void readFunctions(ByteBuffer buffer) throws IOException{
+        int count = BytecodeFormat.readCount(buffer, "Numero de funcoes");
+        for (int i = 0; i < count; i++){
+            int entry = BytecodeFormat.readVarint(buffer);
+            functionArgCounts.put(entry, BytecodeFormat.readVarint(buffer));
+        }
+    }
+
+    /**
+     * Le a informacao de depuracao: o nome de cada funcao.
+     *
+     * @param buffer Buffer com a seccao de depuracao
+     * @throws IOException Em caso de seccao invalida
+     */
+    private void readDebugInfo(ByteBuffer buffer) throws IOException{
+        int count = BytecodeFormat.readCount(buffer, "Numero de entradas de depuracao");
+        for (int i = 0; i < count; i++){
+            int entry = BytecodeFormat.readVarint(buffer);
+            String name = readString(buffer);
+            functionNames.put(entry, name);
+            if (trace){
+                System.out.println("Funcao " + name + " no endereco " + entry);
+            }
+        }
+    }
+
+    /**
+     * Le uma string guardada em UTF-8, precedida do seu tamanho em bytes.
+     *
+     * @param buffer Buffer de origem
+     * @return A string lida
+     * @throws IOException Em caso de tamanho invalido
+     */
+    private String readString(ByteBuffer buffer) throws IOException{
+        int length = BytecodeFormat.readCount(buffer, "Tamanho de string");
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,804 @@
+package Tuga.vm;
+
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+
+import java.util.*;
+
+/**
+ * Verificador de bytecodes da maquina virtual Tuga.
+ * Corre uma unica vez antes da execucao e interpreta o programa de forma abstrata,
+ * calculando para cada instrucao alcancavel a profundidade da pilha e o tipo de
+ * cada posicao. Garante que:
+ * - cada instrucao encontra na pilha operandos suficientes e do tipo esperado;
+ * - a profundidade da pilha e a mesma em todos os caminhos que chegam a uma instrucao;
+ * - os enderecos de salto, de variaveis locais, globais e da constant pool sao validos.
+ *
+ * Cada funcao (destino de um call ou tailcall) e analisada no seu proprio frame. Os tipos dos
+ * argumentos, o tipo de retorno e os tipos das variaveis globais sao obtidos por
+ * ponto fixo sobre todas as chamadas do programa, o que permite funcoes recursivas.
+ * Um programa aceite pode ser executado sem verificacoes de tipo ou de tamanho da
+ * pilha em cada instrucao. Os acessos a valores NULO e as divisoes por zero continuam
+ * a ser verificados em tempo de execucao.
+ */
+public class BytecodeVerifier {
+    //  Tipos abstratos dos valores na pilha (devolvidos por getStackTypes, getParamTypes e getReturnType)
+    public static final byte BOTTOM = 0;  // Nenhum valor conhecido
+    public static final byte NIL = 1;     // Posicao alocada ainda sem valor
+    public static final byte INT = 2;
+    public static final byte REAL = 3;
+    public static final byte BOOL = 4;
+    public static final byte STRING = 5;
+    public static final byte TOP = 6;     // Tipos incompativeis juntos no mesmo caminho
+
+    /** Numero de posicoes do frame usadas pelo FP e IP guardados */
+    private static final int FRAME_HEADER = 2;
+
+    /** Constantes do programa */
+    private final List<Object> constants;
+    /** Instrucoes do programa */
+    private final Instruction[] code;
+
+    /** Funcoes encontradas, indexadas pelo endereco de entrada */
+    private final Map<Integer, Function> functions = new LinkedHashMap<>();
+    /** Funcoes cuja analise tem de ser repetida */
+    private final Deque<Function> worklist = new ArrayDeque<>();
+    /** Tipo de cada variavel global, para todo o programa */
+    private byte[] globalTypes = new byte[16];
+    /** Funcoes que leem cada variavel global */
+    private final Map<Integer, Set<Function>> globalReaders = new HashMap<>();
+
+    /**
+     * Informacao sobre uma funcao do programa, ou sobre o codigo de topo.
+     */
+    private static final class Function {
+        /** Endereco da primeira instrucao */
+        final int entry;
+        /** true para o codigo de topo, que nao tem frame */
+        final boolean topLevel;
+        /** Numero de argumentos, dado pelas instrucoes ret/retval */
+        int nArgs = 0;
+        /** true se a funcao tem alguma instrucao ret/retval alcancavel */
+        boolean returns = false;
+        /** true se a funcao retorna com retval */
+        boolean returnsValue = false;
+        /** Tipo de cada argumento */
+        byte[] params = new byte[0];
+        /** Tipo do valor de retorno */
+        byte returnType = BOTTOM;
+        /** Numero de variaveis globais garantidamente alocadas na entrada */
+        int globals;
+        /** Profundidade maxima da pilha acima do frame */
+        int maxStack = 0;
+        /** Funcoes que chamam esta funcao */
+        final Set<Function> callers = new HashSet<>();
+        /** Estado abstrato na entrada de cada instrucao alcancavel */
+        final Map<Integer, State> states = new HashMap<>();
+        /** true se a funcao ja esta na lista de trabalho */
+        boolean queued = false;
+
+        Function(int entry, boolean topLevel){
+            this.entry = entry;
+            this.topLevel = topLevel;
+            this.globals = topLevel ? 0 : Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Estado abstrato antes de uma instrucao: tipos na pilha acima do frame
+     * e numero de variaveis globais alocadas.
+     */
+    private static final class State {
+        byte[] stack;
+        int depth;
+        int globals;
+
+        State(byte[] stack, int depth, int globals){
+            this.stack = stack;
+            this.depth = depth;
+            this.globals = globals;
+        }
+
+        State copy(){
+            return new State(Arrays.copyOf(stack, Math.max(stack.length, depth + 4)), depth, globals);
+        }
+
+        void push(byte type){
+            if (depth == stack.length){
+                stack = Arrays.copyOf(stack, Math.max(8, stack.length * 2));
+            }
+            stack[depth++] = type;
+        }
+    }
+
+    /**
+     * Cria um verificador para o programa fornecido.
+     *
+     * @param constantPool A pool de constantes do programa
+     * @param code As instrucoes do programa
+     */
+    public BytecodeVerifier(ConstantPool constantPool, Instruction[] code){
+        this.constants = constantPool.getAllConstants();
+        this.code = code;
+    }
+
+    /**
+     * Verifica o programa a partir da instrucao 0.
+     *
+     * @throws VerificationException Se o programa puder executar uma instrucao invalida
+     */
+    public void verify(){
+        Function main = new Function(0, true);
+        functions.put(0, main);
+        enqueue(main);
+
+        while (!worklist.isEmpty()){
+            Function f = worklist.poll();
+            f.queued = false;
+            analyze(f);
+        }
+    }
+
+    /**
+     * Obtem a profundidade maxima da pilha usada por uma funcao, sem contar os
+     * argumentos nem o FP e IP guardados. Para o codigo de topo (endereco 0),
+     * corresponde ao tamanho total da pilha.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return A profundidade maxima, ou 0 se a funcao nunca e chamada
+     */
+    public int getMaxStack(int entry){
+        Function f = functions.get(entry);
+        return f == null ? 0 : f.maxStack;
+    }
+
+    /**
+     * Obtem o numero de argumentos de uma funcao, dado pelas suas instrucoes ret/retval.
+     * Apenas percorre a estrutura da funcao, pelo que pode ser usado sem verificar o programa.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return O numero de argumentos
+     * @throws VerificationException Se o endereco for invalido ou os retornos forem inconsistentes
+     */
+    public int getArgCount(int entry){
+        return function(entry, entry).nArgs;
+    }
+
+    /**
+     * Obtem a profundidade da pilha acima do frame antes de uma instrucao, tal como
+     * calculada pela verificacao. Inclui as variaveis locais da funcao, mas nao os
+     * seus argumentos.
+     *
+     * @param pc O endereco da instrucao
+     * @return A profundidade, ou -1 se a instrucao nunca e executada
+     */
+    public int getStackDepth(int pc){
+        for (Function f : functions.values()){
+            State s = f.states.get(pc);
+            if (s != null){
+                return s.depth;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obtem os enderecos de entrada das funcoes encontradas pela verificacao, sem o codigo de topo.
+     *
+     * @return Os enderecos de entrada
+     */
+    public Set<Integer> getFunctionEntries(){
+        Set<Integer> entries = new TreeSet<>();
+        for (Function f : functions.values()){
+            if (!f.topLevel){
+                entries.add(f.entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Obtem os enderecos das instrucoes de uma funcao que podem ser executadas.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return Os enderecos, por ordem crescente
+     */
+    public int[] getFunctionCode(int entry){
+        return functions.get(entry).states.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * Obtem os tipos dos argumentos de uma funcao, pela ordem em que sao empilhados.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return Os tipos dos argumentos
+     */
+    public byte[] getParamTypes(int entry){
+        return functions.get(entry).params.clone();
+    }
+
+    /**
+     * Indica se uma funcao retorna com retval (ou tailcall), devolvendo um valor.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return true se a funcao devolve um valor
+     */
+    public boolean returnsValue(int entry){
+        return functions.get(entry).returnsValue;
+    }
+
+    /**
+     * Obtem o tipo do valor devolvido por uma funcao.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return O tipo, ou BOTTOM se a funcao nunca chega a devolver um valor
+     */
+    public byte getReturnType(int entry){
+        return functions.get(entry).returnType;
+    }
+
+    /**
+     * Obtem os tipos das posicoes da pilha acima do frame antes de uma instrucao de uma
+     * funcao, a comecar pelas variaveis locais.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @param pc O endereco da instrucao
+     * @return Os tipos (tantos quanto a profundidade da pilha), ou null se a instrucao nunca e executada
+     */
+    public byte[] getStackTypes(int entry, int pc){
+        State s = functions.get(entry).states.get(pc);
+        return s == null ? null : Arrays.copyOf(s.stack, s.depth);
+    }
+
+    /**
+     * Obtem o tipo de cada variavel global, juntando todos os valores nela guardados.
+     *
+     * @return Os tipos, indexados pelo endereco (BOTTOM se a variavel nunca recebe um valor)
+     */
+    public byte[] getGlobalTypes(){
+        return globalTypes.clone();
+    }
+
+    private void enqueue(Function f){
+        if (!f.queued){
+            f.queued = true;
+            worklist.add(f);
+        }
+    }
+
+    /**
+     * Obtem a funcao com entrada no endereco indicado, criando-a se necessario.
+     * O numero de argumentos e o tipo de retorno (ret ou retval) sao obtidos
+     * percorrendo o codigo alcancavel a partir da entrada.
+     */
+    private Function function(int entry, int callPc){
+        Function f = functions.get(entry);
+        if (f != null){
+            return f;
+        }
+        if (entry < 0 || entry >= code.length){
+            throw error(callPc, "endereco de funcao invalido: " + entry);
+        }
+
+        f = new Function(entry, false);
+        Set<Integer> visited = new HashSet<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(entry);
+        while (!pending.isEmpty()){
+            int pc = pending.pop();
+            if (pc >= code.length || !visited.add(pc)){
+                continue;
+            }
+
+            OpCode op = code[pc].getOpCode();
+            switch (op){
+                case ret, retval, tailcall -> {
+                    // Um tailcall retorna o valor da funcao chamada, com o numero de argumentos da funcao atual
+                    int n = op == OpCode.tailcall ? arg(pc, 1) : arg(pc);
+                    if (f.returns && (f.nArgs != n || f.returnsValue != (op != OpCode.ret))){
+                        throw error(pc, "retorno inconsistente com os restantes retornos da funcao " + entry);
+                    }
+                    if (n < 0){
+                        throw error(pc, "numero de argumentos invalido");
+                    }
+                    f.returns = true;
+                    f.nArgs = n;
+                    f.returnsValue = op != OpCode.ret;
+                }
+                case jump -> pending.push(target(pc));
+                case halt -> { }
+                default -> {
+                    if (isConditionalBranch(op)){
+                        pending.push(target(pc));
+                    }
+                    pending.push(pc + 1);
+                }
+            }
+        }
+
+        f.params = new byte[f.nArgs];
+        functions.put(entry, f);
+        return f;
+    }
+
+    /**
+     * Analisa o corpo de uma funcao com a informacao atual sobre argumentos,
+     * retornos e globais, ate atingir um ponto fixo dentro da funcao.
+     */
+    private void analyze(Function f){
+        f.states.clear();
+        f.maxStack = 0;
+        f.states.put(f.entry, new State(new byte[8], 0, f.globals));
+
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(f.entry);
+        while (!pending.isEmpty()){
+            int pc = pending.pop();
+            State s = f.states.get(pc).copy();
+            f.maxStack = Math.max(f.maxStack, s.depth);
+
+            int next = step(f, pc, s);
+            f.maxStack = Math.max(f.maxStack, s.depth);
+
+            if (next == -1){
+                continue;
+            }
+            if (isConditionalBranch(code[pc].getOpCode())){
+                merge(f, pc, target(pc), s, pending);
+                next = pc + 1;
+            }
+            merge(f, pc, next, s, pending);
+        }
+    }
+
+    /**
+     * Junta o estado s ao estado ja conhecido na instrucao pc.
+     */
+    private void merge(Function f, int from, int pc, State s, Deque<Integer> pending){
+        if (pc >= code.length){
+            return; // Fim do programa
+        }
+
+        State old = f.states.get(pc);
+        if (old == null){
+            f.states.put(pc, s.copy());
+            pending.push(pc);
+            return;
+        }
+
+        if (old.depth != s.depth){
+            throw error(from, "profundidade da pilha inconsistente ao chegar a instrucao " + pc
+                    + " (" + old.depth + " e " + s.depth + ")");
+        }
+        boolean changed = false;
+        for (int i = 0; i < s.depth; i++){
+            byte joined = join(old.stack[i], s.stack[i]);
+            if (joined != old.stack[i]){
+                old.stack[i] = joined;
+                changed = true;
+            }
+        }
+        if (s.globals < old.globals){
+            old.globals = s.globals;
+            changed = true;
+        }
+        if (changed){
+            pending.push(pc);
+        }
+    }
+
+    /**
+     * Aplica o efeito de uma instrucao ao estado s.
+     *
+     * @return O endereco da instrucao seguinte, ou -1 se a execucao nao continua
+     */
+    private int step(Function f, int pc, State s){
+        Instruction inst = code[pc];
+        switch (inst.getOpCode()){
+            case iconst -> s.push(INT);
+            case dconst -> {
+                if (!(constantAt(arg(pc)) instanceof Double)){
+                    throw error(pc, "a constante " + arg(pc) + " nao e um real");
+                }
+                s.push(REAL);
+            }
+            case sconst -> {
+                if (!(constantAt(arg(pc)) instanceof String)){
+                    throw error(pc, "a constante " + arg(pc) + " nao e uma string");
+                }
+                s.push(STRING);
+            }
+            case jump -> {
+                return target(pc);
+            }
+            case jumpf -> {
+                pop(pc, s, BOOL);
+                target(pc);
+            }
+            case galloc -> {
+                if (!f.topLevel){
+                    throw error(pc, "galloc so e permitido no codigo de topo");
+                }
+                if (arg(pc) < 0){
+                    throw error(pc, "numero de posicoes invalido");
+                }
+                s.globals += arg(pc);
+                if (s.globals > globalTypes.length){
+                    globalTypes = Arrays.copyOf(globalTypes, Math.max(s.globals, globalTypes.length * 2));
+                }
+            }
+            case gload -> {
+                int addr = globalAddress(pc, s);
+                globalReaders.computeIfAbsent(addr, k -> new HashSet<>()).add(f);
+                byte type = globalTypes[addr];
+                if (type == BOTTOM || type == NIL){
+                    return -1; // Acesso a valor NULO: a execucao termina sempre aqui
+                }
+                s.push(type);
+            }
+            case gstore -> {
+                int addr = globalAddress(pc, s);
+                byte type = pop(pc, s);
+                byte joined = join(globalTypes[addr], type);
+                if (joined != globalTypes[addr]){
+                    globalTypes[addr] = joined;
+                    for (Function reader : globalReaders.getOrDefault(addr, Set.of())){
+                        enqueue(reader);
+                    }
+                }
+            }
+            case lalloc -> {
+                if (arg(pc) < 0){
+                    throw error(pc, "numero de posicoes invalido");
+                }
+                for (int i = 0; i < arg(pc); i++){
+                    s.push(NIL);
+                }
+            }
+            case lload -> {
+                byte type = loadLocal(f, pc, arg(pc), s);
+                if (type == BOTTOM || type == NIL){
+                    return -1; // Acesso a valor NULO: a execucao termina sempre aqui
+                }
+                s.push(type);
+            }
+            case lstore -> storeLocal(f, pc, arg(pc), pop(pc, s), s);
+            case pop -> {
+                if (arg(pc) < 0 || arg(pc) > s.depth){
+                    throw error(pc, "a pilha nao tem elementos suficientes");
+                }
+                s.depth -= arg(pc);
+            }
+            case call -> {
+                return call(f, pc, s);
+            }
+            case retval, ret -> {
+                if (f.topLevel){
+                    throw error(pc, "retorno fora de uma funcao");
+                }
+                if (inst.getOpCode() == OpCode.retval){
+                    returnValue(f, pop(pc, s));
+                }
+                return -1;
+            }
+            case tailcall -> {
+                if (f.topLevel){
+                    throw error(pc, "tailcall fora de uma funcao");
+                }
+                Function callee = function(arg(pc), pc);
+                enter(f, callee, pc, s);
+                if (callee.returns && !callee.returnsValue){
+                    throw error(pc, "tailcall para uma funcao que nao retorna valor");
+                }
+                // O valor devolvido pela funcao chamada e o valor devolvido por esta funcao
+                if (callee.returnType != BOTTOM){
+                    returnValue(f, callee.returnType);
+                }
+                return -1;
+            }
+
+            //  Instrucoes para inteiros
+            case iprint -> pop(pc, s, INT);
+            case iuminus -> unary(pc, s, INT, INT);
+            case iadd, isub, imult, idiv, imod -> binary(pc, s, INT, INT);
+            case ieq, ineq, ilt, ileq -> binary(pc, s, INT, BOOL);
+            case itod -> unary(pc, s, INT, REAL);
+            case itos -> unary(pc, s, INT, STRING);
+
+            //  Instrucoes para reais
+            case dprint -> pop(pc, s, REAL);
+            case duminus -> unary(pc, s, REAL, REAL);
+            case dadd, dsub, dmult, ddiv -> binary(pc, s, REAL, REAL);
+            case deq, dneq, dlt, dleq -> binary(pc, s, REAL, BOOL);
+            case dtos -> unary(pc, s, REAL, STRING);
+
+            //  Instrucoes para strings
+            case sprint -> pop(pc, s, STRING);
+            case sconcat -> binary(pc, s, STRING, STRING);
+            case seq, sneq -> binary(pc, s, STRING, BOOL);
+
+            //  Instrucoes para booleanos
+            case tconst, fconst -> s.push(BOOL);
+            case bprint -> pop(pc, s, BOOL);
+            case beq, bneq, and, or -> binary(pc, s, BOOL, BOOL);
+            case not -> unary(pc, s, BOOL, BOOL);
+            case btos -> unary(pc, s, BOOL, STRING);
+
+            case halt -> {
+                return -1;
+            }
+            case dup -> {
+                byte type = pop(pc, s);
+                s.push(type);
+                s.push(type);
+            }
+
+            //  Superinstrucoes: o mesmo efeito que a sequencia de instrucoes que substituem
+            case lload_lload_iadd -> {
+                if (!loadInt(f, pc, arg(pc, 0), s) || !loadInt(f, pc, arg(pc, 1), s)){
+                    return -1;
+                }
+                s.push(INT);
+            }
+            case lload_iconst_if_ige -> {
+                if (!loadInt(f, pc, arg(pc, 0), s)){
+                    return -1;
+                }
+                target(pc);
+            }
+            case iinc -> {
+                if (!loadInt(f, pc, arg(pc, 0), s)){
+                    return -1;
+                }
+                storeLocal(f, pc, arg(pc, 0), INT, s);
+            }
+            case iconst_iadd_lstore -> {
+                pop(pc, s, INT);
+                storeLocal(f, pc, arg(pc, 1), INT, s);
+            }
+            case gload_iprint -> {
+                int addr = globalAddress(pc, s);
+                globalReaders.computeIfAbsent(addr, k -> new HashSet<>()).add(f);
+                byte type = globalTypes[addr];
+                if (type == BOTTOM || type == NIL){
+                    return -1;
+                }
+                if (type != INT){
+                    throw error(pc, "esperava inteiro mas encontrou " + typeName(type));
+                }
+            }
+
+            //  Saltos condicionais com comparacao
+            case if_ilt, if_ige, if_ileq, if_igt, if_ieq, if_ineq -> {
+                pop(pc, s, INT);
+                pop(pc, s, INT);
+                target(pc);
+            }
+            case if_dlt, if_dge, if_dleq, if_dgt, if_deq, if_dneq -> {
+                pop(pc, s, REAL);
+                pop(pc, s, REAL);
+                target(pc);
+            }
+        }
+        return pc + 1;
+    }
+
+    /**
+     * Aplica o efeito de um call: atualiza os argumentos e globais da funcao chamada
+     * e substitui os argumentos pelo valor de retorno.
+     */
+    private int call(Function f, int pc, State s){
+        Function callee = function(arg(pc), pc);
+        enter(f, callee, pc, s);
+
+        if (!callee.returns){
+            return -1;
+        }
+        s.depth -= callee.nArgs;
+        if (callee.returnsValue){
+            if (callee.returnType == BOTTOM){
+                return -1; // Ainda nao se conhece nenhum retorno da funcao
+            }
+            s.push(callee.returnType);
+        }
+        return pc + 1;
+    }
+
+    /**
+     * Atualiza os tipos dos argumentos e as globais da funcao chamada com os argumentos
+     * no topo de s, registando f como chamadora.
+     */
+    private void enter(Function f, Function callee, int pc, State s){
+        callee.callers.add(f);
+
+        if (callee.nArgs > s.depth){
+            throw error(pc, "a pilha nao tem os " + callee.nArgs + " argumentos da funcao");
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < callee.nArgs; i++){
+            byte joined = join(callee.params[i], s.stack[s.depth - callee.nArgs + i]);
+            if (joined != callee.params[i]){
+                callee.params[i] = joined;
+                changed = true;
+            }
+        }
+        if (s.globals < callee.globals){
+            callee.globals = s.globals;
+            changed = true;
+        }
+        if (changed){
+            enqueue(callee);
+        }
+    }
+
+    /**
+     * Junta o tipo de um valor devolvido ao tipo de retorno de f, voltando a
+     * analisar as funcoes que chamam f se este mudar.
+     */
+    private void returnValue(Function f, byte type){
+        byte joined = join(f.returnType, type);
+        if (joined != f.returnType){
+            f.returnType = joined;
+            for (Function caller : f.callers){
+                enqueue(caller);
+            }
+        }
+    }
+
+    /**
+     * Indica se a instrucao salta para o seu endereco apenas em algumas execucoes,
+     * continuando nas restantes na instrucao seguinte.
+     */
+    private static boolean isConditionalBranch(OpCode op){
+        return op.targetArg() >= 0 && op != OpCode.jump && op != OpCode.call && op != OpCode.tailcall;
+    }
+
+    // Operacoes sobre o estado abstrato
+
+    /**
+     * Obtem o tipo de um argumento (endereco negativo) ou variavel local.
+     */
+    private byte loadLocal(Function f, int pc, int addr, State s){
+        if (addr < 0 && !f.topLevel){
+            return f.params[paramIndex(f, pc, addr)];
+        }
+        return s.stack[localIndex(f, pc, addr, s.depth)];
+    }
+
+    /**
+     * Verifica que um argumento ou variavel local contem um inteiro.
+     *
+     * @return false se a posicao for NULO, caso em que a execucao termina sempre ali
+     */
+    private boolean loadInt(Function f, int pc, int addr, State s){
+        byte type = loadLocal(f, pc, addr, s);
+        if (type == BOTTOM || type == NIL){
+            return false;
+        }
+        if (type != INT){
+            throw error(pc, "esperava inteiro mas encontrou " + typeName(type));
+        }
+        return true;
+    }
+
+    /**
+     * Guarda um valor do tipo indicado num argumento ou variavel local.
+     */
+    private void storeLocal(Function f, int pc, int addr, byte type, State s){
+        if (addr < 0 && !f.topLevel){
+            int index = paramIndex(f, pc, addr);
+            byte joined = join(f.params[index], type);
+            if (joined != f.params[index]){
+                f.params[index] = joined;
+                enqueue(f);
+            }
+        }else {
+            s.stack[localIndex(f, pc, addr, s.depth)] = type;
+        }
+    }
+
+    private void unary(int pc, State s, byte in, byte out){
+        pop(pc, s, in);
+        s.push(out);
+    }
+
+    private void binary(int pc, State s, byte in, byte out){
+        pop(pc, s, in);
+        pop(pc, s, in);
+        s.push(out);
+    }
+
+    private byte pop(int pc, State s){
+        if (s.depth == 0){
+            throw error(pc, "a pilha nao tem elementos suficientes");
+        }
+        return s.stack[--s.depth];
+    }
+
+    private void pop(int pc, State s, byte expected){
+        byte type = pop(pc, s);
+        if (type != expected){
+            throw error(pc, "esperava " + typeName(expected) + " mas encontrou " + typeName(type));
+        }
+    }
+
+    /**
+     * Junta dois tipos abstratos. Uma posicao NULO junta-se a qualquer tipo,
+     * dado que os acessos a NULO sao verificados em tempo de execucao.
+     */
+    private static byte join(byte a, byte b){
+        if (a == b || b == BOTTOM){
+            return a;
+        }
+        if (a == BOTTOM){
+            return b;
+        }
+        if (a == NIL){
+            return b;
+        }
+        if (b == NIL){
+            return a;
+        }
+        return TOP;
+    }
+
+    private int localIndex(Function f, int pc, int addr, int depth){
+        int index = f.topLevel ? addr : addr - FRAME_HEADER;
+        if (index < 0 || index >= depth){
+            throw error(pc, "indice de variavel local invalido: " + addr);
+        }
+        return index;
+    }
+
+    private int paramIndex(Function f, int pc, int addr){
+        if (-addr > f.nArgs){
+            throw error(pc, "indice de argumento invalido: " + addr);
+        }
+        return f.nArgs + addr;
+    }
+
+    private int globalAddress(int pc, State s){
+        int addr = arg(pc);
+        if (addr < 0 || addr >= s.globals){
+            throw error(pc, "indice de variavel global invalido: " + addr);
+        }
+        return addr;
+    }
+
+    private int target(int pc){
+        int target = arg(pc, code[pc].getOpCode().targetArg());
+        if (target < 0 || target > code.length){
+            throw error(pc, "endereco de salto invalido: " + target);
+        }
+        return target;
+    }
+
+    private Object constantAt(int index){
+        return index >= 0 && index < constants.size() ? constants.get(index) : null;
+    }
+
+    private int arg(int pc){
+        return ((Instruction1Arg) code[pc]).getArg();
+    }
+
+    private int arg(int pc, int index){
+        return ((Instruction1Arg) code[pc]).getArg(index);
+    }
+
+    private static String typeName(byte type){
+        return switch (type){
+            case NIL -> "NULO";
+            case INT -> "inteiro";
+            case REAL -> "real";
+            case BOOL -> "booleano";
+            case STRING -> "string";
+            case TOP -> "tipos incompativeis";
+            default -> "nada";
+        };
+    }
+
+    private VerificationException error(int pc, String message){
+        return new VerificationException(pc + ": " + code[pc] + ": " + message);
+    }
+}
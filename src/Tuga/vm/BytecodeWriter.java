@@ -0,0 +1,163 @@
+package Tuga.vm;
+
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Escritor de ficheiros de bytecodes da maquina virtual Tuga.
+ * Produz o formato descrito em BytecodeFormat: cabecalho com numero magico e versao,
+ * tabela de seccoes, e seccoes de constantes, codigo, funcoes e depuracao.
+ */
+public class BytecodeWriter {
+    /** Pool de constantes do programa */
+    private final ConstantPool constantPool;
+    /** Instrucoes do programa */
+    private final List<Instruction> code;
+    /** Funcoes registadas na tabela de funcoes */
+    private final List<FunctionEntry> functions = new ArrayList<>();
+
+    /**
+     * Entrada da tabela de funcoes.
+     *
+     * @param name O nome da funcao
+     * @param entry O endereco da primeira instrucao
+     * @param nArgs O numero de argumentos
+     */
+    private record FunctionEntry(String name, int entry, int nArgs){
+    }
+
+    /**
+     * Cria um escritor para o programa fornecido.
+     *
+     * @param constantPool A pool de constantes do programa
+     * @param code As instrucoes do programa
+     */
+    public BytecodeWriter(ConstantPool constantPool, List<Instruction> code){
+        this.constantPool = constantPool;
+        this.code = code;
+    }
+
+    /**
+     * Regista uma funcao na tabela de funcoes do ficheiro.
+     *
+     * @param name O nome da funcao, guardado na seccao de depuracao
+     * @param entry O endereco da primeira instrucao da funcao
+     * @param nArgs O numero de argumentos da funcao
+     */
+    public void addFunction(String name, int entry, int nArgs){
+        functions.add(new FunctionEntry(name, entry, nArgs));
+    }
+
+    /**
+     * Escreve o programa no ficheiro indicado.
+     *
+     * @param filename O nome do ficheiro
+     * @throws IOException Se ocorrer um erro de E/S ao escrever o ficheiro
+     */
+    public void write(String filename) throws IOException{
+        List<Byte> ids = new ArrayList<>();
+        List<byte[]> sections = new ArrayList<>();
+
+        ids.add(BytecodeFormat.CONSTANTS);
+        sections.add(constantsSection());
+        ids.add(BytecodeFormat.CODE);
+        sections.add(codeSection());
+        if (!functions.isEmpty()){
+            ids.add(BytecodeFormat.FUNCTIONS);
+            sections.add(functionsSection());
+            ids.add(BytecodeFormat.DEBUG);
+            sections.add(debugSection());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(filename))){
+            // Cabecalho
+            out.writeInt(BytecodeFormat.MAGIC);
+            out.writeShort(BytecodeFormat.VERSION);
+            out.writeByte(sections.size());
+
+            // Tabela de seccoes
+            int offset = 4 + 2 + 1 + sections.size() * BytecodeFormat.SECTION_ENTRY_SIZE;
+            for (int i = 0; i < sections.size(); i++){
+                out.writeByte(ids.get(i));
+                out.writeInt(offset);
+                out.writeInt(sections.get(i).length);
+                offset += sections.get(i).length;
+            }
+
+            for (byte[] section : sections){
+                out.write(section);
+            }
+        }
+    }
+
+    private byte[] constantsSection(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Object> allConstants = constantPool.getAllConstants();
+
+        BytecodeFormat.writeVarint(out, allConstants.size());
+        for (Object constant : allConstants){
+            if (constant instanceof Double value){
+                out.write(BytecodeFormat.REAL_CONSTANT);
+                long bits = Double.doubleToRawLongBits(value);
+                for (int shift = 56; shift >= 0; shift -= 8){
+                    out.write((int) (bits >>> shift));
+                }
+            } else if (constant instanceof String value) {
+                out.write(BytecodeFormat.STRING_CONSTANT);
+                writeString(out, value);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] codeSection(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream(code.size() * 2);
+
+        BytecodeFormat.writeVarint(out, code.size());
+        for (Instruction inst : code){
+            out.write(inst.getOpCode().ordinal());
+            if (inst instanceof Instruction1Arg inst1){
+                for (int a = 0; a < inst1.nArgs(); a++){
+                    BytecodeFormat.writeSignedVarint(out, inst1.getArg(a));
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] functionsSection(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        BytecodeFormat.writeVarint(out, functions.size());
+        for (FunctionEntry function : functions){
+            BytecodeFormat.writeVarint(out, function.entry());
+            BytecodeFormat.writeVarint(out, function.nArgs());
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] debugSection(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        BytecodeFormat.writeVarint(out, functions.size());
+        for (FunctionEntry function : functions){
+            BytecodeFormat.writeVarint(out, function.entry());
+            writeString(out, function.name());
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value){
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        BytecodeFormat.writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+}
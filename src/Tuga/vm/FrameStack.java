@@ -0,0 +1,66 @@
+package Tuga.vm;
+
+import java.util.Arrays;
+
+/**
+ * Pilha de frames de chamada da maquina virtual, separada da pilha de operandos.
+ * Cada frame e guardado em arrays paralelos de inteiros (endereco de retorno,
+ * FP guardado e numero de argumentos), pelo que as chamadas e retornos nao
+ * alocam objetos nem ocupam posicoes na pilha de operandos.
+ *
+ * Como o FP e o IP guardados ja nao estao na pilha de operandos, o FP passa a ser
+ * a posicao da primeira variavel local: o argumento -k esta em FP - k e a variavel
+ * local com endereco a (a partir de HEADER) esta em FP + a - HEADER.
+ */
+final class FrameStack {
+    /**
+     * Numero de posicoes que o FP e o IP guardados ocupavam no frame.
+     * Os enderecos das variaveis locais nos bytecodes continuam a comecar neste valor.
+     */
+    static final int HEADER = 2;
+
+    /** Tamanho inicial dos arrays */
+    private static final int INITIAL_SIZE = 256;
+
+    /** Endereco de retorno de cada frame */
+    int[] returnIp = new int[INITIAL_SIZE];
+    /** FP do frame anterior */
+    int[] savedFp = new int[INITIAL_SIZE];
+    /** Numero de argumentos da funcao chamada */
+    int[] argCount = new int[INITIAL_SIZE];
+    /** Numero de frames ativos */
+    int size = 0;
+
+    /**
+     * Empilha um novo frame.
+     *
+     * @param returnIp O endereco de retorno
+     * @param savedFp O FP do frame que faz a chamada
+     * @param argCount O numero de argumentos da funcao chamada
+     */
+    void push(int returnIp, int savedFp, int argCount){
+        if (size == this.returnIp.length){
+            grow();
+        }
+        this.returnIp[size] = returnIp;
+        this.savedFp[size] = savedFp;
+        this.argCount[size] = argCount;
+        size++;
+    }
+
+    /**
+     * Desempilha o frame atual.
+     *
+     * @return O indice do frame desempilhado, cujos valores continuam acessiveis nos arrays
+     */
+    int pop(){
+        return --size;
+    }
+
+    private void grow(){
+        int capacity = returnIp.length * 2;
+        returnIp = Arrays.copyOf(returnIp, capacity);
+        savedFp = Arrays.copyOf(savedFp, capacity);
+        argCount = Arrays.copyOf(argCount, capacity);
+    }
+}
@@ -10,8 +10,8 @@ public enum OpCode {
     iconst(1),  //  0: Empilha o valor inteiro n no stack
     dconst(1),  //  1: Empilha o valor real da position n na constant pool, no stack
     sconst(1),  //  2: Empilha a string da position n na constant pool, no stack
-    jump(1),    // 41: Unconditional jump. Atualiza o instruction pointer de modo a que a proxima instrucao a ser executada seja aquela que se encontra na posicao addr do array de instrucoes
-    jumpf(1),   // 42: Jump if false: faz pop do Stack. Se o valor for false, atualiza o instruction pointer de modo a que a proxima instrucao a ser executada seja aquela que se encontra na posicao addr do array de instrucoes
+    jump(1, 0), // 41: Unconditional jump. Atualiza o instruction pointer de modo a que a proxima instrucao a ser executada seja aquela que se encontra na posicao addr do array de instrucoes
+    jumpf(1, 0),// 42: Jump if false: faz pop do Stack. Se o valor for false, atualiza o instruction pointer de modo a que a proxima instrucao a ser executada seja aquela que se encontra na posicao addr do array de instrucoes
     galloc(1),  // 43: Global memory allocation: Aloca n posicoes num array que permite armazenar variaveis globais. Array designado por Globals. Essas n posicoes de memoria ficam inicializadas com o valor NULO
     gload(1),   // 44: Global load: Empilha Globals[addr] no stakc
     gstore(1),  // 45: Global store: Faz pop do stack e guarda o valor em Globals[addr]
@@ -19,7 +19,7 @@ public enum OpCode {
     lload(1),   // 47: Local load: Empilha o conteudo de Stack[FP + addr] no stack
     lstore(1),  // 48: Local store: Faz pop do stack e guarda o valor em Stack[FP + addr]
     pop(1),     // 49: Desempilha n elementos do stack
-    call(1),    // 50: Cria um novo frame no stack, que passara a ser o frame currente. Guarda FP, atualiza FP para a base do novo frame, empilha endereco de retorno. Atualiza IP para o endereco da funcao
+    call(1, 0), // 50: Cria um novo frame no stack, que passara a ser o frame currente. Guarda FP, atualiza FP para a base do novo frame, empilha endereco de retorno. Atualiza IP para o endereco da funcao
     retval(1),  // 51: Return from non-void function: Faz x = pop(), desempilha o espaco reservado para as variaveis locais usadas pela funcao, restaura o estado da maquina virtual, desempilha os n argumentos do stack, e depois empilha x
     ret(1),     // 52: Return from void function: Desempilha os espaco reservado para as variaveis locais usadas pela funcao, restaura o estado da maquina virtual, e desempilha os n argumentos do stack
 
@@ -64,29 +64,81 @@ public enum OpCode {
     or(0),      // 37: Boolean or: Faz pop do operando direito b, seguido de pop do operador esquerdo a (supostamente ambos do tipo boolean), e empilha o valor lógico a or b no stack (operador OR)
     not(0),     // 38: Boolean not: Faz pop do operando direito a (supostamente do tipo boolean), e empilha o valor lógico not a no stack (operador NOT)
     btos(0),    // 39: Converte o valor boolean que esta no topo do stack para uma string (conversão boolean -> string)
-    halt(0);    // 40: termina a execução
+    halt(0),    // 40: termina a execução
+
+    //  Instrucoes introduzidas pelo otimizador (depois de halt, para manter a codificacao das restantes)
+    dup(0),     // 53: Empilha uma copia do valor que esta no topo do stack
+
+    //  Superinstrucoes: sequencias frequentes fundidas numa so instrucao (ver SuperinstructionRules)
+    lload_lload_iadd(2),            // 54: lload a; lload b; iadd - Empilha Stack[FP + a] + Stack[FP + b] (inteiros)
+    lload_iconst_if_ige(3, 2),      // 55: lload x; iconst k; if_ige addr - Salta para addr se Stack[FP + x] >= k (inteiros)
+    iinc(2),                        // 56: lload x; iconst k; iadd; lstore x - Soma k a variavel local inteira Stack[FP + x]
+    iconst_iadd_lstore(2),          // 57: iconst k; iadd; lstore x - Faz pop do inteiro a e guarda a + k em Stack[FP + x]
+    gload_iprint(1),                // 58: gload addr; iprint - Escreve o inteiro Globals[addr] no ecra seguido de mudanca de linha
+
+    //  Saltos condicionais com comparacao: fazem pop do operando direito b, seguido de pop do operando esquerdo a, e saltam para addr se a condicao for verdadeira
+    if_ilt(1, 0),   // 59: Salta para addr se a < b (inteiros)
+    if_ige(1, 0),   // 60: Salta para addr se a >= b (inteiros)
+    if_ileq(1, 0),  // 61: Salta para addr se a <= b (inteiros)
+    if_igt(1, 0),   // 62: Salta para addr se a > b (inteiros)
+    if_ieq(1, 0),   // 63: Salta para addr se a == b (inteiros)
+    if_ineq(1, 0),  // 64: Salta para addr se a /= b (inteiros)
+    if_dlt(1, 0),   // 65: Salta para addr se a < b (doubles)
+    if_dge(1, 0),   // 66: Salta para addr se a < b for falso (doubles; negacao exata de dlt)
+    if_dleq(1, 0),  // 67: Salta para addr se a <= b (doubles)
+    if_dgt(1, 0),   // 68: Salta para addr se a <= b for falso (doubles; negacao exata de dleq)
+    if_deq(1, 0),   // 69: Salta para addr se a == b (doubles, com a semantica de deq)
+    if_dneq(1, 0),  // 70: Salta para addr se a /= b (doubles, com a semantica de dneq)
+
+    //  Chamadas em posicao de cauda
+    tailcall(2, 0); // 71: tailcall addr n - Retorna da funcao atual, que tem n argumentos, chamando a funcao addr no seu lugar: os argumentos da funcao addr (no topo do stack) substituem os argumentos e variaveis locais do frame atual, que passa a ser o frame da funcao chamada, e o seu valor de retorno e devolvido diretamente a quem chamou a funcao atual
 
     /** Numero de argumentos que cada instrucao requer */
     private final int nArgs;
+    /** Indice do argumento que contem um endereco de instrucao, ou -1 se nao existir */
+    private final int targetArg;
 
     /**
      * Cria um novo codigo de operacao com o numero de argumentos especificado.
      *
-     * @param nArgs O numero de argumentos da instrucao (0 ou 1)
+     * @param nArgs O numero de argumentos da instrucao (0 a 3)
      */
     OpCode(int nArgs){
+        this(nArgs, -1);
+    }
+
+    /**
+     * Cria um novo codigo de operacao cujo argumento targetArg e um endereco de instrucao.
+     *
+     * @param nArgs O numero de argumentos da instrucao
+     * @param targetArg O indice do argumento com o endereco
+     */
+    OpCode(int nArgs, int targetArg){
         this.nArgs = nArgs;
+        this.targetArg = targetArg;
     }
 
     /**
      * Obtem o numero de argumentos desta instrucao.
      *
-     * @return 0 para instrucoes sem argumentos, 1 para instrucoes com um argumento
+     * @return 0 para instrucoes sem argumentos, 1 para instrucoes com um argumento,
+     *         2 ou 3 para as superinstrucoes e o tailcall
      */
     public int nArgs(){
         return nArgs;
     }
 
+    /**
+     * Obtem o indice do argumento que contem um endereco de instrucao (destino de
+     * um salto ou de uma chamada). Usado para corrigir os enderecos quando o codigo
+     * e alterado.
+     *
+     * @return O indice do argumento, ou -1 se a instrucao nao tiver enderecos
+     */
+    public int targetArg(){
+        return targetArg;
+    }
+
     /**
      * Converte um valor de byte num codigo de operacao.
      * Util para decodificar instrucoes a partir de bytecode.
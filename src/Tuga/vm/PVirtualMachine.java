@@ -0,0 +1,1080 @@
+package Tuga.vm;
+
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import Tuga.vm.jit.CompiledFunction;
+import Tuga.vm.jit.Jit;
+import Tuga.vm.jit.JitRuntime;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maquina virtual Tuga com pilha de operandos primitiva.
+ * Executa os mesmos bytecodes que a SVirtualMachine, mas guarda a pilha num
+ * array de slots long pre-alocado, com um array paralelo de etiquetas de tipo
+ * e um array de referencias apenas para as strings. Os ponteiros sp e fp sao
+ * inteiros explicitos, pelo que valores inteiros, reais e booleanos nunca sao
+ * alocados durante a execucao.
+ * Os booleanos partilham a etiqueta dos inteiros (0 ou 1), tal como na
+ * SVirtualMachine, para que ambos os motores tenham exatamente o mesmo comportamento.
+ * Antes da execucao, as instrucoes sao pre-decodificadas num array plano de inteiros
+ * (codigo do handler seguido dos argumentos), com os enderecos de salto ja convertidos
+ * para posicoes nesse array e as constantes ja resolvidas. O ciclo principal despacha
+ * diretamente sobre esse array, sem consultas ao enum, casts ou chamadas a getArg().
+ *
+ * Esta maquina executa em modo verificado: o programa e validado uma unica vez pelo
+ * BytecodeVerifier, pelo que os handlers nao verificam o tipo dos operandos nem o
+ * tamanho da pilha. O espaco da pilha e reservado apenas na entrada de cada funcao,
+ * com a profundidade maxima calculada pelo verificador. Os acessos a valores NULO e
+ * as divisoes por zero continuam a ser detetados. A SVirtualMachine mantem todas as
+ * verificacoes e serve de modo de depuracao.
+ *
+ * Com o JIT ligado, as chamadas e os saltos para tras contam as execucoes de cada funcao.
+ * Ao atingir o limite, a funcao e compilada para uma classe da JVM (ver Tuga.vm.jit) e as
+ * chamadas seguintes executam o codigo compilado. Uma funcao que fica quente a meio de um
+ * ciclo passa para o codigo compilado no salto para tras seguinte.
+ */
+public class PVirtualMachine implements VirtualMachine {
+    /** Etiqueta de um slot sem valor (NULO) */
+    private static final byte NIL = 0;
+    /** Etiqueta de um slot com um inteiro ou booleano */
+    private static final byte INT = 1;
+    /** Etiqueta de um slot com um real (bits do double) */
+    private static final byte REAL = 2;
+    /** Etiqueta de um slot com uma string (guardada no array de referencias) */
+    private static final byte STRING = 3;
+
+    //  Codigos dos handlers no codigo pre-decodificado (independentes do ordinal do OpCode)
+    private static final int ICONST = 0, DCONST = 1, SCONST = 2, JUMP = 3, JUMPF = 4, GALLOC = 5,
+            GLOAD = 6, GSTORE = 7, LALLOC = 8, LLOAD = 9, LSTORE = 10, POP = 11, CALL = 12,
+            RETVAL = 13, RET = 14;
+    private static final int IPRINT = 15, IUMINUS = 16, IADD = 17, ISUB = 18, IMULT = 19, IDIV = 20,
+            IMOD = 21, IEQ = 22, INEQ = 23, ILT = 24, ILEQ = 25, ITOD = 26, ITOS = 27;
+    private static final int DPRINT = 28, DUMINUS = 29, DADD = 30, DSUB = 31, DMULT = 32, DDIV = 33,
+            DEQ = 34, DNEQ = 35, DLT = 36, DLEQ = 37, DTOS = 38;
+    private static final int SPRINT = 39, SCONCAT = 40, SEQ = 41, SNEQ = 42;
+    private static final int TCONST = 43, FCONST = 44, BPRINT = 45, BEQ = 46, BNEQ = 47, AND = 48,
+            OR = 49, NOT = 50, BTOS = 51, HALT = 52, DUP = 53;
+    private static final int LLOAD_LLOAD_IADD = 54, LLOAD_ICONST_IF_IGE = 55, IINC = 56,
+            ICONST_IADD_LSTORE = 57, GLOAD_IPRINT = 58;
+    private static final int IF_ILT = 59, IF_IGE = 60, IF_ILEQ = 61, IF_IGT = 62, IF_IEQ = 63, IF_INEQ = 64,
+            IF_DLT = 65, IF_DGE = 66, IF_DLEQ = 67, IF_DGT = 68, IF_DEQ = 69, IF_DNEQ = 70;
+    private static final int TAILCALL = 71;
+    //  Variantes usadas com o JIT ligado: contam as execucoes e entram no codigo compilado
+    private static final int JIT_CALL = 72, JIT_TAILCALL = 73, JIT_JUMP_BACK = 74;
+    //  itos e dtos seguidos de sconcat: o numero e acrescentado a string sem criar a sua String
+    private static final int ITOS_SCONCAT = 75, DTOS_SCONCAT = 76;
+
+    /** Tamanho inicial da pilha de operandos */
+    private static final int INITIAL_STACK_SIZE = 1 << 16;
+    /** Tamanho inicial da memoria global */
+    private static final int INITIAL_GLOBALS_SIZE = 16;
+
+    /** Flag para ativar modo de depuracao com saida detalhada */
+    private final boolean trace;
+    /** Instrucoes decodificadas, mantidas apenas para o modo trace */
+    private Instruction[] code;
+    /** Codigo pre-decodificado: codigo do handler seguido dos seus argumentos */
+    private int[] program;
+    /** Indice da instrucao original correspondente a cada posicao do codigo pre-decodificado */
+    private int[] instructionIndex;
+    /** Valores reais da constant pool, ja convertidos para bits */
+    private long[] realConstants;
+    /** Strings da constant pool */
+    private String[] stringConstants;
+    /** Instruction pointer - posicao da instrucao atual no codigo pre-decodificado */
+    private int ip;
+    /** Numero de instrucoes executadas pela ultima execucao */
+    private long dispatchCount = 0;
+
+    // ---- Pilha de operandos ----
+    /** Valores primitivos da pilha (inteiros, booleanos e bits de reais) */
+    private long[] slots;
+    /** Etiqueta de tipo de cada slot da pilha */
+    private byte[] tags;
+    /** Referencias para as strings guardadas na pilha */
+    private Object[] refs;
+    /** Stack pointer - proxima posicao livre da pilha */
+    private int sp = 0;
+    /** Frame pointer - posicao da primeira variavel local do frame atual (ver FrameStack) */
+    private int fp = FrameStack.HEADER;
+
+    // ---- Frames de chamada ----
+    /** Endereco de retorno, FP guardado e numero de argumentos de cada chamada ativa */
+    private final FrameStack frames = new FrameStack();
+
+    // ---- Memoria global ----
+    /** Valores primitivos das variaveis globais */
+    private long[] globalSlots = new long[INITIAL_GLOBALS_SIZE];
+    /** Etiqueta de tipo de cada variavel global */
+    private byte[] globalTags = new byte[INITIAL_GLOBALS_SIZE];
+    /** Referencias para as strings guardadas nas variaveis globais */
+    private Object[] globalRefs = new Object[INITIAL_GLOBALS_SIZE];
+    /** Numero de variaveis globais alocadas */
+    private int globalCount = 0;
+
+    /** Output do escreve e das mensagens de erro de execucao */
+    private VmOutput output;
+
+    // ---- Compilacao JIT ----
+    /** Numero de chamadas e saltos para tras a partir do qual uma funcao e compilada (0 desliga o JIT) */
+    private final int jitThreshold;
+    /** Verificador que validou o programa carregado */
+    private BytecodeVerifier verifier;
+    /** Posicao de cada instrucao no codigo pre-decodificado (mais uma para o fim do codigo) */
+    private int[] offsets;
+    /** Compilador JIT do programa carregado */
+    private Jit jit;
+    /** Ligacao do codigo compilado a esta maquina virtual */
+    private final JitRuntime jitRuntime = new JitBridge();
+    /** Numero de chamadas e saltos para tras de cada funcao, pela posicao da sua entrada */
+    private int[] hotness;
+    /** Codigo compilado de cada funcao, pela posicao da sua entrada */
+    private CompiledFunction[] compiledCode;
+    /** Posicao da entrada da funcao a que pertence cada instrucao (-1 no codigo de topo) */
+    private int[] functionOf;
+    /** Posicao do primeiro argumento da chamada que entrou no codigo compilado */
+    private int argBase;
+
+    /**
+     * Cria uma nova instancia da maquina virtual com modo trace desativado.
+     */
+    public PVirtualMachine(){
+        this(false);
+    }
+
+    /**
+     * Cria uma nova instancia da maquina virtual.
+     *
+     * @param trace Se true, imprime informacoes detalhadas durante a execucao
+     */
+    public PVirtualMachine(boolean trace){
+        this(trace, 0);
+    }
+
+    /**
+     * Cria uma nova instancia da maquina virtual com compilacao JIT.
+     * O JIT nao e usado em modo trace, que mostra cada instrucao executada.
+     *
+     * @param trace Se true, imprime informacoes detalhadas durante a execucao
+     * @param jitThreshold Numero de chamadas e saltos para tras a partir do qual uma funcao e compilada (0 desliga o JIT)
+     */
+    public PVirtualMachine(boolean trace, int jitThreshold){
+        this.trace = trace;
+        this.jitThreshold = trace ? 0 : jitThreshold;
+        // Em modo trace, cada linha do programa aparece logo, entre as linhas do trace
+        setOutput(trace ? VmOutput.standard(VmOutput.FlushPolicy.LINE, VmOutput.DEFAULT_THRESHOLD) : VmOutput.standard());
+        this.slots = new long[INITIAL_STACK_SIZE];
+        this.tags = new byte[INITIAL_STACK_SIZE];
+        this.refs = new Object[INITIAL_STACK_SIZE];
+        this.ip = 0;
+    }
+
+    /**
+     * Executa o programa em bytecode do arquivo fornecido.
+     * Le a pool de constantes e depois as instrucoes. Se o verificador rejeitar os
+     * bytecodes, o programa e executado pela SVirtualMachine, que so deteta o erro
+     * se a instrucao invalida chegar a ser executada.
+     *
+     * @param bytecodeFile Caminho para o arquivo de bytecode
+     */
+    @Override
+    public void execute(String bytecodeFile){
+        try {
+            BytecodeLoader loader = new BytecodeLoader(trace);
+            loader.load(bytecodeFile);
+
+            try {
+                load(loader.getConstantPool(), loader.getCode());
+            }catch (VerificationException e){
+                // Executado com as verificacoes em cada instrucao
+                SVirtualMachine checked = new SVirtualMachine(trace);
+                checked.setOutput(output);
+                checked.load(loader.getConstantPool(), loader.getCode());
+                checked.run();
+                return;
+            }
+        }catch (IOException e){
+            System.err.println("Erro ao executar bytecodes: " + e.getMessage());
+            return;
+        }
+
+        run();
+    }
+
+    /**
+     * Carrega um programa ja em memoria, sem passar por um ficheiro de bytecodes.
+     * O programa e verificado e pre-decodificado antes de poder ser executado.
+     * Um programa rejeitado pelo verificador nao pode ser executado por esta maquina,
+     * mas pode ser executado pela SVirtualMachine, que so deteta o erro se a instrucao
+     * invalida chegar a ser executada.
+     *
+     * @param constantPool A pool de constantes do programa
+     * @param code As instrucoes do programa
+     * @throws VerificationException Se o verificador rejeitar os bytecodes
+     */
+    @Override
+    public void load(ConstantPool constantPool, Instruction[] code){
+        this.code = code;
+
+        if (trace){
+            System.out.println("Bytecodes decodificados em " + code.length + " instrucoes:");
+            for (int i = 0; i < code.length; i++){
+                System.out.println(i + ": "+ code[i]);
+            }
+        }
+
+        verifier = new BytecodeVerifier(constantPool, code);
+        verifier.verify();
+
+        predecode(constantPool, verifier);
+        ensureCapacity(verifier.getMaxStack(0));
+
+        if (jitThreshold > 0){
+            jit = new Jit(code, constantPool, verifier, jitRuntime);
+            hotness = new int[program.length];
+            compiledCode = new CompiledFunction[program.length];
+            functionOf = new int[program.length];
+            Arrays.fill(functionOf, -1);
+            for (int entry : verifier.getFunctionEntries()){
+                for (int pc : verifier.getFunctionCode(entry)){
+                    functionOf[offsets[pc]] = offsets[entry];
+                }
+            }
+        }
+    }
+
+    /**
+     * Converte as instrucoes no formato pre-decodificado.
+     * Cada instrucao passa a ocupar 1 + nArgs posicoes do array. Os destinos dos
+     * saltos e chamadas sao convertidos de indices de instrucao para posicoes no
+     * array. O call tem dois argumentos extra: o espaco de pilha que a funcao
+     * chamada precisa e o seu numero de argumentos, que o tailcall tambem recebe depois
+     * do numero de argumentos da funcao atual. Os enderecos de lload e lstore
+     * sao convertidos em deslocamentos em relacao ao FP (ver FrameStack).
+     * Com o JIT ligado, as chamadas e os saltos para tras usam as variantes JIT_*.
+     *
+     * @param constantPool A pool de constantes do programa
+     * @param verifier O verificador que validou o programa
+     */
+    private void predecode(ConstantPool constantPool, BytecodeVerifier verifier){
+        // Resolve as constantes uma unica vez
+        List<Object> constants = constantPool.getAllConstants();
+        realConstants = new long[constants.size()];
+        stringConstants = new String[constants.size()];
+        for (int i = 0; i < constants.size(); i++){
+            Object constant = constants.get(i);
+            if (constant instanceof Double value){
+                realConstants[i] = Double.doubleToRawLongBits(value);
+            } else if (constant instanceof String value) {
+                stringConstants[i] = value;
+            }
+        }
+
+        // Posicao de cada instrucao no codigo pre-decodificado (mais uma para o fim do codigo)
+        offsets = new int[code.length + 1];
+        int size = 0;
+        for (int i = 0; i < code.length; i++){
+            offsets[i] = size;
+            size += width(code[i].getOpCode());
+        }
+        offsets[code.length] = size;
+
+        program = new int[size];
+        instructionIndex = new int[size + 1];
+        for (int i = 0; i < code.length; i++){
+            Instruction inst = code[i];
+            int pos = offsets[i];
+            instructionIndex[pos] = i;
+            program[pos] = handlerOf(inst.getOpCode());
+            if ((inst.getOpCode() == OpCode.itos || inst.getOpCode() == OpCode.dtos)
+                    && i + 1 < code.length && code[i + 1].getOpCode() == OpCode.sconcat){
+                // O sconcat continua no seu lugar, para os saltos que o tenham como destino
+                program[pos] = inst.getOpCode() == OpCode.itos ? ITOS_SCONCAT : DTOS_SCONCAT;
+            }
+            if (jitThreshold > 0){
+                program[pos] = switch (inst.getOpCode()){
+                    case call -> JIT_CALL;
+                    case tailcall -> JIT_TAILCALL;
+                    case jump -> ((Instruction1Arg) inst).getArg() <= i ? JIT_JUMP_BACK : JUMP;
+                    default -> program[pos];
+                };
+            }
+
+            if (inst instanceof Instruction1Arg inst1){
+                OpCode op = inst.getOpCode();
+                for (int a = 0; a < inst1.nArgs(); a++){
+                    int arg = inst1.getArg(a);
+                    if (a == op.targetArg()){
+                        arg = (arg >= 0 && arg <= code.length) ? offsets[arg] : size;
+                    } else if (isLocalArg(op, a)) {
+                        arg = arg < 0 ? arg : arg - FrameStack.HEADER;
+                    }
+                    program[pos + 1 + a] = arg;
+                }
+                if (op == OpCode.call){
+                    int entry = inst1.getArg();
+                    program[pos + 2] = verifier.getMaxStack(entry);
+                    program[pos + 3] = verifier.getArgCount(entry);
+                } else if (op == OpCode.tailcall) {
+                    int entry = inst1.getArg();
+                    program[pos + 3] = verifier.getMaxStack(entry);
+                    program[pos + 4] = verifier.getArgCount(entry);
+                }
+            }
+        }
+        instructionIndex[size] = code.length;
+    }
+
+    /**
+     * Indica se um argumento de uma instrucao e o endereco de um argumento ou variavel local.
+     *
+     * @param opCode O codigo de operacao
+     * @param index A posicao do argumento
+     * @return true se o argumento e relativo ao FP
+     */
+    private static boolean isLocalArg(OpCode opCode, int index){
+        return switch (opCode){
+            case lload, lstore, lload_iconst_if_ige, iinc -> index == 0;
+            case lload_lload_iadd -> true;
+            case iconst_iadd_lstore -> index == 1;
+            default -> false;
+        };
+    }
+
+    /**
+     * Obtem o numero de posicoes ocupadas por uma instrucao no codigo pre-decodificado.
+     *
+     * @param opCode O codigo de operacao
+     * @return O numero de posicoes, incluindo o codigo do handler
+     */
+    private static int width(OpCode opCode){
+        return switch (opCode){
+            case call -> 4;
+            case tailcall -> 5;
+            default -> 1 + opCode.nArgs();
+        };
+    }
+
+    /**
+     * Obtem o codigo de handler associado a um codigo de operacao.
+     *
+     * @param opCode O codigo de operacao
+     * @return O codigo do handler no formato pre-decodificado
+     */
+    private static int handlerOf(OpCode opCode){
+        return switch (opCode){
+            case iconst -> ICONST;
+            case dconst -> DCONST;
+            case sconst -> SCONST;
+            case jump -> JUMP;
+            case jumpf -> JUMPF;
+            case galloc -> GALLOC;
+            case gload -> GLOAD;
+            case gstore -> GSTORE;
+            case lalloc -> LALLOC;
+            case lload -> LLOAD;
+            case lstore -> LSTORE;
+            case pop -> POP;
+            case call -> CALL;
+            case retval -> RETVAL;
+            case ret -> RET;
+            case iprint -> IPRINT;
+            case iuminus -> IUMINUS;
+            case iadd -> IADD;
+            case isub -> ISUB;
+            case imult -> IMULT;
+            case idiv -> IDIV;
+            case imod -> IMOD;
+            case ieq -> IEQ;
+            case ineq -> INEQ;
+            case ilt -> ILT;
+            case ileq -> ILEQ;
+            case itod -> ITOD;
+            case itos -> ITOS;
+            case dprint -> DPRINT;
+            case duminus -> DUMINUS;
+            case dadd -> DADD;
+            case dsub -> DSUB;
+            case dmult -> DMULT;
+            case ddiv -> DDIV;
+            case deq -> DEQ;
+            case dneq -> DNEQ;
+            case dlt -> DLT;
+            case dleq -> DLEQ;
+            case dtos -> DTOS;
+            case sprint -> SPRINT;
+            case sconcat -> SCONCAT;
+            case seq -> SEQ;
+            case sneq -> SNEQ;
+            case tconst -> TCONST;
+            case fconst -> FCONST;
+            case bprint -> BPRINT;
+            case beq -> BEQ;
+            case bneq -> BNEQ;
+            case and -> AND;
+            case or -> OR;
+            case not -> NOT;
+            case btos -> BTOS;
+            case halt -> HALT;
+            case dup -> DUP;
+            case lload_lload_iadd -> LLOAD_LLOAD_IADD;
+            case lload_iconst_if_ige -> LLOAD_ICONST_IF_IGE;
+            case iinc -> IINC;
+            case iconst_iadd_lstore -> ICONST_IADD_LSTORE;
+            case gload_iprint -> GLOAD_IPRINT;
+            case if_ilt -> IF_ILT;
+            case if_ige -> IF_IGE;
+            case if_ileq -> IF_ILEQ;
+            case if_igt -> IF_IGT;
+            case if_ieq -> IF_IEQ;
+            case if_ineq -> IF_INEQ;
+            case if_dlt -> IF_DLT;
+            case if_dge -> IF_DGE;
+            case if_dleq -> IF_DLEQ;
+            case if_dgt -> IF_DGT;
+            case if_deq -> IF_DEQ;
+            case if_dneq -> IF_DNEQ;
+            case tailcall -> TAILCALL;
+        };
+    }
+
+    @Override
+    public void setOutput(VmOutput output){
+        this.output = output;
+        jitRuntime.out = output;
+    }
+
+    /**
+     * Obtem o numero de instrucoes executadas pela ultima execucao.
+     *
+     * @return O numero de instrucoes despachadas
+     */
+    public long getDispatchCount(){
+        return dispatchCount;
+    }
+
+    /**
+     * Executa o programa carregado na maquina virtual.
+     * Processa cada instrucao sequencialmente ate o fim do codigo
+     * ou ate encontrar uma instrucao HALT.
+     */
+    @Override
+    public void run(){
+        if (trace){
+            System.out.println("Iniciando execucao na instrucao " + ip);
+        }
+
+        dispatchCount = 0;
+        try {
+            interpret();
+        }finally {
+            output.flush();
+        }
+
+        if (trace){
+            System.out.println("Execucao finalizada. Estado da pilha: " + stackToString());
+        }
+    }
+
+    /**
+     * Ciclo principal do interpretador: executa a partir do IP atual ate ao fim do codigo.
+     * As funcoes interpretadas a pedido do codigo compilado retornam para o fim do codigo.
+     */
+    private void interpret(){
+        final int[] program = this.program;
+        final int end = program.length;
+
+        long dispatches = 0;
+        try {
+            while (ip < end){
+                dispatches++;
+                if (trace){
+                    System.out.printf("%5d: %-15s Stack: %s%n", instructionIndex[ip], code[instructionIndex[ip]], stackToString());
+                }
+
+                switch (program[ip]){
+                    //  Instrucoes com argumento
+                    case ICONST -> { pushInt(program[ip + 1]); ip += 2; }
+                    case DCONST -> { pushRealBits(realConstants[program[ip + 1]]); ip += 2; }
+                    case SCONST -> { pushString(stringConstants[program[ip + 1]]); ip += 2; }
+                    case JUMP -> ip = program[ip + 1];
+                    case JUMPF -> ip = slots[--sp] == 0 ? program[ip + 1] : ip + 2;
+                    case GALLOC -> { execGalloc(program[ip + 1]); ip += 2; }
+                    case GLOAD -> { execGload(program[ip + 1]); ip += 2; }
+                    case GSTORE -> { execGstore(program[ip + 1]); ip += 2; }
+                    case LALLOC -> { execLalloc(program[ip + 1]); ip += 2; }
+                    case LLOAD -> { execLload(program[ip + 1]); ip += 2; }
+                    case LSTORE -> { execLstore(program[ip + 1]); ip += 2; }
+                    case POP -> { truncate(sp - program[ip + 1]); ip += 2; }
+                    case CALL -> execCall(program[ip + 1], program[ip + 2], program[ip + 3]);
+                    case RETVAL -> execRetval();
+                    case RET -> execRet();
+                    case TAILCALL -> execTailcall(program[ip + 1], program[ip + 2], program[ip + 3], program[ip + 4]);
+                    case JIT_CALL -> execJitCall(program[ip + 1], program[ip + 2], program[ip + 3]);
+                    case JIT_TAILCALL -> execJitTailcall(program[ip + 1], program[ip + 2], program[ip + 3], program[ip + 4]);
+                    case JIT_JUMP_BACK -> execJitJumpBack(program[ip + 1]);
+
+                    //  Instrucoes para inteiros
+                    case IPRINT -> { output.println((int) slots[--sp]); ip++; }
+                    case IUMINUS -> { slots[sp - 1] = -(int) slots[sp - 1]; ip++; }
+                    case IADD -> { sp--; slots[sp - 1] = (int) slots[sp - 1] + (int) slots[sp]; ip++; }
+                    case ISUB -> { sp--; slots[sp - 1] = (int) slots[sp - 1] - (int) slots[sp]; ip++; }
+                    case IMULT -> { sp--; slots[sp - 1] = (int) slots[sp - 1] * (int) slots[sp]; ip++; }
+                    case IDIV -> { execIdiv(); ip++; }
+                    case IMOD -> { execImod(); ip++; }
+                    case IEQ -> { sp--; slots[sp - 1] = slots[sp - 1] == slots[sp] ? 1 : 0; ip++; }
+                    case INEQ -> { sp--; slots[sp - 1] = slots[sp - 1] != slots[sp] ? 1 : 0; ip++; }
+                    case ILT -> { sp--; slots[sp - 1] = slots[sp - 1] < slots[sp] ? 1 : 0; ip++; }
+                    case ILEQ -> { sp--; slots[sp - 1] = slots[sp - 1] <= slots[sp] ? 1 : 0; ip++; }
+                    case ITOD -> { setReal(sp - 1, (int) slots[sp - 1]); tags[sp - 1] = REAL; ip++; }
+                    case ITOS -> { sp--; pushString(Integer.toString((int) slots[sp])); ip++; }
+
+                    // Instruções para reais
+                    case DPRINT -> { output.println(real(--sp)); ip++; }
+                    case DUMINUS -> { setReal(sp - 1, -real(sp - 1)); ip++; }
+                    case DADD -> { sp--; setReal(sp - 1, real(sp - 1) + real(sp)); ip++; }
+                    case DSUB -> { sp--; setReal(sp - 1, real(sp - 1) - real(sp)); ip++; }
+                    case DMULT -> { sp--; setReal(sp - 1, real(sp - 1) * real(sp)); ip++; }
+                    case DDIV -> { execDdiv(); ip++; }
+                    // deq e dneq seguem a semantica de Double.equals, tal como na SVirtualMachine
+                    case DEQ -> { sp--; setBool(sp - 1, Double.doubleToLongBits(real(sp - 1)) == Double.doubleToLongBits(real(sp))); ip++; }
+                    case DNEQ -> { sp--; setBool(sp - 1, Double.doubleToLongBits(real(sp - 1)) != Double.doubleToLongBits(real(sp))); ip++; }
+                    case DLT -> { sp--; setBool(sp - 1, real(sp - 1) < real(sp)); ip++; }
+                    case DLEQ -> { sp--; setBool(sp - 1, real(sp - 1) <= real(sp)); ip++; }
+                    case DTOS -> { sp--; pushString(Double.toString(real(sp))); ip++; }
+
+                    // Instruções para strings
+                    case SPRINT -> { output.println(popString()); ip++; }
+                    case SCONCAT -> { sp--; refs[sp - 1] = StringValue.concat(refs[sp - 1], refs[sp]); refs[sp] = null; ip++; }
+                    case SEQ -> { String b = popString(); String a = popString(); pushInt(a.equals(b) ? 1 : 0); ip++; }
+                    case SNEQ -> { String b = popString(); String a = popString(); pushInt(!a.equals(b) ? 1 : 0); ip++; }
+                    case ITOS_SCONCAT -> { sp--; refs[sp - 1] = StringValue.concat(refs[sp - 1], (int) slots[sp]); ip += 2; }
+                    case DTOS_SCONCAT -> { sp--; refs[sp - 1] = StringValue.concat(refs[sp - 1], real(sp)); ip += 2; }
+
+                    // Instruções para booleanos
+                    case TCONST -> { pushInt(1); ip++; } //True representado como 1
+                    case FCONST -> { pushInt(0); ip++; } //False representado como 0
+                    case BPRINT -> { output.println(slots[--sp] == 1 ? "verdadeiro" : "falso"); ip++; }
+                    case BEQ -> { sp--; slots[sp - 1] = slots[sp - 1] == slots[sp] ? 1 : 0; ip++; }
+                    case BNEQ -> { sp--; slots[sp - 1] = slots[sp - 1] != slots[sp] ? 1 : 0; ip++; }
+                    case AND -> { sp--; slots[sp - 1] = slots[sp - 1] & slots[sp]; ip++; }
+                    case OR -> { sp--; slots[sp - 1] = slots[sp - 1] | slots[sp]; ip++; }
+                    case NOT -> { slots[sp - 1] = slots[sp - 1] ^ 1; ip++; }
+                    case BTOS -> { sp--; pushString(slots[sp] == 1 ? "true" : "falso"); ip++; }
+
+                    // Controle de execução
+                    case HALT -> ip = end;
+                    case DUP -> {
+                        slots[sp] = slots[sp - 1];
+                        tags[sp] = tags[sp - 1];
+                        refs[sp] = refs[sp - 1];
+                        sp++;
+                        ip++;
+                    }
+
+                    //  Superinstrucoes
+                    case LLOAD_LLOAD_IADD -> {
+                        int a = fp + program[ip + 1];
+                        int b = fp + program[ip + 2];
+                        checkNotNil(a);
+                        checkNotNil(b);
+                        pushInt((int) slots[a] + (int) slots[b]);
+                        ip += 3;
+                    }
+                    case LLOAD_ICONST_IF_IGE -> {
+                        int x = fp + program[ip + 1];
+                        checkNotNil(x);
+                        ip = (int) slots[x] < program[ip + 2] ? ip + 4 : program[ip + 3];
+                    }
+                    case IINC -> {
+                        int x = fp + program[ip + 1];
+                        checkNotNil(x);
+                        slots[x] = (int) slots[x] + program[ip + 2];
+                        ip += 3;
+                    }
+                    case ICONST_IADD_LSTORE -> {
+                        int x = fp + program[ip + 2];
+                        slots[x] = (int) slots[--sp] + program[ip + 1];
+                        tags[x] = INT;
+                        ip += 3;
+                    }
+                    case GLOAD_IPRINT -> {
+                        int addr = program[ip + 1];
+                        if (globalTags[addr] == NIL){
+                            runtimeError("erro de runtime: tentativa de acesso a valor NULO");
+                        }
+                        output.println((int) globalSlots[addr]);
+                        ip += 2;
+                    }
+
+                    //  Saltos condicionais com comparacao
+                    case IF_ILT -> { sp -= 2; ip = slots[sp] < slots[sp + 1] ? program[ip + 1] : ip + 2; }
+                    case IF_IGE -> { sp -= 2; ip = slots[sp] >= slots[sp + 1] ? program[ip + 1] : ip + 2; }
+                    case IF_ILEQ -> { sp -= 2; ip = slots[sp] <= slots[sp + 1] ? program[ip + 1] : ip + 2; }
+                    case IF_IGT -> { sp -= 2; ip = slots[sp] > slots[sp + 1] ? program[ip + 1] : ip + 2; }
+                    case IF_IEQ -> { sp -= 2; ip = slots[sp] == slots[sp + 1] ? program[ip + 1] : ip + 2; }
+                    case IF_INEQ -> { sp -= 2; ip = slots[sp] != slots[sp + 1] ? program[ip + 1] : ip + 2; }
+                    case IF_DLT -> { sp -= 2; ip = real(sp) < real(sp + 1) ? program[ip + 1] : ip + 2; }
+                    case IF_DGE -> { sp -= 2; ip = !(real(sp) < real(sp + 1)) ? program[ip + 1] : ip + 2; }
+                    case IF_DLEQ -> { sp -= 2; ip = real(sp) <= real(sp + 1) ? program[ip + 1] : ip + 2; }
+                    case IF_DGT -> { sp -= 2; ip = !(real(sp) <= real(sp + 1)) ? program[ip + 1] : ip + 2; }
+                    case IF_DEQ -> { sp -= 2; ip = Double.doubleToLongBits(real(sp)) == Double.doubleToLongBits(real(sp + 1)) ? program[ip + 1] : ip + 2; }
+                    case IF_DNEQ -> { sp -= 2; ip = Double.doubleToLongBits(real(sp)) != Double.doubleToLongBits(real(sp + 1)) ? program[ip + 1] : ip + 2; }
+
+                    default -> throw new RuntimeException("Instrução não implementada: " + program[ip]);
+                }
+            }
+        }finally {
+            dispatchCount += dispatches;
+        }
+    }
+
+    private void execIdiv(){
+        int b = (int) slots[--sp];
+        if (b == 0){
+            sp--;
+            runtimeError("Divisao por zero");
+        }
+        slots[sp - 1] = (int) slots[sp - 1] / b;
+    }
+
+    private void execImod(){
+        int b = (int) slots[--sp];
+        if (b == 0){
+            sp--;
+            runtimeError("Modulo por zero");
+        }
+        slots[sp - 1] = (int) slots[sp - 1] % b;
+    }
+
+    private void execDdiv(){
+        double b = real(--sp);
+        if (b == 0.0){
+            sp--;
+            runtimeError("Divisao por zero");
+        }
+        setReal(sp - 1, real(sp - 1) / b);
+    }
+
+    private void execGalloc(int size){
+        int newCount = globalCount + size;
+        if (newCount > globalSlots.length){
+            int capacity = Math.max(newCount, globalSlots.length * 2);
+            globalSlots = Arrays.copyOf(globalSlots, capacity);
+            globalTags = Arrays.copyOf(globalTags, capacity);
+            globalRefs = Arrays.copyOf(globalRefs, capacity);
+        }
+        // Inicia as variaveis globais como NULO
+        Arrays.fill(globalTags, globalCount, newCount, NIL);
+        globalCount = newCount;
+    }
+
+    private void execGload(int addr){
+        if (globalTags[addr] == NIL){
+            runtimeError("erro de runtime: tentativa de acesso a valor NULO");
+        }
+        slots[sp] = globalSlots[addr];
+        tags[sp] = globalTags[addr];
+        refs[sp] = globalRefs[addr];
+        sp++;
+    }
+
+    private void execGstore(int addr){
+        sp--;
+        globalSlots[addr] = slots[sp];
+        globalTags[addr] = tags[sp];
+        globalRefs[addr] = refs[sp];
+    }
+
+    private void execLalloc(int n){
+        // Aloca n posicoes no topo da pilha com valor NULO
+        Arrays.fill(tags, sp, sp + n, NIL);
+        sp += n;
+    }
+
+    private void execLload(int addr){
+        int actualAddr = fp + addr;
+        checkNotNil(actualAddr);
+        slots[sp] = slots[actualAddr];
+        tags[sp] = tags[actualAddr];
+        refs[sp] = refs[actualAddr];
+        sp++;
+    }
+
+    private void execLstore(int addr){
+        sp--;
+        int actualAddr = fp + addr;
+        slots[actualAddr] = slots[sp];
+        tags[actualAddr] = tags[sp];
+        refs[actualAddr] = refs[sp];
+    }
+
+    private void execCall(int target, int frameSize, int nArgs){
+        // Reservar de uma so vez o espaco de pilha de que a funcao precisa
+        ensureCapacity(frameSize);
+
+        // Guardar o endereco de retorno (instrucao seguinte) e o FP atual na pilha de frames
+        frames.push(ip + 4, fp, nArgs);
+
+        // As variaveis locais comecam no topo atual da pilha
+        fp = sp;
+
+        // Atualizar IP para o endereco da funcao
+        ip = target;
+    }
+
+    private void execTailcall(int target, int nArgs, int frameSize, int calleeArgs){
+        // Os argumentos da funcao chamada passam para o inicio do frame atual,
+        // substituindo os argumentos e as variaveis locais da funcao atual
+        int base = fp - nArgs;
+        int args = sp - calleeArgs;
+        System.arraycopy(slots, args, slots, base, calleeArgs);
+        System.arraycopy(tags, args, tags, base, calleeArgs);
+        System.arraycopy(refs, args, refs, base, calleeArgs);
+        truncate(base + calleeArgs);
+
+        // O frame atual passa a ser o da funcao chamada, com o mesmo endereco de retorno e FP guardado
+        int frame = frames.size - 1;
+        frames.argCount[frame] = calleeArgs;
+        fp = sp;
+
+        ensureCapacity(frameSize);
+        ip = target;
+    }
+
+    private void execJitCall(int target, int frameSize, int nArgs){
+        CompiledFunction function = compiledFunction(target);
+        if (function != null && jitRuntime.depth < JitRuntime.MAX_DEPTH){
+            ip += 4;
+            invokeCompiled(function, nArgs);
+        }else {
+            execCall(target, frameSize, nArgs);
+        }
+    }
+
+    private void execJitTailcall(int target, int nArgs, int frameSize, int calleeArgs){
+        CompiledFunction function = compiledFunction(target);
+        if (function != null && jitRuntime.depth < JitRuntime.MAX_DEPTH){
+            // A funcao atual retorna o que a funcao compilada devolver
+            invokeCompiled(function, calleeArgs);
+            if (verifier.returnsValue(instructionIndex[target])){
+                execRetval();
+            }else {
+                execRet();
+            }
+        }else {
+            execTailcall(target, nArgs, frameSize, calleeArgs);
+        }
+    }
+
+    private void execJitJumpBack(int target){
+        int entry = functionOf[ip];
+        if (entry >= 0 && jitRuntime.depth < JitRuntime.MAX_DEPTH){
+            CompiledFunction function = compiledFunction(entry);
+            if (function != null){
+                // O resto da chamada atual e executado pelo codigo compilado
+                function.enter(instructionIndex[target]);
+                if (verifier.returnsValue(instructionIndex[entry])){
+                    execRetval();
+                }else {
+                    execRet();
+                }
+                return;
+            }
+        }
+        ip = target;
+    }
+
+    /**
+     * Conta uma execucao de uma funcao, compilando-a quando atinge o limite do JIT.
+     *
+     * @param entry A posicao da entrada da funcao no codigo pre-decodificado
+     * @return O codigo compilado da funcao, ou null se a funcao continua a ser interpretada
+     */
+    private CompiledFunction compiledFunction(int entry){
+        if (++hotness[entry] == jitThreshold){
+            compiledCode[entry] = jit.compile(instructionIndex[entry]);
+        }
+        return compiledCode[entry];
+    }
+
+    /**
+     * Executa uma funcao compilada com os argumentos no topo da pilha, que sao
+     * substituidos pelo resultado (se existir).
+     */
+    private void invokeCompiled(CompiledFunction function, int nArgs){
+        int base = sp - nArgs;
+        argBase = base;
+        sp = base;
+        function.invoke();
+        if (sp < base + nArgs){
+            Arrays.fill(refs, sp, base + nArgs, null);
+        }
+    }
+
+    private void execRetval(){
+        // Obter o valor de retorno (no topo da pilha)
+        sp--;
+        long returnSlot = slots[sp];
+        byte returnTag = tags[sp];
+        Object returnRef = refs[sp];
+
+        execRet();
+
+        // Empilhar valor de retorno
+        slots[sp] = returnSlot;
+        tags[sp] = returnTag;
+        refs[sp] = returnRef;
+        sp++;
+    }
+
+    private void execRet(){
+        int frame = frames.pop();
+
+        // Remover as variaveis locais, a pilha de trabalho e os argumentos de uma so vez
+        truncate(fp - frames.argCount[frame]);
+
+        // Restaurar IP e FP
+        ip = frames.returnIp[frame];
+        fp = frames.savedFp[frame];
+    }
+
+    private void checkNotNil(int index){
+        if (tags[index] == NIL){
+            runtimeError("erro de runtime: tentativa de acesso a valor NULO");
+        }
+    }
+
+    // Operacoes sobre a pilha
+    // O espaco foi reservado na entrada da funcao, pelo que nenhuma operacao verifica a capacidade
+
+    private void pushInt(int value){
+        slots[sp] = value;
+        tags[sp] = INT;
+        sp++;
+    }
+
+    private void pushRealBits(long bits){
+        slots[sp] = bits;
+        tags[sp] = REAL;
+        sp++;
+    }
+
+    private void pushString(String value){
+        refs[sp] = value;
+        tags[sp] = STRING;
+        sp++;
+    }
+
+    /**
+     * Desempilha uma string, convertendo-a em String se for o resultado de concatenacoes.
+     */
+    private String popString(){
+        sp--;
+        String value = StringValue.flatten(refs[sp]);
+        refs[sp] = null;
+        return value;
+    }
+
+    private void setBool(int index, boolean value){
+        slots[index] = value ? 1 : 0;
+        tags[index] = INT;
+    }
+
+    private void setReal(int index, double value){
+        slots[index] = Double.doubleToRawLongBits(value);
+    }
+
+    private double real(int index){
+        return Double.longBitsToDouble(slots[index]);
+    }
+
+    /**
+     * Reduz a pilha ate ao tamanho indicado em O(1), libertando as strings removidas.
+     *
+     * @param newSp O novo valor do stack pointer
+     */
+    private void truncate(int newSp){
+        Arrays.fill(refs, newSp, sp, null);
+        sp = newSp;
+    }
+
+    /**
+     * Garante que a pilha tem espaco para mais n valores, duplicando os arrays se necessario.
+     *
+     * @param n O numero de posicoes necessarias
+     */
+    private void ensureCapacity(int n){
+        if (sp + n > slots.length){
+            int capacity = Math.max(sp + n, slots.length * 2);
+            slots = Arrays.copyOf(slots, capacity);
+            tags = Arrays.copyOf(tags, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+        }
+    }
+
+    /**
+     * Gera uma representacao textual da pilha, no mesmo formato da SVirtualMachine.
+     *
+     * @return Os valores da pilha entre parenteses retos
+     */
+    private String stackToString(){
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < sp; i++){
+            if (i > 0){
+                sb.append(", ");
+            }
+            switch (tags[i]){
+                case INT -> sb.append((int) slots[i]);
+                case REAL -> sb.append(Double.longBitsToDouble(slots[i]));
+                case STRING -> sb.append(refs[i]);
+                default -> sb.append("null");
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Acesso do codigo compilado a pilha, aos frames e a memoria global desta maquina.
+     */
+    private final class JitBridge extends JitRuntime {
+        @Override
+        public int argInt(int i){
+            return (int) slots[argBase + i];
+        }
+
+        @Override
+        public double argReal(int i){
+            return real(argBase + i);
+        }
+
+        @Override
+        public String argString(int i){
+            return StringValue.flatten(refs[argBase + i]);
+        }
+
+        @Override
+        public int localInt(int position){
+            return (int) slots[fp + position];
+        }
+
+        @Override
+        public double localReal(int position){
+            return real(fp + position);
+        }
+
+        @Override
+        public String localString(int position){
+            return StringValue.flatten(refs[fp + position]);
+        }
+
+        @Override
+        public boolean isLocalSet(int position){
+            return tags[fp + position] != NIL;
+        }
+
+        @Override
+        public void pushInt(int value){
+            ensureCapacity(1);
+            PVirtualMachine.this.pushInt(value);
+        }
+
+        @Override
+        public void pushReal(double value){
+            ensureCapacity(1);
+            pushRealBits(Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        public void pushString(String value){
+            ensureCapacity(1);
+            PVirtualMachine.this.pushString(value);
+        }
+
+        @Override
+        public int popInt(){
+            return (int) slots[--sp];
+        }
+
+        @Override
+        public double popReal(){
+            return real(--sp);
+        }
+
+        @Override
+        public String popString(){
+            return PVirtualMachine.this.popString();
+        }
+
+        @Override
+        public void call(int entry){
+            // O frame retorna para o fim do codigo, o que termina o ciclo do interpretador
+            int savedIp = ip;
+            ensureCapacity(verifier.getMaxStack(entry));
+            frames.push(program.length, fp, verifier.getArgCount(entry));
+            fp = sp;
+            ip = offsets[entry];
+            interpret();
+            ip = savedIp;
+        }
+
+        @Override
+        public int globalInt(int address){
+            checkGlobal(address);
+            return (int) globalSlots[address];
+        }
+
+        @Override
+        public double globalReal(int address){
+            checkGlobal(address);
+            return Double.longBitsToDouble(globalSlots[address]);
+        }
+
+        @Override
+        public String globalString(int address){
+            checkGlobal(address);
+            return StringValue.flatten(globalRefs[address]);
+        }
+
+        @Override
+        public void storeGlobalInt(int address, int value){
+            globalSlots[address] = value;
+            globalTags[address] = INT;
+            globalRefs[address] = null;
+        }
+
+        @Override
+        public void storeGlobalReal(int address, double value){
+            globalSlots[address] = Double.doubleToRawLongBits(value);
+            globalTags[address] = REAL;
+            globalRefs[address] = null;
+        }
+
+        @Override
+        public void storeGlobalString(int address, String value){
+            globalRefs[address] = value;
+            globalTags[address] = STRING;
+        }
+
+        private void checkGlobal(int address){
+            if (globalTags[address] == NIL){
+                runtimeError("erro de runtime: tentativa de acesso a valor NULO");
+            }
+        }
+    }
+
+    // Códigos utilitarios
+    private void runtimeError(String message){
+        // Tambem ao carregar o programa, fora de run
+        output.println(message);
+        output.flush();
+        if (trace){
+            System.err.println("Estado da pilha: " + stackToString());
+        }
+
+        throw new RuntimeException("__VM_ERROR__");
+    }
+}
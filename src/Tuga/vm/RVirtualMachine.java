@@ -0,0 +1,480 @@
+package Tuga.vm;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maquina virtual Tuga baseada em registos.
+ * Executa o codigo de tres enderecos gerado pelo RegisterCodeGenerator: cada instrucao le os
+ * operandos e escreve o resultado diretamente em registos do frame atual, pelo que uma
+ * atribuicao como a <- b + c e uma unica instrucao (iadd a b c) em vez das quatro
+ * (lload, lload, iadd, lstore) da maquina de pilha.
+ *
+ * Os registos de todos os frames ficam num array de slots long (inteiros, booleanos e bits
+ * de reais) com um array paralelo de referencias para as strings, tal como na PVirtualMachine.
+ * O frame de cada chamada comeca num registo do frame de quem chama, indicado pelo call, e os
+ * argumentos sao copiados para os primeiros registos do novo frame. Antes da execucao, os
+ * opcodes sao convertidos em codigos de handler, e os registos ja sao relativos ao FP.
+ *
+ * O gerador so produz codigo com os tipos corretos, pelo que os handlers nao verificam tipos.
+ * O array de etiquetas so e usado para as variaveis que podem ser lidas antes de terem um
+ * valor: o gerador marca-as com nil na entrada da funcao, com def depois de cada atribuicao e
+ * verifica-as com chknil antes de cada leitura que pode encontrar um valor NULO. As divisoes
+ * por zero continuam a ser detetadas.
+ */
+public class RVirtualMachine {
+    /** Etiqueta de um registo sem valor (NULO) */
+    private static final byte NIL = 0;
+    /** Etiqueta de um registo com um valor */
+    private static final byte SET = 1;
+
+    //  Codigos dos handlers no codigo pre-decodificado (independentes do ordinal do RegisterOpCode)
+    private static final int MOVE = 0, ICONST = 1, DCONST = 2, SCONST = 3, TCONST = 4, FCONST = 5;
+    private static final int IADD = 6, IADDK = 7, ISUB = 8, IMULT = 9, IDIV = 10, IMOD = 11, IUMINUS = 12,
+            IEQ = 13, INEQ = 14, ILT = 15, ILEQ = 16, ITOD = 17, ITOS = 18, IPRINT = 19;
+    private static final int DADD = 20, DSUB = 21, DMULT = 22, DDIV = 23, DUMINUS = 24, DEQ = 25, DNEQ = 26,
+            DLT = 27, DLEQ = 28, DTOS = 29, DPRINT = 30;
+    private static final int SCONCAT = 31, SEQ = 32, SNEQ = 33, SPRINT = 34;
+    private static final int BEQ = 35, BNEQ = 36, AND = 37, OR = 38, NOT = 39, BTOS = 40, BPRINT = 41;
+    private static final int GLOAD = 42, GSTORE = 43, NILR = 44, DEF = 45, CHKNIL = 46;
+    private static final int JUMP = 47, JUMPF = 48, JUMPT = 49;
+    private static final int IF_ILT = 50, IF_IGE = 51, IF_ILEQ = 52, IF_IGT = 53, IF_IEQ = 54, IF_INEQ = 55;
+    private static final int IF_ILTK = 56, IF_IGEK = 57, IF_ILEQK = 58, IF_IGTK = 59, IF_IEQK = 60, IF_INEQK = 61;
+    private static final int IF_DLT = 62, IF_DGE = 63, IF_DLEQ = 64, IF_DGT = 65, IF_DEQ = 66, IF_DNEQ = 67;
+    private static final int CALL = 68, TAILCALL = 69, RETVAL = 70, RET = 71, HALT = 72;
+
+    /** Numero de posicoes de um call antes dos registos dos argumentos */
+    private static final int CALL_WIDTH = 1 + RegisterOpCode.call.nArgs();
+    /** Numero de posicoes de um tailcall antes dos registos dos argumentos */
+    private static final int TAILCALL_WIDTH = 1 + RegisterOpCode.tailcall.nArgs();
+    /** Tamanho inicial do array de registos */
+    private static final int INITIAL_REGISTERS_SIZE = 1 << 16;
+
+    /** Codigo pre-decodificado: codigo do handler seguido dos seus argumentos */
+    private int[] program;
+    /** Valores reais da constant pool, ja convertidos para bits */
+    private long[] realConstants;
+    /** Strings da constant pool */
+    private String[] stringConstants;
+    /** Instruction pointer - posicao da instrucao atual no codigo */
+    private int ip = 0;
+    /** Numero de instrucoes executadas pela ultima execucao */
+    private long dispatchCount = 0;
+
+    // ---- Registos ----
+    /** Valores primitivos dos registos (inteiros, booleanos e bits de reais) */
+    private long[] regs = new long[INITIAL_REGISTERS_SIZE];
+    /** Referencias para as strings guardadas nos registos */
+    private Object[] refs = new Object[INITIAL_REGISTERS_SIZE];
+    /** Etiquetas das variaveis que podem ser NULO */
+    private byte[] tags = new byte[INITIAL_REGISTERS_SIZE];
+    /** Frame pointer - posicao do primeiro registo do frame atual */
+    private int fp = 0;
+
+    // ---- Frames de chamada ----
+    /** Posicao do call e FP guardado de cada chamada ativa */
+    private final FrameStack frames = new FrameStack();
+
+    // ---- Memoria global ----
+    /** Valores primitivos das variaveis globais */
+    private long[] globalSlots;
+    /** Referencias para as strings guardadas nas variaveis globais */
+    private Object[] globalRefs;
+    /** Etiqueta de cada variavel global (NULO ate ser atribuida) */
+    private byte[] globalTags;
+
+    /** Output do escreve e das mensagens de erro de execucao */
+    private VmOutput output = VmOutput.standard();
+
+    /**
+     * Carrega um programa para ser executado.
+     * As constantes sao resolvidas e os opcodes convertidos em codigos de handler.
+     *
+     * @param registerProgram O programa
+     */
+    public void load(RegisterProgram registerProgram){
+        List<Object> constants = registerProgram.getConstantPool().getAllConstants();
+        realConstants = new long[constants.size()];
+        stringConstants = new String[constants.size()];
+        for (int i = 0; i < constants.size(); i++){
+            Object constant = constants.get(i);
+            if (constant instanceof Double value){
+                realConstants[i] = Double.doubleToRawLongBits(value);
+            } else if (constant instanceof String value) {
+                stringConstants[i] = value;
+            }
+        }
+
+        int[] code = registerProgram.getCode();
+        // Uma posicao extra no fim: o ciclo principal le sempre o primeiro argumento, mesmo do ret final
+        program = Arrays.copyOf(code, code.length + 1);
+        for (int pc = 0; pc < code.length; pc += RegisterOpCode.width(code, pc)){
+            program[pc] = handlerOf(RegisterOpCode.values()[code[pc]]);
+        }
+
+        int globals = registerProgram.getGlobalCount();
+        globalSlots = new long[globals];
+        globalRefs = new Object[globals];
+        globalTags = new byte[globals];
+        ip = 0;
+        fp = 0;
+    }
+
+    /**
+     * Obtem o numero de instrucoes executadas pela ultima execucao.
+     *
+     * @return O numero de instrucoes despachadas
+     */
+    public long getDispatchCount(){
+        return dispatchCount;
+    }
+
+    /**
+     * Obtem o codigo de handler associado a um codigo de operacao.
+     *
+     * @param opCode O codigo de operacao
+     * @return O codigo do handler no formato pre-decodificado
+     */
+    private static int handlerOf(RegisterOpCode opCode){
+        return switch (opCode){
+            case move -> MOVE;
+            case iconst -> ICONST;
+            case dconst -> DCONST;
+            case sconst -> SCONST;
+            case tconst -> TCONST;
+            case fconst -> FCONST;
+            case iadd -> IADD;
+            case iaddk -> IADDK;
+            case isub -> ISUB;
+            case imult -> IMULT;
+            case idiv -> IDIV;
+            case imod -> IMOD;
+            case iuminus -> IUMINUS;
+            case ieq -> IEQ;
+            case ineq -> INEQ;
+            case ilt -> ILT;
+            case ileq -> ILEQ;
+            case itod -> ITOD;
+            case itos -> ITOS;
+            case iprint -> IPRINT;
+            case dadd -> DADD;
+            case dsub -> DSUB;
+            case dmult -> DMULT;
+            case ddiv -> DDIV;
+            case duminus -> DUMINUS;
+            case deq -> DEQ;
+            case dneq -> DNEQ;
+            case dlt -> DLT;
+            case dleq -> DLEQ;
+            case dtos -> DTOS;
+            case dprint -> DPRINT;
+            case sconcat -> SCONCAT;
+            case seq -> SEQ;
+            case sneq -> SNEQ;
+            case sprint -> SPRINT;
+            case beq -> BEQ;
+            case bneq -> BNEQ;
+            case and -> AND;
+            case or -> OR;
+            case not -> NOT;
+            case btos -> BTOS;
+            case bprint -> BPRINT;
+            case gload -> GLOAD;
+            case gstore -> GSTORE;
+            case nil -> NILR;
+            case def -> DEF;
+            case chknil -> CHKNIL;
+            case jump -> JUMP;
+            case jumpf -> JUMPF;
+            case jumpt -> JUMPT;
+            case if_ilt -> IF_ILT;
+            case if_ige -> IF_IGE;
+            case if_ileq -> IF_ILEQ;
+            case if_igt -> IF_IGT;
+            case if_ieq -> IF_IEQ;
+            case if_ineq -> IF_INEQ;
+            case if_iltk -> IF_ILTK;
+            case if_igek -> IF_IGEK;
+            case if_ileqk -> IF_ILEQK;
+            case if_igtk -> IF_IGTK;
+            case if_ieqk -> IF_IEQK;
+            case if_ineqk -> IF_INEQK;
+            case if_dlt -> IF_DLT;
+            case if_dge -> IF_DGE;
+            case if_dleq -> IF_DLEQ;
+            case if_dgt -> IF_DGT;
+            case if_deq -> IF_DEQ;
+            case if_dneq -> IF_DNEQ;
+            case call -> CALL;
+            case tailcall -> TAILCALL;
+            case retval -> RETVAL;
+            case ret -> RET;
+            case halt -> HALT;
+        };
+    }
+
+    /**
+     * Define o output do escreve e das mensagens de erro de execucao. Por omissao e
+     * o System.out, com buffer; o output e esvaziado no fim de cada execucao.
+     *
+     * @param output O output
+     */
+    public void setOutput(VmOutput output){
+        this.output = output;
+    }
+
+    /**
+     * Executa o programa carregado ate ao halt ou ao fim do codigo.
+     */
+    public void run(){
+        final int[] program = this.program;
+        final int end = program.length - 1;
+        long dispatches = 0;
+
+        try {
+            while (ip < end){
+                dispatches++;
+                // Os registos de destino e dos operandos, ja somados ao FP, para as instrucoes d a b
+                final int d = fp + program[ip + 1];
+
+                switch (program[ip]){
+                    //  Movimento e constantes
+                    case MOVE -> { int a = fp + program[ip + 2]; regs[d] = regs[a]; refs[d] = refs[a]; ip += 3; }
+                    case ICONST -> { regs[d] = program[ip + 2]; ip += 3; }
+                    case DCONST -> { regs[d] = realConstants[program[ip + 2]]; ip += 3; }
+                    case SCONST -> { refs[d] = stringConstants[program[ip + 2]]; ip += 3; }
+                    case TCONST -> { regs[d] = 1; ip += 2; }
+                    case FCONST -> { regs[d] = 0; ip += 2; }
+
+                    //  Instrucoes para inteiros
+                    case IADD -> { regs[d] = (int) regs[fp + program[ip + 2]] + (int) regs[fp + program[ip + 3]]; ip += 4; }
+                    case IADDK -> { regs[d] = (int) regs[fp + program[ip + 2]] + program[ip + 3]; ip += 4; }
+                    case ISUB -> { regs[d] = (int) regs[fp + program[ip + 2]] - (int) regs[fp + program[ip + 3]]; ip += 4; }
+                    case IMULT -> { regs[d] = (int) regs[fp + program[ip + 2]] * (int) regs[fp + program[ip + 3]]; ip += 4; }
+                    case IDIV -> { regs[d] = (int) regs[fp + program[ip + 2]] / divisor("Divisao por zero"); ip += 4; }
+                    case IMOD -> { regs[d] = (int) regs[fp + program[ip + 2]] % divisor("Modulo por zero"); ip += 4; }
+                    case IUMINUS -> { regs[d] = -(int) regs[fp + program[ip + 2]]; ip += 3; }
+                    case IEQ, BEQ -> { regs[d] = regs[fp + program[ip + 2]] == regs[fp + program[ip + 3]] ? 1 : 0; ip += 4; }
+                    case INEQ, BNEQ -> { regs[d] = regs[fp + program[ip + 2]] != regs[fp + program[ip + 3]] ? 1 : 0; ip += 4; }
+                    case ILT -> { regs[d] = regs[fp + program[ip + 2]] < regs[fp + program[ip + 3]] ? 1 : 0; ip += 4; }
+                    case ILEQ -> { regs[d] = regs[fp + program[ip + 2]] <= regs[fp + program[ip + 3]] ? 1 : 0; ip += 4; }
+                    case ITOD -> { setReal(d, (int) regs[fp + program[ip + 2]]); ip += 3; }
+                    case ITOS -> { refs[d] = Integer.toString((int) regs[fp + program[ip + 2]]); ip += 3; }
+                    case IPRINT -> { output.println((int) regs[d]); ip += 2; }
+
+                    // Instruções para reais
+                    case DADD -> { setReal(d, real(fp + program[ip + 2]) + real(fp + program[ip + 3])); ip += 4; }
+                    case DSUB -> { setReal(d, real(fp + program[ip + 2]) - real(fp + program[ip + 3])); ip += 4; }
+                    case DMULT -> { setReal(d, real(fp + program[ip + 2]) * real(fp + program[ip + 3])); ip += 4; }
+                    case DDIV -> { execDdiv(d); ip += 4; }
+                    case DUMINUS -> { setReal(d, -real(fp + program[ip + 2])); ip += 3; }
+                    // deq e dneq seguem a semantica de Double.equals, tal como nas outras maquinas
+                    case DEQ -> { regs[d] = Double.doubleToLongBits(real(fp + program[ip + 2])) == Double.doubleToLongBits(real(fp + program[ip + 3])) ? 1 : 0; ip += 4; }
+                    case DNEQ -> { regs[d] = Double.doubleToLongBits(real(fp + program[ip + 2])) != Double.doubleToLongBits(real(fp + program[ip + 3])) ? 1 : 0; ip += 4; }
+                    case DLT -> { regs[d] = real(fp + program[ip + 2]) < real(fp + program[ip + 3]) ? 1 : 0; ip += 4; }
+                    case DLEQ -> { regs[d] = real(fp + program[ip + 2]) <= real(fp + program[ip + 3]) ? 1 : 0; ip += 4; }
+                    case DTOS -> { refs[d] = Double.toString(real(fp + program[ip + 2])); ip += 3; }
+                    case DPRINT -> { output.println(real(d)); ip += 2; }
+
+                    // Instruções para strings
+                    case SCONCAT -> { refs[d] = StringValue.concat(refs[fp + program[ip + 2]], refs[fp + program[ip + 3]]); ip += 4; }
+                    case SEQ -> { regs[d] = string(fp + program[ip + 2]).equals(string(fp + program[ip + 3])) ? 1 : 0; ip += 4; }
+                    case SNEQ -> { regs[d] = !string(fp + program[ip + 2]).equals(string(fp + program[ip + 3])) ? 1 : 0; ip += 4; }
+                    case SPRINT -> { output.println(string(d)); ip += 2; }
+
+                    // Instruções para booleanos
+                    case AND -> { regs[d] = regs[fp + program[ip + 2]] & regs[fp + program[ip + 3]]; ip += 4; }
+                    case OR -> { regs[d] = regs[fp + program[ip + 2]] | regs[fp + program[ip + 3]]; ip += 4; }
+                    case NOT -> { regs[d] = regs[fp + program[ip + 2]] ^ 1; ip += 3; }
+                    case BTOS -> { refs[d] = regs[fp + program[ip + 2]] == 1 ? "true" : "falso"; ip += 3; }
+                    case BPRINT -> { output.println(regs[d] == 1 ? "verdadeiro" : "falso"); ip += 2; }
+
+                    //  Variaveis globais e valores NULO
+                    case GLOAD -> { execGload(d, program[ip + 2]); ip += 3; }
+                    case GSTORE -> { execGstore(program[ip + 1], fp + program[ip + 2]); ip += 3; }
+                    case NILR -> { tags[d] = NIL; ip += 2; }
+                    case DEF -> { tags[d] = SET; ip += 2; }
+                    case CHKNIL -> { checkNotNil(d); ip += 2; }
+
+                    //  Saltos
+                    case JUMP -> ip = program[ip + 1];
+                    case JUMPF -> ip = regs[d] == 0 ? program[ip + 2] : ip + 3;
+                    case JUMPT -> ip = regs[d] != 0 ? program[ip + 2] : ip + 3;
+                    case IF_ILT -> ip = regs[d] < regs[fp + program[ip + 2]] ? program[ip + 3] : ip + 4;
+                    case IF_IGE -> ip = regs[d] >= regs[fp + program[ip + 2]] ? program[ip + 3] : ip + 4;
+                    case IF_ILEQ -> ip = regs[d] <= regs[fp + program[ip + 2]] ? program[ip + 3] : ip + 4;
+                    case IF_IGT -> ip = regs[d] > regs[fp + program[ip + 2]] ? program[ip + 3] : ip + 4;
+                    case IF_IEQ -> ip = regs[d] == regs[fp + program[ip + 2]] ? program[ip + 3] : ip + 4;
+                    case IF_INEQ -> ip = regs[d] != regs[fp + program[ip + 2]] ? program[ip + 3] : ip + 4;
+                    case IF_ILTK -> ip = regs[d] < program[ip + 2] ? program[ip + 3] : ip + 4;
+                    case IF_IGEK -> ip = regs[d] >= program[ip + 2] ? program[ip + 3] : ip + 4;
+                    case IF_ILEQK -> ip = regs[d] <= program[ip + 2] ? program[ip + 3] : ip + 4;
+                    case IF_IGTK -> ip = regs[d] > program[ip + 2] ? program[ip + 3] : ip + 4;
+                    case IF_IEQK -> ip = regs[d] == program[ip + 2] ? program[ip + 3] : ip + 4;
+                    case IF_INEQK -> ip = regs[d] != program[ip + 2] ? program[ip + 3] : ip + 4;
+                    case IF_DLT -> ip = real(d) < real(fp + program[ip + 2]) ? program[ip + 3] : ip + 4;
+                    case IF_DGE -> ip = !(real(d) < real(fp + program[ip + 2])) ? program[ip + 3] : ip + 4;
+                    case IF_DLEQ -> ip = real(d) <= real(fp + program[ip + 2]) ? program[ip + 3] : ip + 4;
+                    case IF_DGT -> ip = !(real(d) <= real(fp + program[ip + 2])) ? program[ip + 3] : ip + 4;
+                    case IF_DEQ -> ip = Double.doubleToLongBits(real(d)) == Double.doubleToLongBits(real(fp + program[ip + 2])) ? program[ip + 3] : ip + 4;
+                    case IF_DNEQ -> ip = Double.doubleToLongBits(real(d)) != Double.doubleToLongBits(real(fp + program[ip + 2])) ? program[ip + 3] : ip + 4;
+
+                    //  Chamadas
+                    case CALL -> execCall();
+                    case TAILCALL -> execTailcall();
+                    case RETVAL -> execRetval(d);
+                    case RET -> execRet();
+                    case HALT -> ip = end;
+
+                    default -> throw new RuntimeException("Instrução não implementada: " + program[ip]);
+                }
+            }
+        }finally {
+            dispatchCount = dispatches;
+            output.flush();
+        }
+    }
+
+    /**
+     * Obtem o segundo operando inteiro (argumento 3) da instrucao atual, com erro se for zero.
+     */
+    private int divisor(String message){
+        int value = (int) regs[fp + program[ip + 3]];
+        if (value == 0){
+            runtimeError(message);
+        }
+        return value;
+    }
+
+    private void execDdiv(int d){
+        double divisor = real(fp + program[ip + 3]);
+        if (divisor == 0.0){
+            runtimeError("Divisao por zero");
+        }
+        setReal(d, real(fp + program[ip + 2]) / divisor);
+    }
+
+    private void execGload(int d, int addr){
+        if (globalTags[addr] == NIL){
+            runtimeError("erro de runtime: tentativa de acesso a valor NULO");
+        }
+        regs[d] = globalSlots[addr];
+        refs[d] = globalRefs[addr];
+    }
+
+    private void execGstore(int addr, int a){
+        globalSlots[addr] = regs[a];
+        globalRefs[addr] = refs[a];
+        globalTags[addr] = SET;
+    }
+
+    private void execCall(){
+        final int[] program = this.program;
+        int newFp = fp + program[ip + 4];
+        ensureCapacity(newFp + program[ip + 3]);
+
+        // Copiar os argumentos para os primeiros registos do novo frame
+        int n = program[ip + 5];
+        for (int i = 0; i < n; i++){
+            int arg = fp + program[ip + CALL_WIDTH + i];
+            regs[newFp + i] = regs[arg];
+            refs[newFp + i] = refs[arg];
+        }
+
+        // O retorno volta ao call, de onde obtem o registo de destino e a instrucao seguinte
+        frames.push(ip, fp, n);
+        fp = newFp;
+        ip = program[ip + 2];
+    }
+
+    private void execTailcall(){
+        final int[] program = this.program;
+        int size = program[ip + 2];
+        int base = fp + program[ip + 3];
+        int n = program[ip + 4];
+
+        // Os argumentos passam primeiro para depois dos registos da funcao atual, para nenhum
+        // ser escrito por cima antes de ser lido, e so depois para o inicio do frame
+        for (int i = 0; i < n; i++){
+            int arg = fp + program[ip + TAILCALL_WIDTH + i];
+            regs[base + i] = regs[arg];
+            refs[base + i] = refs[arg];
+        }
+        System.arraycopy(regs, base, regs, fp, n);
+        System.arraycopy(refs, base, refs, fp, n);
+
+        ensureCapacity(fp + size);
+        ip = program[ip + 1];
+    }
+
+    private void execRetval(int a){
+        long value = regs[a];
+        Object ref = refs[a];
+
+        int callPos = execRet();
+
+        // Guardar o valor no registo de destino do call (se nao for descartado)
+        int dest = program[callPos + 1];
+        if (dest >= 0){
+            regs[fp + dest] = value;
+            refs[fp + dest] = ref;
+        }
+    }
+
+    /**
+     * Restaura o frame de quem chamou e continua na instrucao a seguir ao call.
+     *
+     * @return A posicao do call
+     */
+    private int execRet(){
+        int frame = frames.pop();
+        int callPos = frames.returnIp[frame];
+        fp = frames.savedFp[frame];
+        ip = callPos + CALL_WIDTH + program[callPos + 5];
+        return callPos;
+    }
+
+    private void checkNotNil(int index){
+        if (tags[index] == NIL){
+            runtimeError("erro de runtime: tentativa de acesso a valor NULO");
+        }
+    }
+
+    /**
+     * Obtem a string de um registo, convertendo-a em String se for o resultado de concatenacoes.
+     */
+    private String string(int index){
+        String value = StringValue.flatten(refs[index]);
+        refs[index] = value;
+        return value;
+    }
+
+    private void setReal(int index, double value){
+        regs[index] = Double.doubleToRawLongBits(value);
+    }
+
+    private double real(int index){
+        return Double.longBitsToDouble(regs[index]);
+    }
+
+    /**
+     * Garante que existem pelo menos size registos, duplicando os arrays se necessario.
+     *
+     * @param size O numero de registos necessarios
+     */
+    private void ensureCapacity(int size){
+        if (size > regs.length){
+            int capacity = Math.max(size, regs.length * 2);
+            regs = Arrays.copyOf(regs, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+            tags = Arrays.copyOf(tags, capacity);
+        }
+    }
+
+    // Códigos utilitarios
+    private void runtimeError(String message){
+        output.println(message);
+        output.flush();
+        throw new RuntimeException("__VM_ERROR__");
+    }
+}
@@ -0,0 +1,150 @@
+package Tuga.vm;
+
+/**
+ * Instrucoes da maquina virtual de registos (RVirtualMachine).
+ * Cada instrucao opera diretamente sobre registos do frame atual (d: destino, a e b: operandos),
+ * sem pilha de operandos. Os restantes argumentos sao um inteiro imediato (k), um indice da
+ * constant pool (c), um endereco de variavel global (g) ou o endereco de uma instrucao (t).
+ * No codigo, cada instrucao ocupa uma posicao com o ordinal do opcode seguida dos argumentos.
+ */
+public enum RegisterOpCode {
+    //  Movimento e constantes
+    move(2),        // move d a: d <- a
+    iconst(2),      // iconst d k: d <- k (inteiro)
+    dconst(2),      // dconst d c: d <- real da posicao c da constant pool
+    sconst(2),      // sconst d c: d <- string da posicao c da constant pool
+    tconst(1),      // tconst d: d <- true
+    fconst(1),      // fconst d: d <- false
+
+    //  Inteiros
+    iadd(3),        // iadd d a b: d <- a + b
+    iaddk(3),       // iaddk d a k: d <- a + k
+    isub(3),        // isub d a b: d <- a - b
+    imult(3),       // imult d a b: d <- a * b
+    idiv(3),        // idiv d a b: d <- a / b (erro se b for 0)
+    imod(3),        // imod d a b: d <- a % b (erro se b for 0)
+    iuminus(2),     // iuminus d a: d <- -a
+    ieq(3),         // ieq d a b: d <- a == b
+    ineq(3),        // ineq d a b: d <- a /= b
+    ilt(3),         // ilt d a b: d <- a < b
+    ileq(3),        // ileq d a b: d <- a <= b
+    itod(2),        // itod d a: d <- a convertido para real
+    itos(2),        // itos d a: d <- a convertido para string
+    iprint(1),      // iprint a: escreve o inteiro a seguido de mudanca de linha
+
+    //  Reais
+    dadd(3),        // dadd d a b: d <- a + b
+    dsub(3),        // dsub d a b: d <- a - b
+    dmult(3),       // dmult d a b: d <- a * b
+    ddiv(3),        // ddiv d a b: d <- a / b (erro se b for 0)
+    duminus(2),     // duminus d a: d <- -a
+    deq(3),         // deq d a b: d <- a == b (semantica de Double.equals)
+    dneq(3),        // dneq d a b: d <- a /= b (semantica de Double.equals)
+    dlt(3),         // dlt d a b: d <- a < b
+    dleq(3),        // dleq d a b: d <- a <= b
+    dtos(2),        // dtos d a: d <- a convertido para string
+    dprint(1),      // dprint a: escreve o real a seguido de mudanca de linha
+
+    //  Strings
+    sconcat(3),     // sconcat d a b: d <- a concatenado com b
+    seq(3),         // seq d a b: d <- a == b
+    sneq(3),        // sneq d a b: d <- a /= b
+    sprint(1),      // sprint a: escreve a string a seguida de mudanca de linha
+
+    //  Booleanos
+    beq(3),         // beq d a b: d <- a == b
+    bneq(3),        // bneq d a b: d <- a /= b
+    and(3),         // and d a b: d <- a and b
+    or(3),          // or d a b: d <- a or b
+    not(2),         // not d a: d <- not a
+    btos(2),        // btos d a: d <- a convertido para string
+    bprint(1),      // bprint a: escreve verdadeiro ou falso seguido de mudanca de linha
+
+    //  Variaveis globais
+    gload(2),       // gload d g: d <- Globals[g] (erro se for NULO)
+    gstore(2),      // gstore g a: Globals[g] <- a
+
+    //  Variaveis locais que podem ser lidas sem valor
+    nil(1),         // nil d: d passa a ser NULO
+    def(1),         // def d: d passa a ter um valor
+    chknil(1),      // chknil a: erro se a for NULO
+
+    //  Saltos
+    jump(1, 0),     // jump t: salta para t
+    jumpf(2, 1),    // jumpf a t: salta para t se a for false
+    jumpt(2, 1),    // jumpt a t: salta para t se a for true
+    if_ilt(3, 2),   // if_ilt a b t: salta para t se a < b (inteiros)
+    if_ige(3, 2),   // if_ige a b t: salta para t se a >= b (inteiros)
+    if_ileq(3, 2),  // if_ileq a b t: salta para t se a <= b (inteiros)
+    if_igt(3, 2),   // if_igt a b t: salta para t se a > b (inteiros)
+    if_ieq(3, 2),   // if_ieq a b t: salta para t se a == b (inteiros)
+    if_ineq(3, 2),  // if_ineq a b t: salta para t se a /= b (inteiros)
+    if_iltk(3, 2),  // if_iltk a k t: salta para t se a < k
+    if_igek(3, 2),  // if_igek a k t: salta para t se a >= k
+    if_ileqk(3, 2), // if_ileqk a k t: salta para t se a <= k
+    if_igtk(3, 2),  // if_igtk a k t: salta para t se a > k
+    if_ieqk(3, 2),  // if_ieqk a k t: salta para t se a == k
+    if_ineqk(3, 2), // if_ineqk a k t: salta para t se a /= k
+    if_dlt(3, 2),   // if_dlt a b t: salta para t se a < b (reais)
+    if_dge(3, 2),   // if_dge a b t: salta para t se a < b for falso (reais; negacao exata de dlt)
+    if_dleq(3, 2),  // if_dleq a b t: salta para t se a <= b (reais)
+    if_dgt(3, 2),   // if_dgt a b t: salta para t se a <= b for falso (reais; negacao exata de dleq)
+    if_deq(3, 2),   // if_deq a b t: salta para t se a == b (reais, com a semantica de deq)
+    if_dneq(3, 2),  // if_dneq a b t: salta para t se a /= b (reais, com a semantica de dneq)
+
+    //  Chamadas
+    call(5, 1),     // call d t size base n a1..an: chama a funcao t, cujo frame tem size registos e comeca no registo base do frame atual; os n argumentos sao copiados para os seus primeiros registos e o valor de retorno vai para d (-1 descarta)
+    tailcall(4, 0), // tailcall t size base n a1..an: substitui o frame atual pelo da funcao t, passando-lhe os n argumentos (copiados primeiro a partir do registo base)
+    retval(1),      // retval a: retorna o valor de a para o registo de destino da chamada
+    ret(0),         // ret: retorna de uma funcao sem valor
+    halt(0);        // halt: termina a execucao
+
+    /** Numero de argumentos fixos da instrucao (call e tailcall tem ainda os n registos dos argumentos) */
+    private final int nArgs;
+    /** Indice do argumento com o endereco de destino, ou -1 se a instrucao nao salta */
+    private final int targetArg;
+
+    RegisterOpCode(int nArgs){
+        this(nArgs, -1);
+    }
+
+    RegisterOpCode(int nArgs, int targetArg){
+        this.nArgs = nArgs;
+        this.targetArg = targetArg;
+    }
+
+    /**
+     * Obtem o numero de argumentos fixos da instrucao.
+     *
+     * @return O numero de argumentos
+     */
+    public int nArgs(){
+        return nArgs;
+    }
+
+    /**
+     * Obtem o indice do argumento que contem um endereco de instrucao (destino de
+     * um salto ou da funcao chamada).
+     *
+     * @return O indice do argumento, ou -1 se a instrucao nao tem nenhum endereco
+     */
+    public int targetArg(){
+        return targetArg;
+    }
+
+    /**
+     * Obtem o numero de posicoes do codigo ocupadas pela instrucao que comeca em pc.
+     *
+     * @param code O codigo
+     * @param pc A posicao da instrucao
+     * @return O numero de posicoes, incluindo a do opcode
+     */
+    public static int width(int[] code, int pc){
+        RegisterOpCode op = values()[code[pc]];
+        int width = 1 + op.nArgs;
+        if (op == call || op == tailcall){
+            width += code[pc + op.nArgs];
+        }
+        return width;
+    }
+}
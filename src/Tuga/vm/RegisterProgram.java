@@ -0,0 +1,117 @@
+package Tuga.vm;
+
+import java.util.*;
+
+/**
+ * Programa para a maquina virtual de registos (RVirtualMachine): o codigo, a pool de
+ * constantes, o numero de variaveis globais e o endereco de entrada de cada funcao.
+ * O codigo comeca pela chamada da funcao principal, seguida de halt.
+ */
+public class RegisterProgram {
+    /** Instrucoes, cada uma com o ordinal do RegisterOpCode seguido dos argumentos */
+    private final int[] code;
+    /** Pool de constantes para valores reais e strings */
+    private final ConstantPool constantPool;
+    /** Numero de variaveis globais */
+    private final int globalCount;
+    /** Endereco de entrada de cada funcao */
+    private final Map<String, Integer> functionAddresses;
+
+    /**
+     * Cria um programa.
+     *
+     * @param code As instrucoes
+     * @param constantPool A pool de constantes
+     * @param globalCount O numero de variaveis globais
+     * @param functionAddresses O endereco de entrada de cada funcao
+     */
+    public RegisterProgram(int[] code, ConstantPool constantPool, int globalCount, Map<String, Integer> functionAddresses){
+        this.code = code;
+        this.constantPool = constantPool;
+        this.globalCount = globalCount;
+        this.functionAddresses = new HashMap<>(functionAddresses);
+    }
+
+    /**
+     * Obtem as instrucoes do programa.
+     *
+     * @return O codigo
+     */
+    public int[] getCode(){
+        return code;
+    }
+
+    /**
+     * Obtem a pool de constantes do programa.
+     *
+     * @return A pool de constantes
+     */
+    public ConstantPool getConstantPool(){
+        return constantPool;
+    }
+
+    /**
+     * Obtem o numero de variaveis globais do programa.
+     *
+     * @return O numero de variaveis globais
+     */
+    public int getGlobalCount(){
+        return globalCount;
+    }
+
+    /**
+     * Obtem o numero de instrucoes do programa.
+     *
+     * @return O numero de instrucoes
+     */
+    public int getInstructionCount(){
+        int count = 0;
+        for (int pc = 0; pc < code.length; pc += RegisterOpCode.width(code, pc)){
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Mostra as instrucoes, uma por linha, com o seu endereco. A entrada de cada
+     * funcao e precedida do seu nome.
+     */
+    public void dumpCode(){
+        Map<Integer, String> names = new HashMap<>();
+        functionAddresses.forEach((name, address) -> names.put(address, name));
+
+        for (int pc = 0; pc < code.length; pc += RegisterOpCode.width(code, pc)){
+            if (names.containsKey(pc)){
+                System.out.println(names.get(pc) + ":");
+            }
+            System.out.println(pc + ": " + toString(pc));
+        }
+    }
+
+    /**
+     * Mostra o conteudo da pool de constantes.
+     */
+    public void dumpConstantPool(){
+        List<Object> constants = constantPool.getAllConstants();
+        for (int i = 0; i < constants.size(); i++){
+            Object value = constants.get(i);
+            if (value instanceof String){
+                System.out.println(i + ": \"" + value + "\"");
+            }else {
+                System.out.println(i + ": " + value);
+            }
+        }
+    }
+
+    /**
+     * Obtem a representacao textual da instrucao que comeca em pc.
+     */
+    private String toString(int pc){
+        StringBuilder sb = new StringBuilder(RegisterOpCode.values()[code[pc]].name());
+        int width = RegisterOpCode.width(code, pc);
+        for (int i = 1; i < width; i++){
+            sb.append(' ').append(code[pc + i]);
+        }
+        return sb.toString();
+    }
+}
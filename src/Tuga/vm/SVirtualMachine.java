@@ -2,8 +2,10 @@ package Tuga.vm;
 
 import Tuga.vm.instruction.Instruction;
 import Tuga.vm.instruction.Instruction1Arg;
+import Tuga.vm.instruction.Instruction2Arg;
+import Tuga.vm.instruction.Instruction3Arg;
 
-import java.io.*;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
@@ -14,9 +16,13 @@ import java.util.Stack;
  * funcoes, variaveis globais e locais, e operacoes aritmeticas e logicas.
  * Fornece suporte para todos os tipos da linguagem Tuga (inteiros, reais, strings e booleanos).
  */
-public class SVirtualMachine {
-    /** Frame pointer - base do frame de funcao atual */
-    private int fp = 0;
+public class SVirtualMachine implements VirtualMachine {
+    /** Frame pointer - posicao da primeira variavel local do frame atual (ver FrameStack) */
+    private int fp = FrameStack.HEADER;
+    /** Endereco de retorno, FP guardado e numero de argumentos de cada chamada ativa */
+    private final FrameStack frames = new FrameStack();
+    /** Numero de argumentos de cada funcao, obtido das suas instrucoes ret/retval */
+    private BytecodeVerifier functionInfo;
     /** Flag para ativar modo de depuracao com saida detalhada */
     private final boolean trace;
     /** Instrucoes decodificadas prontas para execucao */
@@ -26,9 +32,11 @@ public class SVirtualMachine {
     /** Pilha de execucao da maquina virtual */
     private final Stack<Object> stack;
     /** Pool de constantes (strings e valores reais) */
-    private final ConstantPool constantPool;
+    private ConstantPool constantPool;
     /** Array para armazenamento de variaveis globais */
     private List<Object> globals = new ArrayList<>();
+    /** Output do escreve e das mensagens de erro de execucao */
+    private VmOutput output;
 
     /**
      * Cria uma nova instancia da maquina virtual com modo trace desativado.
@@ -47,6 +55,8 @@ public class SVirtualMachine {
         this.stack = new Stack<>();
         this.constantPool = new ConstantPool();
         this.ip = 0;
+        // Em modo trace, cada linha do programa aparece logo, entre as linhas do trace
+        this.output = trace ? VmOutput.standard(VmOutput.FlushPolicy.LINE, VmOutput.DEFAULT_THRESHOLD) : VmOutput.standard();
     }
 
     /**
@@ -55,98 +65,42 @@ public class SVirtualMachine {
      *
      * @param bytecodeFile Caminho para o arquivo de bytecode
      */
+    @Override
     public void execute(String bytecodeFile){
-        try (DataInputStream dis = new DataInputStream(new FileInputStream(bytecodeFile))){
-            readConstantPool(dis);
+        try {
+            BytecodeLoader loader = new BytecodeLoader(trace);
+            loader.load(bytecodeFile);
 
-            readAndExecuteInstructions(dis);
+            load(loader.getConstantPool(), loader.getCode());
         }catch (IOException e){
             System.err.println("Erro ao executar bytecodes: " + e.getMessage());
+            return;
         }
-    }
-
-    /**
-     * Le a constant pool do arquivo de bytecodes.
-     * Cada constante tem um tipo (1=double, 2=string) seguido do valor.
-     *
-     * @param dis Stream de entrada para leitura dos bytecodes
-     * @throws IOException Em caso de erro de leitura
-     */
-    private void readConstantPool(DataInputStream dis) throws IOException{
-        int poolSize = dis.readInt();
 
-        if (trace){
-            System.out.println("Lendo constant pool com " + poolSize + " entradas");
-        }
-
-        //  Para cada entrada na constant pool
-        for (int i = 0; i < poolSize; i++){
-            //Le o byte de tipo
-            byte type = dis.readByte();
-
-            if (type == 1){ //double
-                double value = dis.readDouble();
-                constantPool.addReal(value);
-                if (trace){
-                    System.out.println("    Entrada " + i + ": double " + value);
-                }
-            } else if (type == 2) {//string
-                //Le o tamanha da string
-                int length = dis.readInt();
-
-                //Le os caracteres da string
-                StringBuilder sb = new StringBuilder(length / 2); //Dividir por dois porque cada caracteres usa 2
-                for (int j = 0; j < length / 2; j++){
-                    sb.append(dis.readChar());
-                }
-
-                String value = sb.toString();
-                constantPool.addString(value);
-                if (trace){
-                    System.out.println("Entrada "+ i + ": string \"" + value + "\"");
-                }
-            }else {
-                throw new IOException("Tipo de constante desconhecido: "+ type);
-            }
-        }
+        run();
     }
 
     /**
-     * Le e executa as instrucoes do arquivo de bytecodes.
+     * Carrega um programa ja em memoria, sem passar por um ficheiro de bytecodes.
      *
-     * @param dis Stream de entrada para leitura dos bytecodes
-     * @throws IOException Em caso de erro de leitura
+     * @param constantPool A pool de constantes do programa
+     * @param code As instrucoes do programa
      */
-    private void readAndExecuteInstructions(DataInputStream dis) throws IOException{
-        //Decodifica os bytecodes em instrucoes
-        List<Instruction> instructions = new ArrayList<>();
-
-        try {
-            while (true){
-                byte opCode = dis.readByte();
-                OpCode op = OpCode.convert(opCode);
-
-                if (op.nArgs() == 0){
-                    instructions.add(new Instruction(op));
-                }else {
-                    int arg = dis.readInt();
-                    instructions.add(new Instruction1Arg(op, arg));
-                }
-            }
-        }catch (EOFException e){
-            //Fim normal do arquivo
-        }
-
-        //Conver a lista em array de instrucoes
-        this.code = new Instruction[instructions.size()];
-        instructions.toArray(this.code);
+    @Override
+    public void load(ConstantPool constantPool, Instruction[] code){
+        this.constantPool = constantPool;
+        this.code = code;
+        this.functionInfo = new BytecodeVerifier(constantPool, code);
 
         if (trace){
             System.out.println("Bytecodes decodificados em " + code.length + " instrucoes:");
             dumpInstructions();
         }
+    }
 
-        run();
+    @Override
+    public void setOutput(VmOutput output){
+        this.output = output;
     }
 
     /**
@@ -164,14 +118,19 @@ public class SVirtualMachine {
      * Processa cada instrucao sequencialmente ate o fim do codigo
      * ou ate encontrar uma instrucao HALT.
      */
-    private void run(){
+    @Override
+    public void run(){
         if (trace){
             System.out.println("Iniciando execucao na instrucao " + ip);
         }
 
-        while (ip < code.length){
-            executeInstruction(code[ip]);
-            ip++;
+        try {
+            while (ip < code.length){
+                executeInstruction(code[ip]);
+                ip++;
+            }
+        }finally {
+            output.flush();
         }
 
         if (trace){
@@ -209,6 +168,7 @@ public class SVirtualMachine {
             case call -> execCall((Instruction1Arg) inst);
             case retval -> execRetval((Instruction1Arg) inst);
             case ret -> execRet((Instruction1Arg) inst);
+            case tailcall -> execTailcall((Instruction2Arg) inst);
 
             //  Instrucoes para inteiros
             case iprint -> execIprint();
@@ -257,16 +217,114 @@ public class SVirtualMachine {
 
             // Controle de execução
             case halt -> execHalt();
+            case dup -> execDup();
+
+            // Superinstrucoes
+            case lload_lload_iadd -> execLloadLloadIadd((Instruction2Arg) inst);
+            case lload_iconst_if_ige -> execLloadIconstIfIge((Instruction3Arg) inst);
+            case iinc -> execIinc((Instruction2Arg) inst);
+            case iconst_iadd_lstore -> execIconstIaddLstore((Instruction2Arg) inst);
+            case gload_iprint -> execGloadIprint((Instruction1Arg) inst);
+
+            // Saltos condicionais com comparacao
+            case if_ilt, if_ige, if_ileq, if_igt, if_ieq, if_ineq -> execIntBranch((Instruction1Arg) inst);
+            case if_dlt, if_dge, if_dleq, if_dgt, if_deq, if_dneq -> execRealBranch((Instruction1Arg) inst);
 
             default -> throw new RuntimeException("Instrução não implementada: " + opCode);
         }
     }
 
+    private void execLloadLloadIadd(Instruction2Arg inst){
+        int a = localInt(inst.getArg(), "LLOAD_LLOAD_IADD");
+        int b = localInt(inst.getArg2(), "LLOAD_LLOAD_IADD");
+        stack.push(a + b);
+    }
+
+    private void execLloadIconstIfIge(Instruction3Arg inst){
+        int value = localInt(inst.getArg(), "LLOAD_ICONST_IF_IGE");
+        if (value >= inst.getArg2()){
+            // Subtrai 1 porque o ip sera incrementado no final do loop
+            ip = inst.getArg3() - 1;
+        }
+    }
+
+    private void execIinc(Instruction2Arg inst){
+        int value = localInt(inst.getArg(), "IINC");
+        storeLocal(inst.getArg(), value + inst.getArg2());
+    }
+
+    private void execIconstIaddLstore(Instruction2Arg inst){
+        checkStackSize(1);
+        Object value = stack.pop();
+        if (!(value instanceof Integer)){
+            runtimeError("ICONST_IADD_LSTORE espera um inteiro");
+        }
+        storeLocal(inst.getArg2(), (Integer) value + inst.getArg());
+    }
+
+    private void execGloadIprint(Instruction1Arg inst){
+        execGload(inst);
+        execIprint();
+    }
+
+    private void execIntBranch(Instruction1Arg inst){
+        checkStackSize(2);
+        Object b = stack.pop();
+        Object a = stack.pop();
+        if (!(a instanceof Integer && b instanceof Integer)){
+            runtimeError(inst.getOpCode().name().toUpperCase() + " espera dois inteiros");
+        }
+
+        int x = (Integer) a;
+        int y = (Integer) b;
+        boolean condition = switch (inst.getOpCode()){
+            case if_ilt -> x < y;
+            case if_ige -> x >= y;
+            case if_ileq -> x <= y;
+            case if_igt -> x > y;
+            case if_ieq -> x == y;
+            default -> x != y;
+        };
+        if (condition){
+            // Subtrai 1 porque o ip sera incrementado no final do loop
+            ip = inst.getArg() - 1;
+        }
+    }
+
+    private void execRealBranch(Instruction1Arg inst){
+        checkStackSize(2);
+        Object b = stack.pop();
+        Object a = stack.pop();
+        if (!(a instanceof Double && b instanceof Double)){
+            runtimeError(inst.getOpCode().name().toUpperCase() + " espera dois reais");
+        }
+
+        Double x = (Double) a;
+        Double y = (Double) b;
+        boolean condition = switch (inst.getOpCode()){
+            case if_dlt -> x < y;
+            case if_dge -> !(x < y);
+            case if_dleq -> x <= y;
+            case if_dgt -> !(x <= y);
+            case if_deq -> x.equals(y);
+            default -> !x.equals(y);
+        };
+        if (condition){
+            // Subtrai 1 porque o ip sera incrementado no final do loop
+            ip = inst.getArg() - 1;
+        }
+    }
+
     private void execHalt() {
         // Termina a execução do programa, defenindo o ip para o final do código
         ip = code.length;
     }
 
+    private void execDup() {
+        checkStackSize(1);
+        stack.push(stack.peek());
+    }
+
     private void execBtos() {
         checkStackSize(1);
         Object value = stack.pop();
@@ -375,7 +433,7 @@ public class SVirtualMachine {
         if (value instanceof Integer) {
             int boolVal = (Integer)value;
             if (boolVal == 0 || boolVal == 1) {
-                System.out.println(boolVal == 1 ? "verdadeiro" : "falso");
+                output.println(boolVal == 1 ? "verdadeiro" : "falso");
             } else {
                 runtimeError("BPRINT espera um booleano (0 ou 1)");
             }
@@ -429,7 +487,7 @@ public class SVirtualMachine {
         checkStackSize(1);
         Object value = stack.pop();
         if (value instanceof String) {
-            System.out.println(value);
+            output.println((String) value);
         } else {
             runtimeError("SPRINT espera uma string");
         }
@@ -551,7 +609,7 @@ public class SVirtualMachine {
         checkStackSize(1);
         Object value = stack.pop();
         if (value instanceof Double) {
-            System.out.println(value);
+            output.println((double) (Double) value);
         } else {
             runtimeError("DPRINT espera um real");
         }
@@ -703,7 +761,7 @@ public class SVirtualMachine {
         checkStackSize(1);
         Object value = stack.pop();
         if (value instanceof Integer) {
-            System.out.println(value);
+            output.println((int) (Integer) value);
         } else {
             runtimeError("IPRINT espera um inteiro");
         }
@@ -785,33 +843,46 @@ public class SVirtualMachine {
     }
 
     private void execLload(Instruction1Arg inst){
-        int addr = inst.getArg();
-        int actualAddr = fp + addr;
+        stack.push(localValue(inst.getArg()));
+    }
 
-        if (actualAddr < stack.size()){
+    private Object localValue(int addr){
+        int actualAddr = localAddress(addr);
+
+        if (actualAddr >= 0 && actualAddr < stack.size()){
             Object value = stack.get(actualAddr);
             if (value == null){
                 runtimeError("erro de runtime: tentativa de acesso a valor NULO");
             }
-            stack.push(value);
-        }else {
-            runtimeError("Indice de variavel local invalido;: " + addr);
+            return value;
         }
+        runtimeError("Indice de variavel local invalido;: " + addr);
+        return null;
     }
 
-    private void execLstore(Instruction1Arg inst){
-        checkStackSize(1);
-        int addr = inst.getArg();
-        int actualAddr = fp + addr;
-        Object value = stack.pop();
+    private int localInt(int addr, String opName){
+        Object value = localValue(addr);
+        if (!(value instanceof Integer)){
+            runtimeError(opName + " espera um inteiro");
+        }
+        return (Integer) value;
+    }
 
-        if (actualAddr < stack.size()){
+    private void storeLocal(int addr, Object value){
+        int actualAddr = localAddress(addr);
+        if (actualAddr >= 0 && actualAddr < stack.size()){
             stack.set(actualAddr, value);
         }else {
             runtimeError("Indice de variavel local invalido: " + addr);
         }
     }
 
+    private void execLstore(Instruction1Arg inst){
+        checkStackSize(1);
+        Object value = stack.pop();
+        storeLocal(inst.getArg(), value);
+    }
+
     private void execPop(Instruction1Arg inst){
         int n = inst.getArg();
         checkStackSize(n);
@@ -824,111 +895,112 @@ public class SVirtualMachine {
         }
     }
 
+    private int localAddress(int addr){
+        // Argumentos abaixo do FP, variaveis locais a partir do FP (ver FrameStack)
+        return addr < 0 ? fp + addr : fp + addr - FrameStack.HEADER;
+    }
+
     private void execCall(Instruction1Arg inst){
-        // Salvar o FP atual (frame anterior)
-        stack.push(fp);
+        int target = inst.getArg();
+        if (target < 0 || target >= code.length){
+            runtimeError("Endereco de funcao invalido: " + target);
+        }
+
+        int nArgs = 0;
+        try {
+            nArgs = functionInfo.getArgCount(target);
+        }catch (VerificationException e){
+            runtimeError("Bytecodes invalidos: " + e.getMessage());
+        }
+        checkStackSize(nArgs);
 
-        // Salvar o endereco de retorno (IP+1)
-        stack.push(ip + 1);
+        // Guardar o endereco de retorno (IP+1) e o FP atual na pilha de frames
+        frames.push(ip + 1, fp, nArgs);
 
-        // Atualizar FP para apontar para o indice do novo frame
-        fp = stack.size() - 2; // -2 para considerar o FP e IP que foram empilhados
+        // As variaveis locais comecam no topo atual da pilha
+        fp = stack.size();
 
         // Atualizar IP para o endereco da funcao (-1 porque ip sera incrementado depois da execucao)
-        ip = inst.getArg() - 1;
+        ip = target - 1;
     }
 
-    private void execRetval(Instruction1Arg inst){
-        // Primeiro, obter o valor de retorno (deve estar no topo da pilha)
-        if (stack.isEmpty()) {
-            runtimeError("Pilha vazia ao tentar retornar valor");
-            return;
+    private void execTailcall(Instruction2Arg inst){
+        if (frames.size == 0){
+            runtimeError("Tailcall fora de uma funcao");
         }
-        // Guardar valor de retorno
-        Object returnValue = stack.pop();
+        int frame = frames.size - 1;
 
+        int nArgs = inst.getArg2();
+        if (nArgs != frames.argCount[frame]){
+            runtimeError("Frame inconsistente: tailcall com " + nArgs + " argumentos numa funcao com " + frames.argCount[frame]);
+        }
 
-        // Obter valores de FP e IP salvos corretamente
-        if (fp < 0 || fp >= stack.size()) {
-            runtimeError("Frame pointer invalido: " + fp);
-            return;
+        int target = inst.getArg();
+        if (target < 0 || target >= code.length){
+            runtimeError("Endereco de funcao invalido: " + target);
         }
 
-        // Verificar se podemos acessar o endereço de retorno
-        if (fp + 1 >= stack.size()) {
-            runtimeError(
-                    String.format(
-                            "Frame inconsistente: impossivel acessar IP de retorno | IP : %d | Stack Size %d",
-                            fp+1,
-                            stack.size()
-                    )
-            );
-            return;
+        int calleeArgs = 0;
+        try {
+            calleeArgs = functionInfo.getArgCount(target);
+        }catch (VerificationException e){
+            runtimeError("Bytecodes invalidos: " + e.getMessage());
+        }
+        if (stack.size() - calleeArgs < fp || fp - nArgs < 0){
+            runtimeError("Frame inconsistente");
         }
 
-        // Recuperar IP
-        int savedIP = (Integer) stack.get(fp + 1);
+        // Os argumentos da funcao chamada substituem os argumentos e as variaveis locais da funcao atual
+        int base = fp - nArgs;
+        int args = stack.size() - calleeArgs;
+        for (int i = 0; i < calleeArgs; i++){
+            stack.set(base + i, stack.get(args + i));
+        }
+        stack.setSize(base + calleeArgs);
 
-        // Recuperar FP antigo
-        int savedFP = (Integer) stack.get(fp);
+        // O frame atual passa a ser o da funcao chamada, com o mesmo endereco de retorno e FP guardado
+        frames.argCount[frame] = calleeArgs;
+        fp = stack.size();
 
-        // Recuperar FP e IP do frame atual
-        int frameSize = stack.size() - fp;
+        // -1 porque ip sera incrementado depois da execucao
+        ip = target - 1;
+    }
 
-        // Remover a frame atual
-        for (int i = 0; i < frameSize; i++){
-            stack.pop();
+    private void execRetval(Instruction1Arg inst){
+        // Primeiro, obter o valor de retorno (deve estar no topo da pilha)
+        if (stack.size() <= fp) {
+            runtimeError("Pilha vazia ao tentar retornar valor");
         }
+        // Guardar valor de retorno
+        Object returnValue = stack.pop();
 
-        // Remover argumentos
-        int nArgs = inst.getArg();
-        for (int i = 0; i < nArgs && !stack.isEmpty(); i++){
-            stack.pop();
-        }
+        execRet(inst);
 
         // Empilhar valor de retorno
         stack.push(returnValue);
-
-        // Restaurar IP e FP
-        ip = savedIP - 1; // -1 porque ele e incrementado depois da execucao
-        fp = savedFP;
     }
 
     private void execRet(Instruction1Arg inst){
-
-        // Verificar se o fp é válido
-        if (fp < 0 || fp >= stack.size()) {
-            runtimeError("Frame pointer invalido: " + fp);
-            return;
+        if (frames.size == 0){
+            runtimeError("Retorno fora de uma funcao");
         }
+        int frame = frames.pop();
 
-        // Recuperar FP e IP do frame atual
-        int frameSize = stack.size() - fp;
-
-        // Recuperar IP
-        if (fp + 1 >= stack.size()) {
-            runtimeError("Frame inconsistente");
+        int nArgs = inst.getArg();
+        if (nArgs != frames.argCount[frame]){
+            runtimeError("Frame inconsistente: retorno com " + nArgs + " argumentos numa funcao com " + frames.argCount[frame]);
         }
-        Object savedIP = stack.get(fp + 1);
 
-        // Recuperar FP
-        Object savedFP = stack.get(fp);
-
-        // Remover frame atual
-        for (int i = 0; i < frameSize; i++){
-            stack.pop();
+        if (fp - nArgs < 0 || stack.size() < fp){
+            runtimeError("Frame inconsistente");
         }
 
-        // Remover argumentos
-        int nArgs = inst.getArg();
-        checkStackSize(nArgs);
-        for (int i = 0; i < nArgs; i++){
-            stack.pop();
-        }
+        // Remover a frame atual e os argumentos de uma so vez
+        stack.setSize(fp - nArgs);
 
         // Restaurar IP e FP
-        ip = (Integer) savedIP - 1;
-        fp = (Integer) savedFP;
+        ip = frames.returnIp[frame] - 1; // -1 porque ele e incrementado depois da execucao
+        fp = frames.savedFp[frame];
     }
 
     // Códigos utilitarios
@@ -939,7 +1011,8 @@ public class SVirtualMachine {
     }
 
     private void runtimeError(String message){
-        System.out.println(message);
+        output.println(message);
+        output.flush();
         if (trace){
             System.err.println("Estado da pilha: " + stack);
         }
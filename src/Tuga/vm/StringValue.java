@@ -0,0 +1,95 @@
+package Tuga.vm;
+
+/**
+ * Resultado de uma concatenacao de strings, ainda nao convertido em String.
+ * O texto fica num StringBuilder partilhado: o valor e o prefixo do builder com o seu
+ * comprimento. Concatenar a um valor que ainda e o fim do builder acrescenta no proprio
+ * builder, sem copiar o texto anterior, pelo que um ciclo com s &lt;- s + x faz um
+ * numero de copias proporcional ao tamanho final e nao ao seu quadrado. Os valores mais
+ * antigos continuam validos, porque o builder so cresce; concatenar a um deles copia o
+ * seu texto para um builder novo.
+ *
+ * As maquinas virtuais guardam nas referencias da pilha, das variaveis e dos registos
+ * tanto String como StringValue. O valor so e convertido em String (uma vez) quando e
+ * observado: ao ser escrito, comparado ou passado para codigo compilado.
+ */
+final class StringValue {
+    /** Capacidade minima de um builder novo */
+    private static final int MIN_CAPACITY = 16;
+
+    private final StringBuilder builder;
+    private final int length;
+    /** Texto ja convertido, ou null */
+    private String flat;
+
+    private StringValue(StringBuilder builder){
+        this.builder = builder;
+        this.length = builder.length();
+    }
+
+    /**
+     * Concatena duas strings.
+     *
+     * @param a A string da esquerda (String ou StringValue)
+     * @param b A string da direita (String ou StringValue)
+     * @return O resultado
+     */
+    static StringValue concat(Object a, Object b){
+        StringBuilder target = appendTarget(a, b instanceof String s ? s.length() : ((StringValue) b).length);
+        if (b instanceof StringValue value){
+            target.append(value.builder, 0, value.length);
+        }else {
+            target.append((String) b);
+        }
+        return new StringValue(target);
+    }
+
+    /**
+     * Concatena uma string e o texto de um inteiro (itos), sem criar a String do inteiro.
+     */
+    static StringValue concat(Object a, int b){
+        return new StringValue(appendTarget(a, 11).append(b));
+    }
+
+    /**
+     * Concatena uma string e o texto de um real (dtos), sem criar a String do real.
+     */
+    static StringValue concat(Object a, double b){
+        return new StringValue(appendTarget(a, 24).append(b));
+    }
+
+    /**
+     * Converte uma string da maquina virtual em String.
+     *
+     * @param value Uma String ou StringValue
+     * @return O texto
+     */
+    static String flatten(Object value){
+        return value instanceof StringValue rope ? rope.toString() : (String) value;
+    }
+
+    /**
+     * Obtem o builder onde acrescentar o texto a direita de a: o builder de a se a ainda
+     * for o seu fim, ou um builder novo com o texto de a.
+     *
+     * @param extra O numero de caracteres que vao ser acrescentados (estimativa)
+     */
+    private static StringBuilder appendTarget(Object a, int extra){
+        if (a instanceof StringValue value){
+            if (value.builder.length() == value.length){
+                return value.builder;
+            }
+            return new StringBuilder(Math.max(MIN_CAPACITY, 2 * (value.length + extra))).append(value.builder, 0, value.length);
+        }
+        String s = (String) a;
+        return new StringBuilder(Math.max(MIN_CAPACITY, 2 * (s.length() + extra))).append(s);
+    }
+
+    @Override
+    public String toString(){
+        if (flat == null){
+            flat = builder.substring(0, length);
+        }
+        return flat;
+    }
+}
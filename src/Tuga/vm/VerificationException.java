@@ -0,0 +1,17 @@
+package Tuga.vm;
+
+/**
+ * Excecao lancada quando o verificador de bytecodes rejeita um programa.
+ * Indica que o programa poderia executar uma instrucao com operandos de tipo
+ * errado, com a pilha sem elementos suficientes ou com enderecos invalidos.
+ */
+public class VerificationException extends RuntimeException{
+    /**
+     * Cria uma nova excecao de verificacao com a mensagem especificada.
+     *
+     * @param message A mensagem de erro a apresentar
+     */
+    public VerificationException(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,38 @@
+package Tuga.vm;
+
+import Tuga.vm.instruction.Instruction;
+
+/**
+ * Interface comum as maquinas virtuais Tuga.
+ * Permite escolher o motor de execucao sem alterar o resto do compilador,
+ * de modo a comparar os varios motores sobre o mesmo ficheiro de bytecodes.
+ */
+public interface VirtualMachine {
+    /**
+     * Executa o programa em bytecode do arquivo fornecido.
+     *
+     * @param bytecodeFile Caminho para o arquivo de bytecode
+     */
+    void execute(String bytecodeFile);
+
+    /**
+     * Carrega um programa ja em memoria, sem passar por um ficheiro de bytecodes.
+     *
+     * @param constantPool A pool de constantes do programa
+     * @param code As instrucoes do programa
+     */
+    void load(ConstantPool constantPool, Instruction[] code);
+
+    /**
+     * Define o output do escreve e das mensagens de erro de execucao. Por omissao e
+     * o System.out, com buffer; o output e esvaziado no fim de cada execucao.
+     *
+     * @param output O output
+     */
+    void setOutput(VmOutput output);
+
+    /**
+     * Executa o programa carregado.
+     */
+    void run();
+}
@@ -0,0 +1,401 @@
+package Tuga.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Output do escreve das maquinas virtuais.
+ * Cada valor escrito e formatado diretamente num buffer de bytes reutilizado, sem criar
+ * strings para os inteiros nem para os reais mais comuns, e o buffer so e enviado para
+ * o destino quando a politica de flush o pede. Assim, um programa que escreve muitas
+ * linhas faz poucas escritas no destino, em vez de uma chamada sincronizada ao
+ * System.out por linha.
+ *
+ * O texto e igual ao de PrintStream.println: os reais com o formato de Double.toString,
+ * as strings codificadas no charset do destino e cada valor seguido do separador de
+ * linhas do sistema. Com um charset que nao codifica o ASCII num byte por caracter
+ * (por exemplo UTF-16BE), todos os valores sao convertidos em strings e codificados.
+ * A maquina virtual deve chamar flush no fim da execucao (halt, fim do codigo ou erro
+ * de execucao).
+ */
+public final class VmOutput {
+    /** Quando o conteudo do buffer e enviado para o destino */
+    public enum FlushPolicy {
+        /** So no fim da execucao: o buffer cresce ate la */
+        ON_HALT,
+        /** Sempre que o buffer tem pelo menos o limite de bytes */
+        THRESHOLD,
+        /** No fim de cada linha, para uso interativo */
+        LINE
+    }
+
+    /**
+     * Destino dos bytes do output.
+     */
+    public interface Sink {
+        /**
+         * Escreve bytes no destino. Os bytes contem sempre valores completos, pelo que
+         * nenhum caracter fica dividido entre duas escritas.
+         */
+        void write(byte[] bytes, int offset, int length) throws IOException;
+
+        /**
+         * Envia para o destino final os bytes que o proprio destino tenha guardado.
+         */
+        default void flush() throws IOException {
+        }
+    }
+
+    /** Limite por omissao da politica THRESHOLD, em bytes */
+    public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+    /** Maior numero de algarismos de um int (sem o sinal) */
+    private static final int MAX_INT_DIGITS = 10;
+    /** Maior numero de casas decimais dos reais formatados sem Double.toString */
+    private static final int MAX_FRACTION_DIGITS = 9;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+
+    private final Sink sink;
+    private final Charset charset;
+    /** Se os caracteres ASCII sao codificados num byte com o mesmo valor */
+    private final boolean asciiCompatible;
+    /** Separador de linhas do sistema, como em println, codificado com o charset */
+    private final byte[] lineSeparator;
+    private final FlushPolicy policy;
+    private final int threshold;
+
+    private byte[] buffer;
+    /** Numero de bytes no buffer */
+    private int count;
+
+    /**
+     * Cria um output.
+     *
+     * @param sink O destino dos bytes
+     * @param charset O charset usado para codificar as strings
+     * @param policy Quando o buffer e enviado para o destino
+     * @param threshold O limite de bytes da politica THRESHOLD, e o tamanho inicial do buffer
+     */
+    public VmOutput(Sink sink, Charset charset, FlushPolicy policy, int threshold){
+        if (threshold <= 0){
+            throw new IllegalArgumentException("limite do buffer invalido: " + threshold);
+        }
+        this.sink = sink;
+        this.charset = charset;
+        this.asciiCompatible = isAsciiCompatible(charset);
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+        this.policy = policy;
+        this.threshold = threshold;
+        this.buffer = new byte[threshold + 64];
+    }
+
+    /**
+     * Cria o output para o System.out atual, com o charset da consola.
+     *
+     * @param policy Quando o buffer e enviado para o System.out
+     * @param threshold O limite de bytes da politica THRESHOLD
+     * @return O output
+     */
+    public static VmOutput standard(FlushPolicy policy, int threshold){
+        String encoding = System.getProperty("stdout.encoding");
+        Charset charset = encoding != null && Charset.isSupported(encoding) ? Charset.forName(encoding) : Charset.defaultCharset();
+        return of(System.out, charset, policy, threshold);
+    }
+
+    /**
+     * Cria o output por omissao das maquinas virtuais: System.out, enviado a cada DEFAULT_THRESHOLD bytes.
+     *
+     * @return O output
+     */
+    public static VmOutput standard(){
+        return standard(FlushPolicy.THRESHOLD, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Cria um output que escreve num OutputStream.
+     *
+     * @param out O destino
+     * @param charset O charset das strings
+     * @param policy Quando o buffer e enviado para o destino
+     * @param threshold O limite de bytes da politica THRESHOLD
+     * @return O output
+     */
+    public static VmOutput of(OutputStream out, Charset charset, FlushPolicy policy, int threshold){
+        return new VmOutput(new Sink(){
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+        }, charset, policy, threshold);
+    }
+
+    /**
+     * Cria um output que escreve num Writer. Os bytes sao codificados em UTF-8 e
+     * descodificados em cada escrita.
+     *
+     * @param writer O destino
+     * @param policy Quando o buffer e enviado para o destino
+     * @param threshold O limite de bytes da politica THRESHOLD
+     * @return O output
+     */
+    public static VmOutput of(Writer writer, FlushPolicy policy, int threshold){
+        return new VmOutput(new Sink(){
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                writer.write(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+        }, StandardCharsets.UTF_8, policy, threshold);
+    }
+
+    /**
+     * Cria um output que guarda tudo em memoria, obtido depois com contents.
+     *
+     * @return O output
+     */
+    public static VmOutput inMemory(){
+        return new VmOutput(new MemorySink(), StandardCharsets.UTF_8, FlushPolicy.ON_HALT, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Obtem o texto escrito num output criado com inMemory.
+     *
+     * @return Todo o texto escrito ate agora
+     * @throws IllegalStateException Se o output nao for em memoria
+     */
+    public String contents(){
+        if (!(sink instanceof MemorySink memory)){
+            throw new IllegalStateException("output sem conteudo em memoria");
+        }
+        flush();
+        return memory.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escreve um inteiro e muda de linha.
+     */
+    public void println(int value){
+        if (!asciiCompatible){
+            println(Integer.toString(value));
+            return;
+        }
+        ensureCapacity(MAX_INT_DIGITS + 1 + lineSeparator.length);
+        writeInt(value);
+        endLine();
+    }
+
+    /**
+     * Escreve um real, com o formato de Double.toString, e muda de linha.
+     */
+    public void println(double value){
+        if (!asciiCompatible){
+            println(Double.toString(value));
+            return;
+        }
+        ensureCapacity(2 * MAX_INT_DIGITS + 3 + lineSeparator.length);
+        if (!writeReal(value)){
+            writeString(Double.toString(value));
+        }
+        endLine();
+    }
+
+    /**
+     * Escreve uma string e muda de linha.
+     */
+    public void println(String value){
+        writeString(value);
+        ensureCapacity(lineSeparator.length);
+        endLine();
+    }
+
+    /**
+     * Envia para o destino tudo o que esta no buffer.
+     */
+    public void flush(){
+        try {
+            if (count > 0){
+                sink.write(buffer, 0, count);
+                count = 0;
+            }
+            sink.flush();
+        }catch (IOException e){
+            throw new UncheckedIOException("Erro ao escrever o output", e);
+        }
+    }
+
+    private void endLine(){
+        for (byte b : lineSeparator){
+            buffer[count++] = b;
+        }
+        if (policy == FlushPolicy.LINE || (policy == FlushPolicy.THRESHOLD && count >= threshold)){
+            flush();
+        }
+    }
+
+    /**
+     * Garante que cabem mais n bytes no buffer: na politica ON_HALT o buffer cresce,
+     * nas outras e esvaziado primeiro.
+     */
+    private void ensureCapacity(int n){
+        if (count + n <= buffer.length){
+            return;
+        }
+        if (policy != FlushPolicy.ON_HALT){
+            flush();
+        }
+        if (count + n > buffer.length){
+            byte[] bigger = new byte[Math.max(buffer.length * 2, count + n)];
+            System.arraycopy(buffer, 0, bigger, 0, count);
+            buffer = bigger;
+        }
+    }
+
+    /**
+     * Escreve os algarismos de um inteiro, do fim para o inicio, sem criar uma string.
+     */
+    private void writeInt(int value){
+        long n = value;
+        if (n < 0){
+            buffer[count++] = '-';
+            n = -n;
+        }
+        writeDigits(n, digitCount(n));
+    }
+
+    /**
+     * Escreve os ultimos digits algarismos de um numero nao negativo (com zeros a esquerda).
+     */
+    private void writeDigits(long n, int digits){
+        int end = count + digits;
+        for (int i = end - 1; i >= count; i--){
+            buffer[i] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        count = end;
+    }
+
+    private static int digitCount(long n){
+        int digits = 1;
+        while (n >= 10){
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Escreve um real entre 10^-3 e 10^7 (o intervalo em que Double.toString nao usa
+     * notacao cientifica) com poucas casas decimais. Procura o menor numero de casas k
+     * tal que o valor com k casas, convertido para double, da exatamente o mesmo real:
+     * como o espacamento entre reais vizinhos e menor que 10^-k, esse decimal e o unico
+     * com k casas e e o que Double.toString escolhe.
+     *
+     * @return false se o real tiver de ser formatado com Double.toString
+     */
+    private boolean writeReal(double value){
+        double magnitude = Math.abs(value);
+        if (!(magnitude >= 1e-3 && magnitude < 1e7)){
+            return false;
+        }
+
+        for (int k = 0; k <= MAX_FRACTION_DIGITS; k++){
+            double scale = POWERS_OF_TEN[k];
+            if (Math.ulp(magnitude) * scale >= 0.5){
+                return false;
+            }
+            long scaled = Math.round(magnitude * scale);
+            if (scaled / scale == magnitude){
+                if (value < 0){
+                    buffer[count++] = '-';
+                }
+                long power = (long) scale;
+                long integerPart = scaled / power;
+                writeDigits(integerPart, digitCount(integerPart));
+                buffer[count++] = '.';
+                writeDigits(scaled % power, Math.max(k, 1));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Escreve uma string. Os caracteres ASCII sao copiados diretamente; as strings com
+     * outros caracteres sao codificadas com o charset. As strings maiores que o buffer
+     * sao enviadas diretamente para o destino, exceto na politica ON_HALT.
+     */
+    private void writeString(String value){
+        int length = value.length();
+        if (asciiCompatible && isAscii(value)){
+            if (length > threshold && policy != FlushPolicy.ON_HALT){
+                writeDirect(value.getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            ensureCapacity(length);
+            for (int i = 0; i < length; i++){
+                buffer[count++] = (byte) value.charAt(i);
+            }
+            return;
+        }
+
+        byte[] bytes = value.getBytes(charset);
+        if (bytes.length > threshold && policy != FlushPolicy.ON_HALT){
+            writeDirect(bytes);
+            return;
+        }
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void writeDirect(byte[] bytes){
+        flush();
+        try {
+            sink.write(bytes, 0, bytes.length);
+        }catch (IOException e){
+            throw new UncheckedIOException("Erro ao escrever o output", e);
+        }
+    }
+
+    /**
+     * Verifica se o charset codifica cada caracter ASCII num unico byte com o mesmo valor,
+     * o que permite escrever os algarismos, os separadores e as strings ASCII sem o charset.
+     */
+    private static boolean isAsciiCompatible(Charset charset){
+        byte[] ascii = new byte[0x80];
+        for (int i = 0; i < ascii.length; i++){
+            ascii[i] = (byte) i;
+        }
+        return Arrays.equals(ascii, new String(ascii, StandardCharsets.US_ASCII).getBytes(charset));
+    }
+
+    private static boolean isAscii(String value){
+        for (int i = 0; i < value.length(); i++){
+            if (value.charAt(i) >= 0x80){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Destino em memoria de inMemory.
+     */
+    private static final class MemorySink extends ByteArrayOutputStream implements Sink {
+    }
+}
@@ -43,6 +43,35 @@ public class Instruction1Arg extends Instruction{
         this.arg = arg;
     }
 
+    /**
+     * Obtem o valor de um argumento da instrucao pela sua posicao.
+     * Permite tratar da mesma forma instrucoes com um ou mais argumentos.
+     *
+     * @param index A posicao do argumento (0 para o primeiro)
+     * @return O valor do argumento
+     * @throws IndexOutOfBoundsException Se a instrucao nao tiver esse argumento
+     */
+    public int getArg(int index) {
+        if (index != 0){
+            throw new IndexOutOfBoundsException("Argumento invalido: " + index);
+        }
+        return arg;
+    }
+
+    /**
+     * Define o valor de um argumento da instrucao pela sua posicao.
+     *
+     * @param index A posicao do argumento (0 para o primeiro)
+     * @param value O novo valor do argumento
+     * @throws IndexOutOfBoundsException Se a instrucao nao tiver esse argumento
+     */
+    public void setArg(int index, int value) {
+        if (index != 0){
+            throw new IndexOutOfBoundsException("Argumento invalido: " + index);
+        }
+        arg = value;
+    }
+
     /**
      * Devolve o numero de argumentos desta instrucao.
      * Para instrucoes com um argumento, retorna sempre 1.
@@ -0,0 +1,83 @@
+package Tuga.vm.instruction;
+
+import Tuga.vm.OpCode;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Representa uma instrucao com dois argumentos na maquina virtual Tuga.
+ * Usada pelas superinstrucoes, que juntam varias instrucoes numa so
+ * e por isso precisam dos argumentos de cada uma delas, e pelo tailcall.
+ */
+public class Instruction2Arg extends Instruction1Arg {
+    /** O segundo argumento da instrucao */
+    private int arg2;
+
+    /**
+     * Cria uma nova instrucao com dois argumentos.
+     *
+     * @param opCode O codigo de operacao da instrucao
+     * @param arg O valor do primeiro argumento
+     * @param arg2 O valor do segundo argumento
+     */
+    public Instruction2Arg(OpCode opCode, int arg, int arg2) {
+        super(opCode, arg);
+        this.arg2 = arg2;
+    }
+
+    /**
+     * Obtem o valor do segundo argumento da instrucao.
+     *
+     * @return O valor do segundo argumento
+     */
+    public int getArg2() {
+        return arg2;
+    }
+
+    @Override
+    public int getArg(int index) {
+        return index == 1 ? arg2 : super.getArg(index);
+    }
+
+    @Override
+    public void setArg(int index, int value) {
+        if (index == 1){
+            arg2 = value;
+        }else {
+            super.setArg(index, value);
+        }
+    }
+
+    /**
+     * Devolve o numero de argumentos desta instrucao.
+     *
+     * @return O numero de argumentos (2)
+     */
+    @Override
+    public int nArgs(){
+        return 2;
+    }
+
+    /**
+     * Gera uma representacao textual da instrucao com os seus argumentos.
+     *
+     * @return O nome do codigo de operacao seguido dos valores dos argumentos
+     */
+    @Override
+    public String toString(){
+        return super.toString() + " " + arg2;
+    }
+
+    /**
+     * Escreve a instrucao e os seus argumentos num fluxo de dados binario.
+     *
+     * @param out O fluxo de saida para onde a instrucao sera escrita
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException{
+        super.writeTo(out);
+        out.writeInt(arg2);
+    }
+}
@@ -0,0 +1,84 @@
+package Tuga.vm.instruction;
+
+import Tuga.vm.OpCode;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Representa uma instrucao com tres argumentos na maquina virtual Tuga.
+ * Usada pelas superinstrucoes que terminam num salto condicional,
+ * em que o ultimo argumento e o endereco de destino.
+ */
+public class Instruction3Arg extends Instruction2Arg {
+    /** O terceiro argumento da instrucao */
+    private int arg3;
+
+    /**
+     * Cria uma nova instrucao com tres argumentos.
+     *
+     * @param opCode O codigo de operacao da instrucao
+     * @param arg O valor do primeiro argumento
+     * @param arg2 O valor do segundo argumento
+     * @param arg3 O valor do terceiro argumento
+     */
+    public Instruction3Arg(OpCode opCode, int arg, int arg2, int arg3) {
+        super(opCode, arg, arg2);
+        this.arg3 = arg3;
+    }
+
+    /**
+     * Obtem o valor do terceiro argumento da instrucao.
+     *
+     * @return O valor do terceiro argumento
+     */
+    public int getArg3() {
+        return arg3;
+    }
+
+    @Override
+    public int getArg(int index) {
+        return index == 2 ? arg3 : super.getArg(index);
+    }
+
+    @Override
+    public void setArg(int index, int value) {
+        if (index == 2){
+            arg3 = value;
+        }else {
+            super.setArg(index, value);
+        }
+    }
+
+    /**
+     * Devolve o numero de argumentos desta instrucao.
+     *
+     * @return O numero de argumentos (3)
+     */
+    @Override
+    public int nArgs(){
+        return 3;
+    }
+
+    /**
+     * Gera uma representacao textual da instrucao com os seus argumentos.
+     *
+     * @return O nome do codigo de operacao seguido dos valores dos argumentos
+     */
+    @Override
+    public String toString(){
+        return super.toString() + " " + arg3;
+    }
+
+    /**
+     * Escreve a instrucao e os seus argumentos num fluxo de dados binario.
+     *
+     * @param out O fluxo de saida para onde a instrucao sera escrita
+     * @throws IOException Se ocorrer um erro de escrita
+     */
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException{
+        super.writeTo(out);
+        out.writeInt(arg3);
+    }
+}
@@ -0,0 +1,223 @@
+package Tuga.vm.jit;
+
+import Tuga.vm.BytecodeVerifier;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.VerificationException;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.jit.ClassWriter.Code;
+import Tuga.vm.jit.ClassWriter.Label;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static Tuga.vm.jit.ClassWriter.*;
+
+/**
+ * Compilador antecipado de programas Tuga para uma classe Java autonoma.
+ * As variaveis globais passam a campos estaticos, com uma flag que indica se ja tem valor,
+ * cada funcao passa a um metodo estatico com os argumentos e o resultado em tipos primitivos
+ * (a traducao das instrucoes e a do JitCompiler), e o escreve usa um PrintStream com buffer
+ * sobre o System.out, esvaziado quando o programa termina.
+ *
+ * A classe gerada so depende da biblioteca standard, pelo que pode ser executada com
+ * "java &lt;classe&gt;" numa JVM normal, sem o compilador nem as maquinas virtuais Tuga.
+ * O metodo estatico execute executa o programa numa thread com uma pilha grande, porque
+ * cada chamada Tuga ocupa um frame da JVM, e devolve o codigo de saida: 0 no fim do
+ * programa ou no halt, 1 depois de um erro de execucao, que mostra a mesma mensagem que
+ * as maquinas virtuais. O halt e os erros terminam o programa com uma excecao, apanhada
+ * no run, pelo que a classe pode ser usada dentro de outra JVM; so o main chama
+ * System.exit, com o codigo devolvido por execute quando este nao e 0.
+ */
+public final class AotCompiler {
+    /** Tamanho do buffer do output */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+    /** Tamanho da pilha da thread que executa o programa */
+    private static final int STACK_SIZE = 1 << 30;
+    private static final String PRINT_STREAM = "Ljava/io/PrintStream;";
+    /** Campo com o codigo de saida do programa */
+    private static final String STATUS_FIELD = "status";
+    /** Campo que indica que o programa terminou com halt ou com um erro de execucao */
+    private static final String STOPPED_FIELD = "stopped";
+    /** Mensagem da excecao que termina o programa */
+    private static final String STOPPED_MESSAGE = "__VM_ERROR__";
+
+    /** Instrucoes do programa */
+    private final Instruction[] code;
+    /** Constantes do programa */
+    private final ConstantPool constantPool;
+    /** Verificador que validou o programa, com os tipos de cada funcao */
+    private final BytecodeVerifier verifier;
+
+    /**
+     * Cria um compilador para um programa, que e verificado antes de ser compilado.
+     *
+     * @param constantPool A pool de constantes do programa
+     * @param code As instrucoes do programa
+     * @throws VerificationException Se os bytecodes forem invalidos
+     */
+    public AotCompiler(ConstantPool constantPool, Instruction[] code){
+        this.code = code;
+        this.constantPool = constantPool;
+        this.verifier = new BytecodeVerifier(constantPool, code);
+        verifier.verify();
+    }
+
+    /**
+     * Gera a classe do programa.
+     *
+     * @param className O nome da classe (no pacote por omissao)
+     * @return O conteudo do ficheiro .class
+     * @throws IllegalStateException Se alguma funcao tiver valores de tipo desconhecido ou for demasiado grande para um metodo da JVM
+     */
+    public byte[] compile(String className){
+        JitCompiler compiler = new JitCompiler(code, constantPool, verifier, className);
+        Set<Integer> functions = new TreeSet<>(verifier.getFunctionEntries());
+        functions.add(0);
+        for (int entry : functions){
+            if (!compiler.isCompilable(entry)){
+                throw new IllegalStateException("funcao com valores de tipo desconhecido: " + entry);
+            }
+        }
+
+        ClassWriter cw = new ClassWriter(className, "java/lang/Object", "java/lang/Runnable");
+        cw.addField(ACC_STATIC, JitCompiler.OUTPUT_FIELD, PRINT_STREAM);
+        cw.addField(ACC_STATIC, STATUS_FIELD, "I");
+        cw.addField(ACC_STATIC, STOPPED_FIELD, "Z");
+
+        byte[] globals = verifier.getGlobalTypes();
+        for (int addr = 0; addr < globals.length; addr++){
+            if (globals[addr] == BytecodeVerifier.TOP){
+                throw new IllegalStateException("variavel global com valores de tipos diferentes: " + addr);
+            }
+            char kind = JitCompiler.kind(globals[addr]);
+            if (kind != 0){
+                cw.addField(ACC_STATIC, JitCompiler.globalField(addr), JitCompiler.descriptor(kind));
+                cw.addField(ACC_STATIC, JitCompiler.assignedField(addr), "Z");
+            }
+        }
+
+        for (int entry : functions){
+            compiler.addStaticMethod(cw, entry);
+        }
+
+        Code init = cw.newCode(1);
+        init.load('A', 0);
+        init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.op(RETURN);
+        cw.addMethod(ACC_PUBLIC, "<init>", "()V", init);
+
+        // Executa o codigo de topo; o halt e os erros de execucao chegam aqui como excecoes
+        Code run = cw.newCode(1);
+        Label start = new Label(), end = new Label(), handler = new Label(), stopped = new Label(), done = new Label();
+        run.tryCatch(start, end, handler, "java/lang/RuntimeException");
+        run.mark(start);
+        run.invoke(INVOKESTATIC, className, compiler.methodName(0), "()V");
+        run.mark(end);
+        run.jump(GOTO, done);
+        run.mark(handler);
+        run.field(GETSTATIC, className, STOPPED_FIELD, "Z");
+        run.jump(IFNE, stopped);
+        run.op(ATHROW);
+        run.mark(stopped);
+        run.op(POP);
+        run.mark(done);
+        flush(run, className);
+        run.op(RETURN);
+        cw.addMethod(ACC_PUBLIC, "run", "()V", run);
+
+        // Output com buffer sobre o System.out atual, sem autoflush, e variaveis globais sem valor
+        Code execute = cw.newCode(1);
+        execute.type(NEW, "java/io/PrintStream");
+        execute.op(DUP);
+        execute.type(NEW, "java/io/BufferedOutputStream");
+        execute.op(DUP);
+        execute.field(GETSTATIC, "java/lang/System", "out", PRINT_STREAM);
+        execute.iconst(OUTPUT_BUFFER);
+        execute.invoke(INVOKESPECIAL, "java/io/BufferedOutputStream", "<init>", "(Ljava/io/OutputStream;I)V");
+        execute.iconst(0);
+        execute.invoke(INVOKESPECIAL, "java/io/PrintStream", "<init>", "(Ljava/io/OutputStream;Z)V");
+        execute.field(PUTSTATIC, className, JitCompiler.OUTPUT_FIELD, PRINT_STREAM);
+        execute.iconst(0);
+        execute.field(PUTSTATIC, className, STATUS_FIELD, "I");
+        execute.iconst(0);
+        execute.field(PUTSTATIC, className, STOPPED_FIELD, "Z");
+        for (int addr = 0; addr < globals.length; addr++){
+            if (JitCompiler.kind(globals[addr]) != 0){
+                execute.iconst(0);
+                execute.field(PUTSTATIC, className, JitCompiler.assignedField(addr), "Z");
+            }
+        }
+        execute.type(NEW, "java/lang/Thread");
+        execute.op(DUP);
+        execute.op(ACONST_NULL);
+        execute.type(NEW, className);
+        execute.op(DUP);
+        execute.invoke(INVOKESPECIAL, className, "<init>", "()V");
+        execute.sconst("programa");
+        execute.iconst(STACK_SIZE);
+        execute.op(I2L);
+        execute.invoke(INVOKESPECIAL, "java/lang/Thread", "<init>", "(Ljava/lang/ThreadGroup;Ljava/lang/Runnable;Ljava/lang/String;J)V");
+        execute.op(DUP);
+        execute.invoke(INVOKEVIRTUAL, "java/lang/Thread", "start", "()V");
+        execute.invoke(INVOKEVIRTUAL, "java/lang/Thread", "join", "()V");
+        execute.field(GETSTATIC, className, STATUS_FIELD, "I");
+        execute.op(IRETURN);
+        cw.addMethod(ACC_PUBLIC | ACC_STATIC, "execute", "()I", execute);
+
+        // So o main termina a JVM, e apenas com um codigo de saida diferente de 0
+        Code main = cw.newCode(1);
+        Label success = new Label();
+        main.invoke(INVOKESTATIC, className, "execute", "()I");
+        main.op(DUP);
+        main.jump(IFEQ, success);
+        main.invoke(INVOKESTATIC, "java/lang/System", "exit", "(I)V");
+        main.op(RETURN);
+        main.mark(success);
+        main.op(POP);
+        main.op(RETURN);
+        cw.addMethod(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V", main);
+
+        // Erro de execucao: mostra a mensagem e termina o programa com codigo 1
+        Code error = cw.newCode(1);
+        error.field(GETSTATIC, className, JitCompiler.OUTPUT_FIELD, PRINT_STREAM);
+        error.load('A', 0);
+        error.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V");
+        error.iconst(1);
+        error.field(PUTSTATIC, className, STATUS_FIELD, "I");
+        stop(error, className);
+        cw.addMethod(ACC_STATIC, "error", "(Ljava/lang/String;)Ljava/lang/RuntimeException;", error);
+
+        // Halt: termina o programa com codigo 0
+        Code halt = cw.newCode(0);
+        stop(halt, className);
+        cw.addMethod(ACC_STATIC, "halt", "()Ljava/lang/RuntimeException;", halt);
+
+        Code unreachable = cw.newCode(0);
+        unreachable.type(NEW, "java/lang/IllegalStateException");
+        unreachable.op(DUP);
+        unreachable.invoke(INVOKESPECIAL, "java/lang/IllegalStateException", "<init>", "()V");
+        unreachable.op(ARETURN);
+        cw.addMethod(ACC_STATIC, "unreachable", "()Ljava/lang/RuntimeException;", unreachable);
+
+        return cw.toByteArray();
+    }
+
+    /**
+     * Gera o fim de error e halt: marca o programa como terminado e devolve a excecao
+     * que o codigo gerado lanca para sair de todas as chamadas ate ao run.
+     */
+    private static void stop(Code code, String className){
+        code.iconst(1);
+        code.field(PUTSTATIC, className, STOPPED_FIELD, "Z");
+        code.type(NEW, "java/lang/RuntimeException");
+        code.op(DUP);
+        code.sconst(STOPPED_MESSAGE);
+        code.invoke(INVOKESPECIAL, "java/lang/RuntimeException", "<init>", "(Ljava/lang/String;)V");
+        code.op(ARETURN);
+    }
+
+    private static void flush(Code code, String className){
+        code.field(GETSTATIC, className, JitCompiler.OUTPUT_FIELD, PRINT_STREAM);
+        code.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "flush", "()V");
+    }
+}
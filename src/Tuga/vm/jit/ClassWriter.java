@@ -0,0 +1,663 @@
+package Tuga.vm.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Escritor minimo de ficheiros .class, com apenas o necessario para as classes geradas
+ * pelo JitCompiler: constant pool, campos, metodos e o atributo Code, com a tabela de excecoes.
+ *
+ * As classes sao geradas na versao 49 do formato (Java 5), que a JVM verifica por
+ * inferencia de tipos, pelo que nao e preciso calcular a StackMapTable. O codigo de cada
+ * metodo e escrito atraves de um Code, que resolve os saltos para Labels e calcula a
+ * profundidade maxima da pilha de operandos.
+ */
+public final class ClassWriter {
+    /** Versao do formato das classes geradas */
+    private static final int MAJOR_VERSION = 49;
+
+    //  Modificadores de acesso
+    public static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    //  Instrucoes da JVM usadas pelos geradores
+    public static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, DCONST_0 = 0x0e, DCONST_1 = 0x0f,
+            BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14;
+    public static final int ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19, ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a;
+    public static final int POP = 0x57, DUP = 0x59, DUP_X1 = 0x5a, SWAP = 0x5f;
+    public static final int IADD = 0x60, DADD = 0x63, ISUB = 0x64, DSUB = 0x67, IMUL = 0x68, DMUL = 0x6b,
+            IDIV = 0x6c, DDIV = 0x6f, IREM = 0x70, INEG = 0x74, DNEG = 0x77, IAND = 0x7e, IOR = 0x80, IXOR = 0x82,
+            IINC = 0x84, I2L = 0x85, I2D = 0x87, LCMP = 0x94, DCMPL = 0x97, DCMPG = 0x98;
+    public static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e,
+            IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3,
+            IF_ICMPLE = 0xa4, GOTO = 0xa7;
+    public static final int IRETURN = 0xac, DRETURN = 0xaf, ARETURN = 0xb0, RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2, PUTSTATIC = 0xb3, GETFIELD = 0xb4, PUTFIELD = 0xb5,
+            INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9,
+            NEW = 0xbb, ATHROW = 0xbf, CHECKCAST = 0xc0, WIDE = 0xc4;
+
+    //  Etiquetas das entradas da constant pool
+    private static final int CONSTANT_UTF8 = 1, CONSTANT_INTEGER = 3, CONSTANT_DOUBLE = 6, CONSTANT_CLASS = 7,
+            CONSTANT_STRING = 8, CONSTANT_FIELDREF = 9, CONSTANT_METHODREF = 10,
+            CONSTANT_INTERFACE_METHODREF = 11, CONSTANT_NAME_AND_TYPE = 12;
+
+    /** Entradas da constant pool ja escritas */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    /** Indice de cada entrada da constant pool, para nao as repetir */
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    /** Numero de posicoes ocupadas na constant pool (a posicao 0 nao e usada) */
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /**
+     * Cria uma classe publica e final.
+     *
+     * @param name O nome interno da classe (com / a separar os pacotes)
+     * @param superName O nome interno da superclasse
+     * @param interfaceNames Os nomes internos das interfaces implementadas
+     */
+    public ClassWriter(String name, String superName, String... interfaceNames){
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++){
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    /**
+     * Acrescenta um campo a classe.
+     *
+     * @param access Os modificadores de acesso
+     * @param name O nome do campo
+     * @param descriptor O descritor do tipo do campo
+     */
+    public void addField(int access, String name, String descriptor){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Cria um bloco de codigo que pode depois ser usado como corpo de um metodo.
+     * As constantes usadas pelo codigo sao acrescentadas a constant pool desta classe.
+     *
+     * @param maxLocals O numero de variaveis locais da JVM usadas pelo codigo
+     * @return O bloco de codigo vazio
+     */
+    public Code newCode(int maxLocals){
+        return new Code(maxLocals);
+    }
+
+    /**
+     * Acrescenta um metodo a classe.
+     *
+     * @param access Os modificadores de acesso
+     * @param name O nome do metodo
+     * @param descriptor O descritor do metodo
+     * @param code O corpo do metodo
+     */
+    public void addMethod(int access, String name, String descriptor, Code code){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+
+            // Atributo Code, com a tabela de excecoes e sem outros atributos
+            byte[] body = code.toByteArray();
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + body.length + 8 * code.handlers.size());
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(code.handlers.size());
+            for (Handler handler : code.handlers){
+                if (handler.start.offset < 0 || handler.end.offset < 0 || handler.handler.offset < 0){
+                    throw new IllegalStateException("label de excecao nao marcado");
+                }
+                out.writeShort(handler.start.offset);
+                out.writeShort(handler.end.offset);
+                out.writeShort(handler.handler.offset);
+                out.writeShort(classRef(handler.type));
+            }
+            out.writeShort(0);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    /**
+     * Obtem o conteudo do ficheiro .class.
+     *
+     * @return Os bytes da classe
+     */
+    public byte[] toByteArray(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces){
+                out.writeShort(i);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields){
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods){
+                out.write(method);
+            }
+            out.writeShort(0);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Constant pool
+
+    private int utf8(String value){
+        Integer index = poolIndex.get("U" + value);
+        if (index != null){
+            return index;
+        }
+        try {
+            poolOut.writeByte(CONSTANT_UTF8);
+            poolOut.writeUTF(value);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return register("U" + value, 1);
+    }
+
+    private int classRef(String name){
+        return entry("C" + name, CONSTANT_CLASS, utf8(name));
+    }
+
+    private int stringRef(String value){
+        return entry("S" + value, CONSTANT_STRING, utf8(value));
+    }
+
+    private int nameAndType(String name, String descriptor){
+        return entry("N" + name + ' ' + descriptor, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor));
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor){
+        return entry(tag + owner + '.' + name + ' ' + descriptor, tag, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int intConstant(int value){
+        Integer index = poolIndex.get("I" + value);
+        if (index != null){
+            return index;
+        }
+        try {
+            poolOut.writeByte(CONSTANT_INTEGER);
+            poolOut.writeInt(value);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return register("I" + value, 1);
+    }
+
+    private int doubleConstant(double value){
+        // A chave usa os bits para distinguir 0.0 de -0.0
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = poolIndex.get(key);
+        if (index != null){
+            return index;
+        }
+        try {
+            poolOut.writeByte(CONSTANT_DOUBLE);
+            poolOut.writeDouble(value);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        // As constantes double ocupam duas posicoes da constant pool
+        return register(key, 2);
+    }
+
+    /**
+     * Escreve uma entrada formada por uma etiqueta e indices de 16 bits para outras entradas.
+     */
+    private int entry(String key, int tag, int... refs){
+        Integer index = poolIndex.get(key);
+        if (index != null){
+            return index;
+        }
+        try {
+            poolOut.writeByte(tag);
+            for (int ref : refs){
+                poolOut.writeShort(ref);
+            }
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return register(key, 1);
+    }
+
+    private int register(String key, int size){
+        int index = poolCount;
+        poolIndex.put(key, index);
+        poolCount += size;
+        if (poolCount > 0xFFFF){
+            throw new IllegalStateException("constant pool demasiado grande");
+        }
+        return index;
+    }
+
+    /**
+     * Numero de posicoes da pilha de operandos ocupadas pelos argumentos de um descritor
+     * de metodo, ou pelo tipo de um descritor de campo.
+     */
+    private static int argumentSize(String descriptor){
+        int size = 0;
+        int i = descriptor.charAt(0) == '(' ? 1 : 0;
+        while (i < descriptor.length() && descriptor.charAt(i) != ')'){
+            boolean array = false;
+            while (descriptor.charAt(i) == '['){
+                array = true;
+                i++;
+            }
+            char c = descriptor.charAt(i);
+            if (c == 'L'){
+                i = descriptor.indexOf(';', i);
+            }
+            size += !array && (c == 'D' || c == 'J') ? 2 : 1;
+            i++;
+        }
+        return size;
+    }
+
+    /**
+     * Numero de posicoes da pilha de operandos ocupadas pelo valor de retorno de um descritor de metodo.
+     */
+    private static int returnSize(String descriptor){
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        return c == 'V' ? 0 : (c == 'D' || c == 'J') ? 2 : 1;
+    }
+
+    /**
+     * Posicao do codigo de um metodo, destino de saltos.
+     */
+    public static final class Label {
+        /** Posicao no codigo, ou -1 enquanto nao for marcada */
+        private int offset = -1;
+        /** Profundidade da pilha num salto para esta posicao, ou -1 se ainda nao for conhecida */
+        private int stack = -1;
+        /** Posicoes das instrucoes de salto cujo deslocamento falta preencher */
+        private final List<Integer> pending = new ArrayList<>();
+    }
+
+    /**
+     * Entrada da tabela de excecoes de um metodo.
+     */
+    private record Handler(Label start, Label end, Label handler, String type) {
+    }
+
+    /**
+     * Codigo de um metodo em construcao.
+     * A profundidade da pilha e acompanhada instrucao a instrucao; depois de um salto
+     * incondicional, retorno ou athrow, passa a ser a registada no Label seguinte.
+     */
+    public final class Code {
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        /** false depois de uma instrucao que nunca passa a seguinte, ate ao proximo Label */
+        private boolean reachable = true;
+        /** Tabela de excecoes, pela ordem em que sao procuradas */
+        private final List<Handler> handlers = new ArrayList<>();
+
+        private Code(int maxLocals){
+            this.maxLocals = maxLocals;
+        }
+
+        /**
+         * Obtem o tamanho atual do codigo.
+         *
+         * @return O numero de bytes
+         */
+        public int size(){
+            return length;
+        }
+
+        /**
+         * Indica se a execucao pode chegar a posicao atual do codigo.
+         *
+         * @return false depois de um goto, retorno ou athrow que nao e seguido de nenhum Label
+         */
+        public boolean isReachable(){
+            return reachable;
+        }
+
+        /**
+         * Regista que o metodo usa as variaveis locais da JVM ate ao indice indicado (exclusive).
+         *
+         * @param n O numero de variaveis locais
+         */
+        public void useLocals(int n){
+            maxLocals = Math.max(maxLocals, n);
+        }
+
+        /**
+         * Escreve uma instrucao sem argumentos.
+         *
+         * @param opcode A instrucao
+         */
+        public void op(int opcode){
+            writeByte(opcode);
+            adjust(switch (opcode){
+                case ACONST_NULL, DUP, DUP_X1, I2L, I2D -> 1;
+                case DCONST_0, DCONST_1 -> 2;
+                case POP, IADD, ISUB, IMUL, IDIV, IREM, IAND, IOR, IXOR, IRETURN, ARETURN, ATHROW -> -1;
+                case DADD, DSUB, DMUL, DDIV, DRETURN -> -2;
+                case LCMP, DCMPL, DCMPG -> -3;
+                default -> 0;
+            });
+            if (opcode == ATHROW || opcode == RETURN || opcode == IRETURN || opcode == DRETURN || opcode == ARETURN){
+                reachable = false;
+            }
+        }
+
+        /**
+         * Empilha uma constante inteira, com a instrucao mais curta possivel.
+         *
+         * @param value O valor
+         */
+        public void iconst(int value){
+            if (value >= -1 && value <= 5){
+                writeByte(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                writeByte(BIPUSH);
+                writeByte(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                writeByte(SIPUSH);
+                writeShort(value);
+            }else {
+                ldc(intConstant(value));
+            }
+            adjust(1);
+        }
+
+        /**
+         * Empilha uma constante real.
+         *
+         * @param value O valor
+         */
+        public void dconst(double value){
+            if (Double.doubleToRawLongBits(value) == 0L){
+                writeByte(DCONST_0);
+            } else if (value == 1.0) {
+                writeByte(DCONST_1);
+            }else {
+                writeByte(LDC2_W);
+                writeShort(doubleConstant(value));
+            }
+            adjust(2);
+        }
+
+        /**
+         * Empilha uma string constante.
+         *
+         * @param value O valor
+         */
+        public void sconst(String value){
+            ldc(stringRef(value));
+            adjust(1);
+        }
+
+        /**
+         * Le uma variavel local da JVM.
+         *
+         * @param kind O tipo da variavel: 'I' (int), 'D' (double) ou 'A' (referencia)
+         * @param index O indice da variavel
+         */
+        public void load(char kind, int index){
+            local(kind == 'I' ? ILOAD : kind == 'D' ? DLOAD : ALOAD, index);
+            adjust(kind == 'D' ? 2 : 1);
+        }
+
+        /**
+         * Guarda o valor no topo da pilha numa variavel local da JVM.
+         *
+         * @param kind O tipo da variavel: 'I' (int), 'D' (double) ou 'A' (referencia)
+         * @param index O indice da variavel
+         */
+        public void store(char kind, int index){
+            local(kind == 'I' ? ISTORE : kind == 'D' ? DSTORE : ASTORE, index);
+            adjust(kind == 'D' ? -2 : -1);
+        }
+
+        /**
+         * Soma uma constante a uma variavel local inteira.
+         *
+         * @param index O indice da variavel
+         * @param delta O valor a somar
+         */
+        public void iinc(int index, int delta){
+            if (index <= 0xFF && delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE){
+                writeByte(IINC);
+                writeByte(index);
+                writeByte(delta);
+            } else if (delta >= Short.MIN_VALUE && delta <= Short.MAX_VALUE) {
+                writeByte(WIDE);
+                writeByte(IINC);
+                writeShort(index);
+                writeShort(delta);
+            }else {
+                load('I', index);
+                iconst(delta);
+                op(IADD);
+                store('I', index);
+            }
+            useLocals(index + 1);
+        }
+
+        /**
+         * Escreve um acesso a um campo (getstatic, putstatic, getfield ou putfield).
+         *
+         * @param opcode A instrucao
+         * @param owner O nome interno da classe do campo
+         * @param name O nome do campo
+         * @param descriptor O descritor do tipo do campo
+         */
+        public void field(int opcode, String owner, String name, String descriptor){
+            writeByte(opcode);
+            writeShort(memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+            int size = argumentSize(descriptor);
+            adjust(switch (opcode){
+                case GETSTATIC -> size;
+                case PUTSTATIC -> -size;
+                case GETFIELD -> size - 1;
+                default -> -size - 1;
+            });
+        }
+
+        /**
+         * Escreve uma chamada de metodo (invokestatic, invokevirtual, invokespecial ou invokeinterface).
+         *
+         * @param opcode A instrucao
+         * @param owner O nome interno da classe ou interface do metodo
+         * @param name O nome do metodo
+         * @param descriptor O descritor do metodo
+         */
+        public void invoke(int opcode, String owner, String name, String descriptor){
+            int args = argumentSize(descriptor) + (opcode == INVOKESTATIC ? 0 : 1);
+            writeByte(opcode);
+            if (opcode == INVOKEINTERFACE){
+                writeShort(memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor));
+                writeByte(args);
+                writeByte(0);
+            }else {
+                writeShort(memberRef(CONSTANT_METHODREF, owner, name, descriptor));
+            }
+            adjust(returnSize(descriptor) - args);
+        }
+
+        /**
+         * Escreve uma instrucao com uma classe como argumento (new ou checkcast).
+         *
+         * @param opcode A instrucao
+         * @param name O nome interno da classe
+         */
+        public void type(int opcode, String name){
+            writeByte(opcode);
+            writeShort(classRef(name));
+            adjust(opcode == NEW ? 1 : 0);
+        }
+
+        /**
+         * Escreve um salto (goto ou if) para um Label, marcado antes ou depois.
+         *
+         * @param opcode A instrucao de salto
+         * @param target O destino
+         */
+        public void jump(int opcode, Label target){
+            int at = length;
+            writeByte(opcode);
+            writeShort(0);
+            adjust(switch (opcode){
+                case GOTO -> 0;
+                case IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE -> -1;
+                default -> -2;
+            });
+
+            if (target.stack < 0){
+                target.stack = stack;
+            }
+            if (target.offset >= 0){
+                patch(at, target.offset);
+            }else {
+                target.pending.add(at);
+            }
+            if (opcode == GOTO){
+                reachable = false;
+            }
+        }
+
+        /**
+         * Apanha as excecoes de um tipo lancadas entre dois Labels. O handler comeca
+         * com a excecao como unico valor na pilha.
+         *
+         * @param start O inicio do codigo protegido
+         * @param end O fim do codigo protegido (exclusive)
+         * @param handler O inicio do handler
+         * @param type O nome interno da classe das excecoes apanhadas
+         */
+        public void tryCatch(Label start, Label end, Label handler, String type){
+            handler.stack = 1;
+            maxStack = Math.max(maxStack, 1);
+            handlers.add(new Handler(start, end, handler, type));
+        }
+
+        /**
+         * Marca a posicao atual do codigo com um Label.
+         *
+         * @param label O Label
+         */
+        public void mark(Label label){
+            if (label.offset >= 0){
+                throw new IllegalStateException("label ja marcado");
+            }
+            label.offset = length;
+            for (int at : label.pending){
+                patch(at, length);
+            }
+            label.pending.clear();
+
+            if (!reachable){
+                stack = Math.max(label.stack, 0);
+            } else if (label.stack < 0) {
+                label.stack = stack;
+            }
+            reachable = true;
+        }
+
+        private void ldc(int index){
+            if (index <= 0xFF){
+                writeByte(LDC);
+                writeByte(index);
+            }else {
+                writeByte(LDC_W);
+                writeShort(index);
+            }
+        }
+
+        private void local(int opcode, int index){
+            if (index <= 0xFF){
+                writeByte(opcode);
+                writeByte(index);
+            }else {
+                writeByte(WIDE);
+                writeByte(opcode);
+                writeShort(index);
+            }
+            useLocals(index + (opcode == DLOAD || opcode == DSTORE ? 2 : 1));
+        }
+
+        private void patch(int at, int target){
+            int offset = target - at;
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE){
+                throw new IllegalStateException("metodo demasiado grande");
+            }
+            bytes[at + 1] = (byte) (offset >> 8);
+            bytes[at + 2] = (byte) offset;
+        }
+
+        private void adjust(int delta){
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void writeByte(int value){
+            if (length == bytes.length){
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void writeShort(int value){
+            writeByte(value >> 8);
+            writeByte(value);
+        }
+
+        private byte[] toByteArray(){
+            if (length > 0xFFFF){
+                throw new IllegalStateException("metodo demasiado grande");
+            }
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package Tuga.vm.jit;
+
+/**
+ * Funcao Tuga compilada para uma classe da JVM, tal como vista pelo interpretador.
+ * Os argumentos e o frame sao lidos, e o resultado devolvido, atraves do JitRuntime.
+ */
+public interface CompiledFunction {
+    /**
+     * Executa a funcao com os argumentos da chamada interpretada (JitRuntime.argInt, ...).
+     * O resultado, se existir, e empilhado na pilha do interpretador.
+     */
+    void invoke();
+
+    /**
+     * Continua em codigo compilado a execucao da funcao interpretada atual, a partir do
+     * inicio de um ciclo. O frame e lido com JitRuntime.localInt, ...; o resultado, se
+     * existir, e empilhado na pilha do interpretador, que so tem de retornar da funcao.
+     *
+     * @param pc O endereco da instrucao onde o ciclo comeca (destino de um jump para tras)
+     */
+    void enter(int pc);
+}
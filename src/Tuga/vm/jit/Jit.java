@@ -0,0 +1,135 @@
+package Tuga.vm.jit;
+
+import Tuga.vm.BytecodeVerifier;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.instruction.Instruction;
+
+import java.util.*;
+
+/**
+ * Compilador JIT de um programa Tuga: gera, carrega e guarda as classes das funcoes
+ * que a maquina virtual considera quentes.
+ * Cada pedido compila a funcao juntamente com as funcoes que ela chama (direta ou
+ * indiretamente) e que ainda nao foram compiladas, para que essas chamadas sejam
+ * diretas. As classes sao carregadas por um ClassLoader proprio do programa.
+ * As funcoes que nao podem ser compiladas (tipos desconhecidos ou codigo demasiado
+ * grande para um metodo da JVM) continuam a ser interpretadas.
+ */
+public final class Jit {
+    private final JitCompiler compiler;
+    /** Ligacao a maquina virtual, partilhada por todas as classes geradas */
+    private final JitRuntime runtime;
+    private final JitClassLoader loader = new JitClassLoader();
+    /** Funcoes ja compiladas, pelo endereco de entrada */
+    private final Map<Integer, CompiledFunction> compiled = new HashMap<>();
+    /** Funcoes que ficam interpretadas */
+    private final Set<Integer> failed = new HashSet<>();
+
+    /**
+     * Cria o compilador JIT de um programa ja verificado.
+     *
+     * @param code As instrucoes do programa
+     * @param constantPool A pool de constantes do programa
+     * @param verifier O verificador que validou o programa
+     * @param runtime A ligacao a maquina virtual que executa o programa
+     */
+    public Jit(Instruction[] code, ConstantPool constantPool, BytecodeVerifier verifier, JitRuntime runtime){
+        this.compiler = new JitCompiler(code, constantPool, verifier);
+        this.runtime = runtime;
+    }
+
+    /**
+     * Compila uma funcao, se ainda nao tiver sido compilada.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return A funcao compilada, ou null se a funcao tiver de continuar a ser interpretada
+     */
+    public CompiledFunction compile(int entry){
+        CompiledFunction function = compiled.get(entry);
+        if (function != null || failed.contains(entry)){
+            return function;
+        }
+
+        // Lote: a funcao e todas as funcoes compilaveis que ela pode chamar
+        Set<Integer> batch = new TreeSet<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(entry);
+        while (!pending.isEmpty()){
+            int next = pending.pop();
+            if (compiled.containsKey(next) || failed.contains(next) || batch.contains(next)){
+                continue;
+            }
+            if (!compiler.isCompilable(next)){
+                failed.add(next);
+                continue;
+            }
+            batch.add(next);
+            for (int callee : compiler.callees(next)){
+                pending.push(callee);
+            }
+        }
+
+        // As funcoes demasiado grandes ficam interpretadas, e as restantes sao geradas de novo
+        // para as chamarem atraves do interpretador
+        Map<Integer, byte[]> classes;
+        do {
+            Set<Integer> callable = new HashSet<>(compiled.keySet());
+            callable.addAll(batch);
+            classes = new TreeMap<>();
+            for (int next : batch){
+                byte[] bytes = compiler.compile(next, callable);
+                if (bytes != null){
+                    classes.put(next, bytes);
+                }else {
+                    failed.add(next);
+                }
+            }
+        } while (batch.retainAll(classes.keySet()));
+
+        for (Map.Entry<Integer, byte[]> generated : classes.entrySet()){
+            loader.add(JitCompiler.className(generated.getKey()), generated.getValue());
+        }
+        for (int next : classes.keySet()){
+            compiled.put(next, instantiate(JitCompiler.className(next)));
+        }
+        return compiled.get(entry);
+    }
+
+    /**
+     * Carrega uma classe gerada e liga-a a maquina virtual.
+     */
+    private CompiledFunction instantiate(String className){
+        try {
+            Class<?> generated = loader.loadClass(className);
+            generated.getField("rt").set(null, runtime);
+            return (CompiledFunction) generated.getConstructor().newInstance();
+        }catch (ReflectiveOperationException e){
+            throw new IllegalStateException("Classe gerada invalida: " + className, e);
+        }
+    }
+
+    /**
+     * ClassLoader das classes geradas para um programa. As classes ficam pendentes ate serem
+     * pedidas, pelo que uma classe pode referir outra do mesmo lote.
+     */
+    private static final class JitClassLoader extends ClassLoader {
+        private final Map<String, byte[]> pending = new HashMap<>();
+
+        JitClassLoader(){
+            super(Jit.class.getClassLoader());
+        }
+
+        void add(String name, byte[] bytes){
+            pending.put(name, bytes);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = pending.remove(name);
+            if (bytes == null){
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
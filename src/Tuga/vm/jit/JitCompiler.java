@@ -0,0 +1,1141 @@
+package Tuga.vm.jit;
+
+import Tuga.vm.BytecodeVerifier;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.OpCode;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import Tuga.vm.jit.ClassWriter.Code;
+import Tuga.vm.jit.ClassWriter.Label;
+
+import java.util.*;
+
+import static Tuga.vm.jit.ClassWriter.*;
+
+/**
+ * Tradutor de funcoes Tuga para classes da JVM.
+ * Cada funcao da origem a uma classe TugaJit&lt;entrada&gt; que implementa CompiledFunction, com
+ * dois metodos estaticos com o mesmo corpo:
+ * - run, com os argumentos e o valor de retorno em tipos primitivos (int para inteiros e
+ *   booleanos, double para reais, String), usado nas chamadas;
+ * - osr, que le o frame da chamada interpretada atraves do JitRuntime e continua a execucao
+ *   no inicio de um ciclo (destino de um jump para tras).
+ *
+ * Os tipos de cada posicao da pilha vem do BytecodeVerifier. Cada posicao do frame (variaveis
+ * locais e valores intermedios) passa a ser uma variavel local da JVM de tipo fixo, pelo que a
+ * pilha de operandos da JVM so e usada dentro de cada instrucao Tuga e o JIT da JVM pode
+ * manter os valores em registos. As leituras de variaveis locais que podem estar sem valor
+ * sao protegidas por uma flag, calculada por uma analise de atribuicao definida; as restantes
+ * nao tem nenhuma verificacao.
+ *
+ * As chamadas para funcoes compiladas no mesmo lote (ou antes) sao invokestatic diretos, e um
+ * tailcall para a propria funcao passa a ser um salto para o inicio. As restantes chamadas, e
+ * as que excedem JitRuntime.MAX_DEPTH, sao interpretadas atraves do JitRuntime.
+ *
+ * Na compilacao antecipada (ver AotCompiler), o mesmo tradutor gera um metodo estatico por
+ * funcao numa unica classe do programa, que guarda tambem as variaveis globais e o output.
+ * Nesse modo todas as chamadas sao diretas e o codigo gerado nao depende do JitRuntime.
+ */
+final class JitCompiler {
+    static final String RUNTIME = "Tuga/vm/jit/JitRuntime";
+    private static final String RUNTIME_DESCRIPTOR = "L" + RUNTIME + ";";
+    private static final String COMPILED_FUNCTION = "Tuga/vm/jit/CompiledFunction";
+    private static final String NULL_ACCESS = "erro de runtime: tentativa de acesso a valor NULO";
+    /** Campo com o output da classe do programa, na compilacao antecipada, e do JitRuntime */
+    static final String OUTPUT_FIELD = "out";
+    private static final String VM_OUTPUT = "Tuga/vm/VmOutput";
+    /** Numero de posicoes do frame usadas pelo FP e IP guardados, como no verificador */
+    private static final int FRAME_HEADER = 2;
+
+    /** Instrucoes do programa */
+    private final Instruction[] instructions;
+    /** Constantes do programa */
+    private final List<Object> constants;
+    /** Verificador que validou o programa, com os tipos de cada funcao */
+    private final BytecodeVerifier verifier;
+    /** Enderecos de entrada das funcoes do programa */
+    private final Set<Integer> entries;
+    /** Classe do programa na compilacao antecipada, ou null no JIT */
+    private final String programClass;
+
+    /**
+     * Cria um compilador para um programa ja verificado.
+     *
+     * @param instructions As instrucoes do programa
+     * @param constantPool A pool de constantes do programa
+     * @param verifier O verificador que validou o programa
+     */
+    JitCompiler(Instruction[] instructions, ConstantPool constantPool, BytecodeVerifier verifier){
+        this(instructions, constantPool, verifier, null);
+    }
+
+    /**
+     * Cria um compilador que gera os metodos das funcoes numa unica classe.
+     *
+     * @param instructions As instrucoes do programa
+     * @param constantPool A pool de constantes do programa
+     * @param verifier O verificador que validou o programa
+     * @param programClass O nome da classe do programa, ou null para o JIT
+     */
+    JitCompiler(Instruction[] instructions, ConstantPool constantPool, BytecodeVerifier verifier, String programClass){
+        this.instructions = instructions;
+        this.constants = constantPool.getAllConstants();
+        this.verifier = verifier;
+        this.entries = verifier.getFunctionEntries();
+        this.programClass = programClass;
+    }
+
+    /**
+     * Obtem o nome da classe gerada para uma funcao.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return O nome da classe
+     */
+    static String className(int entry){
+        return "TugaJit" + entry;
+    }
+
+    /**
+     * Obtem o nome do campo estatico com o valor de uma variavel global, na compilacao antecipada.
+     *
+     * @param addr O endereco da variavel
+     * @return O nome do campo
+     */
+    static String globalField(int addr){
+        return "global" + addr;
+    }
+
+    /**
+     * Obtem o nome do campo estatico que indica se uma variavel global ja tem valor.
+     *
+     * @param addr O endereco da variavel
+     * @return O nome do campo
+     */
+    static String assignedField(int addr){
+        return "global" + addr + "Atribuida";
+    }
+
+    /**
+     * Indica se uma funcao pode ser compilada: todos os valores tem um tipo conhecido
+     * e, no JIT, a funcao nao tem instrucoes que so existem no codigo de topo.
+     * Na compilacao antecipada, o codigo de topo (endereco 0) tambem e compilado.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return true se a funcao pode ser compilada
+     */
+    boolean isCompilable(int entry){
+        if (programClass == null && !entries.contains(entry)){
+            return false;
+        }
+        byte returnType = verifier.getReturnType(entry);
+        if (verifier.returnsValue(entry) && returnType != BytecodeVerifier.BOTTOM && kind(returnType) == 0){
+            return false;
+        }
+        for (byte type : verifier.getParamTypes(entry)){
+            if (kind(type) == 0){
+                return false;
+            }
+        }
+        for (int pc : verifier.getFunctionCode(entry)){
+            OpCode op = instructions[pc].getOpCode();
+            if (programClass == null && (op == OpCode.halt || op == OpCode.galloc)){
+                return false;
+            }
+            for (byte type : verifier.getStackTypes(entry, pc)){
+                if (type == BytecodeVerifier.TOP){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Obtem as funcoes chamadas por uma funcao, com call ou tailcall.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return Os enderecos de entrada das funcoes chamadas
+     */
+    Set<Integer> callees(int entry){
+        Set<Integer> callees = new TreeSet<>();
+        for (int pc : verifier.getFunctionCode(entry)){
+            OpCode op = instructions[pc].getOpCode();
+            if (op == OpCode.call || op == OpCode.tailcall){
+                callees.add(arg(pc, 0));
+            }
+        }
+        return callees;
+    }
+
+    /**
+     * Gera a classe de uma funcao.
+     *
+     * @param entry O endereco de entrada da funcao, que tem de ser compilavel
+     * @param callable As funcoes que podem ser chamadas diretamente (compiladas ou no mesmo lote)
+     * @return O conteudo do ficheiro .class, ou null se a funcao for demasiado grande para um metodo da JVM
+     */
+    byte[] compile(int entry, Set<Integer> callable){
+        String name = className(entry);
+        FunctionCompiler function = new FunctionCompiler(entry, name, callable);
+
+        ClassWriter cw = new ClassWriter(name, "java/lang/Object", COMPILED_FUNCTION);
+        cw.addField(ACC_PUBLIC | ACC_STATIC, "rt", RUNTIME_DESCRIPTOR);
+        try {
+            cw.addMethod(ACC_PUBLIC | ACC_STATIC, "run", descriptor(entry), function.method(cw, false));
+            cw.addMethod(ACC_PUBLIC | ACC_STATIC, "osr", "(I)" + returnDescriptor(entry), function.method(cw, true));
+        }catch (IllegalStateException e){
+            return null;
+        }
+
+        Code init = cw.newCode(1);
+        init.load('A', 0);
+        init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.op(RETURN);
+        cw.addMethod(ACC_PUBLIC, "<init>", "()V", init);
+
+        // Pontes usadas pelo interpretador: argumentos e resultado passam pela pilha do interpretador
+        char resultKind = returnKind(entry);
+        boolean value = resultKind != 0;
+
+        Code invoke = cw.newCode(1);
+        if (value){
+            invoke.field(GETSTATIC, name, "rt", RUNTIME_DESCRIPTOR);
+        }
+        byte[] params = verifier.getParamTypes(entry);
+        for (int i = 0; i < params.length; i++){
+            invoke.field(GETSTATIC, name, "rt", RUNTIME_DESCRIPTOR);
+            invoke.iconst(i);
+            invoke.invoke(INVOKEVIRTUAL, RUNTIME, "arg" + suffix(kind(params[i])), "(I)" + descriptor(kind(params[i])));
+        }
+        invoke.invoke(INVOKESTATIC, name, "run", descriptor(entry));
+        if (value){
+            invoke.invoke(INVOKEVIRTUAL, RUNTIME, "push" + suffix(resultKind), "(" + descriptor(resultKind) + ")V");
+        }
+        invoke.op(RETURN);
+        cw.addMethod(ACC_PUBLIC, "invoke", "()V", invoke);
+
+        Code enter = cw.newCode(2);
+        if (value){
+            enter.field(GETSTATIC, name, "rt", RUNTIME_DESCRIPTOR);
+        }
+        enter.load('I', 1);
+        enter.invoke(INVOKESTATIC, name, "osr", "(I)" + returnDescriptor(entry));
+        if (value){
+            enter.invoke(INVOKEVIRTUAL, RUNTIME, "push" + suffix(resultKind), "(" + descriptor(resultKind) + ")V");
+        }
+        enter.op(RETURN);
+        cw.addMethod(ACC_PUBLIC, "enter", "(I)V", enter);
+
+        return cw.toByteArray();
+    }
+
+    /**
+     * Gera o metodo estatico de uma funcao, ou do codigo de topo, na classe do programa.
+     *
+     * @param cw A classe do programa
+     * @param entry O endereco de entrada da funcao, que tem de ser compilavel
+     * @throws IllegalStateException Se a funcao for demasiado grande para um metodo da JVM
+     */
+    void addStaticMethod(ClassWriter cw, int entry){
+        FunctionCompiler function = new FunctionCompiler(entry, programClass, entries);
+        cw.addMethod(ACC_PUBLIC | ACC_STATIC, methodName(entry), descriptor(entry), function.method(cw, false));
+    }
+
+    /**
+     * Obtem o nome do metodo que executa uma funcao: run no JIT, programa (codigo de
+     * topo) ou funcao&lt;entrada&gt; na compilacao antecipada.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return O nome do metodo
+     */
+    String methodName(int entry){
+        if (programClass == null){
+            return "run";
+        }
+        return entry == 0 ? "programa" : "funcao" + entry;
+    }
+
+    /**
+     * Obtem o descritor do metodo que executa uma funcao.
+     *
+     * @param entry O endereco de entrada da funcao
+     * @return O descritor, com os tipos dos argumentos e do valor de retorno
+     */
+    String descriptor(int entry){
+        StringBuilder sb = new StringBuilder("(");
+        for (byte type : verifier.getParamTypes(entry)){
+            sb.append(descriptor(kind(type)));
+        }
+        return sb.append(')').append(returnDescriptor(entry)).toString();
+    }
+
+    private String returnDescriptor(int entry){
+        char kind = returnKind(entry);
+        return kind == 0 ? "V" : descriptor(kind);
+    }
+
+    /**
+     * Obtem o tipo do valor devolvido por uma funcao, ou 0 se a funcao nunca devolve um valor.
+     */
+    private char returnKind(int entry){
+        return verifier.returnsValue(entry) ? kind(verifier.getReturnType(entry)) : 0;
+    }
+
+    /**
+     * Obtem o tipo da variavel da JVM que guarda um valor de um tipo do verificador:
+     * 'I' (int), 'D' (double) ou 'A' (String), ou 0 se nao houver nenhum valor.
+     */
+    static char kind(byte type){
+        return switch (type){
+            case BytecodeVerifier.INT, BytecodeVerifier.BOOL -> 'I';
+            case BytecodeVerifier.REAL -> 'D';
+            case BytecodeVerifier.STRING -> 'A';
+            default -> 0;
+        };
+    }
+
+    static String descriptor(char kind){
+        return switch (kind){
+            case 'I' -> "I";
+            case 'D' -> "D";
+            default -> "Ljava/lang/String;";
+        };
+    }
+
+    /**
+     * Obtem o sufixo dos metodos do JitRuntime para um tipo (argInt, pushReal, ...).
+     */
+    private static String suffix(char kind){
+        return switch (kind){
+            case 'I' -> "Int";
+            case 'D' -> "Real";
+            default -> "String";
+        };
+    }
+
+    private static int returnOpcode(char kind){
+        return switch (kind){
+            case 'I' -> IRETURN;
+            case 'D' -> DRETURN;
+            default -> ARETURN;
+        };
+    }
+
+    private int arg(int pc, int index){
+        return ((Instruction1Arg) instructions[pc]).getArg(index);
+    }
+
+    /**
+     * Variaveis locais da JVM de um metodo gerado: os argumentos da funcao, uma por cada
+     * posicao do frame e tipo, e as flags das posicoes que podem ser lidas sem valor.
+     */
+    private static final class Locals {
+        /** Variavel de cada argumento da funcao */
+        final int[] params;
+        /** Variavel de cada posicao do frame, indexada por posicao * 3 + tipo */
+        final Map<Integer, Integer> slots = new LinkedHashMap<>();
+        /** Flag de cada posicao que pode ser lida sem valor (1 depois de ser atribuida) */
+        final Map<Integer, Integer> flags = new LinkedHashMap<>();
+        /** Numero de variaveis usadas */
+        int count;
+
+        Locals(int first, char[] paramKinds){
+            count = first;
+            params = new int[paramKinds.length];
+            for (int i = 0; i < paramKinds.length; i++){
+                params[i] = count;
+                count += paramKinds[i] == 'D' ? 2 : 1;
+            }
+        }
+
+        int slot(int position, char kind){
+            int key = position * 3 + (kind == 'I' ? 0 : kind == 'D' ? 1 : 2);
+            Integer slot = slots.get(key);
+            if (slot == null){
+                slot = count;
+                count += kind == 'D' ? 2 : 1;
+                slots.put(key, slot);
+            }
+            return slot;
+        }
+
+        int flag(int position){
+            Integer slot = flags.get(position);
+            if (slot == null){
+                slot = count++;
+                flags.put(position, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Traducao de uma funcao: a analise feita uma unica vez e a geracao dos dois metodos.
+     */
+    private final class FunctionCompiler {
+        private final int entry;
+        private final String className;
+        private final Set<Integer> callable;
+        /** Instrucoes alcancaveis da funcao, por ordem crescente */
+        private final int[] pcs;
+        /** Tipos das posicoes da pilha antes de cada instrucao */
+        private final Map<Integer, byte[]> types = new HashMap<>();
+        /** Tipo de cada argumento */
+        private final char[] paramKinds;
+        /** Tipo do valor de retorno, ou 0 se a funcao nao devolve nenhum valor */
+        private final char returnKind;
+        /** Posicoes que cada instrucao le e que podem estar sem valor */
+        private final Map<Integer, BitSet> checks = new HashMap<>();
+        /** Posicoes que precisam de uma flag (lidas em alguma instrucao de checks) */
+        private final BitSet flagged = new BitSet();
+        /** Inicios dos ciclos (destinos de jumps para tras), pontos de entrada do metodo osr */
+        private final SortedSet<Integer> headers = new TreeSet<>();
+
+        // Estado da geracao do metodo atual
+        private Code jvm;
+        private Locals locals;
+        private Map<Integer, Label> labels;
+
+        FunctionCompiler(int entry, String className, Set<Integer> callable){
+            this.entry = entry;
+            this.className = className;
+            this.callable = callable;
+            this.pcs = verifier.getFunctionCode(entry);
+            for (int pc : pcs){
+                types.put(pc, verifier.getStackTypes(entry, pc));
+                if (instructions[pc].getOpCode() == OpCode.jump && arg(pc, 0) <= pc){
+                    headers.add(arg(pc, 0));
+                }
+            }
+
+            byte[] params = verifier.getParamTypes(entry);
+            paramKinds = new char[params.length];
+            for (int i = 0; i < params.length; i++){
+                paramKinds[i] = kind(params[i]);
+            }
+            returnKind = returnKind(entry);
+
+            findUnassignedReads();
+        }
+
+        /**
+         * Gera o corpo do metodo run ou osr. A primeira passagem descobre as variaveis
+         * locais usadas, que a segunda inicia no prologo (a JVM so aceita leituras de
+         * variaveis atribuidas em todos os caminhos).
+         */
+        Code method(ClassWriter cw, boolean osr){
+            Locals methodLocals = new Locals(osr ? 1 : 0, paramKinds);
+            emit(cw.newCode(0), methodLocals, osr);
+            Code code = cw.newCode(methodLocals.count);
+            emit(code, methodLocals, osr);
+            return code;
+        }
+
+        /**
+         * Calcula, por uma analise para a frente, as posicoes alocadas por lalloc que podem
+         * ainda nao ter sido atribuidas em cada instrucao, e regista as leituras dessas posicoes.
+         */
+        private void findUnassignedReads(){
+            Map<Integer, BitSet> unassigned = new HashMap<>();
+            unassigned.put(entry, new BitSet());
+            Deque<Integer> pending = new ArrayDeque<>();
+            pending.push(entry);
+
+            while (!pending.isEmpty()){
+                int pc = pending.pop();
+                BitSet state = (BitSet) unassigned.get(pc).clone();
+                OpCode op = instructions[pc].getOpCode();
+                int depth = types.get(pc).length;
+
+                for (int addr : reads(pc)){
+                    if (addr >= 0 && state.get(addr - FRAME_HEADER)){
+                        checks.computeIfAbsent(pc, k -> new BitSet()).set(addr - FRAME_HEADER);
+                        flagged.set(addr - FRAME_HEADER);
+                    }
+                }
+                switch (op){
+                    case lalloc -> state.set(depth, depth + arg(pc, 0));
+                    case lstore, iinc -> clearLocal(state, arg(pc, 0));
+                    case iconst_iadd_lstore -> clearLocal(state, arg(pc, 1));
+                    default -> { }
+                }
+
+                for (int next : successors(pc)){
+                    BitSet out = state.get(0, types.get(next).length);
+                    BitSet old = unassigned.get(next);
+                    if (old == null){
+                        unassigned.put(next, out);
+                        pending.push(next);
+                    }else {
+                        out.or(old);
+                        if (!out.equals(old)){
+                            unassigned.put(next, out);
+                            pending.push(next);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void clearLocal(BitSet state, int addr){
+            if (addr >= 0){
+                state.clear(addr - FRAME_HEADER);
+            }
+        }
+
+        /**
+         * Obtem os enderecos das variaveis lidas por uma instrucao.
+         */
+        private int[] reads(int pc){
+            return switch (instructions[pc].getOpCode()){
+                case lload, lload_iconst_if_ige, iinc -> new int[]{arg(pc, 0)};
+                case lload_lload_iadd -> new int[]{arg(pc, 0), arg(pc, 1)};
+                default -> new int[0];
+            };
+        }
+
+        /**
+         * Obtem as instrucoes da funcao que podem ser executadas a seguir a uma instrucao.
+         */
+        private List<Integer> successors(int pc){
+            OpCode op = instructions[pc].getOpCode();
+            List<Integer> next = new ArrayList<>(2);
+            switch (op){
+                case jump -> next.add(arg(pc, 0));
+                case ret, retval, tailcall, halt -> { }
+                default -> {
+                    if (op.targetArg() >= 0 && op != OpCode.call){
+                        next.add(arg(pc, op.targetArg()));
+                    }
+                    next.add(pc + 1);
+                }
+            }
+            next.removeIf(target -> !types.containsKey(target));
+            return next;
+        }
+
+        // Geracao
+
+        private void emit(Code code, Locals methodLocals, boolean osr){
+            this.jvm = code;
+            this.locals = methodLocals;
+            this.labels = new HashMap<>();
+
+            Label tooDeep = new Label();
+            if (programClass != null){
+                initLocals();
+                if (pcs[0] != entry){
+                    jvm.jump(GOTO, label(entry));
+                }
+            } else if (osr) {
+                // O interpretador so entra em codigo compilado abaixo de MAX_DEPTH
+                runtime();
+                jvm.op(DUP);
+                jvm.field(GETFIELD, RUNTIME, "depth", "I");
+                jvm.iconst(1);
+                jvm.op(IADD);
+                jvm.field(PUTFIELD, RUNTIME, "depth", "I");
+                initLocals();
+                enterLoop();
+            }else {
+                runtime();
+                jvm.op(DUP);
+                jvm.field(GETFIELD, RUNTIME, "depth", "I");
+                jvm.iconst(1);
+                jvm.op(IADD);
+                jvm.op(DUP_X1);
+                jvm.field(PUTFIELD, RUNTIME, "depth", "I");
+                jvm.iconst(JitRuntime.MAX_DEPTH);
+                jvm.jump(IF_ICMPGT, tooDeep);
+                initLocals();
+                if (pcs[0] != entry){
+                    jvm.jump(GOTO, label(entry));
+                }
+            }
+
+            for (int i = 0; i < pcs.length; i++){
+                int pc = pcs[i];
+                jvm.mark(label(pc));
+                instruction(pc);
+
+                if (jvm.isReachable()){
+                    if (!types.containsKey(pc + 1)){
+                        unreachable();
+                    } else if (i + 1 == pcs.length || pcs[i + 1] != pc + 1) {
+                        jvm.jump(GOTO, label(pc + 1));
+                    }
+                }
+            }
+
+            if (programClass == null && !osr){
+                // Demasiadas chamadas compiladas encadeadas: a funcao e interpretada
+                jvm.mark(tooDeep);
+                for (int i = 0; i < paramKinds.length; i++){
+                    runtime();
+                    jvm.load(paramKinds[i], locals.params[i]);
+                    jvm.invoke(INVOKEVIRTUAL, RUNTIME, "push" + suffix(paramKinds[i]), "(" + descriptor(paramKinds[i]) + ")V");
+                }
+                runtime();
+                jvm.iconst(entry);
+                jvm.invoke(INVOKEVIRTUAL, RUNTIME, "call", "(I)V");
+                if (returnKind != 0){
+                    runtime();
+                    jvm.invoke(INVOKEVIRTUAL, RUNTIME, "pop" + suffix(returnKind), "()" + descriptor(returnKind));
+                }
+                leave();
+            }
+        }
+
+        /**
+         * Inicia todas as variaveis locais que nao sao argumentos.
+         */
+        private void initLocals(){
+            for (Map.Entry<Integer, Integer> slot : locals.slots.entrySet()){
+                switch (slot.getKey() % 3){
+                    case 0 -> { jvm.iconst(0); jvm.store('I', slot.getValue()); }
+                    case 1 -> { jvm.dconst(0.0); jvm.store('D', slot.getValue()); }
+                    default -> { jvm.op(ACONST_NULL); jvm.store('A', slot.getValue()); }
+                }
+            }
+            for (int flag : locals.flags.values()){
+                jvm.iconst(0);
+                jvm.store('I', flag);
+            }
+        }
+
+        /**
+         * Prologo do metodo osr: copia os argumentos e as posicoes do frame interpretado
+         * para as variaveis da JVM e salta para o inicio do ciclo indicado no argumento 0.
+         */
+        private void enterLoop(){
+            for (int i = 0; i < paramKinds.length; i++){
+                runtime();
+                jvm.iconst(i - paramKinds.length);
+                jvm.invoke(INVOKEVIRTUAL, RUNTIME, "local" + suffix(paramKinds[i]), "(I)" + descriptor(paramKinds[i]));
+                jvm.store(paramKinds[i], locals.params[i]);
+            }
+
+            for (int header : headers){
+                Label next = new Label();
+                jvm.load('I', 0);
+                jvm.iconst(header);
+                jvm.jump(IF_ICMPNE, next);
+
+                byte[] frame = types.get(header);
+                for (int p = 0; p < frame.length; p++){
+                    char kind = kind(frame[p]);
+                    if (kind != 0){
+                        runtime();
+                        jvm.iconst(p);
+                        jvm.invoke(INVOKEVIRTUAL, RUNTIME, "local" + suffix(kind), "(I)" + descriptor(kind));
+                        store(p, kind);
+                    }
+                    if (flagged.get(p)){
+                        runtime();
+                        jvm.iconst(p);
+                        jvm.invoke(INVOKEVIRTUAL, RUNTIME, "isLocalSet", "(I)Z");
+                        jvm.store('I', locals.flag(p));
+                    }
+                }
+                jvm.jump(GOTO, label(header));
+                jvm.mark(next);
+            }
+            unreachable();
+        }
+
+        /**
+         * Gera o codigo de uma instrucao Tuga.
+         */
+        private void instruction(int pc){
+            byte[] frame = types.get(pc);
+            int d = frame.length;
+            OpCode op = instructions[pc].getOpCode();
+
+            switch (op){
+                case iconst -> { jvm.iconst(arg(pc, 0)); store(d, 'I'); }
+                case dconst -> { jvm.dconst((Double) constants.get(arg(pc, 0))); store(d, 'D'); }
+                case sconst -> { jvm.sconst((String) constants.get(arg(pc, 0))); store(d, 'A'); }
+                case tconst -> { jvm.iconst(1); store(d, 'I'); }
+                case fconst -> { jvm.iconst(0); store(d, 'I'); }
+                case jump -> jvm.jump(GOTO, label(arg(pc, 0)));
+                case galloc -> { } // As variaveis globais sao campos estaticos da classe do programa
+                case halt -> {
+                    // So na compilacao antecipada: a excecao termina o programa no run da classe
+                    jvm.invoke(INVOKESTATIC, programClass, "halt", "()Ljava/lang/RuntimeException;");
+                    jvm.op(ATHROW);
+                }
+                case jumpf -> { load(d - 1, 'I'); jvm.jump(IFEQ, label(arg(pc, 0))); }
+                case gload -> {
+                    if (!types.containsKey(pc + 1)){
+                        error(NULL_ACCESS); // A variavel nunca tem valor
+                    }else {
+                        char kind = kind(types.get(pc + 1)[d]);
+                        loadGlobal(arg(pc, 0), kind);
+                        store(d, kind);
+                    }
+                }
+                case gstore -> {
+                    char kind = kind(frame[d - 1]);
+                    storeGlobal(arg(pc, 0), kind, d - 1);
+                }
+                case lalloc -> {
+                    for (int p = d; p < d + arg(pc, 0); p++){
+                        if (flagged.get(p)){
+                            jvm.iconst(0);
+                            jvm.store('I', locals.flag(p));
+                        }
+                    }
+                }
+                case lload -> {
+                    int addr = arg(pc, 0);
+                    if (checkLocal(pc, addr)){
+                        char kind = localKind(frame, addr);
+                        loadLocal(addr, kind);
+                        store(d, kind);
+                    }
+                }
+                case lstore -> {
+                    char kind = kind(frame[d - 1]);
+                    load(d - 1, kind);
+                    storeLocal(arg(pc, 0), kind);
+                }
+                case pop -> { }
+                case call -> {
+                    int callee = arg(pc, 0);
+                    int n = verifier.getArgCount(callee);
+                    char kind = call(callee, d - n, n);
+                    if (kind != 0){
+                        if (types.containsKey(pc + 1)){
+                            store(d - n, kind);
+                        }else {
+                            unreachable();
+                        }
+                    }
+                }
+                case tailcall -> {
+                    int callee = arg(pc, 0);
+                    int n = verifier.getArgCount(callee);
+                    if (callee == entry){
+                        // Os argumentos passam a ser os da proxima iteracao
+                        for (int i = 0; i < n; i++){
+                            load(d - n + i, paramKinds[i]);
+                        }
+                        for (int i = n - 1; i >= 0; i--){
+                            jvm.store(paramKinds[i], locals.params[i]);
+                        }
+                        jvm.jump(GOTO, label(entry));
+                    } else if (call(callee, d - n, n) != 0) {
+                        leave();
+                    }else {
+                        unreachable(); // A funcao chamada nunca retorna
+                    }
+                }
+                case retval -> { load(d - 1, returnKind); leave(); }
+                case ret -> leave();
+
+                //  Instrucoes para inteiros
+                case iprint -> print(d - 1, 'I');
+                case iuminus -> { load(d - 1, 'I'); jvm.op(INEG); store(d - 1, 'I'); }
+                case iadd -> binary(d, 'I', IADD);
+                case isub -> binary(d, 'I', ISUB);
+                case imult -> binary(d, 'I', IMUL);
+                case idiv, imod -> {
+                    Label ok = new Label();
+                    load(d - 1, 'I');
+                    jvm.jump(IFNE, ok);
+                    error(op == OpCode.idiv ? "Divisao por zero" : "Modulo por zero");
+                    jvm.mark(ok);
+                    binary(d, 'I', op == OpCode.idiv ? IDIV : IREM);
+                }
+                case ieq, beq -> compare(d, IF_ICMPEQ);
+                case ineq, bneq -> compare(d, IF_ICMPNE);
+                case ilt -> compare(d, IF_ICMPLT);
+                case ileq -> compare(d, IF_ICMPLE);
+                case itod -> { load(d - 1, 'I'); jvm.op(I2D); store(d - 1, 'D'); }
+                case itos -> {
+                    load(d - 1, 'I');
+                    jvm.invoke(INVOKESTATIC, "java/lang/Integer", "toString", "(I)Ljava/lang/String;");
+                    store(d - 1, 'A');
+                }
+
+                //  Instrucoes para reais
+                case dprint -> print(d - 1, 'D');
+                case duminus -> { load(d - 1, 'D'); jvm.op(DNEG); store(d - 1, 'D'); }
+                case dadd -> binary(d, 'D', DADD);
+                case dsub -> binary(d, 'D', DSUB);
+                case dmult -> binary(d, 'D', DMUL);
+                case ddiv -> {
+                    Label ok = new Label();
+                    load(d - 1, 'D');
+                    jvm.dconst(0.0);
+                    jvm.op(DCMPL);
+                    jvm.jump(IFNE, ok);
+                    error("Divisao por zero");
+                    jvm.mark(ok);
+                    binary(d, 'D', DDIV);
+                }
+                case deq, dneq -> {
+                    // Semantica de Double.equals, tal como nas maquinas virtuais
+                    loadBits(d - 2);
+                    loadBits(d - 1);
+                    jvm.op(LCMP);
+                    bool(op == OpCode.deq ? IFEQ : IFNE);
+                    store(d - 2, 'I');
+                }
+                case dlt, dleq -> {
+                    load(d - 2, 'D');
+                    load(d - 1, 'D');
+                    jvm.op(DCMPG);
+                    bool(op == OpCode.dlt ? IFLT : IFLE);
+                    store(d - 2, 'I');
+                }
+                case dtos -> {
+                    load(d - 1, 'D');
+                    jvm.invoke(INVOKESTATIC, "java/lang/Double", "toString", "(D)Ljava/lang/String;");
+                    store(d - 1, 'A');
+                }
+
+                //  Instrucoes para strings
+                case sprint -> print(d - 1, 'A');
+                case sconcat -> {
+                    load(d - 2, 'A');
+                    load(d - 1, 'A');
+                    jvm.invoke(INVOKEVIRTUAL, "java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+                    store(d - 2, 'A');
+                }
+                case seq, sneq -> {
+                    load(d - 2, 'A');
+                    load(d - 1, 'A');
+                    jvm.invoke(INVOKEVIRTUAL, "java/lang/String", "equals", "(Ljava/lang/Object;)Z");
+                    if (op == OpCode.sneq){
+                        jvm.iconst(1);
+                        jvm.op(IXOR);
+                    }
+                    store(d - 2, 'I');
+                }
+
+                //  Instrucoes para booleanos
+                case bprint -> {
+                    output();
+                    load(d - 1, 'I');
+                    choose("verdadeiro", "falso");
+                    println("(Ljava/lang/String;)V");
+                }
+                case and -> binary(d, 'I', IAND);
+                case or -> binary(d, 'I', IOR);
+                case not -> { load(d - 1, 'I'); jvm.iconst(1); jvm.op(IXOR); store(d - 1, 'I'); }
+                case btos -> { load(d - 1, 'I'); choose("true", "falso"); store(d - 1, 'A'); }
+                case dup -> {
+                    char kind = kind(frame[d - 1]);
+                    load(d - 1, kind);
+                    store(d, kind);
+                }
+
+                //  Superinstrucoes
+                case lload_lload_iadd -> {
+                    int a = arg(pc, 0);
+                    int b = arg(pc, 1);
+                    if (checkLocal(pc, a) && checkLocal(pc, b)){
+                        loadLocal(a, 'I');
+                        loadLocal(b, 'I');
+                        jvm.op(IADD);
+                        store(d, 'I');
+                    }
+                }
+                case lload_iconst_if_ige -> {
+                    int addr = arg(pc, 0);
+                    if (checkLocal(pc, addr)){
+                        loadLocal(addr, 'I');
+                        jvm.iconst(arg(pc, 1));
+                        jvm.jump(IF_ICMPGE, label(arg(pc, 2)));
+                    }
+                }
+                case iinc -> {
+                    int addr = arg(pc, 0);
+                    if (checkLocal(pc, addr)){
+                        jvm.iinc(addr < 0 ? locals.params[paramKinds.length + addr] : locals.slot(addr - FRAME_HEADER, 'I'), arg(pc, 1));
+                    }
+                }
+                case iconst_iadd_lstore -> {
+                    load(d - 1, 'I');
+                    jvm.iconst(arg(pc, 0));
+                    jvm.op(IADD);
+                    storeLocal(arg(pc, 1), 'I');
+                }
+                case gload_iprint -> {
+                    if (!types.containsKey(pc + 1)){
+                        error(NULL_ACCESS);
+                    }else {
+                        output();
+                        loadGlobal(arg(pc, 0), 'I');
+                        println("(I)V");
+                    }
+                }
+
+                //  Saltos condicionais com comparacao
+                case if_ilt -> branch(d, 'I', IF_ICMPLT, pc);
+                case if_ige -> branch(d, 'I', IF_ICMPGE, pc);
+                case if_ileq -> branch(d, 'I', IF_ICMPLE, pc);
+                case if_igt -> branch(d, 'I', IF_ICMPGT, pc);
+                case if_ieq -> branch(d, 'I', IF_ICMPEQ, pc);
+                case if_ineq -> branch(d, 'I', IF_ICMPNE, pc);
+                // dcmpg devolve 1 com NaN, pelo que dge e dgt sao as negacoes exatas de dlt e dleq
+                case if_dlt -> branch(d, 'D', IFLT, pc);
+                case if_dge -> branch(d, 'D', IFGE, pc);
+                case if_dleq -> branch(d, 'D', IFLE, pc);
+                case if_dgt -> branch(d, 'D', IFGT, pc);
+                case if_deq, if_dneq -> {
+                    loadBits(d - 2);
+                    loadBits(d - 1);
+                    jvm.op(LCMP);
+                    jvm.jump(op == OpCode.if_deq ? IFEQ : IFNE, label(arg(pc, 0)));
+                }
+
+                default -> throw new IllegalArgumentException("Instrucao nao suportada pelo JIT: " + op);
+            }
+        }
+
+        /**
+         * Chama uma funcao com os n argumentos a partir da posicao base, diretamente se estiver
+         * compilada ou atraves do interpretador. O resultado fica na pilha da JVM.
+         *
+         * @return O tipo do resultado, ou 0 se nao houver nenhum resultado
+         */
+        private char call(int callee, int base, int n){
+            byte[] params = verifier.getParamTypes(callee);
+            if (callable.contains(callee)){
+                for (int i = 0; i < n; i++){
+                    load(base + i, kind(params[i]));
+                }
+                jvm.invoke(INVOKESTATIC, programClass != null ? programClass : className(callee), methodName(callee), descriptor(callee));
+                return returnKind(callee);
+            }
+
+            for (int i = 0; i < n; i++){
+                char kind = kind(params[i]);
+                runtime();
+                load(base + i, kind);
+                jvm.invoke(INVOKEVIRTUAL, RUNTIME, "push" + suffix(kind), "(" + descriptor(kind) + ")V");
+            }
+            runtime();
+            jvm.iconst(callee);
+            jvm.invoke(INVOKEVIRTUAL, RUNTIME, "call", "(I)V");
+
+            char kind = returnKind(callee);
+            if (kind != 0){
+                runtime();
+                jvm.invoke(INVOKEVIRTUAL, RUNTIME, "pop" + suffix(kind), "()" + descriptor(kind));
+            }
+            return kind;
+        }
+
+        /**
+         * Retorna da funcao, com o valor de retorno (se existir) ja na pilha da JVM.
+         */
+        private void leave(){
+            if (programClass == null){
+                runtime();
+                jvm.op(DUP);
+                jvm.field(GETFIELD, RUNTIME, "depth", "I");
+                jvm.iconst(1);
+                jvm.op(ISUB);
+                jvm.field(PUTFIELD, RUNTIME, "depth", "I");
+            }
+            jvm.op(returnKind == 0 ? RETURN : returnOpcode(returnKind));
+        }
+
+        /**
+         * Verifica que uma variavel local tem valor antes de ser lida.
+         *
+         * @return false se a variavel nunca tem valor, caso em que so e gerado o erro
+         */
+        private boolean checkLocal(int pc, int addr){
+            if (addr < 0){
+                return true;
+            }
+            int position = addr - FRAME_HEADER;
+            byte type = types.get(pc)[position];
+            if (type == BytecodeVerifier.NIL || type == BytecodeVerifier.BOTTOM){
+                error(NULL_ACCESS);
+                return false;
+            }
+            if (checks.getOrDefault(pc, new BitSet()).get(position)){
+                Label ok = new Label();
+                jvm.load('I', locals.flag(position));
+                jvm.jump(IFNE, ok);
+                error(NULL_ACCESS);
+                jvm.mark(ok);
+            }
+            return true;
+        }
+
+        private char localKind(byte[] frame, int addr){
+            return addr < 0 ? paramKinds[paramKinds.length + addr] : kind(frame[addr - FRAME_HEADER]);
+        }
+
+        private void loadLocal(int addr, char kind){
+            if (addr < 0){
+                jvm.load(kind, locals.params[paramKinds.length + addr]);
+            }else {
+                load(addr - FRAME_HEADER, kind);
+            }
+        }
+
+        private void storeLocal(int addr, char kind){
+            if (addr < 0){
+                jvm.store(kind, locals.params[paramKinds.length + addr]);
+                return;
+            }
+            int position = addr - FRAME_HEADER;
+            store(position, kind);
+            if (flagged.get(position)){
+                jvm.iconst(1);
+                jvm.store('I', locals.flag(position));
+            }
+        }
+
+        private void loadGlobal(int addr, char kind){
+            if (programClass == null){
+                runtime();
+                jvm.iconst(addr);
+                jvm.invoke(INVOKEVIRTUAL, RUNTIME, "global" + suffix(kind), "(I)" + descriptor(kind));
+                return;
+            }
+            Label ok = new Label();
+            jvm.field(GETSTATIC, programClass, assignedField(addr), "Z");
+            jvm.jump(IFNE, ok);
+            error(NULL_ACCESS);
+            jvm.mark(ok);
+            jvm.field(GETSTATIC, programClass, globalField(addr), descriptor(kind));
+        }
+
+        private void storeGlobal(int addr, char kind, int position){
+            if (programClass == null){
+                runtime();
+                jvm.iconst(addr);
+                load(position, kind);
+                jvm.invoke(INVOKEVIRTUAL, RUNTIME, "storeGlobal" + suffix(kind), "(I" + descriptor(kind) + ")V");
+                return;
+            }
+            load(position, kind);
+            jvm.field(PUTSTATIC, programClass, globalField(addr), descriptor(kind));
+            jvm.iconst(1);
+            jvm.field(PUTSTATIC, programClass, assignedField(addr), "Z");
+        }
+
+        private void load(int position, char kind){
+            jvm.load(kind, locals.slot(position, kind));
+        }
+
+        private void store(int position, char kind){
+            jvm.store(kind, locals.slot(position, kind));
+        }
+
+        private void loadBits(int position){
+            load(position, 'D');
+            jvm.invoke(INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J");
+        }
+
+        private void binary(int d, char kind, int opcode){
+            load(d - 2, kind);
+            load(d - 1, kind);
+            jvm.op(opcode);
+            store(d - 2, kind);
+        }
+
+        private void compare(int d, int opcode){
+            load(d - 2, 'I');
+            load(d - 1, 'I');
+            bool(opcode);
+            store(d - 2, 'I');
+        }
+
+        private void branch(int d, char kind, int opcode, int pc){
+            load(d - 2, kind);
+            load(d - 1, kind);
+            if (kind == 'D'){
+                jvm.op(DCMPG);
+            }
+            jvm.jump(opcode, label(arg(pc, 0)));
+        }
+
+        /**
+         * Converte o resultado de um salto condicional em 1 (salta) ou 0.
+         */
+        private void bool(int opcode){
+            Label yes = new Label();
+            Label end = new Label();
+            jvm.jump(opcode, yes);
+            jvm.iconst(0);
+            jvm.jump(GOTO, end);
+            jvm.mark(yes);
+            jvm.iconst(1);
+            jvm.mark(end);
+        }
+
+        /**
+         * Substitui o booleano no topo da pilha da JVM por uma de duas strings.
+         */
+        private void choose(String whenTrue, String whenFalse){
+            Label no = new Label();
+            Label end = new Label();
+            jvm.jump(IFEQ, no);
+            jvm.sconst(whenTrue);
+            jvm.jump(GOTO, end);
+            jvm.mark(no);
+            jvm.sconst(whenFalse);
+            jvm.mark(end);
+        }
+
+        private void print(int position, char kind){
+            output();
+            load(position, kind);
+            println("(" + descriptor(kind) + ")V");
+        }
+
+        /**
+         * Empilha o output do escreve: o VmOutput da maquina virtual no JIT, o PrintStream
+         * com buffer da classe do programa na compilacao antecipada.
+         */
+        private void output(){
+            if (programClass == null){
+                runtime();
+                jvm.field(GETFIELD, RUNTIME, OUTPUT_FIELD, "L" + VM_OUTPUT + ";");
+            }else {
+                jvm.field(GETSTATIC, programClass, OUTPUT_FIELD, "Ljava/io/PrintStream;");
+            }
+        }
+
+        /**
+         * Escreve o valor no topo da pilha no output empilhado antes por output().
+         */
+        private void println(String descriptor){
+            jvm.invoke(INVOKEVIRTUAL, programClass == null ? VM_OUTPUT : "java/io/PrintStream", "println", descriptor);
+        }
+
+        private void error(String message){
+            if (programClass == null){
+                runtime();
+                jvm.sconst(message);
+                jvm.invoke(INVOKEVIRTUAL, RUNTIME, "error", "(Ljava/lang/String;)Ljava/lang/RuntimeException;");
+            }else {
+                jvm.sconst(message);
+                jvm.invoke(INVOKESTATIC, programClass, "error", "(Ljava/lang/String;)Ljava/lang/RuntimeException;");
+            }
+            jvm.op(ATHROW);
+        }
+
+        private void unreachable(){
+            jvm.invoke(INVOKESTATIC, programClass != null ? programClass : RUNTIME, "unreachable", "()Ljava/lang/RuntimeException;");
+            jvm.op(ATHROW);
+        }
+
+        private void runtime(){
+            jvm.field(GETSTATIC, className, "rt", RUNTIME_DESCRIPTOR);
+        }
+
+        private Label label(int pc){
+            return labels.computeIfAbsent(pc, k -> new Label());
+        }
+    }
+}
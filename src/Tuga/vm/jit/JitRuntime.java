@@ -0,0 +1,145 @@
+package Tuga.vm.jit;
+
+import Tuga.vm.VmOutput;
+
+/**
+ * Ligacao entre o codigo gerado pelo JitCompiler e a maquina virtual que o executa.
+ * O codigo compilado usa-a para ler os argumentos e o frame da chamada interpretada que
+ * o invocou, devolver o seu resultado, aceder as variaveis globais e chamar funcoes que
+ * continuam a ser interpretadas. Os booleanos sao passados como inteiros (0 ou 1).
+ *
+ * Cada chamada compilada ocupa um frame na pilha da JVM, ao contrario das chamadas
+ * interpretadas. O contador depth limita o numero de chamadas compiladas encadeadas a
+ * MAX_DEPTH: acima desse limite, o codigo compilado devolve a chamada ao interpretador,
+ * que so volta a entrar em codigo compilado quando a profundidade descer.
+ */
+public abstract class JitRuntime {
+    /** Numero maximo de chamadas compiladas encadeadas */
+    public static final int MAX_DEPTH = 512;
+
+    /** Numero de chamadas compiladas ativas */
+    public int depth = 0;
+
+    /** Output do escreve, o mesmo da maquina virtual */
+    public VmOutput out;
+
+    /**
+     * Le o argumento i da chamada interpretada que invoca o codigo compilado.
+     *
+     * @param i O indice do argumento (0 e o primeiro)
+     * @return O valor do argumento
+     */
+    public abstract int argInt(int i);
+
+    /** @see #argInt(int) */
+    public abstract double argReal(int i);
+
+    /** @see #argInt(int) */
+    public abstract String argString(int i);
+
+    /**
+     * Le uma posicao do frame da funcao interpretada que passa para codigo compilado
+     * a meio da execucao (no inicio de um ciclo).
+     *
+     * @param position A posicao em relacao ao FP (negativa para os argumentos)
+     * @return O valor guardado na posicao
+     */
+    public abstract int localInt(int position);
+
+    /** @see #localInt(int) */
+    public abstract double localReal(int position);
+
+    /** @see #localInt(int) */
+    public abstract String localString(int position);
+
+    /**
+     * Indica se uma posicao do frame da funcao interpretada tem valor.
+     *
+     * @param position A posicao em relacao ao FP
+     * @return false se a posicao for NULO
+     */
+    public abstract boolean isLocalSet(int position);
+
+    /**
+     * Empilha um valor na pilha do interpretador: um argumento de uma chamada
+     * interpretada ou o resultado do codigo compilado.
+     *
+     * @param value O valor
+     */
+    public abstract void pushInt(int value);
+
+    /** @see #pushInt(int) */
+    public abstract void pushReal(double value);
+
+    /** @see #pushInt(int) */
+    public abstract void pushString(String value);
+
+    /**
+     * Desempilha o resultado de uma chamada interpretada.
+     *
+     * @return O valor
+     */
+    public abstract int popInt();
+
+    /** @see #popInt() */
+    public abstract double popReal();
+
+    /** @see #popInt() */
+    public abstract String popString();
+
+    /**
+     * Interpreta a funcao com entrada no endereco indicado, com os argumentos ja
+     * empilhados. O resultado, se existir, fica no topo da pilha do interpretador.
+     *
+     * @param entry O endereco de entrada da funcao nas instrucoes do programa
+     */
+    public abstract void call(int entry);
+
+    /**
+     * Le uma variavel global, terminando o programa se estiver sem valor.
+     *
+     * @param address O endereco da variavel
+     * @return O valor
+     */
+    public abstract int globalInt(int address);
+
+    /** @see #globalInt(int) */
+    public abstract double globalReal(int address);
+
+    /** @see #globalInt(int) */
+    public abstract String globalString(int address);
+
+    /**
+     * Guarda um valor numa variavel global.
+     *
+     * @param address O endereco da variavel
+     * @param value O valor
+     */
+    public abstract void storeGlobalInt(int address, int value);
+
+    /** @see #storeGlobalInt(int, int) */
+    public abstract void storeGlobalReal(int address, double value);
+
+    /** @see #storeGlobalInt(int, int) */
+    public abstract void storeGlobalString(int address, String value);
+
+    /**
+     * Mostra uma mensagem de erro de execucao, tal como as maquinas virtuais.
+     *
+     * @param message A mensagem
+     * @return A excecao que o codigo compilado deve lancar
+     */
+    public RuntimeException error(String message){
+        out.println(message);
+        return new RuntimeException("__VM_ERROR__");
+    }
+
+    /**
+     * Obtem a excecao lancada por codigo que o verificador garante que nunca e executado.
+     *
+     * @return A excecao
+     */
+    public static RuntimeException unreachable(){
+        return new IllegalStateException("codigo compilado inalcancavel");
+    }
+}
@@ -1,11 +1,28 @@
+import Tuga.ast.AstInterpreter;
 import Tuga.codegen.BytecodeGenerator;
+import Tuga.codegen.GeneratedCode;
+import Tuga.codegen.IrBytecodeGenerator;
+import Tuga.codegen.RegisterCodeGenerator;
+import Tuga.codegen.opt.DeadCodeEliminator;
+import Tuga.codegen.opt.Inliner;
+import Tuga.codegen.opt.PeepholeOptimizer;
+import Tuga.codegen.opt.SuperinstructionRules;
+import Tuga.ir.IrBuilder;
+import Tuga.ir.IrProgram;
 import Tuga.parser.TugaLexer;
 import Tuga.parser.TugaParser;
 import Tuga.semantic.TypeChecker;
 import Tuga.semantic.TypeCheckingException;
 import Tuga.util.LexerErrorListener;
 import Tuga.util.ParserErrorListener;
+import Tuga.vm.PVirtualMachine;
+import Tuga.vm.RVirtualMachine;
+import Tuga.vm.RegisterProgram;
 import Tuga.vm.SVirtualMachine;
+import Tuga.vm.VerificationException;
+import Tuga.vm.VirtualMachine;
+import Tuga.vm.VmOutput;
+import Tuga.vm.jit.AotCompiler;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.CharStream;
@@ -13,12 +30,32 @@ import org.antlr.v4.runtime.CommonTokenStream;
 
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class TugaCompileAndRun {
     public static boolean showLexerErrors = false;
     public static boolean showParserErrors = false;
     public static boolean showTypeCheckingErrors = false;
     public static boolean showAsm = true;  // Mostrar o código gerado em assembly
+    public static boolean constantFolding = true;  // Avaliar as expressoes constantes em tempo de compilacao
+    public static boolean shortCircuit = true;  // Avaliar 'e' e 'ou' em curto-circuito (false: avaliar sempre ambos os operandos)
+    public static boolean useIr = false;  // Gerar os bytecodes a partir da representacao intermedia (grafo de blocos basicos)
+    public static boolean showIr = false;  // Mostrar a representacao intermedia (so com useIr ou registerVm)
+    public static boolean registerVm = false;  // Gerar codigo de registos a partir da representacao intermedia e executar com a RVirtualMachine
+    public static boolean astInterpreter = false;  // Executar diretamente a arvore do programa, com nos que se especializam nos tipos observados (sem bytecodes)
+    public static boolean loopInvariantMotion = true;  // Calcular as expressoes invariantes dos ciclos enquanto uma unica vez, antes do ciclo
+    public static boolean deadCodeElimination = true;  // Remover codigo inalcancavel, funcoes que nunca sao chamadas e atribuicoes a variaveis que nunca sao lidas
+    public static int inlineThreshold = 20;  // Numero maximo de instrucoes das funcoes folha expandidas no local da chamada (0 desliga)
+    public static boolean peephole = true;  // Aplicar o otimizador peephole ao codigo gerado
+    public static boolean showPeepholeStats = false;  // Mostrar quantas instrucoes cada regra peephole removeu
+    public static boolean superinstructions = true;  // Substituir sequencias frequentes de instrucoes por superinstrucoes
+    public static boolean saveBytecodes = false;  // Guardar os bytecodes no ficheiro bytecodes.bc
+    public static boolean saveClass = false;  // Guardar o programa compilado para a JVM no ficheiro TugaProgram.class (executar com java TugaProgram)
+    public static boolean checkedMode = false;  // Executar com a SVirtualMachine, que verifica tipos e pilha em cada instrucao (depuracao)
+    public static int jitThreshold = 0;  // Numero de chamadas e saltos para tras a partir do qual uma funcao e compilada para bytecode JVM (0 desliga)
+    public static String outputFlush = "threshold";  // Quando o output do escreve e enviado para o System.out: on_halt (so no fim), threshold (a cada outputBuffer bytes) ou line (a cada linha)
+    public static int outputBuffer = VmOutput.DEFAULT_THRESHOLD;  // Numero de bytes do output guardados antes de serem enviados, com outputFlush=threshold
 
     public static void main(String[] args) {
 
@@ -34,6 +71,8 @@ public class TugaCompileAndRun {
 
             // Nomde do arquivo de bytecodes
             String outputFilename = "bytecodes.bc";
+            // Nome da classe Java gerada
+            String className = "TugaProgram";
 
             // 1. Analise lexica
             TugaLexer lexer = new TugaLexer(input);
@@ -84,9 +123,75 @@ public class TugaCompileAndRun {
 
 
 
+            // 4. Execucao direta da arvore do programa, sem gerar codigo
+            if (astInterpreter){
+                AstInterpreter interpreter = new AstInterpreter(tree, shortCircuit, vmOutput());
+                System.out.println("*** VM output ***");
+                interpreter.run();
+                return;
+            }
+
+            // 4. Geracao de codigo de registos, executado diretamente na maquina de registos
+            if (registerVm){
+                RegisterProgram registerProgram = new RegisterCodeGenerator().generate(buildIr(typeChecker, tree));
+                if (showAsm){
+                    System.out.println("*** Constant pool ***");
+                    registerProgram.dumpConstantPool();
+
+                    System.out.println("*** Instructions ***");
+                    registerProgram.dumpCode();
+                }
+
+                System.out.println("*** VM output ***");
+                RVirtualMachine vm = new RVirtualMachine();
+                vm.setOutput(vmOutput());
+                vm.load(registerProgram);
+                vm.run();
+                return;
+            }
+
             // 4. Geracao de bytecodes
-            BytecodeGenerator bytecodeGenerator = new BytecodeGenerator(typeChecker, typeChecker.getSymbolTable());
-            bytecodeGenerator.visit(tree);
+            GeneratedCode bytecodeGenerator;
+            if (useIr){
+                IrBytecodeGenerator irGenerator = new IrBytecodeGenerator();
+                irGenerator.generate(buildIr(typeChecker, tree));
+                bytecodeGenerator = irGenerator;
+            }else {
+                BytecodeGenerator treeGenerator = new BytecodeGenerator(typeChecker, typeChecker.getSymbolTable(), constantFolding, shortCircuit, loopInvariantMotion);
+                treeGenerator.visit(tree);
+                bytecodeGenerator = treeGenerator;
+            }
+
+            // Eliminacao de codigo morto
+            if (deadCodeElimination){
+                bytecodeGenerator.eliminateDeadCode(new DeadCodeEliminator(true));
+            }
+
+            // Expansao de funcoes folha pequenas
+            if (inlineThreshold > 0){
+                bytecodeGenerator.inline(new Inliner(inlineThreshold));
+
+                // As funcoes expandidas em todas as chamadas deixam de ser alcancaveis
+                if (deadCodeElimination){
+                    bytecodeGenerator.eliminateDeadCode(new DeadCodeEliminator(false));
+                }
+            }
+
+            // Otimizacao peephole
+            if (peephole){
+                PeepholeOptimizer optimizer = PeepholeOptimizer.withDefaultRules();
+                bytecodeGenerator.optimize(optimizer);
+
+                if (showPeepholeStats){
+                    System.out.println("*** Peephole ***");
+                    optimizer.getRemovedCounts().forEach((rule, removed) -> System.out.println(rule + ": " + removed));
+                }
+            }
+
+            // Selecao de superinstrucoes
+            if (superinstructions){
+                bytecodeGenerator.optimize(new PeepholeOptimizer(SuperinstructionRules.defaults()));
+            }
 
             // Exibir codigo assembly se a flag estiver ativa
             if (showAsm){
@@ -98,13 +203,36 @@ public class TugaCompileAndRun {
             }
 
             // Salver bytecode no arquivo de saida
-            bytecodeGenerator.saveBytecodes(outputFilename);
+            if (saveBytecodes){
+                bytecodeGenerator.saveBytecodes(outputFilename);
+            }
+
+            // Gerar uma classe Java equivalente, executavel numa JVM sem a maquina virtual Tuga
+            if (saveClass){
+                try {
+                    AotCompiler aotCompiler = new AotCompiler(bytecodeGenerator.getConstantPool(), bytecodeGenerator.getCode());
+                    Files.write(Path.of(className + ".class"), aotCompiler.compile(className));
+                }catch (VerificationException e){
+                    System.err.println("Erro: " + className + ".class nao foi gerado, bytecodes invalidos: " + e.getMessage());
+                }
+            }
 
 
-            // 5. Executar o programa compilado
+            // 5. Executar o programa compilado, passando o codigo diretamente a VM
             System.out.println("*** VM output ***");
-            SVirtualMachine vm = new SVirtualMachine();
-            vm.execute(outputFilename);
+            VmOutput output = vmOutput();
+            VirtualMachine vm = checkedMode ? new SVirtualMachine() : new PVirtualMachine(false, jitThreshold);
+            vm.setOutput(output);
+            try {
+                vm.load(bytecodeGenerator.getConstantPool(), bytecodeGenerator.getCode());
+            }catch (VerificationException e){
+                // Codigo rejeitado pelo verificador: a SVirtualMachine so falha se a instrucao invalida for executada
+                System.err.println("Aviso: bytecodes nao verificados (" + e.getMessage() + "), executados com a SVirtualMachine");
+                vm = new SVirtualMachine();
+                vm.setOutput(output);
+                vm.load(bytecodeGenerator.getConstantPool(), bytecodeGenerator.getCode());
+            }
+            vm.run();
         }catch (RuntimeException e){
             if (!"__VM_ERROR__".equals(e.getMessage())){
                 System.err.println("Erro: " +e.getMessage());
@@ -119,4 +247,23 @@ public class TugaCompileAndRun {
             }
         }
     }
+
+    /**
+     * Cria o output do programa executado, com a politica de flush das flags outputFlush e outputBuffer.
+     */
+    private static VmOutput vmOutput(){
+        return VmOutput.standard(VmOutput.FlushPolicy.valueOf(outputFlush.toUpperCase()), outputBuffer);
+    }
+
+    /**
+     * Constroi a representacao intermedia do programa, mostrando-a se a flag showIr estiver ativa.
+     */
+    private static IrProgram buildIr(TypeChecker typeChecker, ParseTree tree){
+        IrProgram program = new IrBuilder(typeChecker, constantFolding, shortCircuit).build(tree);
+        if (showIr){
+            System.out.println("*** IR ***");
+            System.out.print(program);
+        }
+        return program;
+    }
 }
@@ -0,0 +1,82 @@
+package Tuga.codegen;
+
+import Tuga.vm.TugaPrograms;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiPredicate;
+
+import static Tuga.vm.TugaPrograms.assertOutput;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testes das condicoes de se e enquanto compiladas para saltos com comparacao:
+ * o codigo nao tem comparacoes seguidas de jumpf, e o resultado de cada comparacao
+ * e o mesmo que o do operador em Java.
+ */
+class CompareAndBranchTest {
+    private static final List<String> OPERATORS = List.of("<", "<=", ">", ">=", "igual", "diferente");
+    private static final List<BiPredicate<Double, Double>> SEMANTICS = List.of(
+            (a, b) -> a < b, (a, b) -> a <= b, (a, b) -> a > b, (a, b) -> a >= b,
+            (a, b) -> a.doubleValue() == b.doubleValue(), (a, b) -> a.doubleValue() != b.doubleValue());
+    private static final Set<String> COMPARISONS = Set.of(
+            "ilt", "ileq", "ieq", "ineq", "dlt", "dleq", "deq", "dneq", "not", "jumpf");
+
+    /** Funcao que escreve "s" ou "n" para cada operador, e para a negacao de cada um */
+    private static String compareFunction(String name, String type){
+        StringBuilder sb = new StringBuilder("funcao " + name + "(a: " + type + ", b: " + type + ")\ninicio\n");
+        for (String op : OPERATORS){
+            sb.append("  se (a ").append(op).append(" b) escreve \"s\"; senao escreve \"n\";\n");
+            sb.append("  se (nao (a ").append(op).append(" b)) escreve \"s\"; senao escreve \"n\";\n");
+        }
+        return sb.append("fim\n").toString();
+    }
+
+    private static String expected(double a, double b){
+        StringBuilder sb = new StringBuilder();
+        for (BiPredicate<Double, Double> semantics : SEMANTICS){
+            boolean result = semantics.test(a, b);
+            sb.append(result ? "s" : "n").append(System.lineSeparator());
+            sb.append(result ? "n" : "s").append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    private static final String SOURCE = compareFunction("inteiros", "inteiro")
+            + compareFunction("reais", "real")
+            + """
+            funcao principal()
+            inicio
+              i : inteiro;
+              inteiros(1, 2);
+              inteiros(2, 2);
+              inteiros(3, 2);
+              reais(1.5, 2.5);
+              reais(2.5, 2.5);
+              reais(3, 2.5);
+              i <- 0;
+              enquanto (i diferente 3) i <- i + 1;
+              escreve i;
+            fim
+            """;
+
+    private static final String EXPECTED = expected(1, 2) + expected(2, 2) + expected(3, 2)
+            + expected(1.5, 2.5) + expected(2.5, 2.5) + expected(3, 2.5)
+            + "3" + System.lineSeparator();
+
+    @Test
+    void conditionsCompileToSingleBranches(){
+        List<String> opCodes = Arrays.stream(TugaPrograms.compile(SOURCE, false).getCode())
+                .map(inst -> inst.getOpCode().name())
+                .toList();
+
+        assertTrue(opCodes.stream().noneMatch(COMPARISONS::contains), opCodes.toString());
+    }
+
+    @Test
+    void branchesMatchComparisonSemantics(){
+        assertOutput(SOURCE, EXPECTED);
+    }
+}
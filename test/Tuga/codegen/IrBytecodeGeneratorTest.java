@@ -0,0 +1,185 @@
+package Tuga.codegen;
+
+import Tuga.codegen.opt.DeadCodeEliminator;
+import Tuga.codegen.opt.Inliner;
+import Tuga.codegen.opt.PeepholeOptimizer;
+import Tuga.vm.TugaPrograms;
+import Tuga.vm.instruction.Instruction1Arg;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static Tuga.vm.TugaPrograms.assertRuns;
+import static Tuga.vm.TugaPrograms.count;
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testes da geracao de bytecodes a partir da representacao intermedia: temporarios
+ * mantidos na pilha de operandos, comparacoes com salto, chamadas em posicao de cauda e
+ * as otimizacoes aplicadas ao codigo gerado. Cada programa e executado nas duas maquinas
+ * virtuais de pilha.
+ */
+class IrBytecodeGeneratorTest {
+    private static final String LOOP = """
+            funcao principal()
+            inicio
+              i, x : inteiro;
+              i <- 0;
+              enquanto (i < 3) inicio
+                x <- i * 2 + 1;
+                escreve x;
+                i <- i + 1;
+              fim
+            fim
+            """;
+
+    private static int lalloc(IrBytecodeGenerator program){
+        return Arrays.stream(program.getCode())
+                .filter(inst -> inst.getOpCode().name().equals("lalloc"))
+                .mapToInt(inst -> ((Instruction1Arg) inst).getArg())
+                .findFirst()
+                .orElse(0);
+    }
+
+    private static void assertOutput(String source, String expected){
+        for (boolean optimize : new boolean[]{false, true}){
+            assertRuns(TugaPrograms.compileIr(source, optimize), expected);
+        }
+    }
+
+    @Test
+    void singleUseTemporariesStayOnOperandStack(){
+        IrBytecodeGenerator program = TugaPrograms.compileIr(LOOP, false);
+
+        // So as variaveis i e x tem posicao no frame; os temporarios das expressoes nao
+        assertEquals(2, lalloc(program));
+        assertEquals(3, count(program, "lstore"));
+        assertOutput(LOOP, lines("1", "3", "5"));
+    }
+
+    @Test
+    void temporaryReadInAnotherBlockGetsFrameSlot(){
+        String source = """
+                funcao f(n: inteiro): inteiro
+                inicio
+                  escreve n;
+                  retorna n * 10;
+                fim
+
+                funcao principal()
+                inicio
+                  i : inteiro;
+                  b : booleano;
+                  i <- 1;
+                  escreve i + f(i);
+                  escreve f(i) + i;
+                  b <- i > 0 e f(2) > 5;
+                  escreve b;
+                fim
+                """;
+        // i, b e o valor de 'e', atribuido nos dois ramos
+        assertEquals(3, lalloc(TugaPrograms.compileIr(source, false)));
+        assertOutput(source, lines("1", "11", "1", "11", "2", "verdadeiro"));
+    }
+
+    @Test
+    void conditionsBecomeCompareAndBranch(){
+        String source = """
+                funcao principal()
+                inicio
+                  i : inteiro;
+                  x : real;
+                  i <- 0;
+                  x <- 0.5;
+                  enquanto (i <= 4) inicio
+                    se (i > 2 ou x >= 1.0) escreve i;
+                    i <- i + 1;
+                    x <- x * 2;
+                  fim
+                fim
+                """;
+        List<String> opCodes = Arrays.stream(TugaPrograms.compileIr(source, false).getCode())
+                .map(inst -> inst.getOpCode().name())
+                .toList();
+
+        assertTrue(opCodes.stream().noneMatch(op -> op.equals("jumpf") || op.equals("ilt") || op.equals("ileq") || op.equals("dlt")), opCodes.toString());
+        assertTrue(opCodes.stream().filter(op -> op.startsWith("if_")).count() >= 3, opCodes.toString());
+        assertOutput(source, lines("1", "2", "3", "4"));
+    }
+
+    @Test
+    void returnedCallsBecomeTailcalls(){
+        String source = """
+                funcao soma(n: inteiro, acc: inteiro): inteiro
+                inicio
+                  se (n igual 0) retorna acc;
+                  retorna soma(n - 1, acc + 1);
+                fim
+
+                funcao comoReal(n: inteiro): real
+                inicio
+                  retorna soma(n, 0);
+                fim
+
+                funcao principal()
+                inicio
+                  escreve soma(1000000, 0);
+                  escreve comoReal(3);
+                fim
+                """;
+        assertEquals(1, count(TugaPrograms.compileIr(source, false), "tailcall"));
+        assertOutput(source, lines("1000000", "3.0"));
+    }
+
+    @Test
+    void generatedCodeGoesThroughInlinerDeadCodeAndPeephole(){
+        String source = """
+                funcao dobro(x: inteiro): inteiro
+                inicio
+                  retorna x * 2;
+                fim
+
+                funcao nunca()
+                inicio
+                  escreve "nunca";
+                fim
+
+                funcao principal()
+                inicio
+                  escreve dobro(4) + dobro(5);
+                fim
+                """;
+        IrBytecodeGenerator program = TugaPrograms.compileIr(source, false);
+
+        program.eliminateDeadCode(new DeadCodeEliminator(true));
+        assertEquals(0, count(program, "sprint"));
+
+        Inliner inliner = new Inliner(20);
+        program.inline(inliner);
+        assertEquals(2, inliner.getInlinedCount());
+        program.eliminateDeadCode(new DeadCodeEliminator(false));
+        // So resta a chamada da funcao principal
+        assertEquals(1, count(program, "call"));
+
+        program.optimize(PeepholeOptimizer.withDefaultRules());
+        assertRuns(program, lines("18"));
+    }
+
+    @Test
+    void runtimeErrorsStopProgram(){
+        String source = """
+                funcao principal()
+                inicio
+                  n, d : inteiro;
+                  d <- 0;
+                  escreve "antes";
+                  se (d igual 0) escreve n;
+                  escreve 1 / d;
+                fim
+                """;
+        assertOutput(source, lines("antes", "erro de runtime: tentativa de acesso a valor NULO"));
+    }
+}
@@ -0,0 +1,47 @@
+package Tuga.codegen;
+
+import Tuga.parser.TugaLexer;
+import Tuga.parser.TugaParser;
+import Tuga.semantic.TypeChecker;
+import Tuga.vm.PVirtualMachine;
+import Tuga.vm.TugaPrograms;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.junit.jupiter.api.Test;
+
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Testes do uso, na geracao de codigo, dos tipos registados pelo TypeChecker.
+ */
+class RecordedTypesTest {
+    @Test
+    void codeCanBeGeneratedTwiceFromSameTypeChecker(){
+        String source = """
+                funcao f3(n: inteiro): inteiro
+                inicio
+                  escreve n;
+                  retorna n + 1;
+                fim
+
+                funcao principal()
+                inicio
+                  x : inteiro;
+                  x <- 2;
+                  f3(x);
+                  escreve f3(x * 2);
+                fim
+                """;
+        ParseTree tree = new TugaParser(new CommonTokenStream(new TugaLexer(CharStreams.fromString(source)))).program();
+        TypeChecker typeChecker = new TypeChecker();
+        typeChecker.visit(tree);
+
+        for (int i = 0; i < 2; i++){
+            BytecodeGenerator generator = new BytecodeGenerator(typeChecker, typeChecker.getSymbolTable(), false, true, false);
+            generator.visit(tree);
+            assertEquals(lines("2", "4", "5"), TugaPrograms.run(new PVirtualMachine(), generator), "geracao " + (i + 1));
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package Tuga.codegen;
+
+import Tuga.vm.PVirtualMachine;
+import Tuga.vm.RVirtualMachine;
+import Tuga.vm.RegisterOpCode;
+import Tuga.vm.RegisterProgram;
+import Tuga.vm.TugaPrograms;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testes do codigo gerado para a maquina virtual de registos: instrucoes com inteiros
+ * imediatos, verificacoes de variaveis sem valor e chamadas em posicao de cauda. O output
+ * da RVirtualMachine e comparado com o da PVirtualMachine sobre o mesmo programa.
+ */
+@Timeout(value = 30, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+class RegisterCodeGeneratorTest {
+    /**
+     * Opcodes das instrucoes do programa, pela ordem do codigo.
+     */
+    private static List<String> opCodes(RegisterProgram program){
+        int[] code = program.getCode();
+        List<String> opCodes = new ArrayList<>();
+        for (int pc = 0; pc < code.length; pc += RegisterOpCode.width(code, pc)){
+            opCodes.add(RegisterOpCode.values()[code[pc]].name());
+        }
+        return opCodes;
+    }
+
+    private static long count(List<String> opCodes, String opCode){
+        return opCodes.stream().filter(opCode::equals).count();
+    }
+
+    /**
+     * Verifica o output do programa na RVirtualMachine, com e sem avaliacao de constantes,
+     * e na PVirtualMachine com as otimizacoes ligadas.
+     */
+    private static void assertSameAsStackVm(String source, String expected){
+        assertEquals(expected, TugaPrograms.run(new PVirtualMachine(), TugaPrograms.compile(source, true)), "PVirtualMachine");
+        for (boolean fold : new boolean[]{false, true}){
+            assertEquals(expected, TugaPrograms.run(new RVirtualMachine(), TugaPrograms.compileRegisters(source, fold)), "RVirtualMachine");
+        }
+    }
+
+    @Test
+    void integerConstantsBecomeImmediates(){
+        String source = """
+                funcao principal()
+                inicio
+                  i, n : inteiro;
+                  i <- 0;
+                  n <- 0;
+                  enquanto (i < 10) inicio
+                    se (3 > i) n <- n + 100;
+                    se (i igual 7) n <- 2 + n;
+                    se (i diferente 4) n <- n - 1;
+                    i <- i + 1;
+                  fim
+                  escreve n;
+                  escreve i - 20;
+                fim
+                """;
+        List<String> opCodes = opCodes(TugaPrograms.compileRegisters(source, true));
+
+        assertTrue(count(opCodes, "iaddk") >= 4, opCodes.toString());
+        assertTrue(opCodes.stream().filter(op -> op.startsWith("if_i") && op.endsWith("k")).count() >= 4, opCodes.toString());
+        assertFalse(opCodes.contains("iadd") || opCodes.contains("isub") || opCodes.contains("ilt"), opCodes.toString());
+        assertSameAsStackVm(source, lines("293", "-10"));
+    }
+
+    @Test
+    void realComparisonsDoNotUseImmediates(){
+        String source = """
+                funcao principal()
+                inicio
+                  x : real;
+                  x <- 0.0;
+                  enquanto (x < 2) x <- x + 0.5;
+                  se (x >= 2.0) escreve x;
+                fim
+                """;
+        List<String> opCodes = opCodes(TugaPrograms.compileRegisters(source, true));
+
+        assertTrue(opCodes.stream().noneMatch(op -> op.endsWith("k")), opCodes.toString());
+        assertSameAsStackVm(source, lines("2.0"));
+    }
+
+    @Test
+    void noNilChecksForVariablesAssignedOnEveryPath(){
+        String source = """
+                funcao principal()
+                inicio
+                  x, y : inteiro;
+                  x <- 1;
+                  se (x > 0) y <- 2;
+                  senao y <- 3;
+                  escreve x + y;
+                fim
+                """;
+        List<String> opCodes = opCodes(TugaPrograms.compileRegisters(source, false));
+
+        assertFalse(opCodes.contains("chknil") || opCodes.contains("nil") || opCodes.contains("def"), opCodes.toString());
+        assertSameAsStackVm(source, lines("3"));
+    }
+
+    @Test
+    void nilCheckBeforeFirstReadOfVariableAssignedOnSomePaths(){
+        String program = """
+                funcao f(c: booleano)
+                inicio
+                  x : inteiro;
+                  se (c) x <- 1;
+                  escreve x;
+                  escreve x + 1;
+                fim
+
+                funcao principal()
+                inicio
+                  f(%s);
+                fim
+                """;
+        List<String> opCodes = opCodes(TugaPrograms.compileRegisters(program.formatted("verdadeiro"), false));
+
+        // Depois da primeira verificacao a variavel tem valor: a segunda leitura nao e verificada
+        assertEquals(1, count(opCodes, "nil"), opCodes.toString());
+        assertEquals(1, count(opCodes, "chknil"), opCodes.toString());
+        assertTrue(opCodes.indexOf("def") < opCodes.indexOf("chknil"), opCodes.toString());
+        assertSameAsStackVm(program.formatted("verdadeiro"), lines("1", "2"));
+        assertSameAsStackVm(program.formatted("falso"), lines("erro de runtime: tentativa de acesso a valor NULO"));
+    }
+
+    @Test
+    void nilCheckInsideLoopBeforeAssignment(){
+        String source = """
+                funcao principal()
+                inicio
+                  i, ultimo : inteiro;
+                  i <- 0;
+                  enquanto (i < 3) inicio
+                    se (i > 0) escreve ultimo;
+                    ultimo <- i * 10;
+                    i <- i + 1;
+                  fim
+                fim
+                """;
+        List<String> opCodes = opCodes(TugaPrograms.compileRegisters(source, false));
+
+        assertEquals(1, count(opCodes, "chknil"), opCodes.toString());
+        assertSameAsStackVm(source, lines("0", "10"));
+    }
+
+    @Test
+    void callsInTailPositionBecomeTailcalls(){
+        String source = """
+                funcao soma(n: inteiro, acc: inteiro): inteiro
+                inicio
+                  se (n igual 0) retorna acc;
+                  retorna soma(n - 1, acc + 1);
+                fim
+
+                funcao fatorial(n: inteiro): inteiro
+                inicio
+                  se (n < 2) retorna 1;
+                  retorna n * fatorial(n - 1);
+                fim
+
+                funcao comoReal(n: inteiro): real
+                inicio
+                  retorna soma(n, 0);
+                fim
+
+                funcao principal()
+                inicio
+                  escreve soma(1000000, 0);
+                  escreve fatorial(10);
+                  escreve comoReal(3);
+                fim
+                """;
+        List<String> opCodes = opCodes(TugaPrograms.compileRegisters(source, true));
+
+        assertEquals(1, count(opCodes, "tailcall"), opCodes.toString());
+        assertSameAsStackVm(source, lines("1000000", "3628800", "3.0"));
+    }
+
+    @Test
+    void tailcallsBetweenFunctionsWithDifferentFrames(){
+        String source = """
+                funcao par(n: inteiro): booleano
+                inicio
+                  se (n igual 0) retorna verdadeiro;
+                  retorna impar(n - 1, "x", 2.5);
+                fim
+
+                funcao impar(n: inteiro, s: string, r: real): booleano
+                inicio
+                  a, b : inteiro;
+                  a <- n;
+                  b <- a - 1;
+                  se (a igual 0) retorna falso;
+                  retorna par(b);
+                fim
+
+                funcao principal()
+                inicio
+                  escreve par(100001);
+                  escreve impar(100001, "y", 0.5);
+                fim
+                """;
+        assertEquals(2, count(opCodes(TugaPrograms.compileRegisters(source, true)), "tailcall"));
+        assertSameAsStackVm(source, lines("falso", "verdadeiro"));
+    }
+
+    @Test
+    void stringsRealsAndRuntimeErrors(){
+        String source = """
+                funcao divide(a: inteiro, b: inteiro): inteiro
+                inicio
+                  retorna a / b;
+                fim
+
+                funcao principal()
+                inicio
+                  s : string;
+                  x : real;
+                  s <- "v";
+                  x <- 1.5;
+                  escreve s + 1 + x + verdadeiro;
+                  escreve x * 2 igual 3;
+                  escreve -x;
+                  escreve divide(7, 2) % 2;
+                  escreve divide(1, 0);
+                  escreve "nao chega";
+                fim
+                """;
+        assertSameAsStackVm(source, lines("v11.5true", "verdadeiro", "-1.5", "1", "Divisao por zero"));
+    }
+}
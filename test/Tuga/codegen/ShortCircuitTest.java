@@ -0,0 +1,107 @@
+package Tuga.codegen;
+
+import org.junit.jupiter.api.Test;
+
+import static Tuga.vm.TugaPrograms.assertOutput;
+import static Tuga.vm.TugaPrograms.lines;
+
+/**
+ * Testes da avaliacao em curto-circuito de 'e' e 'ou', em condicoes e em expressoes.
+ */
+class ShortCircuitTest {
+    /** Funcao com efeito visivel, para saber se o operando direito foi avaliado */
+    private static final String TRACE = """
+            funcao lado(x: booleano): booleano
+            inicio
+              escreve "lado";
+              retorna x;
+            fim
+
+            """;
+
+    @Test
+    void rightOperandSkippedWhenLeftDecides(){
+        String source = TRACE + """
+                funcao principal()
+                inicio
+                  t, f : booleano;
+                  t <- verdadeiro;
+                  f <- falso;
+                  escreve f e lado(verdadeiro);
+                  escreve t ou lado(falso);
+                  escreve t e lado(falso);
+                  escreve f ou lado(verdadeiro);
+                fim
+                """;
+        assertOutput(source, lines("falso", "verdadeiro", "lado", "falso", "lado", "verdadeiro"));
+    }
+
+    @Test
+    void rightOperandErrorNotRaisedWhenSkipped(){
+        String source = """
+                funcao principal()
+                inicio
+                  d : inteiro;
+                  d <- 0;
+                  se (d diferente 0 e 10 / d > 1) escreve "grande";
+                  senao escreve "zero";
+                  se (d igual 0 ou 10 / d > 1) escreve "ok";
+                  escreve d diferente 0 e 10 / d > 1;
+                  escreve 10 / d > 1;
+                fim
+                """;
+        assertOutput(source, lines("zero", "ok", "falso", "Divisao por zero"));
+    }
+
+    @Test
+    void nestedConditionsInLoop(){
+        String source = TRACE + """
+                funcao principal()
+                inicio
+                  i, n : inteiro;
+                  i <- 0;
+                  n <- 0;
+                  enquanto (i < 6 e (i % 2 igual 0 ou nao (i igual 3)) ou falso) inicio
+                    se (nao (i > 1 e i < 4) ou i igual 2) n <- n + 1;
+                    i <- i + 1;
+                  fim
+                  escreve i;
+                  escreve n;
+                fim
+                """;
+        assertOutput(source, lines("3", "3"));
+    }
+
+    @Test
+    void withoutShortCircuitRightOperandAlwaysEvaluated(){
+        String source = TRACE + """
+                funcao principal()
+                inicio
+                  t, f : booleano;
+                  t <- verdadeiro;
+                  f <- falso;
+                  escreve f e lado(verdadeiro);
+                  escreve t ou lado(falso);
+                  se (f e lado(verdadeiro)) escreve "sim";
+                  senao escreve "nao";
+                  enquanto (t ou lado(falso)) t <- falso;
+                fim
+                """;
+        assertOutput(source, false, lines("lado", "falso", "lado", "verdadeiro", "lado", "nao", "lado", "lado"));
+    }
+
+    @Test
+    void withoutShortCircuitRightOperandErrorRaised(){
+        String source = """
+                funcao principal()
+                inicio
+                  d : inteiro;
+                  d <- 0;
+                  escreve "antes";
+                  se (d diferente 0 e 10 / d > 1) escreve "grande";
+                  escreve "depois";
+                fim
+                """;
+        assertOutput(source, false, lines("antes", "Divisao por zero"));
+    }
+}
@@ -0,0 +1,112 @@
+package Tuga.codegen;
+
+import Tuga.vm.TugaPrograms;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static Tuga.vm.TugaPrograms.assertOutput;
+import static Tuga.vm.TugaPrograms.count;
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Testes das chamadas em posicao de cauda: quais chamadas sao compiladas para tailcall,
+ * e recursao profunda, direta e mutua, nas duas maquinas virtuais.
+ */
+@Timeout(value = 30, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+class TailCallTest {
+    @Test
+    void onlyCallsInTailPositionWithSameTypeBecomeTailcalls(){
+        String source = """
+                funcao soma(n: inteiro, acc: inteiro): inteiro
+                inicio
+                  se (n igual 0) retorna acc;
+                  retorna soma(n - 1, acc + n);
+                fim
+
+                funcao fatorial(n: inteiro): inteiro
+                inicio
+                  se (n < 2) retorna 1;
+                  retorna n * fatorial(n - 1);
+                fim
+
+                funcao comoReal(n: inteiro): real
+                inicio
+                  retorna soma(n, 0);
+                fim
+
+                funcao principal()
+                inicio
+                  escreve soma(4, 0);
+                  escreve fatorial(5);
+                  escreve comoReal(3);
+                fim
+                """;
+        BytecodeGenerator program = TugaPrograms.compile(source, false);
+
+        assertEquals(1, count(program, "tailcall"));
+        assertOutput(source, lines("10", "120", "6.0"));
+    }
+
+    @Test
+    void deepSelfRecursion(){
+        String source = """
+                funcao soma(n: inteiro, acc: inteiro): inteiro
+                inicio
+                  se (n igual 0) retorna acc;
+                  retorna soma(n - 1, acc + 1);
+                fim
+
+                funcao principal()
+                inicio
+                  escreve soma(1000000, 0);
+                fim
+                """;
+        assertOutput(source, lines("1000000"));
+    }
+
+    @Test
+    void deepMutualRecursionWithDifferentArgumentCounts(){
+        String source = """
+                funcao par(n: inteiro): booleano
+                inicio
+                  se (n igual 0) retorna verdadeiro;
+                  retorna impar(n - 1, "x");
+                fim
+
+                funcao impar(n: inteiro, s: string): booleano
+                inicio
+                  local : inteiro;
+                  local <- n;
+                  se (local igual 0) retorna falso;
+                  retorna par(local - 1);
+                fim
+
+                funcao principal()
+                inicio
+                  escreve par(100001);
+                  escreve par(100000);
+                fim
+                """;
+        assertOutput(source, lines("falso", "verdadeiro"));
+    }
+
+    @Test
+    void everyTailCallInFunctionIsCompiled(){
+        String source = """
+                funcao f(n: inteiro): inteiro
+                inicio
+                  se (n > 10) retorna f(n - 2);
+                  se (n > 5) retorna f(n - 1);
+                  retorna n;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve f(20);
+                fim
+                """;
+        assertEquals(2, count(TugaPrograms.compile(source, false), "tailcall"));
+        assertOutput(source, lines("5"));
+    }
+}
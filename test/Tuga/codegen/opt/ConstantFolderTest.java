@@ -0,0 +1,70 @@
+package Tuga.codegen.opt;
+
+import Tuga.codegen.BytecodeGenerator;
+import Tuga.vm.TugaPrograms;
+import Tuga.vm.instruction.Instruction;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static Tuga.vm.TugaPrograms.assertOutput;
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testes da avaliacao de expressoes constantes em tempo de compilacao: o codigo gerado
+ * e o output do programa, que tem de ser o mesmo que sem a avaliacao.
+ */
+class ConstantFolderTest {
+    private static String program(String body){
+        return "funcao principal()\ninicio\n" + body + "\nfim\n";
+    }
+
+    private static List<String> asm(BytecodeGenerator program){
+        return Arrays.stream(program.getCode()).map(Instruction::toString).toList();
+    }
+
+    @Test
+    void arithmeticOnConstantsBecomesOneConstant(){
+        String source = program("escreve 2 * 3 + 4;");
+        List<String> asm = asm(TugaPrograms.compile(source, true));
+
+        assertTrue(asm.contains("iconst 10"), asm.toString());
+        assertFalse(asm.contains("imult") || asm.contains("iadd"), asm.toString());
+        assertOutput(source, lines("10"));
+    }
+
+    @Test
+    void integerArithmeticWrapsLikeTheVirtualMachine(){
+        assertOutput(program("escreve 2147483647 + 1;"), lines("-2147483648"));
+    }
+
+    @Test
+    void divisionByZeroIsLeftForRunTime(){
+        String source = program("escreve 1 / 0;\nescreve 2;");
+
+        assertTrue(asm(TugaPrograms.compile(source, true)).contains("idiv"));
+        assertOutput(source, lines("Divisao por zero"));
+    }
+
+    @Test
+    void realEqualityAndBooleanConcatenation(){
+        assertOutput(program("escreve 0.1 + 0.2 igual 0.3;\nescreve \"x: \" + (1 < 2);"),
+                lines("falso", "x: true"));
+    }
+
+    @Test
+    void constantConditionsDropDeadBranches(){
+        String source = program("""
+                se (1 > 2) escreve 1;
+                senao escreve 2;
+                enquanto (falso) escreve 3;
+                """);
+        List<String> asm = asm(TugaPrograms.compile(source, true));
+
+        assertFalse(asm.stream().anyMatch(inst -> inst.startsWith("jump")), asm.toString());
+        assertOutput(source, lines("2"));
+    }
+}
@@ -0,0 +1,101 @@
+package Tuga.codegen.opt;
+
+import Tuga.codegen.BytecodeGenerator;
+import Tuga.vm.TugaPrograms;
+import org.junit.jupiter.api.Test;
+
+import static Tuga.vm.TugaPrograms.assertRuns;
+import static Tuga.vm.TugaPrograms.count;
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testes da remocao de codigo inalcancavel, de funcoes que nunca sao chamadas e de
+ * atribuicoes a variaveis que nunca sao lidas.
+ */
+class DeadCodeEliminatorTest {
+    @Test
+    void uncalledFunctionsAndCodeAfterReturnAreRemoved(){
+        String source = """
+                funcao nunca(x: real)
+                inicio
+                  escreve x * 2.0;
+                fim
+
+                funcao primeiro(n: inteiro): inteiro
+                inicio
+                  retorna n;
+                  escreve "depois";
+                fim
+
+                funcao principal()
+                inicio
+                  escreve primeiro(7);
+                fim
+                """;
+        BytecodeGenerator program = TugaPrograms.compile(source, false);
+        DeadCodeEliminator eliminator = new DeadCodeEliminator(true);
+        program.eliminateDeadCode(eliminator);
+
+        assertTrue(eliminator.getUnreachableCount() > 0);
+        assertEquals(0, count(program, "dprint"));
+        assertEquals(0, count(program, "sprint"));
+        assertRuns(program, lines("7"));
+    }
+
+    @Test
+    void storesNeverReadAreRemoved(){
+        String source = """
+                funcao lado(): inteiro
+                inicio
+                  escreve "lado";
+                  retorna 1;
+                fim
+
+                funcao principal()
+                inicio
+                  x, y : inteiro;
+                  x <- 5;
+                  y <- lado();
+                  x <- 6;
+                  y <- 2;
+                  escreve x + y;
+                fim
+                """;
+        BytecodeGenerator program = TugaPrograms.compile(source, false);
+        DeadCodeEliminator eliminator = new DeadCodeEliminator(true);
+        program.eliminateDeadCode(eliminator);
+
+        // O valor de lado() nao e usado, mas a chamada continua a ser feita
+        assertEquals(2, eliminator.getDeadStoreCount());
+        assertEquals(2, count(program, "call"));
+        assertRuns(program, lines("lado", "8"));
+    }
+
+    @Test
+    void functionsInlinedEverywhereAreRemoved(){
+        String source = """
+                funcao dobro(x: inteiro): inteiro
+                inicio
+                  retorna x + x;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve dobro(2);
+                  escreve dobro(5);
+                fim
+                """;
+        BytecodeGenerator program = TugaPrograms.compile(source, false);
+        program.inline(new Inliner(20));
+        int inlinedSize = program.getCode().length;
+        DeadCodeEliminator eliminator = new DeadCodeEliminator(false);
+        program.eliminateDeadCode(eliminator);
+
+        assertTrue(program.getCode().length < inlinedSize);
+        assertEquals(0, eliminator.getDeadStoreCount());
+        assertEquals(1, count(program, "call"));
+        assertRuns(program, lines("4", "10"));
+    }
+}
@@ -0,0 +1,118 @@
+package Tuga.codegen.opt;
+
+import Tuga.codegen.BytecodeGenerator;
+import Tuga.vm.TugaPrograms;
+import org.junit.jupiter.api.Test;
+
+import static Tuga.vm.TugaPrograms.assertRuns;
+import static Tuga.vm.TugaPrograms.count;
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Testes da expansao de funcoes folha pequenas no local da chamada.
+ */
+class InlinerTest {
+    private static int inline(BytecodeGenerator program, int threshold){
+        Inliner inliner = new Inliner(threshold);
+        program.inline(inliner);
+        return inliner.getInlinedCount();
+    }
+
+    @Test
+    void smallLeafFunctionsAreExpanded(){
+        String source = """
+                funcao quadrado(x: inteiro): inteiro
+                inicio
+                  retorna x * x;
+                fim
+
+                funcao media(a: real, b: real): real
+                inicio
+                  m : real;
+                  m <- (a + b) / 2.0;
+                  retorna m;
+                fim
+
+                funcao mostra(s: string)
+                inicio
+                  escreve "> " + s;
+                fim
+
+                funcao principal()
+                inicio
+                  i : inteiro;
+                  i <- 3;
+                  escreve quadrado(i) + quadrado(i + 1);
+                  escreve media(1, 2.0);
+                  mostra("fim");
+                fim
+                """;
+        BytecodeGenerator program = TugaPrograms.compile(source, false);
+
+        assertEquals(4, inline(program, 20));
+        // So resta a chamada da funcao principal
+        assertEquals(1, count(program, "call"));
+        assertRuns(program, lines("25", "1.5", "> fim"));
+    }
+
+    @Test
+    void functionsThatCallOrExceedThresholdAreKept(){
+        String source = """
+                funcao fib(n: inteiro): inteiro
+                inicio
+                  se (n < 2) retorna n;
+                  retorna fib(n - 1) + fib(n - 2);
+                fim
+
+                funcao dobroFib(n: inteiro): inteiro
+                inicio
+                  retorna 2 * fib(n);
+                fim
+
+                funcao grande(n: inteiro): inteiro
+                inicio
+                  retorna n + 1 + n + 2 + n + 3 + n + 4 + n + 5 + n + 6;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve dobroFib(10);
+                  escreve grande(1);
+                fim
+                """;
+        BytecodeGenerator program = TugaPrograms.compile(source, false);
+        long before = count(program, "call");
+
+        assertEquals(0, inline(program, 10));
+        assertEquals(before, count(program, "call"));
+        assertRuns(program, lines("110", "27"));
+    }
+
+    @Test
+    void inlinedCodeInsideLoopsAndConditions(){
+        String source = """
+                funcao absoluto(x: inteiro): inteiro
+                inicio
+                  se (x < 0) retorna -x;
+                  retorna x;
+                fim
+
+                funcao principal()
+                inicio
+                  i, total : inteiro;
+                  i <- -3;
+                  total <- 0;
+                  enquanto (i <= 3) inicio
+                    se (absoluto(i) > 1) total <- total + absoluto(i);
+                    i <- i + 1;
+                  fim
+                  escreve total;
+                fim
+                """;
+        BytecodeGenerator program = TugaPrograms.compile(source, true);
+
+        assertEquals(1, count(program, "call"));
+        assertRuns(program, lines("10"));
+    }
+}
@@ -0,0 +1,115 @@
+package Tuga.codegen.opt;
+
+import Tuga.vm.TugaPrograms;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static Tuga.vm.TugaPrograms.assertOutput;
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testes do calculo das expressoes invariantes dos ciclos enquanto antes do ciclo.
+ */
+class LoopInvariantsTest {
+    /**
+     * Posicao do inicio do primeiro ciclo: o destino do primeiro salto para tras.
+     */
+    private static int loopStart(Instruction[] code){
+        for (int i = 0; i < code.length; i++){
+            if (code[i].getOpCode().targetArg() >= 0 && code[i] instanceof Instruction1Arg jump && jump.getArg() <= i){
+                return jump.getArg();
+            }
+        }
+        throw new AssertionError("programa sem ciclos");
+    }
+
+    /**
+     * Posicoes das instrucoes com o opcode dado, que tem de existir no codigo.
+     */
+    private static List<Integer> positions(Instruction[] code, String opCode){
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < code.length; i++){
+            if (code[i].getOpCode().name().equals(opCode)){
+                positions.add(i);
+            }
+        }
+        assertFalse(positions.isEmpty(), opCode);
+        return positions;
+    }
+
+    @Test
+    void invariantExpressionComputedBeforeLoop(){
+        String source = """
+                funcao conta(n: inteiro, m: inteiro): inteiro
+                inicio
+                  i, total : inteiro;
+                  i <- 0;
+                  total <- 0;
+                  enquanto (i < n * m) inicio
+                    total <- total + (n - m);
+                    i <- i + 1;
+                  fim
+                  retorna total;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve conta(3, 2);
+                fim
+                """;
+        Instruction[] code = TugaPrograms.compile(source, true).getCode();
+        int start = loopStart(code);
+
+        assertTrue(positions(code, "imult").stream().allMatch(pos -> pos < start));
+        assertTrue(positions(code, "isub").stream().allMatch(pos -> pos < start));
+        assertOutput(source, lines("6"));
+    }
+
+    @Test
+    void expressionsOverAssignedVariablesStayInLoop(){
+        String source = """
+                funcao principal()
+                inicio
+                  i, n : inteiro;
+                  i <- 0;
+                  n <- 1;
+                  enquanto (i < 4) inicio
+                    escreve n * 2;
+                    n <- n + 1;
+                    i <- i + 1;
+                  fim
+                fim
+                """;
+        Instruction[] code = TugaPrograms.compile(source, true).getCode();
+        int start = loopStart(code);
+
+        assertTrue(positions(code, "imult").stream().allMatch(pos -> pos > start));
+        assertOutput(source, lines("2", "4", "6", "8"));
+    }
+
+    @Test
+    void hoistingAddsNoErrorsWhenLoopDoesNotRun(){
+        // Divisao por uma variavel (que pode ser zero) e leitura de uma variavel sem valor
+        String source = """
+                funcao principal()
+                inicio
+                  i, d, semValor : inteiro;
+                  i <- 0;
+                  d <- 0;
+                  enquanto (i < 0) inicio
+                    escreve 10 / d;
+                    escreve semValor * 2;
+                    i <- i + 1;
+                  fim
+                  escreve "fim";
+                fim
+                """;
+        assertOutput(source, lines("fim"));
+    }
+}
@@ -0,0 +1,94 @@
+package Tuga.codegen.opt;
+
+import Tuga.vm.ConstantPool;
+import Tuga.vm.OpCode;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Testes das regras peephole predefinidas sobre codigo escrito a mao.
+ */
+class PeepholeOptimizerTest {
+    private final ConstantPool constantPool = new ConstantPool();
+
+    private static Instruction op(OpCode opCode){
+        return new Instruction(opCode);
+    }
+
+    private static Instruction op(OpCode opCode, int arg){
+        return new Instruction1Arg(opCode, arg);
+    }
+
+    private static List<String> asm(List<Instruction> code){
+        return code.stream().map(Instruction::toString).toList();
+    }
+
+    private int[] optimize(ArrayList<Instruction> code){
+        return PeepholeOptimizer.withDefaultRules().optimize(code, constantPool, List.of(0));
+    }
+
+    @Test
+    void integerConstantConvertedToRealBecomesRealConstant(){
+        ArrayList<Instruction> code = new ArrayList<>(List.of(
+                op(OpCode.iconst, 3), op(OpCode.itod), op(OpCode.dprint), op(OpCode.halt)));
+        optimize(code);
+
+        assertEquals(List.of("dconst 0", "dprint", "halt"), asm(code));
+        assertEquals(3.0, constantPool.getReal(0));
+    }
+
+    @Test
+    void storeFollowedByLoadReusesValue(){
+        ArrayList<Instruction> code = new ArrayList<>(List.of(
+                op(OpCode.iconst, 1), op(OpCode.gstore, 0), op(OpCode.gload, 0), op(OpCode.iprint), op(OpCode.halt)));
+        optimize(code);
+
+        assertEquals(List.of("iconst 1", "dup", "gstore 0", "iprint", "halt"), asm(code));
+    }
+
+    @Test
+    void constantFalseConditionRemovesUnreachableBranch(){
+        ArrayList<Instruction> code = new ArrayList<>(List.of(
+                op(OpCode.fconst), op(OpCode.jumpf, 4), op(OpCode.iconst, 1), op(OpCode.iprint), op(OpCode.halt)));
+        optimize(code);
+
+        assertEquals(List.of("halt"), asm(code));
+    }
+
+    @Test
+    void jumpToJumpIsThreadedAndAddressesRemapped(){
+        ArrayList<Instruction> code = new ArrayList<>(List.of(
+                op(OpCode.gload, 0),
+                op(OpCode.jumpf, 3),
+                op(OpCode.halt),
+                op(OpCode.jump, 5),
+                op(OpCode.halt),
+                op(OpCode.iconst, 2),
+                op(OpCode.iprint),
+                op(OpCode.halt)));
+        int[] remap = optimize(code);
+
+        assertEquals(List.of("gload 0", "jumpf 3", "halt", "iconst 2", "iprint", "halt"), asm(code));
+        assertEquals(3, remap[5]);
+    }
+
+    @Test
+    void removedInstructionsAreCountedPerRule(){
+        PeepholeOptimizer optimizer = PeepholeOptimizer.withDefaultRules();
+        ArrayList<Instruction> code = new ArrayList<>(List.of(
+                op(OpCode.iconst, 1), op(OpCode.itod), op(OpCode.dprint),
+                op(OpCode.iconst, 2), op(OpCode.itod), op(OpCode.dprint),
+                op(OpCode.pop, 0), op(OpCode.halt)));
+        optimizer.optimize(code, constantPool, List.of(0));
+
+        assertEquals(2, optimizer.getRemovedCounts().get("iconst-itod"));
+        assertEquals(1, optimizer.getRemovedCounts().get("pop-ret"));
+        assertEquals(0, optimizer.getRemovedCounts().get("jump-threading"));
+    }
+}
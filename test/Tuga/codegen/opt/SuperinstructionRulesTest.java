@@ -0,0 +1,103 @@
+package Tuga.codegen.opt;
+
+import Tuga.codegen.BytecodeGenerator;
+import Tuga.vm.ConstantPool;
+import Tuga.vm.OpCode;
+import Tuga.vm.PVirtualMachine;
+import Tuga.vm.SVirtualMachine;
+import Tuga.vm.TugaPrograms;
+import Tuga.vm.VirtualMachine;
+import Tuga.vm.VmOutput;
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static Tuga.vm.TugaPrograms.assertRuns;
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testes da selecao de superinstrucoes: as sequencias frequentes sao fundidas e o
+ * programa escreve o mesmo nas duas maquinas virtuais, em memoria e a partir de um
+ * ficheiro de bytecodes.
+ */
+class SuperinstructionRulesTest {
+    private static final String SOURCE = """
+            funcao soma(n: inteiro): inteiro
+            inicio
+              i, s : inteiro;
+              i <- 0;
+              s <- 0;
+              enquanto (i < 10) inicio
+                s <- s + i;
+                i <- i + 1;
+              fim
+              retorna s + n;
+            fim
+
+            funcao principal()
+            inicio
+              escreve soma(100);
+            fim
+            """;
+
+    private static Set<String> opCodes(BytecodeGenerator program){
+        return Arrays.stream(program.getCode())
+                .map(inst -> inst.getOpCode().name())
+                .collect(Collectors.toSet());
+    }
+
+    private static String runFromFile(VirtualMachine vm, BytecodeGenerator program) throws Exception {
+        Path bytecodeFile = Files.createTempFile("tuga", ".bc");
+        VmOutput output = VmOutput.inMemory();
+        vm.setOutput(output);
+        try {
+            program.saveBytecodes(bytecodeFile.toString());
+            vm.execute(bytecodeFile.toString());
+        }finally {
+            Files.deleteIfExists(bytecodeFile);
+        }
+        return output.contents();
+    }
+
+    @Test
+    void frequentSequencesAreFused(){
+        Set<String> opCodes = opCodes(TugaPrograms.compile(SOURCE, true));
+
+        assertTrue(opCodes.containsAll(Set.of("iinc", "lload_iconst_if_ige", "lload_lload_iadd")), opCodes.toString());
+        assertTrue(Arrays.stream(TugaPrograms.compile(SOURCE, false).getCode())
+                .map(Instruction::getOpCode)
+                .noneMatch(op -> op.nArgs() > 1));
+    }
+
+    @Test
+    void fusedProgramRunsOnBothMachines(){
+        assertRuns(TugaPrograms.compile(SOURCE, true), lines("145"));
+    }
+
+    @Test
+    void fusedInstructionsSurviveBytecodeFile() throws Exception {
+        BytecodeGenerator program = TugaPrograms.compile(SOURCE, true);
+
+        assertEquals(lines("145"), runFromFile(new SVirtualMachine(), program));
+        assertEquals(lines("145"), runFromFile(new PVirtualMachine(), program));
+    }
+
+    @Test
+    void printOfGlobalIsFused(){
+        ArrayList<Instruction> code = new ArrayList<>(List.of(
+                new Instruction1Arg(OpCode.gload, 0), new Instruction(OpCode.iprint), new Instruction(OpCode.halt)));
+        new PeepholeOptimizer(SuperinstructionRules.defaults()).optimize(code, new ConstantPool(), List.of(0));
+
+        assertEquals(List.of("gload_iprint 0", "halt"), code.stream().map(Instruction::toString).toList());
+    }
+}
@@ -0,0 +1,163 @@
+package Tuga.ir;
+
+import Tuga.ir.instruction.BinaryInstruction;
+import Tuga.ir.instruction.BranchInstruction;
+import Tuga.ir.instruction.CallInstruction;
+import Tuga.ir.instruction.IrInstruction;
+import Tuga.ir.instruction.JumpInstruction;
+import Tuga.ir.instruction.PrintInstruction;
+import Tuga.ir.instruction.ReturnInstruction;
+import Tuga.vm.TugaPrograms;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testes da construcao da representacao intermedia: o grafo de blocos basicos de cada
+ * funcao e as instrucoes de cada bloco.
+ */
+class IrBuilderTest {
+    private static IrFunction principal(String body, boolean foldConstants){
+        return TugaPrograms.buildIr("funcao principal()\ninicio\n" + body + "\nfim\n", foldConstants).getFunction("principal");
+    }
+
+    private static List<IrInstruction> allInstructions(IrFunction function){
+        return function.getBlocks().stream().flatMap(block -> block.getInstructions().stream()).toList();
+    }
+
+    @Test
+    void whileLoopHasHeaderBodyAndExit(){
+        IrFunction function = principal("""
+                i : inteiro;
+                i <- 0;
+                enquanto (i < 3) i <- i + 1;
+                escreve i;
+                """, false);
+        List<BasicBlock> blocks = function.getBlocks();
+        assertEquals(4, blocks.size(), function.toString());
+
+        BasicBlock entry = function.getEntry();
+        BasicBlock header = ((JumpInstruction) entry.getTerminator()).getTarget();
+        BranchInstruction test = assertInstanceOf(BranchInstruction.class, header.getTerminator());
+        BasicBlock body = test.getIfTrue();
+        BasicBlock exit = test.getIfFalse();
+
+        // O corpo volta ao teste, e o teste tem como predecessores a entrada e o corpo
+        assertEquals(List.of(header), body.getSuccessors());
+        Map<BasicBlock, List<BasicBlock>> predecessors = function.getPredecessors();
+        assertEquals(Set.of(entry, body), Set.copyOf(predecessors.get(header)));
+        assertEquals(List.of(header), predecessors.get(exit));
+
+        // A condicao e um temporario definido no proprio bloco de teste
+        Register condition = (Register) test.getCondition();
+        assertTrue(condition.isTemporary());
+        assertSame(condition, header.getInstructions().get(header.getInstructions().size() - 1).getDest());
+        assertInstanceOf(PrintInstruction.class, exit.getInstructions().get(0));
+        assertInstanceOf(ReturnInstruction.class, exit.getTerminator());
+    }
+
+    @Test
+    void ifElseJoinsBothBranches(){
+        IrFunction function = principal("""
+                x : inteiro;
+                x <- 5;
+                se (x > 2) escreve "grande";
+                senao escreve "pequeno";
+                escreve x;
+                """, false);
+        BranchInstruction branch = assertInstanceOf(BranchInstruction.class, function.getEntry().getTerminator());
+        BasicBlock join = ((JumpInstruction) branch.getIfTrue().getTerminator()).getTarget();
+
+        assertSame(join, ((JumpInstruction) branch.getIfFalse().getTerminator()).getTarget());
+        assertEquals(Set.of(branch.getIfTrue(), branch.getIfFalse()), Set.copyOf(function.getPredecessors().get(join)));
+        assertEquals(4, function.getBlocks().size(), function.toString());
+    }
+
+    @Test
+    void shortCircuitValueIsDefinedInBothBranches(){
+        IrFunction function = principal("""
+                i : inteiro;
+                b : booleano;
+                i <- 1;
+                b <- i > 0 e i < 10;
+                escreve b;
+                """, false);
+        BranchInstruction branch = assertInstanceOf(BranchInstruction.class, function.getEntry().getTerminator());
+
+        // O valor de 'e' e um temporario atribuido nos dois ramos e lido no bloco onde se juntam
+        Register value = branch.getIfTrue().getInstructions().get(branch.getIfTrue().getInstructions().size() - 1).getDest();
+        assertTrue(value.isTemporary());
+        assertEquals(2, function.countDefinitions()[value.getIndex()]);
+        assertSame(value, branch.getIfFalse().getInstructions().get(0).getDest());
+    }
+
+    @Test
+    void constantsAreFoldedOnlyWhenRequested(){
+        String body = "escreve 2 * 3 + 1;";
+        PrintInstruction folded = (PrintInstruction) allInstructions(principal(body, true)).get(0);
+
+        assertEquals(7, ((Constant) folded.getValue()).getValue());
+        assertEquals(2, allInstructions(principal(body, false)).stream().filter(inst -> inst instanceof BinaryInstruction).count());
+    }
+
+    @Test
+    void codeAfterReturnIsNotReachable(){
+        IrProgram program = TugaPrograms.buildIr("""
+                funcao f(): inteiro
+                inicio
+                  retorna 1;
+                  escreve "nunca";
+                fim
+
+                funcao principal()
+                inicio
+                  escreve f();
+                fim
+                """, false);
+        IrFunction function = program.getFunction("f");
+
+        assertEquals(1, function.getBlocks().size(), function.toString());
+        assertFalse(allInstructions(function).stream().anyMatch(inst -> inst instanceof PrintInstruction));
+    }
+
+    @Test
+    void callsAndParametersUseRegisters(){
+        IrProgram program = TugaPrograms.buildIr("""
+                funcao soma(n: inteiro, acc: inteiro): inteiro
+                inicio
+                  se (n igual 0) retorna acc;
+                  retorna soma(n - 1, acc + n);
+                fim
+
+                funcao principal()
+                inicio
+                  escreve soma(4, 0);
+                fim
+                """, false);
+
+        assertEquals("""
+                funcao soma(%n.0: inteiro, %acc.1: inteiro): inteiro
+                B0:
+                    %t2 = eq %n.0, 0
+                    branch %t2, B1, B2
+                B1:
+                    ret %acc.1
+                B2:
+                    %t3 = sub %n.0, 1
+                    %t4 = add %acc.1, %n.0
+                    %t5 = call soma(%t3, %t4)
+                    ret %t5
+                """, program.getFunction("soma").toString());
+        CallInstruction call = (CallInstruction) allInstructions(program.getFunction("principal")).get(0);
+        assertEquals("soma", call.getFunction());
+        assertEquals("[4, 0]", call.getOperands().toString());
+    }
+}
@@ -0,0 +1,85 @@
+package Tuga.vm;
+
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import org.junit.jupiter.api.Test;
+
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Testes do BytecodeVerifier sobre codigo escrito a mao, e do comportamento das maquinas
+ * virtuais com codigo que o verificador rejeita.
+ */
+class BytecodeVerifierTest {
+    private final ConstantPool constantPool = new ConstantPool();
+
+    @Test
+    void acceptsWellTypedCode(){
+        Instruction[] code = {
+                new Instruction1Arg(OpCode.iconst, 2),
+                new Instruction1Arg(OpCode.iconst, 3),
+                new Instruction(OpCode.iadd),
+                new Instruction(OpCode.iprint),
+                new Instruction(OpCode.halt)
+        };
+        assertDoesNotThrow(() -> new BytecodeVerifier(constantPool, code).verify());
+    }
+
+    @Test
+    void rejectsOperandOfWrongType(){
+        int half = constantPool.addReal(0.5);
+        Instruction[] code = {
+                new Instruction1Arg(OpCode.dconst, half),
+                new Instruction(OpCode.iprint),
+                new Instruction(OpCode.halt)
+        };
+        assertThrows(VerificationException.class, () -> new BytecodeVerifier(constantPool, code).verify());
+    }
+
+    @Test
+    void rejectsStackUnderflow(){
+        Instruction[] code = {
+                new Instruction1Arg(OpCode.iconst, 1),
+                new Instruction(OpCode.iadd),
+                new Instruction(OpCode.halt)
+        };
+        assertThrows(VerificationException.class, () -> new BytecodeVerifier(constantPool, code).verify());
+    }
+
+    @Test
+    void rejectsInconsistentStackDepthAtJoin(){
+        // Um dos caminhos chega a instrucao 4 com um valor a mais na pilha
+        Instruction[] code = {
+                new Instruction(OpCode.tconst),
+                new Instruction1Arg(OpCode.jumpf, 4),
+                new Instruction1Arg(OpCode.iconst, 1),
+                new Instruction1Arg(OpCode.jump, 4),
+                new Instruction(OpCode.halt)
+        };
+        assertThrows(VerificationException.class, () -> new BytecodeVerifier(constantPool, code).verify());
+    }
+
+    @Test
+    void invalidCodeOnPathNotTakenOnlyFailsVerification(){
+        // O ramo com o iprint de um real nunca e executado
+        int half = constantPool.addReal(0.5);
+        Instruction[] code = {
+                new Instruction(OpCode.tconst),
+                new Instruction1Arg(OpCode.jumpf, 5),
+                new Instruction1Arg(OpCode.iconst, 7),
+                new Instruction(OpCode.iprint),
+                new Instruction(OpCode.halt),
+                new Instruction1Arg(OpCode.dconst, half),
+                new Instruction(OpCode.iprint),
+                new Instruction(OpCode.halt)
+        };
+
+        PVirtualMachine verified = new PVirtualMachine();
+        assertThrows(VerificationException.class, () -> verified.load(constantPool, code));
+
+        assertEquals(lines("7"), TugaPrograms.run(new SVirtualMachine(), constantPool, code));
+    }
+}
@@ -0,0 +1,273 @@
+package Tuga.vm;
+
+import Tuga.ast.AstInterpreter;
+import Tuga.codegen.BytecodeGenerator;
+import Tuga.codegen.GeneratedCode;
+import Tuga.codegen.IrBytecodeGenerator;
+import Tuga.codegen.RegisterCodeGenerator;
+import Tuga.codegen.opt.DeadCodeEliminator;
+import Tuga.codegen.opt.Inliner;
+import Tuga.codegen.opt.PeepholeOptimizer;
+import Tuga.codegen.opt.SuperinstructionRules;
+import Tuga.ir.IrBuilder;
+import Tuga.ir.IrProgram;
+import Tuga.parser.TugaLexer;
+import Tuga.parser.TugaParser;
+import Tuga.semantic.TypeChecker;
+import Tuga.vm.instruction.Instruction;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compilacao e execucao de programas Tuga nos testes, com as mesmas fases do TugaCompileAndRun.
+ */
+public final class TugaPrograms {
+    private TugaPrograms(){
+    }
+
+    /**
+     * Compila um programa com o gerador de bytecodes a partir da arvore,
+     * avaliando 'e' e 'ou' em curto-circuito.
+     *
+     * @param source O codigo fonte
+     * @param optimize Se true, aplica as otimizacoes ligadas por omissao no TugaCompileAndRun
+     * @return O codigo gerado
+     */
+    public static BytecodeGenerator compile(String source, boolean optimize){
+        return compile(source, optimize, true);
+    }
+
+    /**
+     * Compila um programa com o gerador de bytecodes a partir da arvore.
+     *
+     * @param source O codigo fonte
+     * @param optimize Se true, aplica as otimizacoes ligadas por omissao no TugaCompileAndRun
+     * @param shortCircuit Se 'e' e 'ou' devem ser avaliados em curto-circuito
+     * @return O codigo gerado
+     */
+    public static BytecodeGenerator compile(String source, boolean optimize, boolean shortCircuit){
+        ParseTree tree = parse(source);
+        TypeChecker typeChecker = typeCheck(tree);
+
+        BytecodeGenerator generator = new BytecodeGenerator(typeChecker, typeChecker.getSymbolTable(), optimize, shortCircuit, optimize);
+        generator.visit(tree);
+        if (optimize){
+            optimize(generator);
+        }
+        return generator;
+    }
+
+    /**
+     * Constroi a representacao intermedia de um programa, com 'e' e 'ou' em curto-circuito.
+     *
+     * @param source O codigo fonte
+     * @param foldConstants Se as expressoes constantes devem ser avaliadas em tempo de compilacao
+     * @return A representacao intermedia
+     */
+    public static IrProgram buildIr(String source, boolean foldConstants){
+        ParseTree tree = parse(source);
+        return new IrBuilder(typeCheck(tree), foldConstants, true).build(tree);
+    }
+
+    /**
+     * Compila um programa com o gerador de bytecodes a partir da representacao intermedia,
+     * como o TugaCompileAndRun com useIr.
+     *
+     * @param source O codigo fonte
+     * @param optimize Se true, avalia as expressoes constantes e aplica as otimizacoes ligadas por omissao no TugaCompileAndRun
+     * @return O codigo gerado
+     */
+    public static IrBytecodeGenerator compileIr(String source, boolean optimize){
+        IrBytecodeGenerator generator = new IrBytecodeGenerator();
+        generator.generate(buildIr(source, optimize));
+        if (optimize){
+            optimize(generator);
+        }
+        return generator;
+    }
+
+    /**
+     * Compila um programa para a maquina virtual de registos, a partir da representacao intermedia.
+     *
+     * @param source O codigo fonte
+     * @param foldConstants Se as expressoes constantes devem ser avaliadas em tempo de compilacao
+     * @return O programa para a RVirtualMachine
+     */
+    public static RegisterProgram compileRegisters(String source, boolean foldConstants){
+        return new RegisterCodeGenerator().generate(buildIr(source, foldConstants));
+    }
+
+    /**
+     * Executa um programa com o AstInterpreter, com 'e' e 'ou' em curto-circuito,
+     * e devolve o que foi escrito. Um erro de execucao termina o programa depois
+     * de a mensagem ser escrita.
+     *
+     * @param source O codigo fonte
+     * @return O output do programa
+     */
+    public static String interpret(String source){
+        ParseTree tree = parse(source);
+        typeCheck(tree);
+
+        VmOutput output = VmOutput.inMemory();
+        try {
+            new AstInterpreter(tree, true, output).run();
+        }catch (RuntimeException e){
+            if (!"__VM_ERROR__".equals(e.getMessage())){
+                throw e;
+            }
+        }
+        return output.contents();
+    }
+
+    /**
+     * Aplica ao codigo gerado as otimizacoes ligadas por omissao no TugaCompileAndRun, pela mesma ordem.
+     */
+    private static void optimize(GeneratedCode code){
+        code.eliminateDeadCode(new DeadCodeEliminator(true));
+        code.inline(new Inliner(20));
+        code.eliminateDeadCode(new DeadCodeEliminator(false));
+        code.optimize(PeepholeOptimizer.withDefaultRules());
+        code.optimize(new PeepholeOptimizer(SuperinstructionRules.defaults()));
+    }
+
+    private static ParseTree parse(String source){
+        TugaParser parser = new TugaParser(new CommonTokenStream(new TugaLexer(CharStreams.fromString(source))));
+        ParseTree tree = parser.program();
+        if (parser.getNumberOfSyntaxErrors() > 0){
+            throw new IllegalArgumentException("programa com erros sintaticos");
+        }
+        return tree;
+    }
+
+    private static TypeChecker typeCheck(ParseTree tree){
+        TypeChecker typeChecker = new TypeChecker();
+        typeChecker.visit(tree);
+        if (typeChecker.hasErrors()){
+            throw new IllegalArgumentException("programa com erros de tipos: " + typeChecker.getErrors());
+        }
+        return typeChecker;
+    }
+
+    /**
+     * Executa um programa numa maquina virtual e devolve o que foi escrito.
+     * O codigo e passado diretamente a maquina, como no TugaCompileAndRun.
+     * Um erro de execucao termina o programa depois de a mensagem ser escrita.
+     *
+     * @param vm A maquina virtual
+     * @param program O programa compilado
+     * @return O output do programa
+     */
+    public static String run(VirtualMachine vm, GeneratedCode program){
+        return run(vm, program.getConstantPool(), program.getCode());
+    }
+
+    /**
+     * Executa um programa na maquina virtual de registos e devolve o que foi escrito.
+     *
+     * @param vm A maquina virtual
+     * @param program O programa compilado
+     * @return O output do programa
+     */
+    public static String run(RVirtualMachine vm, RegisterProgram program){
+        VmOutput output = VmOutput.inMemory();
+        vm.setOutput(output);
+        try {
+            vm.load(program);
+            vm.run();
+        }catch (RuntimeException e){
+            if (!"__VM_ERROR__".equals(e.getMessage())){
+                throw e;
+            }
+        }
+        return output.contents();
+    }
+
+    /**
+     * Executa codigo ja gerado numa maquina virtual e devolve o que foi escrito.
+     *
+     * @param vm A maquina virtual
+     * @param constantPool A pool de constantes do programa
+     * @param code As instrucoes do programa
+     * @return O output do programa
+     */
+    public static String run(VirtualMachine vm, ConstantPool constantPool, Instruction[] code){
+        VmOutput output = VmOutput.inMemory();
+        vm.setOutput(output);
+        try {
+            vm.load(constantPool, code);
+            vm.run();
+        }catch (RuntimeException e){
+            if (!"__VM_ERROR__".equals(e.getMessage())){
+                throw e;
+            }
+        }
+        return output.contents();
+    }
+
+    /**
+     * Verifica o output de um programa compilado sem e com otimizacoes,
+     * executado na SVirtualMachine e na PVirtualMachine.
+     *
+     * @param source O codigo fonte
+     * @param expected O output esperado
+     */
+    public static void assertOutput(String source, String expected){
+        assertOutput(source, true, expected);
+    }
+
+    /**
+     * Verifica o output de um programa compilado sem e com otimizacoes,
+     * executado na SVirtualMachine e na PVirtualMachine.
+     *
+     * @param source O codigo fonte
+     * @param shortCircuit Se 'e' e 'ou' devem ser avaliados em curto-circuito
+     * @param expected O output esperado
+     */
+    public static void assertOutput(String source, boolean shortCircuit, String expected){
+        for (boolean optimize : new boolean[]{false, true}){
+            assertRuns(compile(source, optimize, shortCircuit), expected);
+        }
+    }
+
+    /**
+     * Verifica o output de codigo ja gerado na SVirtualMachine e na PVirtualMachine.
+     *
+     * @param program O programa compilado
+     * @param expected O output esperado
+     */
+    public static void assertRuns(GeneratedCode program, String expected){
+        assertEquals(expected, run(new SVirtualMachine(), program), "SVirtualMachine");
+        assertEquals(expected, run(new PVirtualMachine(), program), "PVirtualMachine");
+    }
+
+    /**
+     * Conta as instrucoes de um programa com o opcode dado.
+     *
+     * @param program O programa compilado
+     * @param opCode O nome do opcode
+     * @return O numero de instrucoes com esse opcode
+     */
+    public static long count(GeneratedCode program, String opCode){
+        return Arrays.stream(program.getCode())
+                .map(Instruction::getOpCode)
+                .filter(op -> op.name().equals(opCode))
+                .count();
+    }
+
+    /**
+     * Junta linhas de output com o separador de linhas do sistema, como o escreve.
+     */
+    public static String lines(String... lines){
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines){
+            sb.append(line).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
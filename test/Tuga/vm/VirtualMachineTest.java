@@ -0,0 +1,427 @@
+package Tuga.vm;
+
+import Tuga.vm.instruction.Instruction;
+import Tuga.vm.instruction.Instruction1Arg;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static Tuga.vm.TugaPrograms.assertRuns;
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Executa os mesmos programas na SVirtualMachine e na PVirtualMachine, com e sem otimizacoes,
+ * com o codigo gerado a partir da arvore e da representacao intermedia, e no AstInterpreter,
+ * e compara o output de todos com o esperado. Um erro na geracao dos ciclos pode fazer um
+ * programa nunca terminar, pelo que cada teste tem um limite de tempo.
+ */
+@Timeout(value = 10, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+class VirtualMachineTest {
+    /** Variavel local de um bloco com um retorna condicional, seguido de outro retorna */
+    private static final String CONDITIONAL_RETURN_IN_BLOCK = """
+            funcao f(c: booleano): inteiro
+            inicio
+              se (c) inicio
+                x : inteiro;
+                x <- 1;
+                se (x > 0) retorna x;
+              fim
+              retorna 2;
+            fim
+
+            funcao principal()
+            inicio
+              escreve f(verdadeiro);
+              escreve f(falso);
+            fim
+            """;
+
+    private void assertOutput(String source, String expected, boolean optimize){
+        assertRuns(TugaPrograms.compile(source, optimize), expected);
+        assertRuns(TugaPrograms.compileIr(source, optimize), expected);
+        assertEquals(expected, TugaPrograms.interpret(source), "AstInterpreter");
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void conditionalReturnInBlockWithLocals(boolean optimize){
+        assertOutput(CONDITIONAL_RETURN_IN_BLOCK, lines("1", "2"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void instructionsAfterConditionalReturnInBlock(boolean optimize){
+        String source = """
+                funcao f(n: inteiro): inteiro
+                inicio
+                  inicio
+                    x : inteiro;
+                    x <- n * 2;
+                    se (x > 10) retorna x;
+                    escreve x;
+                  fim
+                  retorna 0;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve f(3);
+                  escreve f(8);
+                fim
+                """;
+        assertOutput(source, lines("6", "0", "16"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void returnOnEveryPathOfBlock(boolean optimize){
+        String source = """
+                funcao sinal(n: inteiro): string
+                inicio
+                  inicio
+                    zero : booleano;
+                    zero <- n igual 0;
+                    se (zero) retorna "zero";
+                    senao inicio
+                      s : string;
+                      s <- "nao zero";
+                      retorna s;
+                    fim
+                  fim
+                fim
+
+                funcao principal()
+                inicio
+                  escreve sinal(0);
+                  escreve sinal(5);
+                fim
+                """;
+        assertOutput(source, lines("zero", "nao zero"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void returnInsideLoopInBlock(boolean optimize){
+        String source = """
+                funcao primeiroMultiplo(n: inteiro, d: inteiro): inteiro
+                inicio
+                  inicio
+                    i : inteiro;
+                    i <- n;
+                    enquanto (i < n + d) inicio
+                      se (i % d igual 0) retorna i;
+                      i <- i + 1;
+                    fim
+                  fim
+                  retorna -1;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve primeiroMultiplo(10, 7);
+                  escreve primeiroMultiplo(14, 7);
+                  escreve primeiroMultiplo(1, 0 + 1);
+                fim
+                """;
+        assertOutput(source, lines("14", "14", "1"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void integerAssignedToRealVariable(boolean optimize){
+        String source = """
+                funcao metade(x: inteiro): real
+                inicio
+                  v : real;
+                  v <- (-(x) / 4);
+                  retorna v / 2.0;
+                fim
+
+                funcao principal()
+                inicio
+                  r : real;
+                  escreve metade(10);
+                  r <- 7;
+                  escreve r / 2.0;
+                fim
+                """;
+        assertOutput(source, lines("-1.0", "3.5"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void recursionAndStrings(boolean optimize){
+        String source = """
+                funcao fib(n: inteiro): inteiro
+                inicio
+                  se (n < 2) retorna n;
+                  retorna fib(n - 1) + fib(n - 2);
+                fim
+
+                funcao principal()
+                inicio
+                  i : inteiro;
+                  s : string;
+                  i <- 0;
+                  s <- "fib:";
+                  enquanto (i < 10) inicio
+                    s <- s + " " + fib(i);
+                    i <- i + 1;
+                  fim
+                  escreve s;
+                  escreve s igual "fib: 0 1 1 2 3 5 8 13 21 34";
+                  escreve 1.5 * 2;
+                fim
+                """;
+        assertOutput(source, lines("fib: 0 1 1 2 3 5 8 13 21 34", "verdadeiro", "3.0"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void runtimeErrorStopsProgram(boolean optimize){
+        String source = """
+                funcao divide(a: inteiro, b: inteiro): inteiro
+                inicio
+                  retorna a / b;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve divide(6, 3);
+                  escreve divide(1, 0);
+                  escreve 3;
+                fim
+                """;
+        assertOutput(source, lines("2", "Divisao por zero"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void mixedIntegerAndRealArithmetic(boolean optimize){
+        String source = """
+                funcao principal()
+                inicio
+                  i, j : inteiro;
+                  x : real;
+                  i <- 7;
+                  j <- 2;
+                  x <- 0.5;
+                  escreve i / j;
+                  escreve i / 2.0;
+                  escreve i % j + x;
+                  escreve x * i - j;
+                  escreve -i + -x;
+                  escreve i < x;
+                  escreve j igual 2.0;
+                  escreve x diferente 0;
+                  escreve "v" + i + x;
+                fim
+                """;
+        assertOutput(source, lines("3", "3.5", "1.5", "1.5", "-7.5", "falso", "verdadeiro", "verdadeiro", "v70.5"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void integerLocalAssignedToRealInLoop(boolean optimize){
+        String source = """
+                funcao media(a: real, b: real): real
+                inicio
+                  retorna (a + b) / 2;
+                fim
+
+                funcao principal()
+                inicio
+                  i : inteiro;
+                  r : real;
+                  i <- 0;
+                  r <- 0;
+                  enquanto (i < 4) inicio
+                    r <- r + i;
+                    i <- i + 1;
+                  fim
+                  escreve r;
+                  r <- i;
+                  escreve r;
+                  escreve media(i, 2);
+                  escreve media(r, 0.5);
+                fim
+                """;
+        assertOutput(source, lines("6.0", "4.0", "3.0", "2.25"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void moduloByZeroInsideLoop(boolean optimize){
+        String source = """
+                funcao principal()
+                inicio
+                  i : inteiro;
+                  i <- 3;
+                  enquanto (verdadeiro) inicio
+                    escreve 10 % i;
+                    i <- i - 1;
+                  fim
+                fim
+                """;
+        assertOutput(source, lines("1", "0", "0", "Modulo por zero"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void realDivisionByZeroInCallee(boolean optimize){
+        String source = """
+                funcao inverso(x: real): real
+                inicio
+                  retorna 1 / x;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve inverso(4);
+                  escreve inverso(0.0);
+                  escreve "nao chega";
+                fim
+                """;
+        assertOutput(source, lines("0.25", "Divisao por zero"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void readOfUnassignedVariable(boolean optimize){
+        String source = """
+                funcao principal()
+                inicio
+                  n : inteiro;
+                  escreve "antes";
+                  escreve n + 1;
+                fim
+                """;
+        assertOutput(source, lines("antes", "erro de runtime: tentativa de acesso a valor NULO"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void deepNonTailRecursion(boolean optimize){
+        String source = """
+                funcao soma(n: inteiro): inteiro
+                inicio
+                  se (n igual 0) retorna 0;
+                  retorna 1 + soma(n - 1);
+                fim
+
+                funcao principal()
+                inicio
+                  escreve soma(100000);
+                fim
+                """;
+        assertOutput(source, lines("100000"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void appendToOlderStringValue(boolean optimize){
+        String source = """
+                funcao principal()
+                inicio
+                  s, t, u : string;
+                  s <- "a" + 1;
+                  t <- s;
+                  s <- s + "x";
+                  u <- s;
+                  s <- s + "w";
+                  t <- t + "y";
+                  u <- u + "z";
+                  escreve s;
+                  escreve t;
+                  escreve u;
+                  t <- t + s;
+                  escreve t;
+                  escreve s;
+                fim
+                """;
+        assertOutput(source, lines("a1xw", "a1y", "a1xz", "a1ya1xw", "a1xw"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void stringAppendedToItself(boolean optimize){
+        String source = """
+                funcao principal()
+                inicio
+                  s, t : string;
+                  i : inteiro;
+                  s <- "ab" + "";
+                  i <- 0;
+                  enquanto (i < 3) inicio
+                    t <- s;
+                    s <- s + s;
+                    i <- i + 1;
+                  fim
+                  escreve s;
+                  escreve t;
+                  escreve s igual t + t;
+                fim
+                """;
+        assertOutput(source, lines("abababababababab", "abababab", "verdadeiro"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void concatenationInCalleeDoesNotChangeCallerValue(boolean optimize){
+        String source = """
+                funcao mais(s: string, n: inteiro): string
+                inicio
+                  retorna s + n + 0.5;
+                fim
+
+                funcao principal()
+                inicio
+                  s, t : string;
+                  s <- "v" + 1;
+                  t <- mais(s, 2);
+                  s <- s + "!";
+                  escreve mais(t, 3);
+                  escreve t;
+                  escreve s;
+                fim
+                """;
+        assertOutput(source, lines("v120.530.5", "v120.5", "v1!"), optimize);
+    }
+
+    /**
+     * Codigo em que o sconcat a seguir a um itos ou dtos e tambem o destino de um salto,
+     * vindo de um caminho em que o operando da direita ja e uma string.
+     */
+    @Test
+    void jumpToSconcatAfterFusedConversion(){
+        for (OpCode conversion : new OpCode[]{OpCode.itos, OpCode.dtos}){
+            for (boolean fallThrough : new boolean[]{false, true}){
+                ConstantPool constantPool = new ConstantPool();
+                int prefix = constantPool.addString("n=");
+                int text = constantPool.addString("salto");
+                Instruction number = conversion == OpCode.itos
+                        ? new Instruction1Arg(OpCode.iconst, 5)
+                        : new Instruction1Arg(OpCode.dconst, constantPool.addReal(2.5));
+                Instruction[] code = {
+                        new Instruction1Arg(OpCode.sconst, prefix),
+                        new Instruction(fallThrough ? OpCode.tconst : OpCode.fconst),
+                        new Instruction1Arg(OpCode.jumpf, 8),
+                        number,
+                        new Instruction(conversion),
+                        new Instruction(OpCode.sconcat),
+                        new Instruction(OpCode.sprint),
+                        new Instruction(OpCode.halt),
+                        new Instruction1Arg(OpCode.sconst, text),
+                        new Instruction1Arg(OpCode.jump, 5)
+                };
+                String expected = lines(fallThrough ? (conversion == OpCode.itos ? "n=5" : "n=2.5") : "n=salto");
+
+                String name = conversion + (fallThrough ? " seguido de sconcat" : " com salto para o sconcat");
+                assertEquals(expected, TugaPrograms.run(new SVirtualMachine(), constantPool, code), "SVirtualMachine, " + name);
+                assertEquals(expected, TugaPrograms.run(new PVirtualMachine(), constantPool, code), "PVirtualMachine, " + name);
+            }
+        }
+    }
+}
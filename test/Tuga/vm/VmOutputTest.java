@@ -0,0 +1,221 @@
+package Tuga.vm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Testes do output do escreve: o texto tem de ser igual ao de PrintStream.println e as
+ * escritas no destino tem de seguir a politica de flush.
+ */
+class VmOutputTest {
+    private static final String SEPARATOR = System.lineSeparator();
+
+    /**
+     * Destino que guarda cada escrita em separado.
+     */
+    private static final class RecordingSink implements VmOutput.Sink {
+        private final List<byte[]> writes = new ArrayList<>();
+
+        @Override
+        public void write(byte[] bytes, int offset, int length){
+            byte[] copy = new byte[length];
+            System.arraycopy(bytes, offset, copy, 0, length);
+            writes.add(copy);
+        }
+
+        List<String> texts(){
+            return writes.stream().map(bytes -> new String(bytes, StandardCharsets.UTF_8)).toList();
+        }
+    }
+
+    private static String printed(double... values){
+        VmOutput output = VmOutput.inMemory();
+        for (double value : values){
+            output.println(value);
+        }
+        return output.contents();
+    }
+
+    private static String expected(double... values){
+        StringBuilder sb = new StringBuilder();
+        for (double value : values){
+            sb.append(value).append(SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    private static void assertSameAsDoubleToString(double... values){
+        double[] withNegatives = new double[values.length * 2];
+        for (int i = 0; i < values.length; i++){
+            withNegatives[2 * i] = values[i];
+            withNegatives[2 * i + 1] = -values[i];
+        }
+        assertEquals(expected(withNegatives), printed(withNegatives));
+    }
+
+    @Test
+    void realsAtFormatBoundariesMatchDoubleToString(){
+        assertSameAsDoubleToString(
+                1e-3, Math.nextDown(1e-3), Math.nextUp(1e-3), 0.00123,
+                1e7, Math.nextDown(1e7), 9999999.5, 9999999.999999998,
+                0.0, 1.0, 0.5, 100.0, 1e6 + 0.25);
+        assertEquals("-0.0" + SEPARATOR, printed(-0.0));
+    }
+
+    @Test
+    void realsWithManyFractionDigitsMatchDoubleToString(){
+        assertSameAsDoubleToString(
+                1.123456789, 0.123456789, 1234.123456789, 1.1234567891, 0.0012345678912,
+                0.1 + 0.2, 1.0 / 3, 2.0 / 3, 123456.789012345, 0.009999999999999998);
+    }
+
+    @Test
+    void specialRealsMatchDoubleToString(){
+        assertSameAsDoubleToString(Double.MIN_VALUE, Double.MAX_VALUE, Double.MIN_NORMAL, Double.POSITIVE_INFINITY, 1e-4, 1e20);
+        assertEquals("NaN" + SEPARATOR, printed(Double.NaN));
+    }
+
+    @Test
+    void randomRealsMatchDoubleToString(){
+        Random random = new Random(42);
+        double[] values = new double[200_000];
+        for (int i = 0; i < values.length; i++){
+            values[i] = switch (i % 4){
+                // Decimais curtos, que usam o formatador proprio
+                case 0 -> Math.round(random.nextDouble() * 1e6) / 1000.0;
+                case 1 -> (random.nextInt(20_000_000) - 10_000_000) / Math.pow(10, random.nextInt(10));
+                // Reais quaisquer no intervalo sem notacao cientifica, e fora dele
+                case 2 -> Math.pow(10, random.nextDouble() * 10 - 3) * (random.nextBoolean() ? 1 : -1);
+                default -> Double.longBitsToDouble(random.nextLong());
+            };
+        }
+        assertEquals(expected(values), printed(values));
+    }
+
+    @Test
+    void integersMatchToString(){
+        VmOutput output = VmOutput.inMemory();
+        int[] values = {0, 7, -1, 10, -10, 999_999_999, 1_000_000_000, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        StringBuilder expected = new StringBuilder();
+        for (int value : values){
+            output.println(value);
+            expected.append(value).append(SEPARATOR);
+        }
+        assertEquals(expected.toString(), output.contents());
+    }
+
+    @Test
+    void onHaltWritesOnlyOnFlush(){
+        RecordingSink sink = new RecordingSink();
+        VmOutput output = new VmOutput(sink, StandardCharsets.UTF_8, VmOutput.FlushPolicy.ON_HALT, 16);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++){
+            output.println(i);
+            output.println("linha " + i);
+            expected.append(i).append(SEPARATOR).append("linha ").append(i).append(SEPARATOR);
+        }
+        // Nem as strings maiores que o buffer sao escritas antes do fim
+        output.println("x".repeat(100));
+        expected.append("x".repeat(100)).append(SEPARATOR);
+        assertEquals(0, sink.writes.size());
+
+        output.flush();
+        assertEquals(List.of(expected.toString()), sink.texts());
+    }
+
+    @Test
+    void thresholdWritesWhenBufferIsFull(){
+        RecordingSink sink = new RecordingSink();
+        int threshold = 64;
+        VmOutput output = new VmOutput(sink, StandardCharsets.UTF_8, VmOutput.FlushPolicy.THRESHOLD, threshold);
+        String line = "abcdefghi";
+        int lineLength = line.length() + SEPARATOR.length();
+        int linesPerWrite = (threshold + lineLength - 1) / lineLength;
+        for (int i = 0; i < 100; i++){
+            output.println(line);
+        }
+
+        assertEquals(100 / linesPerWrite, sink.writes.size());
+        for (byte[] write : sink.writes){
+            assertEquals(linesPerWrite * lineLength, write.length);
+        }
+        output.flush();
+        assertEquals(lines(line).repeat(100), String.join("", sink.texts()));
+    }
+
+    @Test
+    void lineWritesEveryLine(){
+        RecordingSink sink = new RecordingSink();
+        VmOutput output = new VmOutput(sink, StandardCharsets.UTF_8, VmOutput.FlushPolicy.LINE, VmOutput.DEFAULT_THRESHOLD);
+        output.println(1);
+        output.println(2.5);
+        output.println("tres");
+
+        assertEquals(List.of(lines("1"), lines("2.5"), lines("tres")), sink.texts());
+    }
+
+    @Test
+    void stringsLargerThanBufferAreWrittenDirectly(){
+        RecordingSink sink = new RecordingSink();
+        VmOutput output = new VmOutput(sink, StandardCharsets.UTF_8, VmOutput.FlushPolicy.THRESHOLD, 16);
+        String large = "y".repeat(40);
+        String largeNonAscii = "ç".repeat(40);
+        output.println("ab");
+        output.println(large);
+        output.println(largeNonAscii);
+
+        // O que estava no buffer e escrito antes da string, e a string numa unica escrita
+        assertEquals(List.of(lines("ab"), large, SEPARATOR, largeNonAscii), sink.texts());
+        output.flush();
+        assertEquals(lines("ab", large, largeNonAscii), String.join("", sink.texts()));
+    }
+
+    @Test
+    void nonAsciiTextMatchesPrintStreamInEachCharset(){
+        for (Charset charset : List.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, Charset.forName("windows-1252"),
+                StandardCharsets.UTF_16BE)){
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            VmOutput output = VmOutput.of(actual, charset, VmOutput.FlushPolicy.THRESHOLD, 8);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            PrintStream print = new PrintStream(expected, true, charset);
+
+            for (String text : List.of("ascii", "ação é €", "não", "日本", "")){
+                output.println(text);
+                print.println(text);
+            }
+            output.println(-42);
+            print.println(-42);
+            output.println(3.25);
+            print.println(3.25);
+            output.flush();
+
+            assertArrayEquals(expected.toByteArray(), actual.toByteArray(), charset.name());
+        }
+    }
+
+    @Test
+    void writerSinkDecodesCompleteValues(){
+        StringWriter writer = new StringWriter();
+        VmOutput output = VmOutput.of(writer, VmOutput.FlushPolicy.THRESHOLD, 4);
+        output.println("olá");
+        output.println("ç".repeat(10));
+        output.println(1.5);
+        output.flush();
+
+        assertEquals(lines("olá", "ç".repeat(10), "1.5"), writer.toString());
+        assertTrue(writer.toString().indexOf('\uFFFD') < 0);
+    }
+}
@@ -0,0 +1,109 @@
+package Tuga.vm.jit;
+
+import Tuga.codegen.BytecodeGenerator;
+import Tuga.vm.TugaPrograms;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compila programas com o AotCompiler e executa a classe gerada dentro da JVM dos testes,
+ * atraves do metodo execute, que devolve o codigo de saida em vez de terminar a JVM.
+ */
+@Timeout(value = 10, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+class AotCompilerTest {
+    private static final String CLASS_NAME = "TugaProgram";
+
+    /** Resultado de uma execucao da classe gerada */
+    private record Result(int status, String output) {
+    }
+
+    /**
+     * Carrega uma classe a partir dos seus bytes, num class loader proprio.
+     */
+    private static final class ProgramLoader extends ClassLoader {
+        private final byte[] bytes;
+
+        ProgramLoader(byte[] bytes){
+            super(AotCompilerTest.class.getClassLoader());
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (!name.equals(CLASS_NAME)){
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private Result execute(String source) throws Exception {
+        BytecodeGenerator program = TugaPrograms.compile(source, true);
+        byte[] bytes = new AotCompiler(program.getConstantPool(), program.getCode()).compile(CLASS_NAME);
+        Class<?> programClass = new ProgramLoader(bytes).loadClass(CLASS_NAME);
+
+        PrintStream savedOut = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+        try {
+            int status = (int) programClass.getMethod("execute").invoke(null);
+            return new Result(status, captured.toString(StandardCharsets.UTF_8));
+        }finally {
+            System.setOut(savedOut);
+        }
+    }
+
+    @Test
+    void haltReturnsStatusZero() throws Exception {
+        Result result = execute("""
+                funcao f(c: booleano): inteiro
+                inicio
+                  se (c) inicio
+                    x : inteiro;
+                    x <- 1;
+                    se (x > 0) retorna x;
+                  fim
+                  retorna 2;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve f(verdadeiro);
+                  escreve f(falso);
+                fim
+                """);
+        assertEquals(new Result(0, lines("1", "2")), result);
+    }
+
+    @Test
+    void runtimeErrorReturnsStatusOneWithoutExiting() throws Exception {
+        String source = """
+                funcao metade(x: inteiro): real
+                inicio
+                  v : real;
+                  v <- (-(x) / 4);
+                  retorna v / 2.0;
+                fim
+
+                funcao divide(a: inteiro, b: inteiro): inteiro
+                inicio
+                  retorna a / b;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve metade(10);
+                  escreve divide(1, 0);
+                  escreve 3;
+                fim
+                """;
+        assertEquals(new Result(1, lines("-1.0", "Divisao por zero")), execute(source));
+    }
+}
@@ -0,0 +1,96 @@
+package Tuga.vm.jit;
+
+import Tuga.codegen.BytecodeGenerator;
+import Tuga.vm.PVirtualMachine;
+import Tuga.vm.SVirtualMachine;
+import Tuga.vm.TugaPrograms;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static Tuga.vm.TugaPrograms.lines;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Executa programas na PVirtualMachine com o JIT ligado a partir da primeira chamada,
+ * para que as funcoes corram no codigo compilado, e compara com a SVirtualMachine.
+ */
+@Timeout(value = 10, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+class JitTest {
+    private void assertOutput(String source, String expected, boolean optimize){
+        BytecodeGenerator program = TugaPrograms.compile(source, optimize);
+        assertEquals(expected, TugaPrograms.run(new SVirtualMachine(), program), "SVirtualMachine");
+        assertEquals(expected, TugaPrograms.run(new PVirtualMachine(false, 1), program), "PVirtualMachine com JIT");
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void conditionalReturnInBlockWithLocals(boolean optimize){
+        String source = """
+                funcao f(c: booleano): inteiro
+                inicio
+                  se (c) inicio
+                    x : inteiro;
+                    x <- 1;
+                    se (x > 0) retorna x;
+                  fim
+                  retorna 2;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve f(verdadeiro);
+                  escreve f(falso);
+                  escreve f(verdadeiro);
+                fim
+                """;
+        assertOutput(source, lines("1", "2", "1"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void conditionalReturnInBlockInsideHotLoop(boolean optimize){
+        // A funcao fica quente a meio do ciclo e continua no codigo compilado
+        String source = """
+                funcao procura(n: inteiro): inteiro
+                inicio
+                  i : inteiro;
+                  i <- 0;
+                  enquanto (i < n) inicio
+                    quadrado : inteiro;
+                    quadrado <- i * i;
+                    se (quadrado > 50) retorna i;
+                    i <- i + 1;
+                  fim
+                  retorna -1;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve procura(100);
+                  escreve procura(3);
+                fim
+                """;
+        assertOutput(source, lines("8", "-1"), optimize);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void integerAssignedToRealVariable(boolean optimize){
+        String source = """
+                funcao metade(x: inteiro): real
+                inicio
+                  v : real;
+                  v <- (-(x) / 4);
+                  retorna v / 2.0;
+                fim
+
+                funcao principal()
+                inicio
+                  escreve metade(10);
+                  escreve metade(-9);
+                fim
+                """;
+        assertOutput(source, lines("-1.0", "1.0"), optimize);
+    }
+}